@@ -8,7 +8,7 @@
  Reference Implementation and Description can be found at: https://blake2.net/      
  Internet Draft: https://tools.ietf.org/html/draft-saarinen-blake2-02
 
- This implementation does not support the Tree Hashing Mode. 
+ The Tree Hashing Mode is provided by Blake2bpDigest.
  
    For unkeyed hashing, developers adapting BLAKE2 to ASN.1 - based
    message formats SHOULD use the OID tree at x = 1.3.6.1.4.1.1722.12.2.
@@ -84,13 +84,15 @@
     private byte[] key = null;
 
     // Tree hashing parameters:
-    // Because this class does not implement the Tree Hashing Mode,
-    // these parameters can be treated as constants (see init() function)
-	/*
-	 * private int fanout = 1; // 0-255 private int depth = 1; // 1 - 255
-	 * private int leafLength= 0; private long nodeOffset = 0L; private int
-	 * nodeDepth = 0; private int innerHashLength = 0;
-	 */
+    // The Tree Hashing Mode itself is implemented by Blake2bpDigest, which
+    // uses these to set up its leaf and root nodes
+    private int fanout = 1; // 0-255
+    private int depth = 1; // 1 - 255
+    private int leafLength = 0;
+    private long nodeOffset = 0L;
+    private int nodeDepth = 0;
+    private int innerHashLength = 0;
+    private boolean lastNode = false;
 
     // whenever this buffer overflows, it will be processed
     // in the compress() function.
@@ -108,8 +110,7 @@
     private long t1 = 0L; // counter: Length up to 2^128 are supported
     private long f0 = 0L; // finalization flag, for last block: ~0L
 
-    // For Tree Hashing Mode, not used here:
-    // private long f1 = 0L; // finalization flag, for last node: ~0L
+    private long f1 = 0L; // finalization flag, for last node: ~0L
 
     public Blake2bDigest()
     {
@@ -129,6 +130,13 @@ public Blake2bDigest(Blake2bDigest digest)
         this.t0 = digest.t0;
         this.t1 = digest.t1;
         this.f0 = digest.f0;
+        this.fanout = digest.fanout;
+        this.depth = digest.depth;
+        this.leafLength = digest.leafLength;
+        this.nodeOffset = digest.nodeOffset;
+        this.nodeDepth = digest.nodeDepth;
+        this.innerHashLength = digest.innerHashLength;
+        this.lastNode = digest.lastNode;
     }
 
     /**
@@ -240,6 +248,28 @@ public Blake2bDigest(byte[] key, int digestLength, byte[] salt, byte[] personali
         init();
     }
 
+    // Tree hashing node parameters, the key is only absorbed if non-null
+    Blake2bDigest(byte[] key, int keyLength, int fanout, int depth, long nodeOffset, int nodeDepth,
+        int innerHashLength, boolean lastNode)
+    {
+        buffer = new byte[BLOCK_LENGTH_BYTES];
+        digestLength = 64;
+        this.keyLength = keyLength;
+        this.fanout = fanout;
+        this.depth = depth;
+        this.nodeOffset = nodeOffset;
+        this.nodeDepth = nodeDepth;
+        this.innerHashLength = innerHashLength;
+        this.lastNode = lastNode;
+        if (key != null)
+        {
+            this.key = Arrays.clone(key);
+            System.arraycopy(key, 0, buffer, 0, key.length);
+            bufferPos = BLOCK_LENGTH_BYTES; // zero padding
+        }
+        init();
+    }
+
     // initialize chainValue
     private void init()
     {
@@ -248,14 +278,10 @@ private void init()
             chainValue = new long[8];
 
             chainValue[0] = blake2b_IV[0]
-                ^ (digestLength | (keyLength << 8) | 0x1010000);
-            // 0x1010000 = ((fanout << 16) | (depth << 24) | (leafLength <<
-            // 32));
-            // with fanout = 1; depth = 0; leafLength = 0;
-            chainValue[1] = blake2b_IV[1];// ^ nodeOffset; with nodeOffset = 0;
-            chainValue[2] = blake2b_IV[2];// ^ ( nodeDepth | (innerHashLength <<
-            // 8) );
-            // with nodeDepth = 0; innerHashLength = 0;
+                ^ (digestLength | (keyLength << 8) | (fanout << 16) | ((long)depth << 24)
+                    | ((leafLength & 0xFFFFFFFFL) << 32));
+            chainValue[1] = blake2b_IV[1] ^ nodeOffset;
+            chainValue[2] = blake2b_IV[2] ^ (nodeDepth | (innerHashLength << 8));
 
             chainValue[3] = blake2b_IV[3];
 
@@ -285,7 +311,7 @@ private void initializeInternalState()
         internalState[12] = t0 ^ blake2b_IV[4];
         internalState[13] = t1 ^ blake2b_IV[5];
         internalState[14] = f0 ^ blake2b_IV[6];
-        internalState[15] = blake2b_IV[7];// ^ f1 with f1 = 0
+        internalState[15] = f1 ^ blake2b_IV[7];
     }
 
     /**
@@ -394,6 +420,10 @@ public int doFinal(byte[] out, int outOffset)
     {
 
         f0 = 0xFFFFFFFFFFFFFFFFL;
+        if (lastNode)
+        {
+            f1 = 0xFFFFFFFFFFFFFFFFL;
+        }
         t0 += bufferPos;
         if (bufferPos > 0 && t0 == 0)
         {
@@ -433,6 +463,7 @@ public void reset()
     {
         bufferPos = 0;
         f0 = 0L;
+        f1 = 0L;
         t0 = 0L;
         t1 = 0L;
         chainValue = null;
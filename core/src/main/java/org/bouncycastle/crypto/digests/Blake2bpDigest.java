@@ -0,0 +1,193 @@
+package org.bouncycastle.crypto.digests;
+
+import java.util.concurrent.ExecutorService;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.util.ParallelTasks;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Implementation of BLAKE2bp, the 4-way parallel tree hashing mode of BLAKE2b.
+ * <p>
+ * The input is split into 128 byte blocks which are dealt out round-robin to four BLAKE2b leaf
+ * nodes; the root node hashes the concatenated leaf digests. As the leaves are independent, large
+ * updates can have them computed concurrently on a caller supplied executor.
+ * <p>
+ * BLAKE2bp produces 64 byte digests, which differ from those of BLAKE2b.
+ */
+public class Blake2bpDigest
+    implements ExtendedDigest
+{
+    private static final int PARALLELISM_DEGREE = 4;
+    private static final int BLOCK_LENGTH_BYTES = 128;
+    private static final int DIGEST_LENGTH = 64;
+    private static final int STRIPE_LENGTH = PARALLELISM_DEGREE * BLOCK_LENGTH_BYTES;
+
+    // minimum number of whole stripes in an update before the leaves are run on the executor
+    private static final int PARALLEL_THRESHOLD_STRIPES = 64;
+
+    private final Blake2bDigest[] leaves = new Blake2bDigest[PARALLELISM_DEGREE];
+    private final Blake2bDigest root;
+    private final ExecutorService executor;
+
+    private long position = 0L;
+
+    /**
+     * BLAKE2bp for hashing.
+     */
+    public Blake2bpDigest()
+    {
+        this(null, null);
+    }
+
+    /**
+     * BLAKE2bp for authentication ("Prefix-MAC mode").
+     *
+     * @param key a key up to 64 bytes or null
+     */
+    public Blake2bpDigest(byte[] key)
+    {
+        this(key, null);
+    }
+
+    /**
+     * BLAKE2bp with an executor the leaves of large updates are hashed on.
+     *
+     * @param key      a key up to 64 bytes or null
+     * @param executor executor to hash the leaves on, or null to hash them on the calling thread.
+     */
+    public Blake2bpDigest(byte[] key, ExecutorService executor)
+    {
+        if (key != null && key.length == 0)
+        {
+            key = null;
+        }
+        if (key != null && key.length > 64)
+        {
+            throw new IllegalArgumentException("Keys > 64 are not supported");
+        }
+
+        int keyLength = (key == null) ? 0 : key.length;
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i] = new Blake2bDigest(key, keyLength, PARALLELISM_DEGREE, 2, i, 0, DIGEST_LENGTH,
+                i == PARALLELISM_DEGREE - 1);
+        }
+        this.root = new Blake2bDigest(null, keyLength, PARALLELISM_DEGREE, 2, 0, 1, DIGEST_LENGTH, true);
+        this.executor = executor;
+    }
+
+    public Blake2bpDigest(Blake2bpDigest digest)
+    {
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i] = new Blake2bDigest(digest.leaves[i]);
+        }
+        this.root = new Blake2bDigest(digest.root);
+        this.executor = digest.executor;
+        this.position = digest.position;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "BLAKE2bp";
+    }
+
+    public int getDigestSize()
+    {
+        return DIGEST_LENGTH;
+    }
+
+    public int getByteLength()
+    {
+        return BLOCK_LENGTH_BYTES;
+    }
+
+    public void update(byte b)
+    {
+        leaves[(int)((position / BLOCK_LENGTH_BYTES) % PARALLELISM_DEGREE)].update(b);
+        ++position;
+    }
+
+    public void update(byte[] in, int inOff, int len)
+    {
+        if (executor != null && len >= (PARALLEL_THRESHOLD_STRIPES + 1) * STRIPE_LENGTH)
+        {
+            int head = (int)((STRIPE_LENGTH - (position % STRIPE_LENGTH)) % STRIPE_LENGTH);
+            updateSequential(in, inOff, head);
+            inOff += head;
+            len -= head;
+
+            int stripes = len / STRIPE_LENGTH;
+            updateParallel(in, inOff, stripes);
+            inOff += stripes * STRIPE_LENGTH;
+            len -= stripes * STRIPE_LENGTH;
+        }
+
+        updateSequential(in, inOff, len);
+    }
+
+    public int doFinal(byte[] out, int outOff)
+    {
+        byte[] hash = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i].doFinal(hash, 0);
+            root.update(hash, 0, DIGEST_LENGTH);
+        }
+        Arrays.fill(hash, (byte)0);
+
+        root.doFinal(out, outOff);
+        position = 0L;
+
+        return DIGEST_LENGTH;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i].reset();
+        }
+        root.reset();
+        position = 0L;
+    }
+
+    private void updateSequential(byte[] in, int inOff, int len)
+    {
+        while (len > 0)
+        {
+            int blockOff = (int)(position % BLOCK_LENGTH_BYTES);
+            int count = Math.min(len, BLOCK_LENGTH_BYTES - blockOff);
+
+            leaves[(int)((position / BLOCK_LENGTH_BYTES) % PARALLELISM_DEGREE)].update(in, inOff, count);
+
+            position += count;
+            inOff += count;
+            len -= count;
+        }
+    }
+
+    private void updateParallel(final byte[] in, final int inOff, final int stripes)
+    {
+        Runnable[] tasks = new Runnable[PARALLELISM_DEGREE];
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            final Blake2bDigest leaf = leaves[i];
+            final int leafOff = inOff + i * BLOCK_LENGTH_BYTES;
+            tasks[i] = new Runnable()
+            {
+                public void run()
+                {
+                    for (int s = 0; s < stripes; ++s)
+                    {
+                        leaf.update(in, leafOff + s * STRIPE_LENGTH, BLOCK_LENGTH_BYTES);
+                    }
+                }
+            };
+        }
+
+        ParallelTasks.invokeAll(executor, tasks);
+        position += (long)stripes * STRIPE_LENGTH;
+    }
+}
@@ -8,7 +8,7 @@
   Reference Implementation and Description can be found at: https://blake2.net/
   RFC: https://tools.ietf.org/html/rfc7693
 
-  This implementation does not support the Tree Hashing Mode.
+  The Tree Hashing Mode is provided by Blake2spDigest.
 
   For unkeyed hashing, developers adapting BLAKE2 to ASN.1 - based
   message formats SHOULD use the OID tree at x = 1.3.6.1.4.1.1722.12.2.
@@ -82,14 +82,15 @@
     private byte[] key = null;
 
     // Tree hashing parameters:
-    // The Tree Hashing Mode is not supported but these are used for
-    // the XOF implementation
+    // These are used by the XOF implementation and by Blake2spDigest,
+    // which implements the Tree Hashing Mode
 	private int fanout = 1; // 0-255
 	private int depth = 1; // 0-255
 	private int leafLength= 0;
 	private long nodeOffset = 0L;
 	private int nodeDepth = 0;
 	private int innerHashLength = 0;
+    private boolean lastNode = false;
 
 
     /**
@@ -125,8 +126,10 @@
      **/
     private int f0 = 0;
 
-    // For Tree Hashing Mode, not used here:
-    // private long f1 = 0L; // finalization flag, for last node: ~0L
+    /**
+     * finalization flag, for last node: ~0
+     **/
+    private int f1 = 0;
 
     /**
      * BLAKE2s-256 for hashing.
@@ -156,6 +159,7 @@ public Blake2sDigest(Blake2sDigest digest)
         this.nodeOffset = digest.nodeOffset;
         this.nodeDepth = digest.nodeDepth;
         this.innerHashLength = digest.innerHashLength;
+        this.lastNode = digest.lastNode;
     }
 
     /**
@@ -236,6 +240,22 @@ public Blake2sDigest(byte[] key, int digestBytes, byte[] salt,
         init(null, null, null);
     }
 
+    // Tree hashing node parameters, the key is only absorbed if non-null
+    Blake2sDigest(byte[] key, int keyLength, int fanout, int depth, long nodeOffset, int nodeDepth,
+        int innerHashLength, boolean lastNode)
+    {
+        digestLength = 32;
+        this.keyLength = keyLength;
+        this.fanout = fanout;
+        this.depth = depth;
+        this.nodeOffset = nodeOffset;
+        this.nodeDepth = nodeDepth;
+        this.innerHashLength = innerHashLength;
+        this.lastNode = lastNode;
+
+        init(null, null, key);
+    }
+
     // initialize the digest's parameters
     private void init(byte[] salt, byte[] personalization, byte[] key)
     {
@@ -313,7 +333,7 @@ private void initializeInternalState()
         internalState[12] = t0 ^ blake2s_IV[4];
         internalState[13] = t1 ^ blake2s_IV[5];
         internalState[14] = f0 ^ blake2s_IV[6];
-        internalState[15] = blake2s_IV[7];// ^ f1 with f1 = 0
+        internalState[15] = f1 ^ blake2s_IV[7];
     }
 
     /**
@@ -420,6 +440,10 @@ public void update(byte[] message, int offset, int len)
     public int doFinal(byte[] out, int outOffset)
     {
         f0 = 0xFFFFFFFF;
+        if (lastNode)
+        {
+            f1 = 0xFFFFFFFF;
+        }
         t0 += bufferPos;
         // bufferPos may be < 64, so (t0 == 0) does not work
         // for 2^32 < message length > 2^32 - 63
@@ -461,6 +485,7 @@ public void reset()
     {
         bufferPos = 0;
         f0 = 0;
+        f1 = 0;
         t0 = 0;
         t1 = 0;
         chainValue = null;
@@ -0,0 +1,193 @@
+package org.bouncycastle.crypto.digests;
+
+import java.util.concurrent.ExecutorService;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.util.ParallelTasks;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Implementation of BLAKE2sp, the 8-way parallel tree hashing mode of BLAKE2s.
+ * <p>
+ * The input is split into 64 byte blocks which are dealt out round-robin to eight BLAKE2s leaf
+ * nodes; the root node hashes the concatenated leaf digests. As the leaves are independent, large
+ * updates can have them computed concurrently on a caller supplied executor.
+ * <p>
+ * BLAKE2sp produces 32 byte digests, which differ from those of BLAKE2s.
+ */
+public class Blake2spDigest
+    implements ExtendedDigest
+{
+    private static final int PARALLELISM_DEGREE = 8;
+    private static final int BLOCK_LENGTH_BYTES = 64;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int STRIPE_LENGTH = PARALLELISM_DEGREE * BLOCK_LENGTH_BYTES;
+
+    // minimum number of whole stripes in an update before the leaves are run on the executor
+    private static final int PARALLEL_THRESHOLD_STRIPES = 64;
+
+    private final Blake2sDigest[] leaves = new Blake2sDigest[PARALLELISM_DEGREE];
+    private final Blake2sDigest root;
+    private final ExecutorService executor;
+
+    private long position = 0L;
+
+    /**
+     * BLAKE2sp for hashing.
+     */
+    public Blake2spDigest()
+    {
+        this(null, null);
+    }
+
+    /**
+     * BLAKE2sp for authentication ("Prefix-MAC mode").
+     *
+     * @param key a key up to 32 bytes or null
+     */
+    public Blake2spDigest(byte[] key)
+    {
+        this(key, null);
+    }
+
+    /**
+     * BLAKE2sp with an executor the leaves of large updates are hashed on.
+     *
+     * @param key      a key up to 32 bytes or null
+     * @param executor executor to hash the leaves on, or null to hash them on the calling thread.
+     */
+    public Blake2spDigest(byte[] key, ExecutorService executor)
+    {
+        if (key != null && key.length == 0)
+        {
+            key = null;
+        }
+        if (key != null && key.length > 32)
+        {
+            throw new IllegalArgumentException("Keys > 32 bytes are not supported");
+        }
+
+        int keyLength = (key == null) ? 0 : key.length;
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i] = new Blake2sDigest(key, keyLength, PARALLELISM_DEGREE, 2, i, 0, DIGEST_LENGTH,
+                i == PARALLELISM_DEGREE - 1);
+        }
+        this.root = new Blake2sDigest(null, keyLength, PARALLELISM_DEGREE, 2, 0, 1, DIGEST_LENGTH, true);
+        this.executor = executor;
+    }
+
+    public Blake2spDigest(Blake2spDigest digest)
+    {
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i] = new Blake2sDigest(digest.leaves[i]);
+        }
+        this.root = new Blake2sDigest(digest.root);
+        this.executor = digest.executor;
+        this.position = digest.position;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "BLAKE2sp";
+    }
+
+    public int getDigestSize()
+    {
+        return DIGEST_LENGTH;
+    }
+
+    public int getByteLength()
+    {
+        return BLOCK_LENGTH_BYTES;
+    }
+
+    public void update(byte b)
+    {
+        leaves[(int)((position / BLOCK_LENGTH_BYTES) % PARALLELISM_DEGREE)].update(b);
+        ++position;
+    }
+
+    public void update(byte[] in, int inOff, int len)
+    {
+        if (executor != null && len >= (PARALLEL_THRESHOLD_STRIPES + 1) * STRIPE_LENGTH)
+        {
+            int head = (int)((STRIPE_LENGTH - (position % STRIPE_LENGTH)) % STRIPE_LENGTH);
+            updateSequential(in, inOff, head);
+            inOff += head;
+            len -= head;
+
+            int stripes = len / STRIPE_LENGTH;
+            updateParallel(in, inOff, stripes);
+            inOff += stripes * STRIPE_LENGTH;
+            len -= stripes * STRIPE_LENGTH;
+        }
+
+        updateSequential(in, inOff, len);
+    }
+
+    public int doFinal(byte[] out, int outOff)
+    {
+        byte[] hash = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i].doFinal(hash, 0);
+            root.update(hash, 0, DIGEST_LENGTH);
+        }
+        Arrays.fill(hash, (byte)0);
+
+        root.doFinal(out, outOff);
+        position = 0L;
+
+        return DIGEST_LENGTH;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            leaves[i].reset();
+        }
+        root.reset();
+        position = 0L;
+    }
+
+    private void updateSequential(byte[] in, int inOff, int len)
+    {
+        while (len > 0)
+        {
+            int blockOff = (int)(position % BLOCK_LENGTH_BYTES);
+            int count = Math.min(len, BLOCK_LENGTH_BYTES - blockOff);
+
+            leaves[(int)((position / BLOCK_LENGTH_BYTES) % PARALLELISM_DEGREE)].update(in, inOff, count);
+
+            position += count;
+            inOff += count;
+            len -= count;
+        }
+    }
+
+    private void updateParallel(final byte[] in, final int inOff, final int stripes)
+    {
+        Runnable[] tasks = new Runnable[PARALLELISM_DEGREE];
+        for (int i = 0; i < PARALLELISM_DEGREE; ++i)
+        {
+            final Blake2sDigest leaf = leaves[i];
+            final int leafOff = inOff + i * BLOCK_LENGTH_BYTES;
+            tasks[i] = new Runnable()
+            {
+                public void run()
+                {
+                    for (int s = 0; s < stripes; ++s)
+                    {
+                        leaf.update(in, leafOff + s * STRIPE_LENGTH, BLOCK_LENGTH_BYTES);
+                    }
+                }
+            };
+        }
+
+        ParallelTasks.invokeAll(executor, tasks);
+        position += (long)stripes * STRIPE_LENGTH;
+    }
+}
@@ -0,0 +1,591 @@
+package org.bouncycastle.crypto.digests;
+
+/*
+  BLAKE3 was designed by Jack O'Connor, Jean-Philippe Aumasson, Samuel Neves
+  and Zooko Wilcox-O'Hearn.
+
+  Specification and reference implementation: https://github.com/BLAKE3-team/BLAKE3
+ */
+
+import java.util.concurrent.ExecutorService;
+
+import org.bouncycastle.crypto.Xof;
+import org.bouncycastle.crypto.util.ParallelTasks;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Implementation of the BLAKE3 hash function and eXtendable Output Function (XOF).
+ * <p>
+ * BLAKE3 hashes its input as a binary tree of 1024 byte chunks. The chaining values of complete
+ * subtrees are independent of each other, so when an executor is supplied, large updates have
+ * their subtrees hashed concurrently. The result does not depend on whether an executor is used.
+ * <p>
+ * Both the plain hashing mode and the keyed hashing mode (with a 32 byte key) are supported.
+ */
+public class Blake3Digest
+    implements Xof
+{
+    private static final int[] IV =
+        {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372,
+            0xa54ff53a, 0x510e527f, 0x9b05688c,
+            0x1f83d9ab, 0x5be0cd19
+        };
+
+    private static final int CHUNK_START = 1 << 0;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+    private static final int KEYED_HASH = 1 << 4;
+
+    private static final int ROUNDS = 7;
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+    private static final int MAX_DEPTH = 54;
+
+    // number of chunks hashed by each task when subtrees are hashed on the executor
+    private static final int TASK_CHUNKS = 64;
+
+    // Message word schedule for each round, from repeatedly applying the BLAKE3 permutation
+    private static final byte[][] SIGMA = new byte[ROUNDS][16];
+
+    static
+    {
+        final byte[] permutation = { 2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8 };
+
+        for (int i = 0; i < 16; ++i)
+        {
+            SIGMA[0][i] = (byte)i;
+        }
+        for (int r = 1; r < ROUNDS; ++r)
+        {
+            for (int i = 0; i < 16; ++i)
+            {
+                SIGMA[r][i] = SIGMA[r - 1][permutation[i]];
+            }
+        }
+    }
+
+    private final int digestLength;
+    private final int[] key = new int[8];
+    private final int flags;
+    private final ExecutorService executor;
+
+    // chunk state
+    private final int[] chunkCV = new int[8];
+    private final byte[] block = new byte[BLOCK_LEN];
+    private int blockLen;
+    private int blocksCompressed;
+    private long chunkCounter;
+
+    // chaining values of complete subtrees not yet merged into a parent
+    private final int[][] cvStack = new int[MAX_DEPTH][8];
+    private int cvStackLen;
+
+    // output state, set once squeezing starts
+    private boolean squeezing;
+    private final int[] outputCV = new int[8];
+    private final int[] outputBlock = new int[16];
+    private int outputBlockLen;
+    private int outputFlags;
+    private long outputNodeCounter;
+    private long outputCounter;
+    private final byte[] outputBuf = new byte[BLOCK_LEN];
+    private int outputAvailable;
+
+    private final byte[] singleByte = new byte[1];
+    private final int[] m = new int[16];
+    private final int[] v = new int[16];
+
+    /**
+     * BLAKE3-256 for hashing.
+     */
+    public Blake3Digest()
+    {
+        this(256);
+    }
+
+    /**
+     * BLAKE3 for hashing.
+     *
+     * @param digestBits the default digest length in bits, a multiple of 8.
+     */
+    public Blake3Digest(int digestBits)
+    {
+        this(null, digestBits, null);
+    }
+
+    /**
+     * BLAKE3 in keyed hashing mode.
+     *
+     * @param key a 32 byte key.
+     */
+    public Blake3Digest(byte[] key)
+    {
+        this(key, 256, null);
+    }
+
+    /**
+     * BLAKE3 with an optional key and an executor the subtrees of large updates are hashed on.
+     *
+     * @param key        a 32 byte key, or null for the plain hashing mode.
+     * @param digestBits the default digest length in bits, a multiple of 8.
+     * @param executor   executor to hash subtrees on, or null to hash them on the calling thread.
+     */
+    public Blake3Digest(byte[] key, int digestBits, ExecutorService executor)
+    {
+        if (digestBits < 8 || digestBits % 8 != 0)
+        {
+            throw new IllegalArgumentException("BLAKE3 digest bit length must be a positive multiple of 8");
+        }
+
+        if (key == null)
+        {
+            System.arraycopy(IV, 0, this.key, 0, 8);
+            this.flags = 0;
+        }
+        else
+        {
+            if (key.length != 32)
+            {
+                throw new IllegalArgumentException("BLAKE3 key must be 32 bytes");
+            }
+            Pack.littleEndianToInt(key, 0, this.key);
+            this.flags = KEYED_HASH;
+        }
+
+        this.digestLength = digestBits / 8;
+        this.executor = executor;
+
+        reset();
+    }
+
+    public Blake3Digest(Blake3Digest digest)
+    {
+        this.digestLength = digest.digestLength;
+        System.arraycopy(digest.key, 0, this.key, 0, 8);
+        this.flags = digest.flags;
+        this.executor = digest.executor;
+
+        System.arraycopy(digest.chunkCV, 0, this.chunkCV, 0, 8);
+        System.arraycopy(digest.block, 0, this.block, 0, BLOCK_LEN);
+        this.blockLen = digest.blockLen;
+        this.blocksCompressed = digest.blocksCompressed;
+        this.chunkCounter = digest.chunkCounter;
+
+        for (int i = 0; i < digest.cvStackLen; ++i)
+        {
+            System.arraycopy(digest.cvStack[i], 0, this.cvStack[i], 0, 8);
+        }
+        this.cvStackLen = digest.cvStackLen;
+
+        this.squeezing = digest.squeezing;
+        System.arraycopy(digest.outputCV, 0, this.outputCV, 0, 8);
+        System.arraycopy(digest.outputBlock, 0, this.outputBlock, 0, 16);
+        this.outputBlockLen = digest.outputBlockLen;
+        this.outputFlags = digest.outputFlags;
+        this.outputNodeCounter = digest.outputNodeCounter;
+        this.outputCounter = digest.outputCounter;
+        System.arraycopy(digest.outputBuf, 0, this.outputBuf, 0, BLOCK_LEN);
+        this.outputAvailable = digest.outputAvailable;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "BLAKE3";
+    }
+
+    public int getDigestSize()
+    {
+        return digestLength;
+    }
+
+    public int getByteLength()
+    {
+        return BLOCK_LEN;
+    }
+
+    public void update(byte b)
+    {
+        singleByte[0] = b;
+        update(singleByte, 0, 1);
+    }
+
+    public void update(byte[] in, int inOff, int len)
+    {
+        if (squeezing)
+        {
+            throw new IllegalStateException("attempt to absorb while squeezing");
+        }
+        if (len <= 0)
+        {
+            return;
+        }
+
+        // Finish any partial chunk, but only finalize it once it is known not to be the last
+        if (chunkLength() > 0)
+        {
+            int count = Math.min(CHUNK_LEN - chunkLength(), len);
+            chunkUpdate(in, inOff, count);
+            inOff += count;
+            len -= count;
+
+            if (len == 0)
+            {
+                return;
+            }
+
+            int[] cv = new int[8];
+            chunkChainingValue(cv);
+            pushCV(cv, chunkCounter);
+            startChunk(chunkCounter + 1);
+        }
+
+        // Hash whole, aligned subtrees directly from the input, always leaving some input behind
+        while (len > CHUNK_LEN)
+        {
+            long subtreeLen = Long.highestOneBit((long)len);
+            long countSoFar = chunkCounter * CHUNK_LEN;
+            while (((subtreeLen - 1) & countSoFar) != 0)
+            {
+                subtreeLen >>>= 1;
+            }
+            int subtreeChunks = (int)(subtreeLen / CHUNK_LEN);
+
+            if (subtreeChunks == 1)
+            {
+                int[] cv = new int[8];
+                chunkChainingValue(key, flags, in, inOff, chunkCounter, cv, new int[16], new int[16]);
+                pushCV(cv, chunkCounter);
+            }
+            else
+            {
+                int[] left = new int[8], right = new int[8];
+                subtreeChildren(in, inOff, subtreeChunks, chunkCounter, left, right);
+                pushCV(left, chunkCounter);
+                pushCV(right, chunkCounter + subtreeChunks / 2);
+            }
+
+            chunkCounter += subtreeChunks;
+            inOff += (int)subtreeLen;
+            len -= (int)subtreeLen;
+        }
+
+        if (len > 0)
+        {
+            chunkUpdate(in, inOff, len);
+            mergeCVStack(chunkCounter);
+        }
+    }
+
+    public int doFinal(byte[] out, int outOff)
+    {
+        return doFinal(out, outOff, digestLength);
+    }
+
+    public int doFinal(byte[] out, int outOff, int outLen)
+    {
+        int length = doOutput(out, outOff, outLen);
+
+        reset();
+
+        return length;
+    }
+
+    public int doOutput(byte[] out, int outOff, int outLen)
+    {
+        if (!squeezing)
+        {
+            finishOutputNode();
+            squeezing = true;
+        }
+
+        int done = 0;
+        while (done < outLen)
+        {
+            if (outputAvailable == 0)
+            {
+                compress(outputCV, outputBlock, outputCounter++, outputBlockLen, outputFlags | ROOT, v);
+                Pack.intToLittleEndian(v, outputBuf, 0);
+                outputAvailable = BLOCK_LEN;
+            }
+
+            int count = Math.min(outLen - done, outputAvailable);
+            System.arraycopy(outputBuf, BLOCK_LEN - outputAvailable, out, outOff + done, count);
+            outputAvailable -= count;
+            done += count;
+        }
+
+        return outLen;
+    }
+
+    public void reset()
+    {
+        startChunk(0);
+        cvStackLen = 0;
+
+        squeezing = false;
+        outputCounter = 0;
+        outputAvailable = 0;
+        Arrays.fill(outputBuf, (byte)0);
+    }
+
+    private int chunkLength()
+    {
+        return blocksCompressed * BLOCK_LEN + blockLen;
+    }
+
+    private void startChunk(long counter)
+    {
+        System.arraycopy(key, 0, chunkCV, 0, 8);
+        Arrays.fill(block, (byte)0);
+        blockLen = 0;
+        blocksCompressed = 0;
+        chunkCounter = counter;
+    }
+
+    private void chunkUpdate(byte[] in, int inOff, int len)
+    {
+        while (len > 0)
+        {
+            // the last block of a chunk is only compressed when the chunk is finalized
+            if (blockLen == BLOCK_LEN)
+            {
+                Pack.littleEndianToInt(block, 0, m);
+                compress(chunkCV, m, chunkCounter, BLOCK_LEN, flags | chunkStartFlag(), v);
+                System.arraycopy(v, 0, chunkCV, 0, 8);
+                ++blocksCompressed;
+                Arrays.fill(block, (byte)0);
+                blockLen = 0;
+            }
+
+            int count = Math.min(BLOCK_LEN - blockLen, len);
+            System.arraycopy(in, inOff, block, blockLen, count);
+            blockLen += count;
+            inOff += count;
+            len -= count;
+        }
+    }
+
+    private int chunkStartFlag()
+    {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    private void chunkChainingValue(int[] cv)
+    {
+        Pack.littleEndianToInt(block, 0, m);
+        compress(chunkCV, m, chunkCounter, blockLen, flags | chunkStartFlag() | CHUNK_END, v);
+        System.arraycopy(v, 0, cv, 0, 8);
+    }
+
+    private void pushCV(int[] cv, long totalChunks)
+    {
+        mergeCVStack(totalChunks);
+        System.arraycopy(cv, 0, cvStack[cvStackLen++], 0, 8);
+    }
+
+    /*
+     * Merge completed subtrees, so that the stack holds one entry per 1 bit in the number of
+     * chunks seen so far. Done lazily, as the final merge has to be flagged as the root.
+     */
+    private void mergeCVStack(long totalChunks)
+    {
+        int postMergeLen = Long.bitCount(totalChunks);
+        while (cvStackLen > postMergeLen)
+        {
+            int[] left = cvStack[cvStackLen - 2];
+            parentChainingValue(key, flags, left, cvStack[cvStackLen - 1], left, m, v);
+            --cvStackLen;
+        }
+    }
+
+    private void finishOutputNode()
+    {
+        int n = cvStackLen;
+        if (chunkLength() > 0 || n == 0)
+        {
+            System.arraycopy(chunkCV, 0, outputCV, 0, 8);
+            Pack.littleEndianToInt(block, 0, outputBlock);
+            outputBlockLen = blockLen;
+            outputFlags = flags | chunkStartFlag() | CHUNK_END;
+            outputNodeCounter = chunkCounter;
+        }
+        else
+        {
+            setParentOutput(cvStack[n - 2], cvStack[n - 1]);
+            n -= 2;
+        }
+
+        int[] cv = new int[8];
+        while (n > 0)
+        {
+            compress(outputCV, outputBlock, outputNodeCounter, outputBlockLen, outputFlags, v);
+            System.arraycopy(v, 0, cv, 0, 8);
+            setParentOutput(cvStack[--n], cv);
+        }
+    }
+
+    private void setParentOutput(int[] left, int[] right)
+    {
+        System.arraycopy(key, 0, outputCV, 0, 8);
+        System.arraycopy(left, 0, outputBlock, 0, 8);
+        System.arraycopy(right, 0, outputBlock, 8, 8);
+        outputBlockLen = BLOCK_LEN;
+        outputFlags = flags | PARENT;
+        outputNodeCounter = 0;
+    }
+
+    /*
+     * Compute the chaining values of the two halves of a complete subtree of 'chunks' chunks.
+     */
+    private void subtreeChildren(final byte[] in, final int inOff, int chunks, final long counter, int[] left,
+        int[] right)
+    {
+        if (executor == null || chunks < 2 * TASK_CHUNKS)
+        {
+            int half = chunks / 2;
+            subtreeChainingValue(key, flags, in, inOff, half, counter, left);
+            subtreeChainingValue(key, flags, in, inOff + half * CHUNK_LEN, half, counter + half, right);
+            return;
+        }
+
+        int groups = chunks / TASK_CHUNKS;
+        final int[][] cvs = new int[groups][8];
+        Runnable[] tasks = new Runnable[groups];
+        for (int i = 0; i < groups; ++i)
+        {
+            final int group = i;
+            tasks[i] = new Runnable()
+            {
+                public void run()
+                {
+                    subtreeChainingValue(key, flags, in, inOff + group * TASK_CHUNKS * CHUNK_LEN, TASK_CHUNKS,
+                        counter + group * TASK_CHUNKS, cvs[group]);
+                }
+            };
+        }
+
+        ParallelTasks.invokeAll(executor, tasks);
+
+        int[] pm = new int[16], pv = new int[16];
+        while (groups > 2)
+        {
+            for (int i = 0; i < groups / 2; ++i)
+            {
+                parentChainingValue(key, flags, cvs[2 * i], cvs[2 * i + 1], cvs[i], pm, pv);
+            }
+            groups /= 2;
+        }
+
+        System.arraycopy(cvs[0], 0, left, 0, 8);
+        System.arraycopy(cvs[1], 0, right, 0, 8);
+    }
+
+    private static void subtreeChainingValue(int[] key, int flags, byte[] in, int inOff, int chunks, long counter,
+        int[] cv)
+    {
+        int[] m = new int[16], v = new int[16];
+
+        if (chunks == 1)
+        {
+            chunkChainingValue(key, flags, in, inOff, counter, cv, m, v);
+            return;
+        }
+
+        int half = chunks / 2;
+        int[] left = new int[8], right = new int[8];
+        subtreeChainingValue(key, flags, in, inOff, half, counter, left);
+        subtreeChainingValue(key, flags, in, inOff + half * CHUNK_LEN, half, counter + half, right);
+        parentChainingValue(key, flags, left, right, cv, m, v);
+    }
+
+    private static void chunkChainingValue(int[] key, int flags, byte[] in, int inOff, long counter, int[] cv,
+        int[] m, int[] v)
+    {
+        System.arraycopy(key, 0, cv, 0, 8);
+        for (int i = 0; i < CHUNK_LEN / BLOCK_LEN; ++i)
+        {
+            int blockFlags = flags;
+            if (i == 0)
+            {
+                blockFlags |= CHUNK_START;
+            }
+            if (i == CHUNK_LEN / BLOCK_LEN - 1)
+            {
+                blockFlags |= CHUNK_END;
+            }
+
+            Pack.littleEndianToInt(in, inOff + i * BLOCK_LEN, m);
+            compress(cv, m, counter, BLOCK_LEN, blockFlags, v);
+            System.arraycopy(v, 0, cv, 0, 8);
+        }
+    }
+
+    private static void parentChainingValue(int[] key, int flags, int[] left, int[] right, int[] cv, int[] m,
+        int[] v)
+    {
+        System.arraycopy(left, 0, m, 0, 8);
+        System.arraycopy(right, 0, m, 8, 8);
+        compress(key, m, 0, BLOCK_LEN, flags | PARENT, v);
+        System.arraycopy(v, 0, cv, 0, 8);
+    }
+
+    /*
+     * The BLAKE3 compression function, leaving the full 16 word output in v.
+     */
+    private static void compress(int[] cv, int[] m, long counter, int blockLen, int flags, int[] v)
+    {
+        System.arraycopy(cv, 0, v, 0, 8);
+        System.arraycopy(IV, 0, v, 8, 4);
+        v[12] = (int)counter;
+        v[13] = (int)(counter >>> 32);
+        v[14] = blockLen;
+        v[15] = flags;
+
+        for (int round = 0; round < ROUNDS; ++round)
+        {
+            byte[] s = SIGMA[round];
+
+            G(v, m[s[0]], m[s[1]], 0, 4, 8, 12);
+            G(v, m[s[2]], m[s[3]], 1, 5, 9, 13);
+            G(v, m[s[4]], m[s[5]], 2, 6, 10, 14);
+            G(v, m[s[6]], m[s[7]], 3, 7, 11, 15);
+            G(v, m[s[8]], m[s[9]], 0, 5, 10, 15);
+            G(v, m[s[10]], m[s[11]], 1, 6, 11, 12);
+            G(v, m[s[12]], m[s[13]], 2, 7, 8, 13);
+            G(v, m[s[14]], m[s[15]], 3, 4, 9, 14);
+        }
+
+        for (int i = 0; i < 8; ++i)
+        {
+            v[i] ^= v[i + 8];
+            v[i + 8] ^= cv[i];
+        }
+    }
+
+    private static void G(int[] v, int m1, int m2, int posA, int posB, int posC, int posD)
+    {
+        int a = v[posA], b = v[posB], c = v[posC], d = v[posD];
+
+        a += b + m1;
+        d = rotr32(d ^ a, 16);
+        c += d;
+        b = rotr32(b ^ c, 12);
+        a += b + m2;
+        d = rotr32(d ^ a, 8);
+        c += d;
+        b = rotr32(b ^ c, 7);
+
+        v[posA] = a;
+        v[posB] = b;
+        v[posC] = c;
+        v[posD] = d;
+    }
+
+    private static int rotr32(int x, int rot)
+    {
+        return (x >>> rot) | (x << (32 - rot));
+    }
+}
@@ -0,0 +1,360 @@
+package org.bouncycastle.crypto.digests;
+
+import java.util.concurrent.ExecutorService;
+
+import org.bouncycastle.crypto.Xof;
+import org.bouncycastle.crypto.util.ParallelTasks;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Implementation of KangarooTwelve, the tree hashing XOF built on the Keccak-p[1600,12] permutation.
+ * <p>
+ * The message and customization string are split into 8192 byte chunks. The first chunk is absorbed
+ * by the final node directly, each of the remaining chunks is hashed to a 32 byte chaining value by
+ * an independent leaf, so with an executor supplied the leaves of large updates are hashed
+ * concurrently.
+ * <p>
+ * See <a href="https://keccak.team/kangarootwelve.html">https://keccak.team/kangarootwelve.html</a>.
+ */
+public class KangarooTwelveDigest
+    implements Xof
+{
+    private static final int CHUNK_LENGTH = 8192;
+    private static final int CV_LENGTH = 32;
+    private static final int ROUNDS = 12;
+    private static final int SECURITY_STRENGTH = 128;
+
+    // the final node marker following the first chunk: 0x03 || 0x00^7
+    private static final byte[] FINAL_NODE_MARKER = new byte[]{ 0x03, 0, 0, 0, 0, 0, 0, 0 };
+    private static final byte[] FINAL_NODE_TRAILER = new byte[]{ (byte)0xFF, (byte)0xFF };
+
+    // minimum number of whole chunks in an update before the leaves are hashed on the executor
+    private static final int PARALLEL_THRESHOLD_CHUNKS = 8;
+    // upper bound on the number of tasks a batch of chunks is split into
+    private static final int MAX_TASKS = 16;
+    // upper bound on the number of chunks hashed per batch, limits the chaining values held at once
+    private static final int MAX_BATCH_CHUNKS = 1024;
+
+    private final byte[] customization;
+    private final int digestLength;
+    private final ExecutorService executor;
+
+    private final KeccakDigest finalNode;
+    private final KeccakDigest leaf;
+    private final byte[] chainingValue = new byte[CV_LENGTH];
+    private final byte[] singleByte = new byte[1];
+
+    // total message bytes absorbed, the chunk bytes in the current leaf and the number of completed leaves
+    private long processed;
+    private int leafOff;
+    private long leafCount;
+    private boolean squeezing;
+
+    /**
+     * KangarooTwelve with no customization string and 256 bit digests.
+     */
+    public KangarooTwelveDigest()
+    {
+        this((byte[])null);
+    }
+
+    /**
+     * KangarooTwelve with a customization string and 256 bit digests.
+     *
+     * @param customization the customization string, may be null.
+     */
+    public KangarooTwelveDigest(byte[] customization)
+    {
+        this(customization, 256, null);
+    }
+
+    /**
+     * KangarooTwelve with a customization string and digest size.
+     *
+     * @param customization the customization string, may be null.
+     * @param digestBits    the size of the digest produced by doFinal(byte[], int), in bits.
+     * @param executor      executor to hash the leaves on, or null to hash them on the calling thread.
+     */
+    public KangarooTwelveDigest(byte[] customization, int digestBits, ExecutorService executor)
+    {
+        if (digestBits < 8 || (digestBits % 8) != 0)
+        {
+            throw new IllegalArgumentException("'digestBits' must be a positive multiple of 8");
+        }
+
+        int cLength = (customization == null) ? 0 : customization.length;
+        byte[] encLength = lengthEncode(cLength);
+
+        // the customization string is followed by length_encode(|C|)
+        this.customization = new byte[cLength + encLength.length];
+        if (cLength > 0)
+        {
+            System.arraycopy(customization, 0, this.customization, 0, cLength);
+        }
+        System.arraycopy(encLength, 0, this.customization, cLength, encLength.length);
+
+        this.digestLength = digestBits / 8;
+        this.executor = executor;
+        this.finalNode = new KeccakDigest(SECURITY_STRENGTH, ROUNDS);
+        this.leaf = new KeccakDigest(SECURITY_STRENGTH, ROUNDS);
+    }
+
+    public KangarooTwelveDigest(KangarooTwelveDigest digest)
+    {
+        this.customization = digest.customization;
+        this.digestLength = digest.digestLength;
+        this.executor = digest.executor;
+        this.finalNode = new KeccakDigest(digest.finalNode);
+        this.leaf = new KeccakDigest(digest.leaf);
+        this.processed = digest.processed;
+        this.leafOff = digest.leafOff;
+        this.leafCount = digest.leafCount;
+        this.squeezing = digest.squeezing;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "KangarooTwelve";
+    }
+
+    public int getDigestSize()
+    {
+        return digestLength;
+    }
+
+    public int getByteLength()
+    {
+        return finalNode.getByteLength();
+    }
+
+    public void update(byte in)
+    {
+        singleByte[0] = in;
+        update(singleByte, 0, 1);
+    }
+
+    public void update(byte[] in, int inOff, int len)
+    {
+        if (squeezing)
+        {
+            throw new IllegalStateException("attempt to absorb while squeezing");
+        }
+
+        absorbMessage(in, inOff, len);
+    }
+
+    public int doFinal(byte[] out, int outOff)
+    {
+        return doFinal(out, outOff, digestLength);
+    }
+
+    public int doFinal(byte[] out, int outOff, int outLen)
+    {
+        int length = doOutput(out, outOff, outLen);
+
+        reset();
+
+        return length;
+    }
+
+    public int doOutput(byte[] out, int outOff, int outLen)
+    {
+        if (!squeezing)
+        {
+            wrapUp();
+        }
+
+        finalNode.squeeze(out, outOff, ((long)outLen) * 8);
+
+        return outLen;
+    }
+
+    public void reset()
+    {
+        finalNode.reset();
+        leaf.reset();
+        Arrays.fill(chainingValue, (byte)0);
+        processed = 0;
+        leafOff = 0;
+        leafCount = 0;
+        squeezing = false;
+    }
+
+    private void wrapUp()
+    {
+        absorbMessage(customization, 0, customization.length);
+
+        if (processed <= CHUNK_LENGTH)
+        {
+            // single node: suffix 11 followed by the padding
+            finalNode.absorbBits(0x03, 2);
+        }
+        else
+        {
+            if (leafOff > 0)
+            {
+                finishLeaf();
+            }
+
+            byte[] encCount = lengthEncode(leafCount);
+            finalNode.absorb(encCount, 0, encCount.length);
+            finalNode.absorb(FINAL_NODE_TRAILER, 0, FINAL_NODE_TRAILER.length);
+
+            // final node: suffix 01 followed by the padding
+            finalNode.absorbBits(0x02, 2);
+        }
+
+        squeezing = true;
+    }
+
+    private void absorbMessage(byte[] in, int inOff, int len)
+    {
+        if (processed < CHUNK_LENGTH)
+        {
+            int count = (int)Math.min(len, CHUNK_LENGTH - processed);
+            finalNode.absorb(in, inOff, count);
+            processed += count;
+            inOff += count;
+            len -= count;
+        }
+
+        if (len <= 0)
+        {
+            return;
+        }
+
+        if (processed == CHUNK_LENGTH)
+        {
+            finalNode.absorb(FINAL_NODE_MARKER, 0, FINAL_NODE_MARKER.length);
+        }
+
+        //
+        // complete the current leaf
+        //
+        if (leafOff > 0)
+        {
+            int count = Math.min(len, CHUNK_LENGTH - leafOff);
+            leaf.absorb(in, inOff, count);
+            leafOff += count;
+            processed += count;
+            inOff += count;
+            len -= count;
+
+            if (leafOff == CHUNK_LENGTH)
+            {
+                finishLeaf();
+            }
+        }
+
+        //
+        // whole chunks straight from the input
+        //
+        int chunks = len / CHUNK_LENGTH;
+        if (chunks > 0)
+        {
+            absorbChunks(in, inOff, chunks);
+            processed += (long)chunks * CHUNK_LENGTH;
+            inOff += chunks * CHUNK_LENGTH;
+            len -= chunks * CHUNK_LENGTH;
+        }
+
+        if (len > 0)
+        {
+            leaf.absorb(in, inOff, len);
+            leafOff = len;
+            processed += len;
+        }
+    }
+
+    private void absorbChunks(byte[] in, int inOff, int chunks)
+    {
+        if (executor == null || chunks < PARALLEL_THRESHOLD_CHUNKS)
+        {
+            for (int i = 0; i < chunks; ++i)
+            {
+                leaf.absorb(in, inOff + i * CHUNK_LENGTH, CHUNK_LENGTH);
+                finishLeaf();
+            }
+            return;
+        }
+
+        byte[] cvs = new byte[Math.min(chunks, MAX_BATCH_CHUNKS) * CV_LENGTH];
+
+        while (chunks > 0)
+        {
+            int count = Math.min(chunks, MAX_BATCH_CHUNKS);
+
+            hashLeavesParallel(in, inOff, count, cvs);
+            finalNode.absorb(cvs, 0, count * CV_LENGTH);
+            leafCount += count;
+
+            inOff += count * CHUNK_LENGTH;
+            chunks -= count;
+        }
+
+        Arrays.fill(cvs, (byte)0);
+    }
+
+    private void finishLeaf()
+    {
+        hashLeaf(leaf, chainingValue, 0);
+        finalNode.absorb(chainingValue, 0, CV_LENGTH);
+        leafCount++;
+        leafOff = 0;
+    }
+
+    private void hashLeavesParallel(final byte[] in, final int inOff, int chunks, final byte[] cvs)
+    {
+        int taskCount = Math.min(chunks, MAX_TASKS);
+        Runnable[] tasks = new Runnable[taskCount];
+
+        for (int t = 0; t < taskCount; ++t)
+        {
+            final int first = chunks * t / taskCount;
+            final int last = chunks * (t + 1) / taskCount;
+
+            tasks[t] = new Runnable()
+            {
+                public void run()
+                {
+                    KeccakDigest node = new KeccakDigest(SECURITY_STRENGTH, ROUNDS);
+
+                    for (int i = first; i < last; ++i)
+                    {
+                        node.absorb(in, inOff + i * CHUNK_LENGTH, CHUNK_LENGTH);
+                        hashLeaf(node, cvs, i * CV_LENGTH);
+                    }
+                }
+            };
+        }
+
+        ParallelTasks.invokeAll(executor, tasks);
+    }
+
+    private static void hashLeaf(KeccakDigest node, byte[] cv, int cvOff)
+    {
+        // leaf: suffix 110 followed by the padding
+        node.absorbBits(0x03, 3);
+        node.squeeze(cv, cvOff, CV_LENGTH * 8);
+        node.reset();
+    }
+
+    // length_encode(x): x as big-endian bytes without leading zeroes, followed by their count
+    private static byte[] lengthEncode(long x)
+    {
+        int n = 0;
+        for (long v = x; v != 0; v >>>= 8)
+        {
+            n++;
+        }
+
+        byte[] b = new byte[n + 1];
+        for (int i = 0; i < n; i++)
+        {
+            b[i] = (byte)(x >>> (8 * (n - 1 - i)));
+        }
+        b[n] = (byte)n;
+
+        return b;
+    }
+}
@@ -20,12 +20,18 @@
         0x0000000080000001L, 0x8000000080008008L };
 
     protected long[] state = new long[25];
+    /**
+     * @deprecated no longer used - input is absorbed directly into the state lanes. Kept so existing
+     * subclasses still compile and link.
+     */
     protected byte[] dataQueue = new byte[192];
     protected int rate;
     protected int bitsInQueue;
     protected int fixedOutputLength;
     protected boolean squeezing;
 
+    private final int rounds;
+
     public KeccakDigest()
     {
         this(288);
@@ -33,13 +39,31 @@ public KeccakDigest()
 
     public KeccakDigest(int bitLength)
     {
+        this(bitLength, 24);
+    }
+
+    /**
+     * Keccak built on the round-reduced Keccak-p[1600, rounds] permutation, which applies the last
+     * 'rounds' rounds of Keccak-f[1600] (as used by TurboSHAKE and KangarooTwelve).
+     *
+     * @param bitLength the security strength, as for KeccakDigest(int).
+     * @param rounds the number of rounds, an even number from 2 to 24.
+     */
+    protected KeccakDigest(int bitLength, int rounds)
+    {
+        if (rounds < 2 || rounds > 24 || (rounds & 1) != 0)
+        {
+            throw new IllegalArgumentException("'rounds' must be an even number in the range 2 to 24");
+        }
+
+        this.rounds = rounds;
         init(bitLength);
     }
 
     public KeccakDigest(KeccakDigest source)
     {
+        this.rounds = source.rounds;
         System.arraycopy(source.state, 0, this.state, 0, source.state.length);
-        System.arraycopy(source.dataQueue, 0, this.dataQueue, 0, source.dataQueue.length);
         this.rate = source.rate;
         this.bitsInQueue = source.bitsInQueue;
         this.fixedOutputLength = source.fixedOutputLength;
@@ -132,11 +156,7 @@ private void initSponge(int rate)
         }
 
         this.rate = rate;
-        for (int i = 0; i < state.length; ++i)
-        {
-            state[i] = 0L;
-        }
-        Arrays.fill(this.dataQueue, (byte)0);
+        Arrays.fill(state, 0L);
         this.bitsInQueue = 0;
         this.squeezing = false;
         this.fixedOutputLength = (1600 - rate) / 2;
@@ -153,10 +173,11 @@ protected void absorb(byte data)
             throw new IllegalStateException("attempt to absorb while squeezing");
         }
 
-        dataQueue[bitsInQueue >>> 3] = data;
+        int pos = bitsInQueue >>> 3;
+        state[pos >>> 3] ^= (data & 0xFFL) << ((pos & 7) << 3);
         if ((bitsInQueue += 8) == rate)
         {
-            KeccakAbsorb(dataQueue, 0);
+            KeccakPermutation();
             bitsInQueue = 0;
         }
     }
@@ -178,7 +199,7 @@ protected void absorb(byte[] data, int off, int len)
         int available = rateBytes - bytesInQueue;
         if (len < available)
         {
-            System.arraycopy(data, off, dataQueue, bytesInQueue, len);
+            KeccakXorBytes(data, off, bytesInQueue, len);
             this.bitsInQueue += len << 3;
             return;
         }
@@ -186,9 +207,9 @@ protected void absorb(byte[] data, int off, int len)
         int count = 0;
         if (bytesInQueue > 0)
         {
-            System.arraycopy(data, off, dataQueue, bytesInQueue, available);
+            KeccakXorBytes(data, off, bytesInQueue, available);
             count += available;
-            KeccakAbsorb(dataQueue, 0);
+            KeccakPermutation();
         }
 
         int remaining;
@@ -198,7 +219,7 @@ protected void absorb(byte[] data, int off, int len)
             count += rateBytes;
         }
 
-        System.arraycopy(data, off + count, dataQueue, 0, remaining);
+        KeccakXorBytes(data, off + count, 0, remaining);
         this.bitsInQueue = remaining << 3;
     }
 
@@ -217,8 +238,8 @@ protected void absorbBits(int data, int bits)
             throw new IllegalStateException("attempt to absorb while squeezing");
         }
 
-        int mask = (1 << bits) - 1;
-        dataQueue[bitsInQueue >>> 3] = (byte)(data & mask);
+        long mask = (1L << bits) - 1;
+        state[bitsInQueue >>> 6] ^= (data & mask) << (bitsInQueue & 63);
 
         // NOTE: After this, bitsInQueue is no longer a multiple of 8, so no more absorbs will work
         bitsInQueue += bits;
@@ -226,26 +247,11 @@ protected void absorbBits(int data, int bits)
 
     private void padAndSwitchToSqueezingPhase()
     {
-        dataQueue[bitsInQueue >>> 3] |= (byte)(1 << (bitsInQueue & 7));
+        state[bitsInQueue >>> 6] ^= 1L << (bitsInQueue & 63);
 
         if (++bitsInQueue == rate)
         {
-            KeccakAbsorb(dataQueue, 0);
-        }
-        else
-        {
-            int full = bitsInQueue >>> 6, partial = bitsInQueue & 63;
-            int off = 0;
-            for (int i = 0; i < full; ++i)
-            {
-                state[i] ^= Pack.littleEndianToLong(dataQueue, off);
-                off += 8;
-            }
-            if (partial > 0)
-            {
-                long mask = (1L << partial) - 1L;
-                state[full] ^= Pack.littleEndianToLong(dataQueue, off) & mask;
-            }
+            KeccakPermutation();
         }
 
         state[(rate - 1) >>> 6] ^= (1L << 63);
@@ -270,10 +276,11 @@ protected void squeeze(byte[] output, int offset, long outputLength)
         {
             if (bitsInQueue == 0)
             {
-                KeccakExtract();
+                KeccakPermutation();
+                bitsInQueue = rate;
             }
             int partialBlock = (int)Math.min((long)bitsInQueue, outputLength - i);
-            System.arraycopy(dataQueue, (rate - bitsInQueue) / 8, output, offset + (int)(i / 8), partialBlock / 8);
+            KeccakExtractBytes((rate - bitsInQueue) >>> 3, output, offset + (int)(i / 8), partialBlock >>> 3);
             bitsInQueue -= partialBlock;
             i += partialBlock;
         }
@@ -281,7 +288,7 @@ protected void squeeze(byte[] output, int offset, long outputLength)
 
     private void KeccakAbsorb(byte[] data, int off)
     {
-//        assert 0 == bitsInQueue || (dataQueue == data && 0 == off);
+//        assert 0 == bitsInQueue;
 
         int count = rate >>> 6;
         for (int i = 0; i < count; ++i)
@@ -293,15 +300,56 @@ private void KeccakAbsorb(byte[] data, int off)
         KeccakPermutation();
     }
 
-    private void KeccakExtract()
+    /*
+     * XOR len bytes of data straight into the state, starting at byte position pos of the block.
+     */
+    private void KeccakXorBytes(byte[] data, int off, int pos, int len)
     {
-//        assert 0 == bitsInQueue;
-
-        KeccakPermutation();
-
-        Pack.longToLittleEndian(state, 0, rate >>> 6, dataQueue, 0);
+        while (len > 0 && (pos & 7) != 0)
+        {
+            state[pos >>> 3] ^= (data[off++] & 0xFFL) << ((pos & 7) << 3);
+            ++pos;
+            --len;
+        }
+        while (len >= 8)
+        {
+            state[pos >>> 3] ^= Pack.littleEndianToLong(data, off);
+            off += 8;
+            pos += 8;
+            len -= 8;
+        }
+        while (len > 0)
+        {
+            state[pos >>> 3] ^= (data[off++] & 0xFFL) << ((pos & 7) << 3);
+            ++pos;
+            --len;
+        }
+    }
 
-        this.bitsInQueue = rate;
+    /*
+     * Copy len bytes straight out of the state, starting at byte position pos of the block.
+     */
+    private void KeccakExtractBytes(int pos, byte[] output, int off, int len)
+    {
+        while (len > 0 && (pos & 7) != 0)
+        {
+            output[off++] = (byte)(state[pos >>> 3] >>> ((pos & 7) << 3));
+            ++pos;
+            --len;
+        }
+        while (len >= 8)
+        {
+            Pack.longToLittleEndian(state[pos >>> 3], output, off);
+            off += 8;
+            pos += 8;
+            len -= 8;
+        }
+        while (len > 0)
+        {
+            output[off++] = (byte)(state[pos >>> 3] >>> ((pos & 7) << 3));
+            ++pos;
+            --len;
+        }
     }
 
     private void KeccakPermutation()
@@ -314,99 +362,158 @@ private void KeccakPermutation()
         long a15 = A[15], a16 = A[16], a17 = A[17], a18 = A[18], a19 = A[19];
         long a20 = A[20], a21 = A[21], a22 = A[22], a23 = A[23], a24 = A[24];
 
-        for (int i = 0; i < 24; i++)
+        long e00, e01, e02, e03, e04, e05, e06, e07, e08, e09, e10, e11, e12;
+        long e13, e14, e15, e16, e17, e18, e19, e20, e21, e22, e23, e24;
+        long b0, b1, b2, b3, b4, d0, d1, d2, d3, d4;
+
+        // column parities for the first theta, later rounds accumulate them as they go
+        long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+        long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+        long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+        long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+        long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+        /*
+         * Two rounds per iteration, alternating between the A and E lanes so that rho and pi
+         * become a renaming of variables rather than a shuffle.
+         */
+        for (int i = 24 - rounds; i < 24; i += 2)
         {
-            // theta
-            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
-            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
-            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
-            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
-            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
-
-            long d1 = (c1 << 1 | c1 >>> -1) ^ c4;
-            long d2 = (c2 << 1 | c2 >>> -1) ^ c0;
-            long d3 = (c3 << 1 | c3 >>> -1) ^ c1;
-            long d4 = (c4 << 1 | c4 >>> -1) ^ c2;
-            long d0 = (c0 << 1 | c0 >>> -1) ^ c3;
-
-            a00 ^= d1; a05 ^= d1; a10 ^= d1; a15 ^= d1; a20 ^= d1;
-            a01 ^= d2; a06 ^= d2; a11 ^= d2; a16 ^= d2; a21 ^= d2;
-            a02 ^= d3; a07 ^= d3; a12 ^= d3; a17 ^= d3; a22 ^= d3;
-            a03 ^= d4; a08 ^= d4; a13 ^= d4; a18 ^= d4; a23 ^= d4;
-            a04 ^= d0; a09 ^= d0; a14 ^= d0; a19 ^= d0; a24 ^= d0;
-
-            // rho/pi
-            c1  = a01 <<  1 | a01 >>> 63;
-            a01 = a06 << 44 | a06 >>> 20;
-            a06 = a09 << 20 | a09 >>> 44;
-            a09 = a22 << 61 | a22 >>>  3;
-            a22 = a14 << 39 | a14 >>> 25;
-            a14 = a20 << 18 | a20 >>> 46;
-            a20 = a02 << 62 | a02 >>>  2;
-            a02 = a12 << 43 | a12 >>> 21;
-            a12 = a13 << 25 | a13 >>> 39;
-            a13 = a19 <<  8 | a19 >>> 56;
-            a19 = a23 << 56 | a23 >>>  8;
-            a23 = a15 << 41 | a15 >>> 23;
-            a15 = a04 << 27 | a04 >>> 37;
-            a04 = a24 << 14 | a24 >>> 50;
-            a24 = a21 <<  2 | a21 >>> 62;
-            a21 = a08 << 55 | a08 >>>  9;
-            a08 = a16 << 45 | a16 >>> 19;
-            a16 = a05 << 36 | a05 >>> 28;
-            a05 = a03 << 28 | a03 >>> 36;
-            a03 = a18 << 21 | a18 >>> 43;
-            a18 = a17 << 15 | a17 >>> 49;
-            a17 = a11 << 10 | a11 >>> 54;
-            a11 = a07 <<  6 | a07 >>> 58;
-            a07 = a10 <<  3 | a10 >>> 61;
-            a10 = c1;
-
-            // chi
-            c0 = a00 ^ (~a01 & a02);
-            c1 = a01 ^ (~a02 & a03);
-            a02 ^= ~a03 & a04;
-            a03 ^= ~a04 & a00;
-            a04 ^= ~a00 & a01;
-            a00 = c0;
-            a01 = c1;
-
-            c0 = a05 ^ (~a06 & a07);
-            c1 = a06 ^ (~a07 & a08);
-            a07 ^= ~a08 & a09;
-            a08 ^= ~a09 & a05;
-            a09 ^= ~a05 & a06;
-            a05 = c0;
-            a06 = c1;
-
-            c0 = a10 ^ (~a11 & a12);
-            c1 = a11 ^ (~a12 & a13);
-            a12 ^= ~a13 & a14;
-            a13 ^= ~a14 & a10;
-            a14 ^= ~a10 & a11;
-            a10 = c0;
-            a11 = c1;
-
-            c0 = a15 ^ (~a16 & a17);
-            c1 = a16 ^ (~a17 & a18);
-            a17 ^= ~a18 & a19;
-            a18 ^= ~a19 & a15;
-            a19 ^= ~a15 & a16;
-            a15 = c0;
-            a16 = c1;
-
-            c0 = a20 ^ (~a21 & a22);
-            c1 = a21 ^ (~a22 & a23);
-            a22 ^= ~a23 & a24;
-            a23 ^= ~a24 & a20;
-            a24 ^= ~a20 & a21;
-            a20 = c0;
-            a21 = c1;
-
-            // iota
-            a00 ^= KeccakRoundConstants[i];
+            // round i, A -> E
+            d0 = c4 ^ (c1 << 1 | c1 >>> 63);
+            d1 = c0 ^ (c2 << 1 | c2 >>> 63);
+            d2 = c1 ^ (c3 << 1 | c3 >>> 63);
+            d3 = c2 ^ (c4 << 1 | c4 >>> 63);
+            d4 = c3 ^ (c0 << 1 | c0 >>> 63);
+
+            a00 ^= d0; b0 = a00;
+            a06 ^= d1; b1 = (a06 << 44 | a06 >>> 20);
+            a12 ^= d2; b2 = (a12 << 43 | a12 >>> 21);
+            a18 ^= d3; b3 = (a18 << 21 | a18 >>> 43);
+            a24 ^= d4; b4 = (a24 << 14 | a24 >>> 50);
+            e00 = b0 ^ (~b1 & b2) ^ KeccakRoundConstants[i];
+            e01 = b1 ^ (~b2 & b3);
+            e02 = b2 ^ (~b3 & b4);
+            e03 = b3 ^ (~b4 & b0);
+            e04 = b4 ^ (~b0 & b1);
+            c0 = e00; c1 = e01; c2 = e02; c3 = e03; c4 = e04;
+
+            a03 ^= d3; b0 = (a03 << 28 | a03 >>> 36);
+            a09 ^= d4; b1 = (a09 << 20 | a09 >>> 44);
+            a10 ^= d0; b2 = (a10 << 3 | a10 >>> 61);
+            a16 ^= d1; b3 = (a16 << 45 | a16 >>> 19);
+            a22 ^= d2; b4 = (a22 << 61 | a22 >>> 3);
+            e05 = b0 ^ (~b1 & b2);
+            e06 = b1 ^ (~b2 & b3);
+            e07 = b2 ^ (~b3 & b4);
+            e08 = b3 ^ (~b4 & b0);
+            e09 = b4 ^ (~b0 & b1);
+            c0 ^= e05; c1 ^= e06; c2 ^= e07; c3 ^= e08; c4 ^= e09;
+
+            a01 ^= d1; b0 = (a01 << 1 | a01 >>> 63);
+            a07 ^= d2; b1 = (a07 << 6 | a07 >>> 58);
+            a13 ^= d3; b2 = (a13 << 25 | a13 >>> 39);
+            a19 ^= d4; b3 = (a19 << 8 | a19 >>> 56);
+            a20 ^= d0; b4 = (a20 << 18 | a20 >>> 46);
+            e10 = b0 ^ (~b1 & b2);
+            e11 = b1 ^ (~b2 & b3);
+            e12 = b2 ^ (~b3 & b4);
+            e13 = b3 ^ (~b4 & b0);
+            e14 = b4 ^ (~b0 & b1);
+            c0 ^= e10; c1 ^= e11; c2 ^= e12; c3 ^= e13; c4 ^= e14;
+
+            a04 ^= d4; b0 = (a04 << 27 | a04 >>> 37);
+            a05 ^= d0; b1 = (a05 << 36 | a05 >>> 28);
+            a11 ^= d1; b2 = (a11 << 10 | a11 >>> 54);
+            a17 ^= d2; b3 = (a17 << 15 | a17 >>> 49);
+            a23 ^= d3; b4 = (a23 << 56 | a23 >>> 8);
+            e15 = b0 ^ (~b1 & b2);
+            e16 = b1 ^ (~b2 & b3);
+            e17 = b2 ^ (~b3 & b4);
+            e18 = b3 ^ (~b4 & b0);
+            e19 = b4 ^ (~b0 & b1);
+            c0 ^= e15; c1 ^= e16; c2 ^= e17; c3 ^= e18; c4 ^= e19;
+
+            a02 ^= d2; b0 = (a02 << 62 | a02 >>> 2);
+            a08 ^= d3; b1 = (a08 << 55 | a08 >>> 9);
+            a14 ^= d4; b2 = (a14 << 39 | a14 >>> 25);
+            a15 ^= d0; b3 = (a15 << 41 | a15 >>> 23);
+            a21 ^= d1; b4 = (a21 << 2 | a21 >>> 62);
+            e20 = b0 ^ (~b1 & b2);
+            e21 = b1 ^ (~b2 & b3);
+            e22 = b2 ^ (~b3 & b4);
+            e23 = b3 ^ (~b4 & b0);
+            e24 = b4 ^ (~b0 & b1);
+            c0 ^= e20; c1 ^= e21; c2 ^= e22; c3 ^= e23; c4 ^= e24;
+
+            // round i + 1, E -> A
+            d0 = c4 ^ (c1 << 1 | c1 >>> 63);
+            d1 = c0 ^ (c2 << 1 | c2 >>> 63);
+            d2 = c1 ^ (c3 << 1 | c3 >>> 63);
+            d3 = c2 ^ (c4 << 1 | c4 >>> 63);
+            d4 = c3 ^ (c0 << 1 | c0 >>> 63);
+
+            e00 ^= d0; b0 = e00;
+            e06 ^= d1; b1 = (e06 << 44 | e06 >>> 20);
+            e12 ^= d2; b2 = (e12 << 43 | e12 >>> 21);
+            e18 ^= d3; b3 = (e18 << 21 | e18 >>> 43);
+            e24 ^= d4; b4 = (e24 << 14 | e24 >>> 50);
+            a00 = b0 ^ (~b1 & b2) ^ KeccakRoundConstants[i + 1];
+            a01 = b1 ^ (~b2 & b3);
+            a02 = b2 ^ (~b3 & b4);
+            a03 = b3 ^ (~b4 & b0);
+            a04 = b4 ^ (~b0 & b1);
+            c0 = a00; c1 = a01; c2 = a02; c3 = a03; c4 = a04;
+
+            e03 ^= d3; b0 = (e03 << 28 | e03 >>> 36);
+            e09 ^= d4; b1 = (e09 << 20 | e09 >>> 44);
+            e10 ^= d0; b2 = (e10 << 3 | e10 >>> 61);
+            e16 ^= d1; b3 = (e16 << 45 | e16 >>> 19);
+            e22 ^= d2; b4 = (e22 << 61 | e22 >>> 3);
+            a05 = b0 ^ (~b1 & b2);
+            a06 = b1 ^ (~b2 & b3);
+            a07 = b2 ^ (~b3 & b4);
+            a08 = b3 ^ (~b4 & b0);
+            a09 = b4 ^ (~b0 & b1);
+            c0 ^= a05; c1 ^= a06; c2 ^= a07; c3 ^= a08; c4 ^= a09;
+
+            e01 ^= d1; b0 = (e01 << 1 | e01 >>> 63);
+            e07 ^= d2; b1 = (e07 << 6 | e07 >>> 58);
+            e13 ^= d3; b2 = (e13 << 25 | e13 >>> 39);
+            e19 ^= d4; b3 = (e19 << 8 | e19 >>> 56);
+            e20 ^= d0; b4 = (e20 << 18 | e20 >>> 46);
+            a10 = b0 ^ (~b1 & b2);
+            a11 = b1 ^ (~b2 & b3);
+            a12 = b2 ^ (~b3 & b4);
+            a13 = b3 ^ (~b4 & b0);
+            a14 = b4 ^ (~b0 & b1);
+            c0 ^= a10; c1 ^= a11; c2 ^= a12; c3 ^= a13; c4 ^= a14;
+
+            e04 ^= d4; b0 = (e04 << 27 | e04 >>> 37);
+            e05 ^= d0; b1 = (e05 << 36 | e05 >>> 28);
+            e11 ^= d1; b2 = (e11 << 10 | e11 >>> 54);
+            e17 ^= d2; b3 = (e17 << 15 | e17 >>> 49);
+            e23 ^= d3; b4 = (e23 << 56 | e23 >>> 8);
+            a15 = b0 ^ (~b1 & b2);
+            a16 = b1 ^ (~b2 & b3);
+            a17 = b2 ^ (~b3 & b4);
+            a18 = b3 ^ (~b4 & b0);
+            a19 = b4 ^ (~b0 & b1);
+            c0 ^= a15; c1 ^= a16; c2 ^= a17; c3 ^= a18; c4 ^= a19;
+
+            e02 ^= d2; b0 = (e02 << 62 | e02 >>> 2);
+            e08 ^= d3; b1 = (e08 << 55 | e08 >>> 9);
+            e14 ^= d4; b2 = (e14 << 39 | e14 >>> 25);
+            e15 ^= d0; b3 = (e15 << 41 | e15 >>> 23);
+            e21 ^= d1; b4 = (e21 << 2 | e21 >>> 62);
+            a20 = b0 ^ (~b1 & b2);
+            a21 = b1 ^ (~b2 & b3);
+            a22 = b2 ^ (~b3 & b4);
+            a23 = b3 ^ (~b4 & b0);
+            a24 = b4 ^ (~b0 & b1);
+            c0 ^= a20; c1 ^= a21; c2 ^= a22; c3 ^= a23; c4 ^= a24;
         }
-        
+
         A[ 0] = a00; A[ 1] = a01; A[ 2] = a02; A[ 3] = a03; A[ 4] = a04;
         A[ 5] = a05; A[ 6] = a06; A[ 7] = a07; A[ 8] = a08; A[ 9] = a09;
         A[10] = a10; A[11] = a11; A[12] = a12; A[13] = a13; A[14] = a14;
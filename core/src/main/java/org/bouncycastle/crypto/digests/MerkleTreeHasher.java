@@ -0,0 +1,179 @@
+package org.bouncycastle.crypto.digests;
+
+/**
+ * Merkle tree hash as defined in RFC 6962 (Certificate Transparency), computed a level at a time
+ * with a {@link MultiBufferDigest} so that sibling leaves and nodes are hashed side by side.
+ * <p>
+ * Leaves are hashed as HASH(0x00 || leaf) and interior nodes as HASH(0x01 || left || right). A
+ * node without a sibling at the end of a level is carried up unchanged, which gives the same
+ * root as the recursive definition in RFC 6962, section 2.1.
+ * </p>
+ */
+public class MerkleTreeHasher
+{
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    /** Number of leaves staged per multi-buffer call, as a multiple of the lane count. */
+    private static final int BATCH_FACTOR = 16;
+
+    private final MultiBufferDigest digest;
+    private final int digestSize;
+
+    public MerkleTreeHasher(MultiBufferDigest digest)
+    {
+        this.digest = digest;
+        this.digestSize = digest.getDigestSize();
+    }
+
+    public int getDigestSize()
+    {
+        return digestSize;
+    }
+
+    /**
+     * Calculate the root of the tree over the given leaves.
+     *
+     * @param leaves the leaf data, in order.
+     * @return the tree root.
+     */
+    public byte[] computeRoot(byte[][] leaves)
+    {
+        int count = leaves.length;
+        int[] offs = new int[count];
+        int[] lens = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            lens[i] = leaves[i].length;
+        }
+
+        return computeRoot(leaves, offs, lens, count);
+    }
+
+    /**
+     * Calculate the root of the tree whose leaves are consecutive chunkSize byte chunks of
+     * data[off .. off + len), the last chunk possibly being shorter.
+     */
+    public byte[] computeRoot(byte[] data, int off, int len, int chunkSize)
+    {
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("'chunkSize' must be positive");
+        }
+
+        int count = (int)((len + (long)chunkSize - 1) / chunkSize);
+        byte[][] srcs = new byte[count][];
+        int[] offs = new int[count];
+        int[] lens = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            srcs[i] = data;
+            offs[i] = off + i * chunkSize;
+            lens[i] = Math.min(chunkSize, len - i * chunkSize);
+        }
+
+        return computeRoot(srcs, offs, lens, count);
+    }
+
+    /**
+     * Calculate the leaf hashes HASH(0x00 || leaf) of the given leaves.
+     */
+    public byte[][] hashLeaves(byte[][] leaves)
+    {
+        int count = leaves.length;
+        int[] offs = new int[count];
+        int[] lens = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            lens[i] = leaves[i].length;
+        }
+
+        byte[] level = new byte[count * digestSize];
+        hashPrefixed(LEAF_PREFIX, leaves, offs, lens, count, level);
+
+        byte[][] result = new byte[count][];
+        for (int i = 0; i < count; ++i)
+        {
+            result[i] = new byte[digestSize];
+            System.arraycopy(level, i * digestSize, result[i], 0, digestSize);
+        }
+        return result;
+    }
+
+    private byte[] computeRoot(byte[][] srcs, int[] offs, int[] lens, int count)
+    {
+        byte[] root = new byte[digestSize];
+
+        if (count == 0)
+        {
+            digest.doFinal(new byte[][]{ new byte[0] }, new byte[][]{ root });
+            return root;
+        }
+
+        byte[] level = new byte[count * digestSize];
+        hashPrefixed(LEAF_PREFIX, srcs, offs, lens, count, level);
+
+        int pairLen = 2 * digestSize;
+        while (count > 1)
+        {
+            int pairs = count / 2;
+            byte[][] pairSrcs = new byte[pairs][];
+            int[] pairOffs = new int[pairs];
+            int[] pairLens = new int[pairs];
+            for (int i = 0; i < pairs; ++i)
+            {
+                pairSrcs[i] = level;
+                pairOffs[i] = i * pairLen;
+                pairLens[i] = pairLen;
+            }
+
+            byte[] next = new byte[((count + 1) / 2) * digestSize];
+            hashPrefixed(NODE_PREFIX, pairSrcs, pairOffs, pairLens, pairs, next);
+
+            if ((count & 1) != 0)
+            {
+                System.arraycopy(level, (count - 1) * digestSize, next, pairs * digestSize, digestSize);
+            }
+
+            level = next;
+            count = (count + 1) / 2;
+        }
+
+        System.arraycopy(level, 0, root, 0, digestSize);
+        return root;
+    }
+
+    private void hashPrefixed(byte prefix, byte[][] srcs, int[] offs, int[] lens, int count, byte[] out)
+    {
+        int batch = digest.getLaneCount() * BATCH_FACTOR;
+        byte[][] staged = new byte[batch][];
+        int[] stagedOffs = new int[batch];
+        int[] stagedLens = new int[batch];
+        byte[][] outs = new byte[batch][];
+        int[] outOffs = new int[batch];
+
+        for (int i = 0; i < batch; ++i)
+        {
+            outs[i] = out;
+        }
+
+        for (int base = 0; base < count; base += batch)
+        {
+            int n = Math.min(batch, count - base);
+            for (int i = 0; i < n; ++i)
+            {
+                int len = lens[base + i];
+                if (staged[i] == null || staged[i].length < len + 1)
+                {
+                    staged[i] = new byte[len + 1];
+                }
+                staged[i][0] = prefix;
+                System.arraycopy(srcs[base + i], offs[base + i], staged[i], 1, len);
+                stagedLens[i] = len + 1;
+                outOffs[i] = (base + i) * digestSize;
+            }
+
+            digest.doFinal(staged, stagedOffs, stagedLens, n, outs, outOffs);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.bouncycastle.crypto.digests;
+
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
+
+/**
+ * Base class for multi-buffer digests - digests which hash a batch of independent messages by
+ * running the compression function for several messages ("lanes") side by side in one loop.
+ * <p>
+ * Each lane produces exactly the result the corresponding sequential digest would. When a lane
+ * finishes its message it is refilled with the next message of the batch, so messages of
+ * different lengths keep all lanes busy.
+ * </p>
+ */
+public abstract class MultiBufferDigest
+{
+    protected final int lanes;
+
+    private final int byteLength;
+    private final int lengthFieldSize;
+
+    private final byte[] blocks;
+    private final int[] active;
+    private final int[] slotJob;
+    private final long[] slotBlock;
+    private final long[] slotBlockCount;
+
+    /**
+     * Base constructor.
+     *
+     * @param lanes the number of messages to be compressed side by side.
+     * @param byteLength the block size of the compression function in bytes.
+     * @param lengthFieldSize the size in bytes of the message length field in the final block.
+     */
+    protected MultiBufferDigest(int lanes, int byteLength, int lengthFieldSize)
+    {
+        if (lanes < 1)
+        {
+            throw new IllegalArgumentException("lanes must be at least 1");
+        }
+
+        this.lanes = lanes;
+        this.byteLength = byteLength;
+        this.lengthFieldSize = lengthFieldSize;
+
+        this.blocks = new byte[lanes * byteLength];
+        this.active = new int[lanes];
+        this.slotJob = new int[lanes];
+        this.slotBlock = new long[lanes];
+        this.slotBlockCount = new long[lanes];
+    }
+
+    public abstract String getAlgorithmName();
+
+    public abstract int getDigestSize();
+
+    /**
+     * Return the size in bytes of the internal buffer the digest applies it's compression
+     * function to.
+     *
+     * @return byte length of the digests internal buffer.
+     */
+    public int getByteLength()
+    {
+        return byteLength;
+    }
+
+    /**
+     * Return the number of messages compressed side by side.
+     *
+     * @return the lane count.
+     */
+    public int getLaneCount()
+    {
+        return lanes;
+    }
+
+    /**
+     * Calculate the digest of each message in a batch, writing digest i to out[i].
+     *
+     * @param in the messages to hash.
+     * @param out the output arrays, each at least getDigestSize() bytes long.
+     */
+    public void doFinal(byte[][] in, byte[][] out)
+    {
+        int count = in.length;
+        int[] inOff = new int[count];
+        int[] inLen = new int[count];
+        int[] outOff = new int[count];
+
+        for (int i = 0; i < count; ++i)
+        {
+            inLen[i] = in[i].length;
+        }
+
+        doFinal(in, inOff, inLen, count, out, outOff);
+    }
+
+    /**
+     * Calculate the digest of each of the first count messages in a batch, where message i is
+     * in[i][inOff[i] .. inOff[i] + inLen[i]) and its digest is written to out[i] at outOff[i].
+     * The same input or output array may appear more than once.
+     */
+    public void doFinal(byte[][] in, int[] inOff, int[] inLen, int count, byte[][] out, int[] outOff)
+    {
+        int digestSize = getDigestSize();
+        for (int i = 0; i < count; ++i)
+        {
+            if (inOff[i] < 0 || inLen[i] < 0 || inOff[i] > in[i].length - inLen[i])
+            {
+                throw new DataLengthException("input buffer too short");
+            }
+            if (outOff[i] < 0 || outOff[i] > out[i].length - digestSize)
+            {
+                throw new OutputLengthException("output buffer too short");
+            }
+        }
+
+        int next = 0, activeCount = 0;
+        for (int slot = 0; slot < lanes && next < count; ++slot)
+        {
+            startJob(slot, next++, inLen);
+            active[activeCount++] = slot;
+        }
+
+        while (activeCount > 0)
+        {
+            for (int k = 0; k < activeCount; ++k)
+            {
+                int slot = active[k], job = slotJob[slot];
+                loadBlock(slot, in[job], inOff[job], inLen[job], slotBlock[slot]);
+            }
+
+            processBlocks(blocks, active, activeCount);
+
+            int k = 0;
+            while (k < activeCount)
+            {
+                int slot = active[k];
+                if (++slotBlock[slot] < slotBlockCount[slot])
+                {
+                    ++k;
+                    continue;
+                }
+
+                int job = slotJob[slot];
+                finishLane(slot, out[job], outOff[job]);
+
+                if (next < count)
+                {
+                    startJob(slot, next++, inLen);
+                    ++k;
+                }
+                else
+                {
+                    active[k] = active[--activeCount];
+                }
+            }
+        }
+    }
+
+    private void startJob(int slot, int job, int[] inLen)
+    {
+        slotJob[slot] = job;
+        slotBlock[slot] = 0;
+        slotBlockCount[slot] = (inLen[job] + 1L + lengthFieldSize + byteLength - 1) / byteLength;
+
+        initLane(slot);
+    }
+
+    private void loadBlock(int slot, byte[] in, int inOff, int inLen, long block)
+    {
+        int pos = slot * byteLength;
+        long start = block * byteLength;
+        int available = (int)Math.max(0, Math.min(byteLength, inLen - start));
+
+        if (available > 0)
+        {
+            System.arraycopy(in, inOff + (int)start, blocks, pos, available);
+            if (available == byteLength)
+            {
+                return;
+            }
+        }
+
+        int i = available;
+        if (start + available == inLen)
+        {
+            blocks[pos + i++] = (byte)0x80;
+        }
+        while (i < byteLength)
+        {
+            blocks[pos + i++] = 0;
+        }
+
+        if (block == slotBlockCount[slot] - 1)
+        {
+            long bitLength = (long)inLen << 3;
+            for (int j = 1; j <= 8; ++j)
+            {
+                blocks[pos + byteLength - j] = (byte)bitLength;
+                bitLength >>>= 8;
+            }
+        }
+    }
+
+    /**
+     * Set the chaining variables of a lane to the initial hash value.
+     */
+    protected abstract void initLane(int slot);
+
+    /**
+     * Apply the compression function to one block for each listed lane. The block for lane
+     * active[k] is at blocks[active[k] * getByteLength()].
+     */
+    protected abstract void processBlocks(byte[] blocks, int[] active, int count);
+
+    /**
+     * Write the final hash value of a lane.
+     */
+    protected abstract void finishLane(int slot, byte[] out, int outOff);
+}
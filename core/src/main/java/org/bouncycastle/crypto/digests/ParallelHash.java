@@ -0,0 +1,309 @@
+package org.bouncycastle.crypto.digests;
+
+import java.util.concurrent.ExecutorService;
+
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.Xof;
+import org.bouncycastle.crypto.util.ParallelTasks;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+
+/**
+ * ParallelHash - a hash designed  to  support the efficient hashing of very long strings, by taking advantage
+ * of the parallelism available in modern processors with an optional XOF mode.
+ * <p>
+ * From NIST Special Publication 800-185 - SHA-3 Derived Functions:cSHAKE, KMAC, TupleHash and ParallelHash
+ * </p>
+ * The input is split into blocks of B bytes which are hashed independently with SHAKE; when an executor is
+ * supplied the blocks of large updates are hashed concurrently.
+ */
+public class ParallelHash
+    implements Xof, Digest
+{
+    private static final byte[] N_PARALLEL_HASH = Strings.toByteArray("ParallelHash");
+
+    // minimum amount of whole blocks in an update before they are hashed on the executor
+    private static final int PARALLEL_THRESHOLD_BYTES = 64 * 1024;
+    // upper bound on the number of tasks a batch of blocks is split into
+    private static final int MAX_TASKS = 16;
+    // upper bound on the number of blocks hashed per batch, limits the chaining values held at once
+    private static final int MAX_BATCH_BLOCKS = 1024;
+
+    private final CSHAKEDigest cshake;
+    private final SHAKEDigest compressor;
+    private final int bitLength;
+    private final int outputLength;
+    private final int B;
+    private final byte[] buffer;
+    private final byte[] compressorBuffer;
+    private final ExecutorService executor;
+
+    private boolean firstOutput;
+    private int nCount;
+    private int bufOff;
+
+    /**
+     * Base constructor.
+     *
+     * @param bitLength bit length of the underlying SHAKE function, 128 or 256.
+     * @param S the customization string - available for local use.
+     * @param B the blocksize (in bytes) for hashing.
+     */
+    public ParallelHash(int bitLength, byte[] S, int B)
+    {
+        this(bitLength, S, B, bitLength * 2);
+    }
+
+    /**
+     * Base constructor with a specific output size.
+     *
+     * @param bitLength bit length of the underlying SHAKE function, 128 or 256.
+     * @param S the customization string - available for local use.
+     * @param B the blocksize (in bytes) for hashing.
+     * @param outputSize the output size (in bits) produced by doFinal().
+     */
+    public ParallelHash(int bitLength, byte[] S, int B, int outputSize)
+    {
+        this(bitLength, S, B, outputSize, null);
+    }
+
+    /**
+     * Constructor with an executor the blocks of large updates are hashed on.
+     *
+     * @param bitLength bit length of the underlying SHAKE function, 128 or 256.
+     * @param S the customization string - available for local use.
+     * @param B the blocksize (in bytes) for hashing.
+     * @param outputSize the output size (in bits) produced by doFinal().
+     * @param executor executor to hash the blocks on, or null to hash them on the calling thread.
+     */
+    public ParallelHash(int bitLength, byte[] S, int B, int outputSize, ExecutorService executor)
+    {
+        if (B < 1)
+        {
+            throw new IllegalArgumentException("'B' must be positive");
+        }
+
+        this.cshake = new CSHAKEDigest(bitLength, N_PARALLEL_HASH, S);
+        this.compressor = new SHAKEDigest(bitLength);
+        this.bitLength = bitLength;
+        this.B = B;
+        this.outputLength = (outputSize + 7) / 8;
+        this.buffer = new byte[B];
+        this.compressorBuffer = new byte[bitLength * 2 / 8];
+        this.executor = executor;
+
+        reset();
+    }
+
+    public ParallelHash(ParallelHash source)
+    {
+        this.cshake = new CSHAKEDigest(source.cshake);
+        this.compressor = new SHAKEDigest(source.compressor);
+        this.bitLength = source.bitLength;
+        this.B = source.B;
+        this.outputLength = source.outputLength;
+        this.buffer = Arrays.clone(source.buffer);
+        this.compressorBuffer = new byte[source.compressorBuffer.length];
+        this.executor = source.executor;
+        this.firstOutput = source.firstOutput;
+        this.nCount = source.nCount;
+        this.bufOff = source.bufOff;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "ParallelHash" + cshake.getAlgorithmName().substring(6);
+    }
+
+    public int getByteLength()
+    {
+        return cshake.getByteLength();
+    }
+
+    public int getDigestSize()
+    {
+        return outputLength;
+    }
+
+    public void update(byte in)
+        throws IllegalStateException
+    {
+        buffer[bufOff++] = in;
+        if (bufOff == buffer.length)
+        {
+            compress(buffer, 0, bufOff);
+            bufOff = 0;
+        }
+    }
+
+    public void update(byte[] in, int inOff, int len)
+        throws DataLengthException, IllegalStateException
+    {
+        len = Math.max(0, len);
+
+        //
+        // fill the current block
+        //
+        int i = 0;
+        if (bufOff != 0)
+        {
+            while (i < len && bufOff != buffer.length)
+            {
+                buffer[bufOff++] = in[inOff + i++];
+            }
+
+            if (bufOff == buffer.length)
+            {
+                compress(buffer, 0, bufOff);
+                bufOff = 0;
+            }
+        }
+
+        //
+        // process whole blocks straight from the input.
+        //
+        int blocks = (len - i) / B;
+        if (blocks > 0)
+        {
+            compressBlocks(in, inOff + i, blocks);
+            i += blocks * B;
+        }
+
+        //
+        // load in the remainder.
+        //
+        while (i < len)
+        {
+            buffer[bufOff++] = in[inOff + i++];
+        }
+    }
+
+    public int doFinal(byte[] out, int outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        return doFinal(out, outOff, outputLength);
+    }
+
+    public int doFinal(byte[] out, int outOff, int outLen)
+    {
+        if (firstOutput)
+        {
+            wrapUp(outLen);
+        }
+
+        int rv = cshake.doFinal(out, outOff, outLen);
+
+        reset();
+
+        return rv;
+    }
+
+    public int doOutput(byte[] out, int outOff, int outLen)
+    {
+        if (firstOutput)
+        {
+            wrapUp(0);
+        }
+
+        return cshake.doOutput(out, outOff, outLen);
+    }
+
+    public void reset()
+    {
+        cshake.reset();
+        Arrays.clear(buffer);
+
+        byte[] hdr = XofUtils.leftEncode(B);
+        cshake.update(hdr, 0, hdr.length);
+
+        nCount = 0;
+        bufOff = 0;
+        firstOutput = true;
+    }
+
+    private void wrapUp(int outputSize)
+    {
+        if (bufOff != 0)
+        {
+            compress(buffer, 0, bufOff);
+            bufOff = 0;
+        }
+
+        byte[] nOut = XofUtils.rightEncode(nCount);
+        byte[] encOut = XofUtils.rightEncode(outputSize * 8L);
+
+        cshake.update(nOut, 0, nOut.length);
+        cshake.update(encOut, 0, encOut.length);
+
+        firstOutput = false;
+    }
+
+    private void compress(byte[] buf, int offSet, int len)
+    {
+        compressor.update(buf, offSet, len);
+        compressor.doFinal(compressorBuffer, 0, compressorBuffer.length);
+
+        cshake.update(compressorBuffer, 0, compressorBuffer.length);
+
+        nCount++;
+    }
+
+    private void compressBlocks(byte[] in, int inOff, int blocks)
+    {
+        if (executor == null || blocks < 2 || (long)blocks * B < PARALLEL_THRESHOLD_BYTES)
+        {
+            for (int i = 0; i < blocks; ++i)
+            {
+                compress(in, inOff + i * B, B);
+            }
+            return;
+        }
+
+        int cvLength = compressorBuffer.length;
+        byte[] cvs = new byte[Math.min(blocks, MAX_BATCH_BLOCKS) * cvLength];
+
+        while (blocks > 0)
+        {
+            int count = Math.min(blocks, MAX_BATCH_BLOCKS);
+
+            compressParallel(in, inOff, count, cvs);
+            cshake.update(cvs, 0, count * cvLength);
+            nCount += count;
+
+            inOff += count * B;
+            blocks -= count;
+        }
+
+        Arrays.fill(cvs, (byte)0);
+    }
+
+    private void compressParallel(final byte[] in, final int inOff, int blocks, final byte[] cvs)
+    {
+        int taskCount = Math.min(blocks, MAX_TASKS);
+        Runnable[] tasks = new Runnable[taskCount];
+
+        for (int t = 0; t < taskCount; ++t)
+        {
+            final int first = (int)((long)blocks * t / taskCount);
+            final int last = (int)((long)blocks * (t + 1) / taskCount);
+
+            tasks[t] = new Runnable()
+            {
+                public void run()
+                {
+                    SHAKEDigest leaf = new SHAKEDigest(bitLength);
+                    int cvLength = bitLength * 2 / 8;
+
+                    for (int i = first; i < last; ++i)
+                    {
+                        leaf.update(in, inOff + i * B, B);
+                        leaf.doFinal(cvs, i * cvLength, cvLength);
+                    }
+                }
+            };
+        }
+
+        ParallelTasks.invokeAll(executor, tasks);
+    }
+}
@@ -0,0 +1,168 @@
+package org.bouncycastle.crypto.digests;
+
+import org.bouncycastle.util.Pack;
+
+/**
+ * Multi-buffer FIPS 180-2 SHA-256 - hashes a batch of independent messages, interleaving the
+ * compression function rounds of up to getLaneCount() messages at a time. Each message digest
+ * is identical to the one produced by {@link SHA256Digest}.
+ * <p>
+ * The lane state is held word-major (all lanes' copies of a word adjacent) so each round is a
+ * simple loop over the lanes, in the style of a SIMD implementation.
+ * </p>
+ */
+public class SHA256MultiBufferDigest
+    extends MultiBufferDigest
+{
+    private static final int DIGEST_LENGTH = 32;
+
+    private final int[] H;
+    private final int[] V;
+    private final int[] W;
+
+    /**
+     * Standard constructor - four lanes.
+     */
+    public SHA256MultiBufferDigest()
+    {
+        this(4);
+    }
+
+    /**
+     * Constructor for a given number of lanes.
+     *
+     * @param lanes the number of messages to hash side by side.
+     */
+    public SHA256MultiBufferDigest(int lanes)
+    {
+        super(lanes, 64, 8);
+
+        this.H = new int[8 * lanes];
+        this.V = new int[8 * lanes];
+        this.W = new int[64 * lanes];
+    }
+
+    public String getAlgorithmName()
+    {
+        return "SHA-256";
+    }
+
+    public int getDigestSize()
+    {
+        return DIGEST_LENGTH;
+    }
+
+    protected void initLane(int slot)
+    {
+        H[slot            ] = 0x6a09e667;
+        H[slot + lanes    ] = 0xbb67ae85;
+        H[slot + lanes * 2] = 0x3c6ef372;
+        H[slot + lanes * 3] = 0xa54ff53a;
+        H[slot + lanes * 4] = 0x510e527f;
+        H[slot + lanes * 5] = 0x9b05688c;
+        H[slot + lanes * 6] = 0x1f83d9ab;
+        H[slot + lanes * 7] = 0x5be0cd19;
+    }
+
+    protected void processBlocks(byte[] blocks, int[] active, int count)
+    {
+        final int L = lanes;
+
+        for (int k = 0; k < count; ++k)
+        {
+            int slot = active[k], off = slot * 64;
+            for (int t = 0; t < 16; ++t)
+            {
+                W[t * L + slot] = Pack.bigEndianToInt(blocks, off + t * 4);
+            }
+        }
+
+        //
+        // expand 16 word block into 64 word blocks.
+        //
+        for (int t = 16; t < 64; ++t)
+        {
+            int w2 = (t - 2) * L, w7 = (t - 7) * L, w15 = (t - 15) * L, w16 = (t - 16) * L, wt = t * L;
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                W[wt + slot] = Theta1(W[w2 + slot]) + W[w7 + slot] + Theta0(W[w15 + slot]) + W[w16 + slot];
+            }
+        }
+
+        System.arraycopy(H, 0, V, 0, 8 * L);
+
+        /*
+         * Rather than shifting the eight working variables every round, their positions rotate: in
+         * round t variable j (a = 0 .. h = 7) lives at row (j - t) mod 8, so only the new 'e' and
+         * the new 'a' have to be stored.
+         */
+        for (int t = 0; t < 64; ++t)
+        {
+            int ra = ((0 - t) & 7) * L, rb = ((1 - t) & 7) * L, rc = ((2 - t) & 7) * L, rd = ((3 - t) & 7) * L;
+            int re = ((4 - t) & 7) * L, rf = ((5 - t) & 7) * L, rg = ((6 - t) & 7) * L, rh = ((7 - t) & 7) * L;
+            int wt = t * L, kt = SHA256Digest.K[t];
+
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                int a = V[ra + slot], b = V[rb + slot], c = V[rc + slot];
+                int e = V[re + slot], f = V[rf + slot], g = V[rg + slot];
+
+                int t1 = V[rh + slot] + Sum1(e) + Ch(e, f, g) + kt + W[wt + slot];
+                V[rd + slot] += t1;
+                V[rh + slot] = t1 + Sum0(a) + Maj(a, b, c);
+            }
+        }
+
+        // 64 rounds is a multiple of 8, so the rows are back in their original order
+        for (int j = 0; j < 8; ++j)
+        {
+            int row = j * L;
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                H[row + slot] += V[row + slot];
+            }
+        }
+    }
+
+    protected void finishLane(int slot, byte[] out, int outOff)
+    {
+        for (int j = 0; j < 8; ++j)
+        {
+            Pack.intToBigEndian(H[j * lanes + slot], out, outOff + j * 4);
+        }
+    }
+
+    /* SHA-256 functions */
+    private static int Ch(int x, int y, int z)
+    {
+        return (x & y) ^ ((~x) & z);
+    }
+
+    private static int Maj(int x, int y, int z)
+    {
+        return (x & y) | (z & (x ^ y));
+    }
+
+    private static int Sum0(int x)
+    {
+        return ((x >>> 2) | (x << 30)) ^ ((x >>> 13) | (x << 19)) ^ ((x >>> 22) | (x << 10));
+    }
+
+    private static int Sum1(int x)
+    {
+        return ((x >>> 6) | (x << 26)) ^ ((x >>> 11) | (x << 21)) ^ ((x >>> 25) | (x << 7));
+    }
+
+    private static int Theta0(int x)
+    {
+        return ((x >>> 7) | (x << 25)) ^ ((x >>> 18) | (x << 14)) ^ (x >>> 3);
+    }
+
+    private static int Theta1(int x)
+    {
+        return ((x >>> 17) | (x << 15)) ^ ((x >>> 19) | (x << 13)) ^ (x >>> 10);
+    }
+}
@@ -0,0 +1,169 @@
+package org.bouncycastle.crypto.digests;
+
+import org.bouncycastle.util.Pack;
+
+/**
+ * Multi-buffer FIPS 180-2 SHA-512 - hashes a batch of independent messages, interleaving the
+ * compression function rounds of up to getLaneCount() messages at a time. Each message digest
+ * is identical to the one produced by {@link SHA512Digest}.
+ * <p>
+ * The lane state is held word-major (all lanes' copies of a word adjacent) so each round is a
+ * simple loop over the lanes, in the style of a SIMD implementation.
+ * </p>
+ */
+public class SHA512MultiBufferDigest
+    extends MultiBufferDigest
+{
+    private static final int DIGEST_LENGTH = 64;
+
+    private final long[] H;
+    private final long[] V;
+    private final long[] W;
+
+    /**
+     * Standard constructor - four lanes.
+     */
+    public SHA512MultiBufferDigest()
+    {
+        this(4);
+    }
+
+    /**
+     * Constructor for a given number of lanes.
+     *
+     * @param lanes the number of messages to hash side by side.
+     */
+    public SHA512MultiBufferDigest(int lanes)
+    {
+        super(lanes, 128, 16);
+
+        this.H = new long[8 * lanes];
+        this.V = new long[8 * lanes];
+        this.W = new long[80 * lanes];
+    }
+
+    public String getAlgorithmName()
+    {
+        return "SHA-512";
+    }
+
+    public int getDigestSize()
+    {
+        return DIGEST_LENGTH;
+    }
+
+    protected void initLane(int slot)
+    {
+        H[slot            ] = 0x6a09e667f3bcc908L;
+        H[slot + lanes    ] = 0xbb67ae8584caa73bL;
+        H[slot + lanes * 2] = 0x3c6ef372fe94f82bL;
+        H[slot + lanes * 3] = 0xa54ff53a5f1d36f1L;
+        H[slot + lanes * 4] = 0x510e527fade682d1L;
+        H[slot + lanes * 5] = 0x9b05688c2b3e6c1fL;
+        H[slot + lanes * 6] = 0x1f83d9abfb41bd6bL;
+        H[slot + lanes * 7] = 0x5be0cd19137e2179L;
+    }
+
+    protected void processBlocks(byte[] blocks, int[] active, int count)
+    {
+        final int L = lanes;
+
+        for (int k = 0; k < count; ++k)
+        {
+            int slot = active[k], off = slot * 128;
+            for (int t = 0; t < 16; ++t)
+            {
+                W[t * L + slot] = Pack.bigEndianToLong(blocks, off + t * 8);
+            }
+        }
+
+        //
+        // expand 16 word block into 80 word blocks.
+        //
+        for (int t = 16; t < 80; ++t)
+        {
+            int w2 = (t - 2) * L, w7 = (t - 7) * L, w15 = (t - 15) * L, w16 = (t - 16) * L, wt = t * L;
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                W[wt + slot] = Sigma1(W[w2 + slot]) + W[w7 + slot] + Sigma0(W[w15 + slot]) + W[w16 + slot];
+            }
+        }
+
+        System.arraycopy(H, 0, V, 0, 8 * L);
+
+        /*
+         * Rather than shifting the eight working variables every round, their positions rotate: in
+         * round t variable j (a = 0 .. h = 7) lives at row (j - t) mod 8, so only the new 'e' and
+         * the new 'a' have to be stored.
+         */
+        for (int t = 0; t < 80; ++t)
+        {
+            int ra = ((0 - t) & 7) * L, rb = ((1 - t) & 7) * L, rc = ((2 - t) & 7) * L, rd = ((3 - t) & 7) * L;
+            int re = ((4 - t) & 7) * L, rf = ((5 - t) & 7) * L, rg = ((6 - t) & 7) * L, rh = ((7 - t) & 7) * L;
+            int wt = t * L;
+            long kt = LongDigest.K[t];
+
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                long a = V[ra + slot], b = V[rb + slot], c = V[rc + slot];
+                long e = V[re + slot], f = V[rf + slot], g = V[rg + slot];
+
+                long t1 = V[rh + slot] + Sum1(e) + Ch(e, f, g) + kt + W[wt + slot];
+                V[rd + slot] += t1;
+                V[rh + slot] = t1 + Sum0(a) + Maj(a, b, c);
+            }
+        }
+
+        // 80 rounds is a multiple of 8, so the rows are back in their original order
+        for (int j = 0; j < 8; ++j)
+        {
+            int row = j * L;
+            for (int k = 0; k < count; ++k)
+            {
+                int slot = active[k];
+                H[row + slot] += V[row + slot];
+            }
+        }
+    }
+
+    protected void finishLane(int slot, byte[] out, int outOff)
+    {
+        for (int j = 0; j < 8; ++j)
+        {
+            Pack.longToBigEndian(H[j * lanes + slot], out, outOff + j * 8);
+        }
+    }
+
+    /* SHA-384 and SHA-512 functions (as for SHA-256 but for longs) */
+    private static long Ch(long x, long y, long z)
+    {
+        return (x & y) ^ ((~x) & z);
+    }
+
+    private static long Maj(long x, long y, long z)
+    {
+        return (x & y) ^ (x & z) ^ (y & z);
+    }
+
+    private static long Sum0(long x)
+    {
+        return ((x << 36) | (x >>> 28)) ^ ((x << 30) | (x >>> 34)) ^ ((x << 25) | (x >>> 39));
+    }
+
+    private static long Sum1(long x)
+    {
+        return ((x << 50) | (x >>> 14)) ^ ((x << 46) | (x >>> 18)) ^ ((x << 23) | (x >>> 41));
+    }
+
+    private static long Sigma0(long x)
+    {
+        return ((x << 63) | (x >>> 1)) ^ ((x << 56) | (x >>> 8)) ^ (x >>> 7);
+    }
+
+    private static long Sigma1(long x)
+    {
+        return ((x << 45) | (x >>> 19)) ^ ((x << 3) | (x >>> 61)) ^ (x >>> 6);
+    }
+}
@@ -0,0 +1,101 @@
+package org.bouncycastle.crypto.digests;
+
+import org.bouncycastle.crypto.Xof;
+
+/**
+ * implementation of TurboSHAKE, SHAKE on the 12 round Keccak-p[1600,12] permutation.
+ * <p>
+ * TurboSHAKE takes a domain separation byte D in the range 0x01 to 0x7F, the default being 0x1F.
+ * See <a href="https://keccak.team/turboshake.html">https://keccak.team/turboshake.html</a>.
+ */
+public class TurboSHAKEDigest
+    extends KeccakDigest
+    implements Xof
+{
+    private static final int ROUNDS = 12;
+
+    private final byte domainSeparation;
+
+    private static int checkBitLength(int bitLength)
+    {
+        switch (bitLength)
+        {
+        case 128:
+        case 256:
+            return bitLength;
+        default:
+            throw new IllegalArgumentException("'bitLength' " + bitLength + " not supported for TurboSHAKE");
+        }
+    }
+
+    public TurboSHAKEDigest()
+    {
+        this(128);
+    }
+
+    public TurboSHAKEDigest(int bitLength)
+    {
+        this(bitLength, (byte)0x1F);
+    }
+
+    /**
+     * Base constructor.
+     *
+     * @param bitLength        bit length of the underlying function, 128 or 256.
+     * @param domainSeparation the domain separation byte D, 0x01 to 0x7F.
+     */
+    public TurboSHAKEDigest(int bitLength, byte domainSeparation)
+    {
+        super(checkBitLength(bitLength), ROUNDS);
+
+        if (domainSeparation < 0x01)
+        {
+            throw new IllegalArgumentException("'domainSeparation' must be in the range 0x01 to 0x7F");
+        }
+
+        this.domainSeparation = domainSeparation;
+    }
+
+    public TurboSHAKEDigest(TurboSHAKEDigest source)
+    {
+        super(source);
+
+        this.domainSeparation = source.domainSeparation;
+    }
+
+    public String getAlgorithmName()
+    {
+        return "TurboSHAKE" + fixedOutputLength;
+    }
+
+    public int doFinal(byte[] out, int outOff)
+    {
+        return doFinal(out, outOff, getDigestSize());
+    }
+
+    public int doFinal(byte[] out, int outOff, int outLen)
+    {
+        int length = doOutput(out, outOff, outLen);
+
+        reset();
+
+        return length;
+    }
+
+    public int doOutput(byte[] out, int outOff, int outLen)
+    {
+        if (!squeezing)
+        {
+            // D already carries the first padding bit as its highest set bit
+            int bits = 31 - Integer.numberOfLeadingZeros(domainSeparation);
+            if (bits > 0)
+            {
+                absorbBits(domainSeparation, bits);
+            }
+        }
+
+        squeeze(out, outOff, ((long)outLen) * 8);
+
+        return outLen;
+    }
+}
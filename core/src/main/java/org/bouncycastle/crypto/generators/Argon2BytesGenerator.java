@@ -1,8 +1,11 @@
 package org.bouncycastle.crypto.generators;
 
+import java.util.concurrent.ExecutorService;
+
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.Blake2bDigest;
 import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.util.ParallelTasks;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.Longs;
 import org.bouncycastle.util.Pack;
@@ -36,6 +39,8 @@
 
     private static final byte[] ZERO_BYTES = new byte[4];
 
+    private final ExecutorService executor;
+
     private Argon2Parameters parameters;
     private Block[] memory;
     private int segmentLength;
@@ -43,6 +48,21 @@
 
     public Argon2BytesGenerator()
     {
+        this(null);
+    }
+
+    /**
+     * Create a generator that fills the lanes of each segment on the passed in executor.
+     * <p>
+     * The lanes of a slice are independent, so with an executor up to <code>lanes</code> segments
+     * are computed at once, synchronising between slices as described in the Argon2 specification.
+     * </p>
+     *
+     * @param executor executor to fill the lanes on, or null to fill them on the calling thread.
+     */
+    public Argon2BytesGenerator(ExecutorService executor)
+    {
+        this.executor = executor;
     }
 
     /**
@@ -156,6 +176,12 @@ private void initMemory(int memoryBlocks)
 
     private void fillMemoryBlocks()
     {
+        if (executor != null && parameters.getLanes() > 1)
+        {
+            fillMemoryBlocks(executor);
+            return;
+        }
+
         FillBlock filler = new FillBlock();
         Position position = new Position();
         for (int pass = 0; pass < parameters.getIterations(); ++pass)
@@ -176,6 +202,45 @@ private void fillMemoryBlocks()
         }
     }
 
+    private void fillMemoryBlocks(ExecutorService executor)
+    {
+        int lanes = parameters.getLanes();
+        final FillBlock[] fillers = new FillBlock[lanes];
+        final Position[] positions = new Position[lanes];
+        Runnable[] tasks = new Runnable[lanes];
+
+        for (int lane = 0; lane < lanes; ++lane)
+        {
+            final int index = lane;
+
+            fillers[lane] = new FillBlock();
+            positions[lane] = new Position();
+            positions[lane].lane = lane;
+            tasks[lane] = new Runnable()
+            {
+                public void run()
+                {
+                    fillSegment(fillers[index], positions[index]);
+                }
+            };
+        }
+
+        for (int pass = 0; pass < parameters.getIterations(); ++pass)
+        {
+            for (int slice = 0; slice < ARGON2_SYNC_POINTS; ++slice)
+            {
+                for (int lane = 0; lane < lanes; ++lane)
+                {
+                    positions[lane].pass = pass;
+                    positions[lane].slice = slice;
+                }
+
+                // a segment only references blocks outside its own lane from earlier slices
+                ParallelTasks.invokeAll(executor, tasks);
+            }
+        }
+    }
+
     private void fillSegment(FillBlock filler, Position position)
     {
         Block addressBlock = null, inputBlock = null;
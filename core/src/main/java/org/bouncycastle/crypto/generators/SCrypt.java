@@ -1,9 +1,12 @@
 package org.bouncycastle.crypto.generators;
 
+import java.util.concurrent.ExecutorService;
+
 import org.bouncycastle.crypto.PBEParametersGenerator;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.engines.Salsa20Engine;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.util.ParallelTasks;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.Integers;
 import org.bouncycastle.util.Pack;
@@ -35,6 +38,30 @@ private SCrypt()
      * @return the generated key.
      */
     public static byte[] generate(byte[] P, byte[] S, int N, int r, int p, int dkLen)
+    {
+        return generate(P, S, N, r, p, dkLen, null);
+    }
+
+    /**
+     * Generate a key using the scrypt key derivation function, running the <code>p</code> independent
+     * SMix computations on an executor.
+     * <p>
+     * Note: each SMix in progress holds its own <code>128 * r * N</code> bytes, so with an executor
+     * the peak memory use can be up to <code>p</code> times that of the sequential calculation.
+     * </p>
+     *
+     * @param P     the bytes of the pass phrase.
+     * @param S     the salt to use for this invocation.
+     * @param N     CPU/Memory cost parameter. Must be larger than 1, a power of 2 and less than
+     *              <code>2^(128 * r / 8)</code>.
+     * @param r     the block size, must be &gt;= 1.
+     * @param p     Parallelization parameter. Must be a positive integer less than or equal to
+     *              <code>Integer.MAX_VALUE / (128 * r * 8)</code>.
+     * @param dkLen the length of the key to generate.
+     * @param executor executor to run the SMix computations on, or null to run them on the calling thread.
+     * @return the generated key.
+     */
+    public static byte[] generate(byte[] P, byte[] S, int N, int r, int p, int dkLen, ExecutorService executor)
     {
         if (P == null)
         {
@@ -67,10 +94,10 @@ public static byte[] generate(byte[] P, byte[] S, int N, int r, int p, int dkLen
         {
             throw new IllegalArgumentException("Generated key length dkLen must be >= 1.");
         }
-        return MFcrypt(P, S, N, r, p, dkLen);
+        return MFcrypt(P, S, N, r, p, dkLen, executor);
     }
 
-    private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen)
+    private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen, ExecutorService executor)
     {
         int MFLenBytes = r * 128;
         byte[] bytes = SingleIterationPBKDF2(P, S, p * MFLenBytes);
@@ -96,10 +123,33 @@ private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen
             }
 
             int MFLenWords = MFLenBytes >>> 2;
-            for (int BOff = 0; BOff < BLen; BOff += MFLenWords)
+            if (executor != null && p > 1)
+            {
+                final int[] sharedB = B;
+                final int sharedN = N, sharedD = d, sharedR = r;
+
+                // each SMix reads and writes only its own MFLenWords of B
+                Runnable[] tasks = new Runnable[p];
+                for (int i = 0; i < p; ++i)
+                {
+                    final int BOff = i * MFLenWords;
+                    tasks[i] = new Runnable()
+                    {
+                        public void run()
+                        {
+                            SMix(sharedB, BOff, sharedN, sharedD, sharedR);
+                        }
+                    };
+                }
+
+                ParallelTasks.invokeAll(executor, tasks);
+            }
+            else
             {
-                // TODO These can be done in parallel threads
-                SMix(B, BOff, N, d, r);
+                for (int BOff = 0; BOff < BLen; BOff += MFLenWords)
+                {
+                    SMix(B, BOff, N, d, r);
+                }
             }
 
             Pack.intToLittleEndian(B, bytes, 0);
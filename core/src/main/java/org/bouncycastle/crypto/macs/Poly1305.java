@@ -29,8 +29,6 @@
 
     private final BlockCipher cipher;
 
-    private final byte[] singleByte = new byte[1];
-
     // Initialised state
 
     /** Polynomial key */
@@ -39,6 +37,16 @@
     /** Precomputed 5 * r[1..4] */
     private int s1, s2, s3, s4;
 
+    /** Precomputed powers r^2, r^3, r^4 of the polynomial key, used to absorb four blocks per step */
+    private int r20, r21, r22, r23, r24;
+    private int r30, r31, r32, r33, r34;
+    private int r40, r41, r42, r43, r44;
+
+    /** Precomputed 5 * (r^2)[1..4], 5 * (r^3)[1..4], 5 * (r^4)[1..4] */
+    private int s21, s22, s23, s24;
+    private int s31, s32, s33, s34;
+    private int s41, s42, s43, s44;
+
     /** Encrypted nonce */
     private int k0, k1, k2, k3;
 
@@ -140,6 +148,21 @@ private void setKey(final byte[] key, final byte[] nonce)
         s3 = r3 * 5;
         s4 = r4 * 5;
 
+        // Precompute powers of r for the four-block absorb
+        int[] p1 = new int[]{ r0, r1, r2, r3, r4 };
+        int[] p2 = new int[5], p3 = new int[5], p4 = new int[5];
+        mulMod(p1, p1, p2);
+        mulMod(p2, p1, p3);
+        mulMod(p2, p2, p4);
+
+        r20 = p2[0]; r21 = p2[1]; r22 = p2[2]; r23 = p2[3]; r24 = p2[4];
+        r30 = p3[0]; r31 = p3[1]; r32 = p3[2]; r33 = p3[3]; r34 = p3[4];
+        r40 = p4[0]; r41 = p4[1]; r42 = p4[2]; r43 = p4[3]; r44 = p4[4];
+
+        s21 = r21 * 5; s22 = r22 * 5; s23 = r23 * 5; s24 = r24 * 5;
+        s31 = r31 * 5; s32 = r32 * 5; s33 = r33 * 5; s34 = r34 * 5;
+        s41 = r41 * 5; s42 = r42 * 5; s43 = r43 * 5; s44 = r44 * 5;
+
         final byte[] kBytes;
         final int kOff;
 
@@ -177,57 +200,67 @@ public int getMacSize()
     public void update(final byte in)
         throws IllegalStateException
     {
-        singleByte[0] = in;
-        update(singleByte, 0, 1);
+        currentBlock[currentBlockOffset] = in;
+        if (++currentBlockOffset == BLOCK_SIZE)
+        {
+            processBlock(currentBlock, 0);
+            currentBlockOffset = 0;
+        }
     }
 
-    public void update(final byte[] in, final int inOff, final int len)
+    public void update(final byte[] in, int inOff, int len)
         throws DataLengthException,
         IllegalStateException
     {
-        int copied = 0;
-        while (len > copied)
+        if (currentBlockOffset > 0)
         {
-            if (currentBlockOffset == BLOCK_SIZE)
+            int available = BLOCK_SIZE - currentBlockOffset;
+            if (len < available)
             {
-                processBlock();
-                currentBlockOffset = 0;
+                System.arraycopy(in, inOff, currentBlock, currentBlockOffset, len);
+                currentBlockOffset += len;
+                return;
             }
 
-            int toCopy = Math.min((len - copied), BLOCK_SIZE - currentBlockOffset);
-            System.arraycopy(in, copied + inOff, currentBlock, currentBlockOffset, toCopy);
-            copied += toCopy;
-            currentBlockOffset += toCopy;
+            System.arraycopy(in, inOff, currentBlock, currentBlockOffset, available);
+            processBlock(currentBlock, 0);
+            currentBlockOffset = 0;
+            inOff += available;
+            len -= available;
         }
 
-    }
+        // Full blocks are absorbed directly from the caller's buffer
+        while (len >= 4 * BLOCK_SIZE)
+        {
+            processBlocks4(in, inOff);
+            inOff += 4 * BLOCK_SIZE;
+            len -= 4 * BLOCK_SIZE;
+        }
 
-    private void processBlock()
-    {
-        if (currentBlockOffset < BLOCK_SIZE)
+        while (len >= BLOCK_SIZE)
         {
-            currentBlock[currentBlockOffset] = 1;
-            for (int i = currentBlockOffset + 1; i < BLOCK_SIZE; i++)
-            {
-                currentBlock[i] = 0;
-            }
+            processBlock(in, inOff);
+            inOff += BLOCK_SIZE;
+            len -= BLOCK_SIZE;
         }
 
-        final long t0 = 0xffffffffL & Pack.littleEndianToInt(currentBlock, 0);
-        final long t1 = 0xffffffffL & Pack.littleEndianToInt(currentBlock, 4);
-        final long t2 = 0xffffffffL & Pack.littleEndianToInt(currentBlock, 8);
-        final long t3 = 0xffffffffL & Pack.littleEndianToInt(currentBlock, 12);
+        System.arraycopy(in, inOff, currentBlock, 0, len);
+        currentBlockOffset = len;
+    }
 
-        h0 += t0 & 0x3ffffff;
-        h1 += (((t1 << 32) | t0) >>> 26) & 0x3ffffff;
-        h2 += (((t2 << 32) | t1) >>> 20) & 0x3ffffff;
-        h3 += (((t3 << 32) | t2) >>> 14) & 0x3ffffff;
-        h4 += (t3 >>> 8);
+    private void processBlock(byte[] buf, int off)
+    {
+        absorb(Pack.littleEndianToInt(buf, off), Pack.littleEndianToInt(buf, off + 4),
+            Pack.littleEndianToInt(buf, off + 8), Pack.littleEndianToInt(buf, off + 12), 1 << 24);
+    }
 
-        if (currentBlockOffset == BLOCK_SIZE)
-        {
-            h4 += (1 << 24);
-        }
+    private void absorb(int t0, int t1, int t2, int t3, int hibit)
+    {
+        h0 +=   t0                       & 0x3ffffff;
+        h1 += ((t0 >>> 26) | (t1 <<  6)) & 0x3ffffff;
+        h2 += ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+        h3 += ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+        h4 +=  (t3 >>>  8) | hibit;
 
         long tp0 = mul32x32_64(h0,r0) + mul32x32_64(h1,s4) + mul32x32_64(h2,s3) + mul32x32_64(h3,s2) + mul32x32_64(h4,s1);
         long tp1 = mul32x32_64(h0,r1) + mul32x32_64(h1,r0) + mul32x32_64(h2,s4) + mul32x32_64(h3,s3) + mul32x32_64(h4,s2);
@@ -244,6 +277,93 @@ private void processBlock()
         h1 += (h0 >>> 26); h0 &= 0x3ffffff;
     }
 
+    /*
+     * Absorbs four full blocks m1..m4 in one step, computing h = (h + m1).r^4 + m2.r^3 + m3.r^2 + m4.r,
+     * so that only a single carry propagation is needed per 64 bytes of input.
+     */
+    private void processBlocks4(byte[] buf, int off)
+    {
+        int t0, t1, t2, t3;
+
+        t0 = Pack.littleEndianToInt(buf, off +  0);
+        t1 = Pack.littleEndianToInt(buf, off +  4);
+        t2 = Pack.littleEndianToInt(buf, off +  8);
+        t3 = Pack.littleEndianToInt(buf, off + 12);
+
+        int a0 = h0 + (  t0                       & 0x3ffffff);
+        int a1 = h1 + (((t0 >>> 26) | (t1 <<  6)) & 0x3ffffff);
+        int a2 = h2 + (((t1 >>> 20) | (t2 << 12)) & 0x3ffffff);
+        int a3 = h3 + (((t2 >>> 14) | (t3 << 18)) & 0x3ffffff);
+        int a4 = h4 + ( (t3 >>>  8) | (1 << 24));
+
+        long tp0 = mul32x32_64(a0,r40) + mul32x32_64(a1,s44) + mul32x32_64(a2,s43) + mul32x32_64(a3,s42) + mul32x32_64(a4,s41);
+        long tp1 = mul32x32_64(a0,r41) + mul32x32_64(a1,r40) + mul32x32_64(a2,s44) + mul32x32_64(a3,s43) + mul32x32_64(a4,s42);
+        long tp2 = mul32x32_64(a0,r42) + mul32x32_64(a1,r41) + mul32x32_64(a2,r40) + mul32x32_64(a3,s44) + mul32x32_64(a4,s43);
+        long tp3 = mul32x32_64(a0,r43) + mul32x32_64(a1,r42) + mul32x32_64(a2,r41) + mul32x32_64(a3,r40) + mul32x32_64(a4,s44);
+        long tp4 = mul32x32_64(a0,r44) + mul32x32_64(a1,r43) + mul32x32_64(a2,r42) + mul32x32_64(a3,r41) + mul32x32_64(a4,r40);
+
+        t0 = Pack.littleEndianToInt(buf, off + 16);
+        t1 = Pack.littleEndianToInt(buf, off + 20);
+        t2 = Pack.littleEndianToInt(buf, off + 24);
+        t3 = Pack.littleEndianToInt(buf, off + 28);
+
+        a0 =   t0                       & 0x3ffffff;
+        a1 = ((t0 >>> 26) | (t1 <<  6)) & 0x3ffffff;
+        a2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+        a3 = ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+        a4 =  (t3 >>>  8) | (1 << 24);
+
+        tp0 += mul32x32_64(a0,r30) + mul32x32_64(a1,s34) + mul32x32_64(a2,s33) + mul32x32_64(a3,s32) + mul32x32_64(a4,s31);
+        tp1 += mul32x32_64(a0,r31) + mul32x32_64(a1,r30) + mul32x32_64(a2,s34) + mul32x32_64(a3,s33) + mul32x32_64(a4,s32);
+        tp2 += mul32x32_64(a0,r32) + mul32x32_64(a1,r31) + mul32x32_64(a2,r30) + mul32x32_64(a3,s34) + mul32x32_64(a4,s33);
+        tp3 += mul32x32_64(a0,r33) + mul32x32_64(a1,r32) + mul32x32_64(a2,r31) + mul32x32_64(a3,r30) + mul32x32_64(a4,s34);
+        tp4 += mul32x32_64(a0,r34) + mul32x32_64(a1,r33) + mul32x32_64(a2,r32) + mul32x32_64(a3,r31) + mul32x32_64(a4,r30);
+
+        t0 = Pack.littleEndianToInt(buf, off + 32);
+        t1 = Pack.littleEndianToInt(buf, off + 36);
+        t2 = Pack.littleEndianToInt(buf, off + 40);
+        t3 = Pack.littleEndianToInt(buf, off + 44);
+
+        a0 =   t0                       & 0x3ffffff;
+        a1 = ((t0 >>> 26) | (t1 <<  6)) & 0x3ffffff;
+        a2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+        a3 = ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+        a4 =  (t3 >>>  8) | (1 << 24);
+
+        tp0 += mul32x32_64(a0,r20) + mul32x32_64(a1,s24) + mul32x32_64(a2,s23) + mul32x32_64(a3,s22) + mul32x32_64(a4,s21);
+        tp1 += mul32x32_64(a0,r21) + mul32x32_64(a1,r20) + mul32x32_64(a2,s24) + mul32x32_64(a3,s23) + mul32x32_64(a4,s22);
+        tp2 += mul32x32_64(a0,r22) + mul32x32_64(a1,r21) + mul32x32_64(a2,r20) + mul32x32_64(a3,s24) + mul32x32_64(a4,s23);
+        tp3 += mul32x32_64(a0,r23) + mul32x32_64(a1,r22) + mul32x32_64(a2,r21) + mul32x32_64(a3,r20) + mul32x32_64(a4,s24);
+        tp4 += mul32x32_64(a0,r24) + mul32x32_64(a1,r23) + mul32x32_64(a2,r22) + mul32x32_64(a3,r21) + mul32x32_64(a4,r20);
+
+        t0 = Pack.littleEndianToInt(buf, off + 48);
+        t1 = Pack.littleEndianToInt(buf, off + 52);
+        t2 = Pack.littleEndianToInt(buf, off + 56);
+        t3 = Pack.littleEndianToInt(buf, off + 60);
+
+        a0 =   t0                       & 0x3ffffff;
+        a1 = ((t0 >>> 26) | (t1 <<  6)) & 0x3ffffff;
+        a2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+        a3 = ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+        a4 =  (t3 >>>  8) | (1 << 24);
+
+        tp0 += mul32x32_64(a0,r0) + mul32x32_64(a1,s4) + mul32x32_64(a2,s3) + mul32x32_64(a3,s2) + mul32x32_64(a4,s1);
+        tp1 += mul32x32_64(a0,r1) + mul32x32_64(a1,r0) + mul32x32_64(a2,s4) + mul32x32_64(a3,s3) + mul32x32_64(a4,s2);
+        tp2 += mul32x32_64(a0,r2) + mul32x32_64(a1,r1) + mul32x32_64(a2,r0) + mul32x32_64(a3,s4) + mul32x32_64(a4,s3);
+        tp3 += mul32x32_64(a0,r3) + mul32x32_64(a1,r2) + mul32x32_64(a2,r1) + mul32x32_64(a3,r0) + mul32x32_64(a4,s4);
+        tp4 += mul32x32_64(a0,r4) + mul32x32_64(a1,r3) + mul32x32_64(a2,r2) + mul32x32_64(a3,r1) + mul32x32_64(a4,r0);
+
+        // The summed products are too wide for the final carry to be done in 32 bits
+        h0 = (int)tp0 & 0x3ffffff; tp1 += (tp0 >>> 26);
+        h1 = (int)tp1 & 0x3ffffff; tp2 += (tp1 >>> 26);
+        h2 = (int)tp2 & 0x3ffffff; tp3 += (tp2 >>> 26);
+        h3 = (int)tp3 & 0x3ffffff; tp4 += (tp3 >>> 26);
+        h4 = (int)tp4 & 0x3ffffff;
+        tp0 = (tp4 >>> 26) * 5 + h0;
+        h0 = (int)tp0 & 0x3ffffff;
+        h1 += (int)(tp0 >>> 26);
+    }
+
     public int doFinal(final byte[] out, final int outOff)
         throws DataLengthException,
         IllegalStateException
@@ -256,7 +376,14 @@ public int doFinal(final byte[] out, final int outOff)
         if (currentBlockOffset > 0)
         {
             // Process padded final block
-            processBlock();
+            currentBlock[currentBlockOffset] = 1;
+            for (int i = currentBlockOffset + 1; i < BLOCK_SIZE; i++)
+            {
+                currentBlock[i] = 0;
+            }
+
+            absorb(Pack.littleEndianToInt(currentBlock, 0), Pack.littleEndianToInt(currentBlock, 4),
+                Pack.littleEndianToInt(currentBlock, 8), Pack.littleEndianToInt(currentBlock, 12), 0);
         }
 
         h1 += (h0 >>> 26); h0 &= 0x3ffffff;
@@ -306,6 +433,41 @@ public void reset()
         h0 = h1 = h2 = h3 = h4 = 0;
     }
 
+    /*
+     * Computes z = x.y mod 2^130 - 5 on 26-bit limbs, used only to precompute the powers of r.
+     */
+    private static void mulMod(int[] x, int[] y, int[] z)
+    {
+        int x0 = x[0], x1 = x[1], x2 = x[2], x3 = x[3], x4 = x[4];
+        int y0 = y[0], y1 = y[1], y2 = y[2], y3 = y[3], y4 = y[4];
+        int t1 = y1 * 5, t2 = y2 * 5, t3 = y3 * 5, t4 = y4 * 5;
+
+        long tp0 = mul32x32_64(x0,y0) + mul32x32_64(x1,t4) + mul32x32_64(x2,t3) + mul32x32_64(x3,t2) + mul32x32_64(x4,t1);
+        long tp1 = mul32x32_64(x0,y1) + mul32x32_64(x1,y0) + mul32x32_64(x2,t4) + mul32x32_64(x3,t3) + mul32x32_64(x4,t2);
+        long tp2 = mul32x32_64(x0,y2) + mul32x32_64(x1,y1) + mul32x32_64(x2,y0) + mul32x32_64(x3,t4) + mul32x32_64(x4,t3);
+        long tp3 = mul32x32_64(x0,y3) + mul32x32_64(x1,y2) + mul32x32_64(x2,y1) + mul32x32_64(x3,y0) + mul32x32_64(x4,t4);
+        long tp4 = mul32x32_64(x0,y4) + mul32x32_64(x1,y3) + mul32x32_64(x2,y2) + mul32x32_64(x3,y1) + mul32x32_64(x4,y0);
+
+        int z0, z1, z2, z3, z4;
+        z0 = (int)tp0 & 0x3ffffff; tp1 += (tp0 >>> 26);
+        z1 = (int)tp1 & 0x3ffffff; tp2 += (tp1 >>> 26);
+        z2 = (int)tp2 & 0x3ffffff; tp3 += (tp2 >>> 26);
+        z3 = (int)tp3 & 0x3ffffff; tp4 += (tp3 >>> 26);
+        z4 = (int)tp4 & 0x3ffffff;
+        tp0 = (tp4 >>> 26) * 5 + z0;
+        z0 = (int)tp0 & 0x3ffffff;
+        z1 += (int)(tp0 >>> 26);
+
+        // Fully propagate the carries so every limb is below 2^26
+        z2 += (z1 >>> 26); z1 &= 0x3ffffff;
+        z3 += (z2 >>> 26); z2 &= 0x3ffffff;
+        z4 += (z3 >>> 26); z3 &= 0x3ffffff;
+        z0 += (z4 >>> 26) * 5; z4 &= 0x3ffffff;
+        z1 += (z0 >>> 26); z0 &= 0x3ffffff;
+
+        z[0] = z0; z[1] = z1; z[2] = z2; z[3] = z3; z[4] = z4;
+    }
+
     private static final long mul32x32_64(int i1, int i2)
     {
         return (i1 & 0xFFFFFFFFL) * i2;
@@ -316,6 +316,41 @@ public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) t
         {
         case State.DEC_DATA:
         {
+            /*
+             * The last MAC_SIZE bytes seen must always be held back as the possible tag. When the
+             * output can't overlap the input, whole buffers are MACed and decrypted straight from
+             * the input instead of being copied through buf.
+             */
+            if (in != out)
+            {
+                int available = bufPos + len - MAC_SIZE;
+                if (available >= BUF_SIZE)
+                {
+                    int bulkLen = available - (available % BUF_SIZE);
+                    int fromBuf = Math.min(bufPos, bulkLen), fromIn = bulkLen - fromBuf;
+
+                    if (outOff > (out.length - bulkLen))
+                    {
+                        throw new OutputLengthException("Output buffer too short");
+                    }
+
+                    poly1305.update(buf, 0, fromBuf);
+                    processData(buf, 0, fromBuf, out, outOff);
+                    System.arraycopy(buf, fromBuf, buf, 0, bufPos - fromBuf);
+                    this.bufPos -= fromBuf;
+
+                    if (fromIn > 0)
+                    {
+                        poly1305.update(in, inOff, fromIn);
+                        processData(in, inOff, fromIn, out, outOff + fromBuf);
+                        inOff += fromIn;
+                        len -= fromIn;
+                    }
+
+                    resultLen = bulkLen;
+                }
+            }
+
             for (int i = 0; i < len; ++i)
             {
                 buf[bufPos] = in[inOff + i];
@@ -349,13 +384,15 @@ public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) t
                 }
             }
 
-            while (len >= BUF_SIZE)
+            if (len >= BUF_SIZE)
             {
-                processData(in, inOff, BUF_SIZE, out, outOff + resultLen);
-                poly1305.update(out, outOff + resultLen, BUF_SIZE);
-                inOff += BUF_SIZE;
-                len -= BUF_SIZE;
-                resultLen += BUF_SIZE;
+                // Encrypt all whole buffers in one pass so the MAC can absorb them in bulk
+                int bulkLen = len - (len % BUF_SIZE);
+                processData(in, inOff, bulkLen, out, outOff + resultLen);
+                poly1305.update(out, outOff + resultLen, bulkLen);
+                inOff += bulkLen;
+                len -= bulkLen;
+                resultLen += bulkLen;
             }
 
             if (len > 0)
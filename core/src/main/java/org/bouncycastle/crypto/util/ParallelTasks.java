@@ -0,0 +1,70 @@
+package org.bouncycastle.crypto.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent pieces of a single computation, such as the nodes of a tree hash or the lanes of a
+ * memory hard password hashing function, on an executor.
+ */
+public final class ParallelTasks
+{
+    private ParallelTasks()
+    {
+    }
+
+    /**
+     * Run all the tasks on the executor and wait for them to complete. The tasks must not wait
+     * on each other, so any executor, including a ForkJoinPool, may be used.
+     */
+    public static void invokeAll(ExecutorService executor, Runnable[] tasks)
+    {
+        Future[] futures = new Future[tasks.length];
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            futures[i] = executor.submit(tasks[i]);
+        }
+
+        boolean interrupted = false;
+        try
+        {
+            for (int i = 0; i < futures.length; ++i)
+            {
+                while (true)
+                {
+                    try
+                    {
+                        futures[i].get();
+                        break;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // the tasks share state with the caller, so they must all finish
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("parallel task failed: " + cause);
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -115,6 +115,45 @@ public static boolean removeThreadOverride(String propertyName)
         return false;
     }
 
+    /**
+     * Return a copy of the overrides set for the current thread, so work handed to another thread
+     * can be run with them using setThreadOverrides().
+     *
+     * @return a map of property name to value, or null if there are no overrides for this thread.
+     */
+    public static Map getThreadOverrides()
+    {
+        Map localProps = (Map)threadProperties.get();
+        if (localProps == null)
+        {
+            return null;
+        }
+
+        return new HashMap(localProps);
+    }
+
+    /**
+     * Replace all the overrides for the current thread.
+     *
+     * @param overrides a map of property name to value as returned by getThreadOverrides(), null to clear them.
+     * @return the overrides previously in place for this thread, suitable for restoring them afterwards.
+     */
+    public static Map setThreadOverrides(Map overrides)
+    {
+        Map localProps = (Map)threadProperties.get();
+
+        if (overrides == null || overrides.isEmpty())
+        {
+            threadProperties.remove();
+        }
+        else
+        {
+            threadProperties.set(new HashMap(overrides));
+        }
+
+        return localProps;
+    }
+
     public static BigInteger asBigInteger(String propertyName)
     {
         String p = getPropertyValue(propertyName);
@@ -1,5 +1,7 @@
 package org.bouncycastle.crypto.test;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
 import org.bouncycastle.crypto.params.Argon2Parameters;
@@ -31,6 +33,7 @@ public void performTest()
         }
 
         testVectorsFromInternetDraft();
+        testExecutor();
 
         int version = Argon2Parameters.ARGON2_VERSION_10;
 
@@ -199,6 +202,50 @@ private void testVectorsFromInternetDraft()
 
     }
 
+    private void testExecutor()
+    {
+        byte[] salt = Hex.decode("02020202020202020202020202020202");
+        byte[] password = Hex.decode("0101010101010101010101010101010101010101010101010101010101010101");
+        int[] types = new int[]{ Argon2Parameters.ARGON2_d, Argon2Parameters.ARGON2_i, Argon2Parameters.ARGON2_id };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            for (int i = 0; i != types.length; i++)
+            {
+                Argon2Parameters parameters = new Argon2Parameters.Builder(types[i])
+                    .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                    .withIterations(2)
+                    .withMemoryAsKB(64)
+                    .withParallelism(4)
+                    .withSalt(salt)
+                    .build();
+
+                Argon2BytesGenerator gen = new Argon2BytesGenerator();
+                gen.init(parameters);
+
+                byte[] expected = new byte[32];
+                gen.generateBytes(password, expected);
+
+                gen = new Argon2BytesGenerator(executor);
+                gen.init(parameters);
+
+                byte[] result = new byte[32];
+                gen.generateBytes(password, result);
+                isTrue("executor result mismatch for type " + types[i], areEqual(expected, result));
+
+                // generator should be re-usable with an executor too
+                Arrays.clear(result);
+                gen.generateBytes(password, result);
+                isTrue("executor re-use mismatch for type " + types[i], areEqual(expected, result));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     private static int getJvmVersion()
     {
         String version = System.getProperty("java.specification.version");
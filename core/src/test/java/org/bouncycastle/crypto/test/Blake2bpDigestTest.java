@@ -0,0 +1,74 @@
+package org.bouncycastle.crypto.test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.crypto.digests.Blake2bpDigest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+public class Blake2bpDigestTest
+    extends SimpleTest
+{
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f"
+        + "202122232425262728292a2b2c2d2e2f303132333435363738393a3b3c3d3e3f";
+
+    // Keyed vectors in the style of the BLAKE2 reference blake2bp-kat.txt: message is 00 01 02 ...
+    private static final String[][] keyedTestVectors = {
+        // message length, hash
+        { "0", "9d9461073e4eb640a255357b839f394b838c6ff57c9b686a3f76107c1066728f3c9956bd785cbc3bf79dc2ab578c5a0c063b9d9c405848de1dbe821cd05c940a" },
+        { "1", "ff8e90a37b94623932c59f7559f26035029c376732cb14d41602001cbb73adb79293a2dbda5f60703025144d158e2735529596251c73c0345ca6fccb1fb1e97e" },
+        { "3", "30302c3fc999065d10dc982c8feef41bbb6642718f624af6e3eabea083e7fe785340db4b0897efff39cee1dc1eb737cd1eea0fe75384984e7d8f446faa683b80" },
+        { "128", "9280f4d1157032ab315c100d636283fbf4fba2fbad0f8bc020721d76bc1c8973ced28871cc907dab60e59756987b0e0f867fa2fe9d9041f2c9618074e44fe5e9" },
+        { "129", "5530c2d59f144872e987e4e258a7d8c38ce844e2cc2eed940ffc683b498815e53adb1faaf568946122805ac3b8e2fed435fed6162e76f564e586ba464424e885" },
+    };
+
+    public String getName()
+    {
+        return "BLAKE2bp";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        for (int i = 0; i < keyedTestVectors.length; ++i)
+        {
+            byte[] msg = Blake2spDigestTest.message(Integer.parseInt(keyedTestVectors[i][0]));
+            byte[] hash = new byte[64];
+
+            Blake2bpDigest digest = new Blake2bpDigest(Hex.decode(KEY));
+            digest.update(msg, 0, msg.length);
+            digest.doFinal(hash, 0);
+
+            isTrue("BLAKE2bp keyed vector " + i, Arrays.areEqual(Hex.decode(keyedTestVectors[i][1]), hash));
+        }
+
+        testParallelAndSplitUpdates();
+    }
+
+    private void testParallelAndSplitUpdates()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            Random random = new Random();
+            byte[] msg = new byte[200000];
+            random.nextBytes(msg);
+
+            byte[] expected = Blake2spDigestTest.hash(new Blake2bpDigest(), msg, msg.length);
+            isTrue("BLAKE2bp parallel", Arrays.areEqual(expected, Blake2spDigestTest.hash(new Blake2bpDigest(null, executor), msg, msg.length)));
+            isTrue("BLAKE2bp split", Arrays.areEqual(expected, Blake2spDigestTest.hash(new Blake2bpDigest(null, executor), msg, 1 + random.nextInt(70000))));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        runTest(new Blake2bpDigestTest());
+    }
+}
@@ -0,0 +1,105 @@
+package org.bouncycastle.crypto.test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2spDigest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+public class Blake2spDigestTest
+    extends SimpleTest
+{
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f";
+
+    // Keyed vectors in the style of the BLAKE2 reference blake2sp-kat.txt: message is 00 01 02 ...
+    private static final String[][] keyedTestVectors = {
+        // message length, hash
+        { "0", "715cb13895aeb678f6124160bff21465b30f4f6874193fc851b4621043f09cc6" },
+        { "1", "40578ffa52bf51ae1866f4284d3a157fc1bcd36ac13cbdcb0377e4d0cd0b6603" },
+        { "3", "8dbcc0589a3d17296a7a58e2f1eff0e2aa4210b58d1f88b86d7ba5f29dd3b583" },
+        { "64", "1d3701a5661bd31ab20562bd07b74dd19ac8f3524b73ce7bc996b788afd2f317" },
+        { "65", "874e1938033d7d383597a2a65f58b554e41106f6d1d50e9ba0eb685f6b6da071" },
+        { "129", "c65938dd3a053c729cf5b7c89f390bfebb5112766bb00aa5fa3164dfdf3b5647" },
+    };
+
+    public String getName()
+    {
+        return "BLAKE2sp";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        for (int i = 0; i < keyedTestVectors.length; ++i)
+        {
+            byte[] msg = message(Integer.parseInt(keyedTestVectors[i][0]));
+            byte[] hash = new byte[32];
+
+            Blake2spDigest digest = new Blake2spDigest(Hex.decode(KEY));
+            digest.update(msg, 0, msg.length);
+            digest.doFinal(hash, 0);
+
+            isTrue("BLAKE2sp keyed vector " + i, Arrays.areEqual(Hex.decode(keyedTestVectors[i][1]), hash));
+        }
+
+        testParallelAndSplitUpdates();
+    }
+
+    private void testParallelAndSplitUpdates()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            Random random = new Random();
+            byte[] msg = new byte[200000];
+            random.nextBytes(msg);
+
+            byte[] expected = hash(new Blake2spDigest(), msg, msg.length);
+            isTrue("BLAKE2sp parallel", Arrays.areEqual(expected, hash(new Blake2spDigest(null, executor), msg, msg.length)));
+            isTrue("BLAKE2sp split", Arrays.areEqual(expected, hash(new Blake2spDigest(null, executor), msg, 1 + random.nextInt(70000))));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    static byte[] message(int len)
+    {
+        byte[] msg = new byte[len];
+        for (int i = 0; i < len; ++i)
+        {
+            msg[i] = (byte)i;
+        }
+        return msg;
+    }
+
+    static byte[] hash(Digest digest, byte[] msg, int chunkSize)
+    {
+        for (int pos = 0; pos < msg.length; pos += chunkSize)
+        {
+            int len = Math.min(chunkSize, msg.length - pos);
+            if (len == 1)
+            {
+                digest.update(msg[pos]);
+            }
+            else
+            {
+                digest.update(msg, pos, len);
+            }
+        }
+
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return hash;
+    }
+
+    public static void main(String[] args)
+    {
+        runTest(new Blake2spDigestTest());
+    }
+}
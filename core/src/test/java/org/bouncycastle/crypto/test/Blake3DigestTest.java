@@ -0,0 +1,155 @@
+package org.bouncycastle.crypto.test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.crypto.digests.Blake3Digest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+public class Blake3DigestTest
+    extends SimpleTest
+{
+    private static final String KEY = "whats the Elvish word for friend";
+
+    // From the BLAKE3 reference test_vectors.json: message is 00 01 02 ... fa 00 01 ...
+    private static final String[][] testVectors = {
+        // message length, hash, keyed hash
+        { "0", "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+            "92b2b75604ed3c761f9d6f62392c8a9227ad0ea3f09573e783f1498a4ed60d26" },
+        { "1", "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213",
+            "6d7878dfff2f485635d39013278ae14f1454b8c0a3a2d34bc1ab38228a80c95b" },
+        { "1023", "10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11",
+            "c951ecdf03288d0fcc96ee3413563d8a6d3589547f2c2fb36d9786470f1b9d6e" },
+        { "1024", "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7",
+            "75c46f6f3d9eb4f55ecaaee480db732e6c2105546f1e675003687c31719c7ba4" },
+        { "1025", "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444",
+            "357dc55de0c7e382c900fd6e320acc04146be01db6a8ce7210b7189bd664ea69" },
+        { "3073", "7124b49501012f81cc7f11ca069ec9226cecb8a2c850cfe644e327d22d3e1cd3",
+            "68dede9bef00ba89e43f31a6825f4cf433389fedae75c04ee9f0cf16a427c95a" },
+        { "8193", "bab6c09cb8ce8cf459261398d2e7aef35700bf488116ceb94a36d0f5f1b7bc3b",
+            "954a2a75420c8d6547e3ba5b98d963e6fa6491addc8c023189cc519821b4a1f5" },
+        { "102400", "bc3e3d41a1146b069abffad3c0d44860cf664390afce4d9661f7902e7943e085",
+            "1c35d1a5811083fd7119f5d5d1ba027b4d01c0c6c49fb6ff2cf75393ea5db4a7" },
+    };
+
+    private static final String XOF_1025 =
+        "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444f4c4a22b4b399155358a994e52bf255d"
+        + "e60035742ec71bd08ac275a1b51cc6bfe332b0ef84b409108cda080e6269ed4b3e2c3f7d722aa4cdc98d16deb554e562"
+        + "7be8f955c98e1d5f9565a9194cad0c4285f93700062d9595adb992ae68ff12800ab67a";
+
+    public String getName()
+    {
+        return "BLAKE3";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            for (int i = 0; i < testVectors.length; ++i)
+            {
+                byte[] msg = message(Integer.parseInt(testVectors[i][0]));
+                byte[] expected = Hex.decode(testVectors[i][1]);
+
+                isTrue("BLAKE3 vector " + i, Arrays.areEqual(expected, hash(new Blake3Digest(), msg, msg.length)));
+                isTrue("BLAKE3 parallel vector " + i,
+                    Arrays.areEqual(expected, hash(new Blake3Digest(null, 256, executor), msg, msg.length)));
+                isTrue("BLAKE3 keyed vector " + i, Arrays.areEqual(Hex.decode(testVectors[i][2]),
+                    hash(new Blake3Digest(Strings.toByteArray(KEY)), msg, msg.length)));
+            }
+
+            testXof();
+            testSplitUpdates(executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private void testXof()
+    {
+        byte[] msg = message(1025);
+        byte[] out = new byte[131];
+
+        Blake3Digest digest = new Blake3Digest();
+        digest.update(msg, 0, msg.length);
+        digest.doOutput(out, 0, 50);
+        digest.doOutput(out, 50, 81);
+
+        isTrue("BLAKE3 XOF", Arrays.areEqual(Hex.decode(XOF_1025), out));
+
+        try
+        {
+            digest.update((byte)0);
+            fail("no exception on absorb while squeezing");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        digest.reset();
+        digest.update(msg, 0, msg.length);
+        digest.doFinal(out, 0, out.length);
+
+        isTrue("BLAKE3 XOF after reset", Arrays.areEqual(Hex.decode(XOF_1025), out));
+    }
+
+    private void testSplitUpdates(ExecutorService executor)
+    {
+        Random random = new Random();
+        byte[] msg = new byte[300000 + random.nextInt(300000)];
+        random.nextBytes(msg);
+
+        byte[] expected = hash(new Blake3Digest(), msg, msg.length);
+        isTrue("BLAKE3 split", Arrays.areEqual(expected, hash(new Blake3Digest(), msg, 1 + random.nextInt(5000))));
+        isTrue("BLAKE3 parallel split",
+            Arrays.areEqual(expected, hash(new Blake3Digest(null, 256, executor), msg, 1 + random.nextInt(200000))));
+
+        Blake3Digest digest = new Blake3Digest();
+        digest.update(msg, 0, msg.length / 3);
+        Blake3Digest copy = new Blake3Digest(digest);
+        digest.update(msg, msg.length / 3, msg.length - msg.length / 3);
+        copy.update(msg, msg.length / 3, msg.length - msg.length / 3);
+
+        byte[] first = new byte[32];
+        byte[] second = new byte[32];
+        digest.doFinal(first, 0);
+        copy.doFinal(second, 0);
+        isTrue("BLAKE3 copy", Arrays.areEqual(expected, first) && Arrays.areEqual(expected, second));
+    }
+
+    private static byte[] message(int len)
+    {
+        byte[] msg = new byte[len];
+        for (int i = 0; i < len; ++i)
+        {
+            msg[i] = (byte)(i % 251);
+        }
+        return msg;
+    }
+
+    private static byte[] hash(Blake3Digest digest, byte[] msg, int chunkSize)
+    {
+        for (int pos = 0; pos < msg.length; pos += chunkSize)
+        {
+            digest.update(msg, pos, Math.min(chunkSize, msg.length - pos));
+        }
+
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return hash;
+    }
+
+    public static void main(String[] args)
+    {
+        runTest(new Blake3DigestTest());
+    }
+}
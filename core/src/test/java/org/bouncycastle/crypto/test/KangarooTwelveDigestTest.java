@@ -0,0 +1,139 @@
+package org.bouncycastle.crypto.test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.crypto.digests.KangarooTwelveDigest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * KangarooTwelve tests, vectors in the style of the reference implementation: ptn(n) is the
+ * pattern 00 01 02 ... fa 00 01 ... of length n.
+ */
+public class KangarooTwelveDigestTest
+    extends SimpleTest
+{
+    private static final String[][] testVectors = {
+        // message length, customization length, output
+        { "0", "0", "1ac2d450fc3b4205d19da7bfca1b37513c0803577ac7167f06fe2ce1f0ef39e5"
+            + "4269c056b8c82e48276038b6d292966cc07a3d4645272e31ff38508139eb0a71" },
+        { "17", "0", "6bf75fa2239198db4772e36478f8e19b0f371205f6a9a93a273f51df37122888" },
+        { "289", "0", "0c315ebcdedbf61426de7dcf8fb725d1e74675d7f5327a5067f367b108ecb67c" },
+        { "4913", "0", "cb552e2ec77d9910701d578b457ddf772c12e322e4ee7fe417f92c758f0d59d0" },
+        { "1419857", "0", "844d610933b1b9963cbdeb5ae3b6b05cc7cbd67ceedf883eb678a0a8e0371682" },
+        { "0", "41", "76f06e60fba37414e0dc56d9d1e5d03b2d38c672b70c8c51d2e00a4fa959f1aa" },
+        { "83521", "1681", "59163dfa15c69ab5122fe689b4f3e88382acb261997fbc668482edd8a66ba7a1" },
+    };
+
+    public String getName()
+    {
+        return "KangarooTwelve";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            for (int i = 0; i < testVectors.length; ++i)
+            {
+                byte[] msg = ptn(Integer.parseInt(testVectors[i][0]));
+                byte[] customization = ptn(Integer.parseInt(testVectors[i][1]));
+                byte[] expected = Hex.decode(testVectors[i][2]);
+
+                isTrue("vector " + i, Arrays.areEqual(expected,
+                    hash(new KangarooTwelveDigest(customization, 256, null), msg, msg.length, expected.length)));
+                isTrue("parallel vector " + i, Arrays.areEqual(expected,
+                    hash(new KangarooTwelveDigest(customization, 256, executor), msg, msg.length, expected.length)));
+                isTrue("split vector " + i, Arrays.areEqual(expected,
+                    hash(new KangarooTwelveDigest(customization, 256, executor), msg, 8191, expected.length)));
+            }
+
+            testSplitUpdates();
+            testXof();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private void testSplitUpdates()
+    {
+        Random random = new Random();
+        byte[] msg = new byte[100000 + random.nextInt(100000)];
+        random.nextBytes(msg);
+
+        byte[] expected = hash(new KangarooTwelveDigest(), msg, msg.length, 32);
+
+        isTrue("byte-wise", Arrays.areEqual(expected, hash(new KangarooTwelveDigest(), msg, 1, 32)));
+        isTrue("split", Arrays.areEqual(expected, hash(new KangarooTwelveDigest(), msg, 1 + random.nextInt(20000), 32)));
+
+        KangarooTwelveDigest digest = new KangarooTwelveDigest();
+        digest.update(msg, 0, 10000);
+        KangarooTwelveDigest copy = new KangarooTwelveDigest(digest);
+        isTrue("copy", Arrays.areEqual(expected, hash(copy, Arrays.copyOfRange(msg, 10000, msg.length), 5000, 32)));
+    }
+
+    private void testXof()
+    {
+        byte[] expected = Hex.decode(testVectors[0][2]);
+        byte[] out = new byte[64];
+
+        KangarooTwelveDigest digest = new KangarooTwelveDigest();
+        digest.doOutput(out, 0, 7);
+        digest.doOutput(out, 7, 57);
+
+        isTrue("XOF", Arrays.areEqual(expected, out));
+
+        try
+        {
+            digest.update((byte)0);
+            fail("no exception on absorb while squeezing");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    private static byte[] hash(KangarooTwelveDigest digest, byte[] msg, int chunkSize, int outLen)
+    {
+        for (int pos = 0; pos < msg.length; pos += chunkSize)
+        {
+            int len = Math.min(chunkSize, msg.length - pos);
+            if (len == 1)
+            {
+                digest.update(msg[pos]);
+            }
+            else
+            {
+                digest.update(msg, pos, len);
+            }
+        }
+
+        byte[] out = new byte[outLen];
+        digest.doFinal(out, 0, outLen);
+        return out;
+    }
+
+    private static byte[] ptn(int len)
+    {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i)
+        {
+            b[i] = (byte)(i % 251);
+        }
+        return b;
+    }
+
+    public static void main(
+        String[] args)
+    {
+        runTest(new KangarooTwelveDigestTest());
+    }
+}
@@ -0,0 +1,163 @@
+package org.bouncycastle.crypto.test;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.MerkleTreeHasher;
+import org.bouncycastle.crypto.digests.MultiBufferDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA256MultiBufferDigest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.digests.SHA512MultiBufferDigest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Multi-buffer SHA-256/SHA-512 and Merkle tree tests, checked against the sequential digests.
+ */
+public class MultiBufferDigestTest
+    extends SimpleTest
+{
+    private final SecureRandom random = new SecureRandom();
+
+    public String getName()
+    {
+        return "MultiBufferDigest";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        for (int lanes = 1; lanes <= 8; ++lanes)
+        {
+            checkAgainstSequential(new SHA256MultiBufferDigest(lanes), new SHA256Digest());
+            checkAgainstSequential(new SHA512MultiBufferDigest(lanes), new SHA512Digest());
+        }
+
+        checkVector();
+        checkMerkleTree(new SHA256MultiBufferDigest(), new SHA256Digest());
+        checkMerkleTree(new SHA512MultiBufferDigest(8), new SHA512Digest());
+    }
+
+    private void checkVector()
+    {
+        byte[][] in = new byte[][]{ new byte[0], Hex.decode("616263") };
+        byte[][] out = new byte[][]{ new byte[32], new byte[32] };
+
+        new SHA256MultiBufferDigest().doFinal(in, out);
+
+        isTrue("empty vector", Arrays.areEqual(out[0],
+            Hex.decode("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")));
+        isTrue("abc vector", Arrays.areEqual(out[1],
+            Hex.decode("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad")));
+    }
+
+    private void checkAgainstSequential(MultiBufferDigest multi, Digest digest)
+    {
+        int count = 1 + random.nextInt(40);
+        byte[][] in = new byte[count][];
+        int[] inOff = new int[count];
+        int[] inLen = new int[count];
+        byte[][] out = new byte[count][];
+        int[] outOff = new int[count];
+
+        for (int i = 0; i < count; ++i)
+        {
+            // lengths around the padding boundaries are the interesting ones
+            inLen[i] = (i % 3 == 0) ? random.nextInt(600) : multi.getByteLength() * random.nextInt(4) + random.nextInt(20) - 10;
+            inLen[i] = Math.max(0, inLen[i]);
+            inOff[i] = random.nextInt(5);
+            in[i] = new byte[inOff[i] + inLen[i] + random.nextInt(5)];
+            random.nextBytes(in[i]);
+            outOff[i] = random.nextInt(5);
+            out[i] = new byte[outOff[i] + multi.getDigestSize()];
+        }
+
+        multi.doFinal(in, inOff, inLen, count, out, outOff);
+
+        byte[] expected = new byte[digest.getDigestSize()];
+        for (int i = 0; i < count; ++i)
+        {
+            digest.update(in[i], inOff[i], inLen[i]);
+            digest.doFinal(expected, 0);
+
+            if (!Arrays.areEqual(expected, Arrays.copyOfRange(out[i], outOff[i], out[i].length)))
+            {
+                fail(multi.getAlgorithmName() + " lanes " + multi.getLaneCount() + " mismatch for length " + inLen[i]);
+            }
+        }
+    }
+
+    private void checkMerkleTree(MultiBufferDigest multi, Digest digest)
+    {
+        MerkleTreeHasher hasher = new MerkleTreeHasher(multi);
+
+        for (int count = 0; count <= 70; count += 1 + random.nextInt(5))
+        {
+            byte[][] leaves = new byte[count][];
+            for (int i = 0; i < count; ++i)
+            {
+                leaves[i] = new byte[random.nextInt(300)];
+                random.nextBytes(leaves[i]);
+            }
+
+            if (!Arrays.areEqual(referenceRoot(digest, leaves, 0, count), hasher.computeRoot(leaves)))
+            {
+                fail("Merkle root mismatch for " + count + " leaves");
+            }
+        }
+
+        byte[] data = new byte[10000];
+        random.nextBytes(data);
+        int chunkSize = 1 + random.nextInt(1000);
+        int count = (data.length + chunkSize - 1) / chunkSize;
+        byte[][] leaves = new byte[count][];
+        for (int i = 0; i < count; ++i)
+        {
+            leaves[i] = Arrays.copyOfRange(data, i * chunkSize, Math.min(data.length, (i + 1) * chunkSize));
+        }
+
+        if (!Arrays.areEqual(referenceRoot(digest, leaves, 0, count), hasher.computeRoot(data, 0, data.length, chunkSize)))
+        {
+            fail("Merkle root mismatch for chunked data");
+        }
+    }
+
+    // RFC 6962, section 2.1
+    private static byte[] referenceRoot(Digest digest, byte[][] leaves, int start, int end)
+    {
+        byte[] result = new byte[digest.getDigestSize()];
+        int n = end - start;
+
+        if (n == 1)
+        {
+            digest.update((byte)0x00);
+            digest.update(leaves[start], 0, leaves[start].length);
+        }
+        else if (n > 1)
+        {
+            int k = 1;
+            while (k * 2 < n)
+            {
+                k *= 2;
+            }
+
+            byte[] left = referenceRoot(digest, leaves, start, start + k);
+            byte[] right = referenceRoot(digest, leaves, start + k, end);
+
+            digest.update((byte)0x01);
+            digest.update(left, 0, left.length);
+            digest.update(right, 0, right.length);
+        }
+
+        digest.doFinal(result, 0);
+        return result;
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new MultiBufferDigestTest());
+    }
+}
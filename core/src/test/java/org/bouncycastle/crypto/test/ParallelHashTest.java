@@ -0,0 +1,166 @@
+package org.bouncycastle.crypto.test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.crypto.digests.ParallelHash;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * ParallelHash test vectors from:
+ * <p>
+ * https://csrc.nist.gov/CSRC/media/Projects/Cryptographic-Standards-and-Guidelines/documents/examples/ParallelHash_samples.pdf
+ */
+public class ParallelHashTest
+    extends SimpleTest
+{
+    public String getName()
+    {
+        return "ParallelHash";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        ParallelHash pHash = new ParallelHash(128, new byte[0], 8);
+
+        isEquals("ParallelHash128", pHash.getAlgorithmName());
+
+        pHash.update(Hex.decode("000102030405060710111213141516172021222324252627"), 0, 24);
+
+        byte[] res = new byte[pHash.getDigestSize()];
+
+        pHash.doFinal(res, 0);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("BA8DC1D1D979331D3F813603C67F72609AB5E44B94A0B8F9AF46514454A2B4F5"), res));
+
+        pHash = new ParallelHash(128, Strings.toByteArray("Parallel Data"), 8);
+
+        pHash.update(Hex.decode("000102030405060710111213141516172021222324252627"), 0, 24);
+
+        res = new byte[pHash.getDigestSize()];
+
+        pHash.doFinal(res, 0);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("FC484DCB3F84DCEEDC353438151BEE58157D6EFED0445A81F165E495795B7206"), res));
+
+        pHash = new ParallelHash(128, Strings.toByteArray("Parallel Data"), 12);
+
+        pHash.update(Hex.decode("000102030405060708090A0B101112131415161718191A1B202122232425262728292A2B303132333435363738393A3B404142434445464748494A4B505152535455565758595A5B"), 0, 72);
+
+        res = new byte[32];
+
+        pHash.doFinal(res, 0, res.length);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("F7FD5312896C6685C828AF7E2ADB97E393E7F8D54E3C2EA4B95E5ACA3796E8FC"), res));
+
+        pHash = new ParallelHash(256, new byte[0], 8);
+
+        isEquals("ParallelHash256", pHash.getAlgorithmName());
+
+        pHash.update(Hex.decode("000102030405060710111213141516172021222324252627"), 0, 24);
+
+        res = new byte[pHash.getDigestSize()];
+
+        pHash.doFinal(res, 0);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("BC1EF124DA34495E948EAD207DD9842235DA432D2BBC54B4C110E64C451105531B7F2A3E0CE055C02805E7C2DE1FB746AF97A1DD01F43B824E31B87612410429"), res));
+
+        pHash = new ParallelHash(256, Strings.toByteArray("Parallel Data"), 12);
+
+        pHash.update(Hex.decode("000102030405060708090A0B101112131415161718191A1B202122232425262728292A2B303132333435363738393A3B404142434445464748494A4B505152535455565758595A5B"), 0, 72);
+
+        res = new byte[pHash.getDigestSize()];
+
+        pHash.doFinal(res, 0);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("69D0FCB764EA055DD09334BC6021CB7E4B61348DFF375DA262671CDEC3EFFA8D1B4568A6CCE16B1CAD946DDDE27F6CE2B8DEE4CD1B24851EBF00EB90D43813E9"), res));
+
+        //
+        // XOF samples
+        //
+        pHash = new ParallelHash(128, new byte[0], 8);
+
+        pHash.update(Hex.decode("000102030405060710111213141516172021222324252627"), 0, 24);
+
+        res = new byte[32];
+
+        pHash.doOutput(res, 0, 16);
+        pHash.doOutput(res, 16, 16);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("FE47D661E49FFE5B7D999922C062356750CAF552985B8E8CE6667F2727C3C8D3"), res));
+
+        pHash = new ParallelHash(256, new byte[0], 8);
+
+        pHash.update(Hex.decode("000102030405060710111213141516172021222324252627"), 0, 24);
+
+        res = new byte[64];
+
+        pHash.doOutput(res, 0, res.length);
+
+        isTrue("oops!", Arrays.areEqual(Hex.decode("C10A052722614684144D28474850B410757E3CBA87651BA167A5CBDDFF7F466675FBF84BCAE7378AC444BE681D729499AFCA667FB879348BFDDA427863C82F1C"), res));
+
+        testParallel();
+    }
+
+    private void testParallel()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            Random random = new Random();
+            byte[] msg = new byte[200000 + random.nextInt(100000)];
+            random.nextBytes(msg);
+
+            for (int bitLength = 128; bitLength <= 256; bitLength += 128)
+            {
+                byte[] expected = hash(new ParallelHash(bitLength, null, 1000), msg, msg.length);
+
+                isTrue("byte-wise", Arrays.areEqual(expected, hash(new ParallelHash(bitLength, null, 1000), msg, 1)));
+                isTrue("parallel", Arrays.areEqual(expected,
+                    hash(new ParallelHash(bitLength, null, 1000, bitLength * 2, executor), msg, msg.length)));
+                isTrue("parallel split", Arrays.areEqual(expected,
+                    hash(new ParallelHash(bitLength, null, 1000, bitLength * 2, executor), msg, 1 + random.nextInt(100000))));
+
+                ParallelHash pHash = new ParallelHash(bitLength, null, 1000);
+                pHash.update(msg, 0, 1500);
+                ParallelHash copy = new ParallelHash(pHash);
+                isTrue("copy", Arrays.areEqual(expected, hash(copy, Arrays.copyOfRange(msg, 1500, msg.length), 777)));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] hash(ParallelHash pHash, byte[] msg, int chunkSize)
+    {
+        for (int pos = 0; pos < msg.length; pos += chunkSize)
+        {
+            int len = Math.min(chunkSize, msg.length - pos);
+            if (len == 1)
+            {
+                pHash.update(msg[pos]);
+            }
+            else
+            {
+                pHash.update(msg, pos, len);
+            }
+        }
+
+        byte[] res = new byte[pHash.getDigestSize()];
+        pHash.doFinal(res, 0);
+        return res;
+    }
+
+    public static void main(
+        String[] args)
+    {
+        runTest(new ParallelHashTest());
+    }
+}
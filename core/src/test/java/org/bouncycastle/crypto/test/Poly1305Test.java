@@ -1,5 +1,6 @@
 package org.bouncycastle.crypto.test;
 
+import java.math.BigInteger;
 import java.security.SecureRandom;
 
 import org.bouncycastle.crypto.CipherKeyGenerator;
@@ -115,6 +116,7 @@ public void performTest()
             testCase(i);
         }
         testSequential();
+        testSplitUpdates();
         testReset();
         rfc7539Test();
     }
@@ -223,6 +225,86 @@ private void testSequential()
         }
     }
 
+    private void testSplitUpdates()
+    {
+        SecureRandom random = new SecureRandom();
+        byte[] k = new byte[32];
+        byte[] m = new byte[MAXLEN];
+        byte[] expected = new byte[16];
+        byte[] out = new byte[16];
+
+        Mac mac = new Poly1305();
+        for (int i = 0; i < 200; ++i)
+        {
+            // Every other run uses saturated keys and messages to stress the limb bounds
+            if ((i & 1) == 0)
+            {
+                random.nextBytes(k);
+                random.nextBytes(m);
+            }
+            else
+            {
+                Arrays.fill(k, (byte)0xFF);
+                Arrays.fill(m, (byte)0xFF);
+            }
+            Poly1305KeyGenerator.clamp(k);
+
+            int len = random.nextInt(MAXLEN + 1);
+            referenceMac(k, m, len, expected);
+
+            mac.init(new KeyParameter(k));
+            mac.update(m, 0, len);
+            mac.doFinal(out, 0);
+
+            if (!Arrays.areEqual(expected, out))
+            {
+                fail("Mismatched bulk output", new String(Hex.encode(expected)), new String(Hex.encode(out)));
+            }
+
+            int pos = 0;
+            while (pos < len)
+            {
+                int chunk = Math.min(len - pos, random.nextInt(100));
+                if (chunk == 1)
+                {
+                    mac.update(m[pos]);
+                }
+                else
+                {
+                    mac.update(m, pos, chunk);
+                }
+                pos += chunk;
+            }
+            mac.doFinal(out, 0);
+
+            if (!Arrays.areEqual(expected, out))
+            {
+                fail("Mismatched split output", new String(Hex.encode(expected)), new String(Hex.encode(out)));
+            }
+        }
+    }
+
+    private static void referenceMac(byte[] k, byte[] m, int len, byte[] out)
+    {
+        BigInteger p = BigInteger.ONE.shiftLeft(130).subtract(BigInteger.valueOf(5));
+        BigInteger r = new BigInteger(1, Arrays.reverse(Arrays.copyOfRange(k, 0, 16)));
+        BigInteger s = new BigInteger(1, Arrays.reverse(Arrays.copyOfRange(k, 16, 32)));
+
+        BigInteger h = BigInteger.ZERO;
+        for (int pos = 0; pos < len; pos += 16)
+        {
+            byte[] block = new byte[17];
+            int blockLen = Math.min(16, len - pos);
+            System.arraycopy(m, pos, block, 0, blockLen);
+            block[blockLen] = 1;
+            h = h.add(new BigInteger(1, Arrays.reverse(block))).multiply(r).mod(p);
+        }
+
+        byte[] tag = Arrays.reverse(h.add(s).toByteArray());
+        Arrays.fill(out, (byte)0);
+        System.arraycopy(tag, 0, out, 0, Math.min(16, tag.length));
+    }
+
     private void testReset()
     {
         CipherKeyGenerator gen = new Poly1305KeyGenerator();
@@ -174,7 +174,14 @@
             new Haraka256DigestTest(),
             new Haraka512DigestTest(),
             new KMACTest(),
-            new SipHash128Test()
+            new SipHash128Test(),
+            new MultiBufferDigestTest(),
+            new Blake2bpDigestTest(),
+            new Blake2spDigestTest(),
+            new Blake3DigestTest(),
+            new ParallelHashTest(),
+            new KangarooTwelveDigestTest(),
+            new TurboSHAKEDigestTest()
         };
 
     public static void main(String[] args)
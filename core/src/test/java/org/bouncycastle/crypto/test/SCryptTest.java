@@ -2,6 +2,8 @@
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.bouncycastle.crypto.generators.SCrypt;
 import org.bouncycastle.util.Strings;
@@ -25,6 +27,7 @@ public void performTest()
     {
         testParameters();
         testVectors();
+        testExecutor();
     }
 
     public void testParameters()
@@ -122,6 +125,28 @@ public void testVectors()
         br.close();
     }
 
+    public void testExecutor()
+    {
+        byte[] P = Strings.toByteArray("password");
+        byte[] S = Strings.toByteArray("NaCl");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            for (int p = 1; p <= 5; p += 2)
+            {
+                byte[] expected = SCrypt.generate(P, S, 1024, 8, p, 64);
+                byte[] result = SCrypt.generate(P, S, 1024, 8, p, 64, executor);
+
+                isTrue("executor result mismatch for p = " + p, areEqual(expected, result));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     private static boolean isEndData(String line)
     {
         return line == null || line.startsWith("scrypt");
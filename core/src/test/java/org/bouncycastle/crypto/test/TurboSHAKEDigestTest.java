@@ -0,0 +1,105 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.digests.TurboSHAKEDigest;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * TurboSHAKE test vectors from RFC 9861, ptn(n) is the pattern 00 01 02 ... fa 00 01 ... of length n.
+ */
+public class TurboSHAKEDigestTest
+    extends SimpleTest
+{
+    public String getName()
+    {
+        return "TurboSHAKE";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        TurboSHAKEDigest digest = new TurboSHAKEDigest(128);
+
+        isEquals("TurboSHAKE128", digest.getAlgorithmName());
+
+        checkOutput(digest, new byte[0], 32, "1e415f1c5983aff2169217277d17bb538cd945a397ddec541f1ce41af2c1b74c");
+        checkOutput(digest, ptn(17), 32, "9c97d036a3bac819db70ede0ca554ec6e4c2a1a4ffbfd9ec269ca6a111161233");
+        checkOutput(digest, ptn(17 * 17 * 17), 32, "d4976eb56bcf118520582b709f73e1d6853e001fdaf80e1b13e0d0599d5fb372");
+        checkOutput(new TurboSHAKEDigest(128, (byte)0x01), Hex.decode("ffffff"), 32,
+            "bf323f940494e88ee1c540fe660be8a0c93f43d15ec006998462fa994eed5dab");
+        checkOutput(new TurboSHAKEDigest(128, (byte)0x06), Hex.decode("ff"), 32,
+            "8ec9c66465ed0d4a6c35d13506718d687a25cb05c74cca1e42501abd83874a67");
+
+        digest = new TurboSHAKEDigest(256);
+
+        isEquals("TurboSHAKE256", digest.getAlgorithmName());
+
+        checkOutput(digest, new byte[0], 64, "367a329dafea871c7802ec67f905ae13c57695dc2c6663c61035f59a18f8e7db"
+            + "11edc0e12e91ea60eb6b32df06dd7f002fbafabb6e13ec1cc20d995547600db0");
+        checkOutput(digest, ptn(17 * 17), 64, "66b810db8e90780424c0847372fdc95710882fde31c6df75beb9d4cd9305cfca"
+            + "e35e7b83e8b7e6eb4b78605880116316fe2c078a09b94ad7b8213c0a738b65c0");
+        checkOutput(new TurboSHAKEDigest(256, (byte)0x01), Hex.decode("ffffff"), 64,
+            "d21c6fbbf587fa2282f29aea620175fb0257413af78a0b1b2a87419ce031d933"
+            + "ae7a4d383327a8a17641a34f8a1d1003ad7da6b72dba84bb62fef28f62f12424");
+
+        // last 32 bytes of a 10032 byte output, squeezed in pieces
+        digest = new TurboSHAKEDigest(128);
+        byte[] out = new byte[10032];
+        digest.doOutput(out, 0, 1);
+        digest.doOutput(out, 1, 167);
+        digest.doOutput(out, 168, out.length - 168);
+        isTrue("long output", Arrays.areEqual(Hex.decode("a3b9b0385900ce761f22aed548e754da10a5242d62e8c658e3f3a923a7555607"),
+            Arrays.copyOfRange(out, out.length - 32, out.length)));
+
+        try
+        {
+            new TurboSHAKEDigest(128, (byte)0x80);
+            fail("no exception on bad domain separation byte");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private void checkOutput(TurboSHAKEDigest digest, byte[] msg, int outLen, String expected)
+    {
+        byte[] out = new byte[outLen];
+
+        digest.update(msg, 0, msg.length);
+        digest.doFinal(out, 0, outLen);
+
+        isTrue(digest.getAlgorithmName() + " length " + msg.length, Arrays.areEqual(Hex.decode(expected), out));
+
+        // byte-wise, with a copy part way through
+        for (int i = 0; i < msg.length / 2; ++i)
+        {
+            digest.update(msg[i]);
+        }
+
+        TurboSHAKEDigest copy = new TurboSHAKEDigest(digest);
+        copy.update(msg, msg.length / 2, msg.length - msg.length / 2);
+        copy.doFinal(out, 0, outLen);
+
+        isTrue(digest.getAlgorithmName() + " copy length " + msg.length, Arrays.areEqual(Hex.decode(expected), out));
+
+        digest.reset();
+    }
+
+    private static byte[] ptn(int len)
+    {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i)
+        {
+            b[i] = (byte)(i % 251);
+        }
+        return b;
+    }
+
+    public static void main(
+        String[] args)
+    {
+        runTest(new TurboSHAKEDigestTest());
+    }
+}
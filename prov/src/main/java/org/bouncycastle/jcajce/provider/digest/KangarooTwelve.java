@@ -0,0 +1,48 @@
+package org.bouncycastle.jcajce.provider.digest;
+
+import org.bouncycastle.crypto.digests.KangarooTwelveDigest;
+import org.bouncycastle.jcajce.provider.config.ConfigurableProvider;
+
+public class KangarooTwelve
+{
+    private KangarooTwelve()
+    {
+
+    }
+
+    static public class Digest256
+        extends BCMessageDigest
+        implements Cloneable
+    {
+        public Digest256()
+        {
+            super(new KangarooTwelveDigest());
+        }
+
+        public Object clone()
+            throws CloneNotSupportedException
+        {
+            Digest256 d = (Digest256)super.clone();
+            d.digest = new KangarooTwelveDigest((KangarooTwelveDigest)digest);
+
+            return d;
+        }
+    }
+
+    public static class Mappings
+        extends DigestAlgorithmProvider
+    {
+        private static final String PREFIX = KangarooTwelve.class.getName();
+
+        public Mappings()
+        {
+        }
+
+        public void configure(ConfigurableProvider provider)
+        {
+            provider.addAlgorithm("MessageDigest.KANGAROOTWELVE", PREFIX + "$Digest256");
+            provider.addAlgorithm("Alg.Alias.MessageDigest.K12", "KANGAROOTWELVE");
+            provider.addAlgorithm("Alg.Alias.MessageDigest.KT128", "KANGAROOTWELVE");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.bouncycastle.jcajce.provider.digest;
+
+import org.bouncycastle.jcajce.provider.config.ConfigurableProvider;
+
+public class ParallelHash
+{
+    // block size used by the provider implementations
+    private static final int BLOCK_SIZE = 8192;
+
+    private ParallelHash()
+    {
+
+    }
+
+    static public class DigestParallelHash
+        extends BCMessageDigest
+        implements Cloneable
+    {
+        public DigestParallelHash(int bitLength, int size)
+        {
+            super(new org.bouncycastle.crypto.digests.ParallelHash(bitLength, null, BLOCK_SIZE, size));
+        }
+
+        public Object clone()
+            throws CloneNotSupportedException
+        {
+            BCMessageDigest d = (BCMessageDigest)super.clone();
+            d.digest = new org.bouncycastle.crypto.digests.ParallelHash((org.bouncycastle.crypto.digests.ParallelHash)digest);
+
+            return d;
+        }
+    }
+
+    static public class Digest128_256
+        extends DigestParallelHash
+    {
+        public Digest128_256()
+        {
+            super(128, 256);
+        }
+    }
+
+    static public class Digest256_512
+        extends DigestParallelHash
+    {
+        public Digest256_512()
+        {
+            super(256, 512);
+        }
+    }
+
+    public static class Mappings
+        extends DigestAlgorithmProvider
+    {
+        private static final String PREFIX = ParallelHash.class.getName();
+
+        public Mappings()
+        {
+        }
+
+        public void configure(ConfigurableProvider provider)
+        {
+            provider.addAlgorithm("MessageDigest.PARALLELHASH128-256", PREFIX + "$Digest128_256");
+            provider.addAlgorithm("MessageDigest.PARALLELHASH256-512", PREFIX + "$Digest256_512");
+            provider.addAlgorithm("Alg.Alias.MessageDigest.PARALLELHASH128", "PARALLELHASH128-256");
+            provider.addAlgorithm("Alg.Alias.MessageDigest.PARALLELHASH256", "PARALLELHASH256-512");
+        }
+    }
+}
@@ -9,9 +9,9 @@
 import java.security.SecureRandom;
 import java.security.SecureRandomSpi;
 import java.security.Security;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.bouncycastle.crypto.digests.SHA512Digest;
 import org.bouncycastle.crypto.macs.HMac;
@@ -29,6 +29,13 @@
 
 /**
  * <b>DRBG Configuration</b><br/>
+ * <p>Seed material comes from a JVM wide entropy pool. A single daemon thread keeps the pool topped up from the
+ * strong seed source, so requests for entropy don't normally wait on it. If the pool is empty, for example just
+ * after start up, requests are met by reading the strong seed source directly, as they would be without the pool.</p>
+ * <p>org.bouncycastle.drbg.nonblocking_seed - if "true" when the pool is first used, requests made while the pool
+ * is empty are met from the platform's non-blocking seed source (NativePRNGNonBlocking where available) instead, so
+ * they never wait on the strong seed source. Note this means the initial seed, and any reseed made while the pool
+ * is short, can come from a weaker source than the strong seed source.</p>
  * <p>org.bouncycastle.drbg.gather_pause_secs - is to stop the entropy collection thread from grabbing all
  * available entropy on the system. The original motivation for the hybrid infrastructure was virtual machines
  * sometimes produce very few bits of entropy a second, the original approach (which "worked" at least for BC) was
@@ -41,11 +48,19 @@
  * <p>org.bouncycastle.drbg.entropysource - is the class name for an implementation of EntropySourceProvider.
  * For example, one could be provided which just reads directly from /dev/random and the extra infrastructure used here
  * could be avoided.</p>
+ * <p>org.bouncycastle.drbg.per_thread - if "true", SecureRandom instances created after it is set give each thread
+ * its own independently seeded DRBG, rather than all threads sharing (and waiting for) one. Each thread's DRBG takes
+ * its seed material from its own HMAC DRBG, which is reseeded from the shared entropy source every
+ * 256 requests, so the shared source is only contended for occasionally. Calls to setSeed() only affect the
+ * calling thread's DRBG.</p>
  */
 public class DRBG
 {
     private static final String PREFIX = DRBG.class.getName();
 
+    private static final String PER_THREAD = "org.bouncycastle.drbg.per_thread";
+    private static final String NON_BLOCKING_SEED = "org.bouncycastle.drbg.nonblocking_seed";
+
     // {"Provider class name","SecureRandomSpi class name"}
     private static final String[][] initialEntropySourceNames = new String[][]
         {
@@ -176,6 +191,11 @@ public EntropySourceProvider run()
     }
 
     private static SecureRandom createBaseRandom(boolean isPredictionResistant)
+    {
+        return createBaseRandom(isPredictionResistant, null);
+    }
+
+    private static SecureRandom createBaseRandom(boolean isPredictionResistant, SecureRandom sharedSource)
     {
         if (Properties.getPropertyValue("org.bouncycastle.drbg.entropysource") != null)
         {
@@ -192,7 +212,8 @@ private static SecureRandom createBaseRandom(boolean isPredictionResistant)
         }
         else
         {
-            SecureRandom randomSource = new HybridSecureRandom();   // needs to be done late, can't use static
+            SecureRandom randomSource = (sharedSource != null) ? new ThreadSeedSecureRandom(sharedSource)
+                                                               : new HybridSecureRandom();   // needs to be done late, can't use static
 
             byte[] personalisationString = isPredictionResistant ? generateDefaultPersonalizationString(randomSource.generateSeed(16))
                                                                  : generateNonceIVPersonalizationString(randomSource.generateSeed(16));
@@ -206,10 +227,11 @@ private static SecureRandom createBaseRandom(boolean isPredictionResistant)
     public static class Default
         extends SecureRandomSpi
     {
-        private static final SecureRandom random = createBaseRandom(true);
+        private final SecureRandom random;
 
         public Default()
         {
+            random = Properties.isOverrideSet(PER_THREAD) ? PerThreadDefaultHolder.random : DefaultHolder.random;
         }
 
         protected void engineSetSeed(byte[] bytes)
@@ -231,10 +253,11 @@ protected byte[] engineGenerateSeed(int numBytes)
     public static class NonceAndIV
         extends SecureRandomSpi
     {
-        private static final SecureRandom random = createBaseRandom(false);
+        private final SecureRandom random;
 
         public NonceAndIV()
         {
+            random = Properties.isOverrideSet(PER_THREAD) ? PerThreadNonceAndIVHolder.random : NonceAndIVHolder.random;
         }
 
         protected void engineSetSeed(byte[] bytes)
@@ -253,6 +276,32 @@ protected byte[] engineGenerateSeed(int numBytes)
         }
     }
 
+    // the shared generators are only created when first used.
+    private static class DefaultHolder
+    {
+        static final SecureRandom random = createBaseRandom(true);
+    }
+
+    private static class NonceAndIVHolder
+    {
+        static final SecureRandom random = createBaseRandom(false);
+    }
+
+    private static class SharedEntropyHolder
+    {
+        static final SecureRandom random = new HybridSecureRandom();
+    }
+
+    private static class PerThreadDefaultHolder
+    {
+        static final SecureRandom random = new PerThreadSecureRandom(true);
+    }
+
+    private static class PerThreadNonceAndIVHolder
+    {
+        static final SecureRandom random = new PerThreadSecureRandom(false);
+    }
+
     public static class Mappings
         extends AsymmetricAlgorithmProvider
     {
@@ -365,12 +414,126 @@ public Integer run()
         }
     }
 
+    /**
+     * A SecureRandom that gives each thread using it its own DRBG.
+     */
+    private static class PerThreadSecureRandom
+        extends SecureRandom
+    {
+        private final ThreadLocal<SecureRandom> randoms;
+
+        PerThreadSecureRandom(final boolean isPredictionResistant)
+        {
+            super(null, new HybridRandomProvider());
+
+            this.randoms = new ThreadLocal<SecureRandom>()
+            {
+                protected SecureRandom initialValue()
+                {
+                    return AccessController.doPrivileged(new PrivilegedAction<SecureRandom>()
+                    {
+                        public SecureRandom run()
+                        {
+                            if (Properties.getPropertyValue("org.bouncycastle.drbg.entropysource") != null)
+                            {
+                                return createBaseRandom(isPredictionResistant);
+                            }
+
+                            return createBaseRandom(isPredictionResistant, SharedEntropyHolder.random);
+                        }
+                    });
+                }
+            };
+        }
+
+        public void setSeed(byte[] seed)
+        {
+            if (randoms != null)
+            {
+                randoms.get().setSeed(seed);
+            }
+        }
+
+        public void setSeed(long seed)
+        {
+            // called from the SecureRandom constructor
+            if (randoms != null)
+            {
+                randoms.get().setSeed(seed);
+            }
+        }
+
+        public void nextBytes(byte[] bytes)
+        {
+            randoms.get().nextBytes(bytes);
+        }
+
+        public byte[] generateSeed(int numBytes)
+        {
+            return randoms.get().generateSeed(numBytes);
+        }
+    }
+
+    /**
+     * Seed material for one thread's DRBG, from an HMAC DRBG which takes fresh entropy from the shared source
+     * every RESEED_SAMPLES requests.
+     */
+    private static class ThreadSeedSecureRandom
+        extends SecureRandom
+    {
+        private static final int RESEED_SAMPLES = 256;
+
+        private final SP800SecureRandom drbg;
+
+        private int samples = 0;
+
+        ThreadSeedSecureRandom(SecureRandom sharedSource)
+        {
+            super(null, new HybridRandomProvider());
+
+            drbg = new SP800SecureRandomBuilder(sharedSource, true)
+                .setPersonalizationString(Arrays.concatenate(Strings.toByteArray("Bouncy Castle Thread Entropy Source"),
+                    Pack.longToBigEndian(Thread.currentThread().getId())))
+                .buildHMAC(new HMac(new SHA512Digest()), sharedSource.generateSeed(32), false);     // 32 byte nonce
+        }
+
+        public void setSeed(byte[] seed)
+        {
+            if (drbg != null)
+            {
+                drbg.setSeed(seed);
+            }
+        }
+
+        public void setSeed(long seed)
+        {
+            if (drbg != null)
+            {
+                drbg.setSeed(seed);
+            }
+        }
+
+        public byte[] generateSeed(int numBytes)
+        {
+            byte[] data = new byte[numBytes];
+
+            if (++samples > RESEED_SAMPLES)
+            {
+                samples = 0;
+                drbg.reseed((byte[])null);
+            }
+
+            drbg.nextBytes(data);
+
+            return data;
+        }
+    }
+
     private static class HybridSecureRandom
         extends SecureRandom
     {
-        private final AtomicBoolean seedAvailable = new AtomicBoolean(false);
         private final AtomicInteger samples = new AtomicInteger(0);
-        private final SecureRandom baseRandom = createInitialEntropySource();
+        private final EntropyPool entropyPool = EntropyPool.getInstance();
 
         private final SP800SecureRandom drbg;
 
@@ -381,11 +544,11 @@ public Integer run()
                 {
                     public EntropySource get(final int bitsRequired)
                     {
-                        return new SignallingEntropySource(bitsRequired);
+                        return new PooledEntropySource(bitsRequired);
                     }
                 })
                 .setPersonalizationString(Strings.toByteArray("Bouncy Castle Hybrid Entropy Source"))
-                .buildHMAC(new HMac(new SHA512Digest()), baseRandom.generateSeed(32), false);     // 32 byte nonce
+                .buildHMAC(new HMac(new SHA512Digest()), entropyPool.getEntropy(32), false);     // 32 byte nonce
         }
 
         public void setSeed(byte[] seed)
@@ -411,7 +574,7 @@ public byte[] generateSeed(int numBytes)
             // after 20 samples we'll start to check if there is new seed material.
             if (samples.getAndIncrement() > 20)
             {
-                if (seedAvailable.getAndSet(false))
+                if (entropyPool.isFreshEntropyAvailable())
                 {
                     samples.set(0);
                     drbg.reseed((byte[])null);    // need for Java 1.9
@@ -423,14 +586,12 @@ public byte[] generateSeed(int numBytes)
             return data;
         }
 
-        private class SignallingEntropySource
+        private class PooledEntropySource
             implements EntropySource
         {
             private final int byteLength;
-            private final AtomicReference entropy = new AtomicReference();
-            private final AtomicBoolean scheduled = new AtomicBoolean(false);
 
-            SignallingEntropySource(int bitsRequired)
+            PooledEntropySource(int bitsRequired)
             {
                 this.byteLength = (bitsRequired + 7) / 8;
             }
@@ -442,97 +603,296 @@ public boolean isPredictionResistant()
 
             public byte[] getEntropy()
             {
-                byte[] seed = (byte[])entropy.getAndSet(null);
+                return entropyPool.getEntropy(byteLength);
+            }
+
+            public int entropySize()
+            {
+                return byteLength * 8;
+            }
+        }
+    }
+
+    /**
+     * A JVM wide pool of conditioned entropy, kept topped up by a single long lived daemon thread reading from the
+     * strong seed source, so callers don't normally wait on the system entropy pool. If the pool is short, for example
+     * just after start up, the shortfall is read directly from the strong seed source, or, if
+     * org.bouncycastle.drbg.nonblocking_seed is set, from the platform's non-blocking source instead.
+     */
+    static class EntropyPool
+    {
+        static final int BLOCK_SIZE = 32;
+        static final int POOL_BLOCKS = 4;
+
+        private static EntropyPool instance;
+
+        private final ConcurrentLinkedQueue<byte[]> blocks = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger available = new AtomicInteger(0);
+        private final SecureRandom nonBlockingSource;
+        private final long gatherPause;
+        private final boolean isStrongSourceGiven;
+        private final boolean useGatherer;
+        private final SHA512Digest conditioner = new SHA512Digest();
+
+        private SecureRandom strongSource;
+        private Thread gatherer;
+
+        static synchronized EntropyPool getInstance()
+        {
+            if (instance == null)
+            {
+                SecureRandom nonBlockingSource = Properties.isOverrideSet(NON_BLOCKING_SEED) ? createNonBlockingSource() : null;
+
+                instance = new EntropyPool(null, nonBlockingSource, getGatherPause(), true);
+            }
+
+            return instance;
+        }
+
+        /**
+         * Base constructor.
+         *
+         * @param strongSource the source to gather entropy from, null to use the JVM's strong seed source.
+         * @param nonBlockingSource the source for any shortfall when the pool is empty, null to read the shortfall
+         *                          from the strong source.
+         * @param gatherPause the pause, in milliseconds, between each 8 byte read of the strong source.
+         * @param useGatherer true if a background thread should fill the pool, false if it's only filled by gather().
+         */
+        EntropyPool(SecureRandom strongSource, SecureRandom nonBlockingSource, long gatherPause, boolean useGatherer)
+        {
+            this.strongSource = strongSource;
+            this.isStrongSourceGiven = (strongSource != null);
+            this.nonBlockingSource = nonBlockingSource;
+            this.gatherPause = gatherPause;
+            this.useGatherer = useGatherer;
+        }
+
+        /**
+         * Return true if gathered entropy is waiting in the pool.
+         */
+        boolean isFreshEntropyAvailable()
+        {
+            return available.get() > 0;
+        }
+
+        /**
+         * Return entropy from the pool, making up any shortfall from the strong (or non-blocking) source.
+         */
+        byte[] getEntropy(int numBytes)
+        {
+            byte[] entropy = new byte[numBytes];
+            int off = 0;
+
+            while (off < numBytes)
+            {
+                byte[] block = (byte[])blocks.poll();
+                if (block == null)
+                {
+                    break;
+                }
+                available.decrementAndGet();
+
+                int len = Math.min(block.length, numBytes - off);
+                System.arraycopy(block, 0, entropy, off, len);
+                Arrays.fill(block, (byte)0);
+                off += len;
+            }
+
+            if (useGatherer)
+            {
+                // wake (or start) the gatherer to refill the pool
+                LockSupport.unpark(getGatherer());
+            }
 
-                if (seed == null || seed.length != byteLength)
+            if (off < numBytes)
+            {
+                byte[] rest;
+                if (nonBlockingSource != null)
                 {
-                    seed = baseRandom.generateSeed(byteLength);
+                    rest = new byte[numBytes - off];
+                    nonBlockingSource.nextBytes(rest);
                 }
                 else
                 {
-                    scheduled.set(false);
+                    rest = getStrongSource().generateSeed(numBytes - off);
                 }
 
-                if (!scheduled.getAndSet(true))
+                System.arraycopy(rest, 0, entropy, off, rest.length);
+                Arrays.fill(rest, (byte)0);
+            }
+
+            return entropy;
+        }
+
+        /**
+         * Read and condition one block from the strong source and add it to the pool. Only called by the
+         * gatherer thread, or directly when there isn't one.
+         *
+         * @return true if a block was added, false if the strong source failed (it will be recreated on the next call).
+         */
+        boolean gather()
+        {
+            byte[] raw = new byte[2 * BLOCK_SIZE];
+            byte[] hash = new byte[conditioner.getDigestSize()];
+
+            try
+            {
+                SecureRandom source = getStrongSource();
+
+                for (int i = 0; i < raw.length / 8; i++)
                 {
-                    // don't try to be clever here - things change in Java 11!
-                    Thread gatherer = new Thread(new EntropyGatherer(byteLength));
-                    gatherer.setDaemon(true);
-                    gatherer.start();
+                    // we need to be mindful that we may not be the only thread/process looking for entropy
+                    sleep(gatherPause);
+                    byte[] rn = source.generateSeed(8);
+                    System.arraycopy(rn, 0, raw, i * 8, rn.length);
                 }
 
-                return seed;
-            }
+                // condition down to half the size of the raw input
+                conditioner.update(raw, 0, raw.length);
+                conditioner.doFinal(hash, 0);
 
-            public int entropySize()
+                blocks.offer(Arrays.copyOfRange(hash, 0, BLOCK_SIZE));
+                available.incrementAndGet();
+
+                return true;
+            }
+            catch (Exception e)
             {
-                return byteLength * 8;
+                resetStrongSource();
+                return false;
             }
-
-            private class EntropyGatherer
-                implements Runnable
+            catch (InternalError e)
+            {
+                // URLSeededSecureRandom reports a failed read this way
+                resetStrongSource();
+                return false;
+            }
+            finally
             {
-                private final int numBytes;
+                conditioner.reset();
+                Arrays.fill(raw, (byte)0);
+                Arrays.fill(hash, (byte)0);
+            }
+        }
 
-                EntropyGatherer(int numBytes)
+        private void gatherLoop()
+        {
+            while (true)
+            {
+                if (available.get() >= POOL_BLOCKS)
                 {
-                    this.numBytes = numBytes;
+                    LockSupport.park(this);
                 }
-
-                private void sleep(long ms)
+                else if (!gather())
                 {
-                    try
-                    {
-                        Thread.sleep(ms);
-                    }
-                    catch (InterruptedException e)
-                    {
-                        Thread.currentThread().interrupt();
-                    }
+                    // keep the pool alive - try again with a new source after a pause.
+                    sleep(Math.max(gatherPause, 1000));
                 }
+            }
+        }
 
-                public void run()
+        private synchronized Thread getGatherer()
+        {
+            // the thread should run for the life of the JVM, but if anything has stopped it start another.
+            if (gatherer == null || !gatherer.isAlive())
+            {
+                gatherer = AccessController.doPrivileged(new PrivilegedAction<Thread>()
                 {
-                    long ms;
-                    String pause = Properties.getPropertyValue("org.bouncycastle.drbg.gather_pause_secs");
-
-                    if (pause != null)
+                    public Thread run()
                     {
-                        try
-                        {
-                            ms = Long.parseLong(pause) * 1000;
-                        }
-                        catch (Exception e)
+                        Thread thread = new Thread(new Runnable()
                         {
-                            ms = 5000;
-                        }
-                    }
-                    else
-                    {
-                        ms = 5000;
-                    }
+                            public void run()
+                            {
+                                gatherLoop();
+                            }
+                        }, "BC Entropy Pool");
 
-                    byte[] seed = new byte[numBytes];
-                    for (int i = 0; i < byteLength / 8; i++)
-                    {
-                        // we need to be mindful that we may not be the only thread/process looking for entropy
-                        sleep(ms);
-                        byte[] rn = baseRandom.generateSeed(8);
-                        System.arraycopy(rn, 0, seed, i * 8, rn.length);
+                        thread.setDaemon(true);
+                        thread.start();
+
+                        return thread;
                     }
+                });
+            }
+
+            return gatherer;
+        }
+
+        private synchronized SecureRandom getStrongSource()
+        {
+            if (strongSource == null)
+            {
+                strongSource = createInitialEntropySource();
+            }
+
+            return strongSource;
+        }
+
+        private synchronized void resetStrongSource()
+        {
+            if (!isStrongSourceGiven)
+            {
+                strongSource = null;
+            }
+        }
+
+        private static void sleep(long ms)
+        {
+            if (ms <= 0)
+            {
+                return;
+            }
 
-                    int extra = byteLength - ((byteLength / 8) * 8);
-                    if (extra != 0)
+            try
+            {
+                Thread.sleep(ms);
+            }
+            catch (InterruptedException e)
+            {
+                // ignore - the pool thread runs for the life of the JVM.
+            }
+        }
+
+        private static long getGatherPause()
+        {
+            String pause = Properties.getPropertyValue("org.bouncycastle.drbg.gather_pause_secs");
+
+            if (pause != null)
+            {
+                try
+                {
+                    return Long.parseLong(pause) * 1000;
+                }
+                catch (Exception e)
+                {
+                    return 5000;
+                }
+            }
+
+            return 5000;
+        }
+
+        private static SecureRandom createNonBlockingSource()
+        {
+            return AccessController.doPrivileged(new PrivilegedAction<SecureRandom>()
+            {
+                public SecureRandom run()
+                {
+                    try
                     {
-                        sleep(ms);
-                        byte[] rn = baseRandom.generateSeed(extra);
-                        System.arraycopy(rn, 0, seed, seed.length - rn.length, rn.length);
+                        return SecureRandom.getInstance("NativePRNGNonBlocking");
                     }
+                    catch (Exception e)
+                    {
+                        // not createCoreSecureRandom(), which may give the (blocking) URL seeded source,
+                        // if there's nothing suitable the shortfall comes from the strong source.
+                        Object[] source = findSource();
 
-                    entropy.set(seed);
-                    seedAvailable.set(true);
+                        return (source != null) ? new CoreSecureRandom(source) : null;
+                    }
                 }
-            }
+            });
         }
     }
 }
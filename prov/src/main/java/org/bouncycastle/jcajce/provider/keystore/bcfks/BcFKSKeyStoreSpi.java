@@ -29,12 +29,15 @@
 import java.security.interfaces.RSAKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.text.ParseException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -96,12 +99,15 @@
 import org.bouncycastle.jcajce.BCFKSLoadStoreParameter;
 import org.bouncycastle.jcajce.BCFKSStoreParameter;
 import org.bouncycastle.jcajce.BCLoadStoreParameter;
+import org.bouncycastle.jcajce.provider.keystore.util.DerivedKeyCache;
+import org.bouncycastle.jcajce.provider.keystore.util.KeyDerivationTasks;
 import org.bouncycastle.jcajce.util.BCJcaJceHelper;
 import org.bouncycastle.jcajce.util.DefaultJcaJceHelper;
 import org.bouncycastle.jcajce.util.JcaJceHelper;
 import org.bouncycastle.jce.interfaces.ECKey;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
 
 class BcFKSKeyStoreSpi
     extends KeyStoreSpi
@@ -161,6 +167,12 @@ private static String getPublicKeyAlg(ASN1ObjectIdentifier oid)
     private final JcaJceHelper helper;
     private final Map<String, ObjectData> entries = new HashMap<String, ObjectData>();
     private final Map<String, PrivateKey> privateKeyCache = new HashMap<String, PrivateKey>();
+    // keys protecting individual entries, only kept if the cache has been enabled.
+    private final DerivedKeyCache entryKeys = new DerivedKeyCache();
+
+    // reverse index from certificate fingerprint to alias, built on first use - only ever assigned a fully
+    // built map, so concurrent readers of an unchanging store see either null or a complete index.
+    private volatile Map<String, String> certificateAliases = null;
 
     private AlgorithmIdentifier hmacAlgorithm;
     private KeyDerivationFunc hmacPkbdAlgorithm;
@@ -346,6 +358,7 @@ public void engineSetKeyEntry(String alias, Key key, char[] password, Certificat
         }
 
         privateKeyCache.remove(alias);
+        certificateAliases = null;
 
         if (key instanceof PrivateKey)
         {
@@ -362,7 +375,7 @@ public void engineSetKeyEntry(String alias, Key key, char[] password, Certificat
                 byte[] encodedKey = key.getEncoded();
 
                 KeyDerivationFunc pbkdAlgId = generatePkbdAlgorithmIdentifier(PKCSObjectIdentifiers.id_PBKDF2, 256 / 8);
-                byte[] keyBytes = generateKey(pbkdAlgId, "PRIVATE_KEY_ENCRYPTION", ((password != null) ? password : new char[0]), 32);
+                byte[] keyBytes = generateEntryKey(pbkdAlgId, "PRIVATE_KEY_ENCRYPTION", ((password != null) ? password : new char[0]), 32);
 
                 EncryptedPrivateKeyInfo keyInfo;
                 if (storeEncryptionAlgorithm.equals(NISTObjectIdentifiers.id_aes256_CCM))
@@ -409,7 +422,7 @@ else if (key instanceof SecretKey)
                 byte[] encodedKey = key.getEncoded();
 
                 KeyDerivationFunc pbkdAlgId = generatePkbdAlgorithmIdentifier(PKCSObjectIdentifiers.id_PBKDF2, 256 / 8);
-                byte[] keyBytes = generateKey(pbkdAlgId, "SECRET_KEY_ENCRYPTION", ((password != null) ? password : new char[0]), 32);
+                byte[] keyBytes = generateEntryKey(pbkdAlgId, "SECRET_KEY_ENCRYPTION", ((password != null) ? password : new char[0]), 32);
 
                 String keyAlg = Strings.toUpperCase(key.getAlgorithm());
                 SecretKeyData secKeyData;
@@ -516,6 +529,8 @@ public void engineSetKeyEntry(String alias, byte[] keyBytes, Certificate[] chain
             creationDate = extractCreationDate(entry, creationDate);
         }
 
+        certificateAliases = null;
+
         if (chain != null)
         {
             EncryptedPrivateKeyInfo encInfo;
@@ -571,6 +586,8 @@ public void engineSetCertificateEntry(String alias, Certificate certificate)
             creationDate = extractCreationDate(entry, creationDate);
         }
 
+        certificateAliases = null;
+
         try
         {
             entries.put(alias, new ObjectData(CERTIFICATE, alias, creationDate, lastEditDate, certificate.getEncoded(), null));
@@ -608,6 +625,7 @@ public void engineDeleteEntry(String alias)
 
         privateKeyCache.remove(alias);
         entries.remove(alias);
+        certificateAliases = null;
 
         lastModifiedDate = new Date();
     }
@@ -688,38 +706,112 @@ public String engineGetCertificateAlias(Certificate certificate)
             return null;
         }
 
+        Map<String, String> aliases = certificateAliases;
+        if (aliases == null)
+        {
+            aliases = buildCertificateAliases();
+            certificateAliases = aliases;
+        }
+
+        String alias = (String)aliases.get(getCertificateFingerprint(encodedCert));
+        if (alias != null)
+        {
+            // guard against a fingerprint match that isn't the same certificate
+            if (Arrays.areEqual(getEntryCertificateEncoding((ObjectData)entries.get(alias)), encodedCert))
+            {
+                return alias;
+            }
+        }
+
+        return null;
+    }
+
+    private Map<String, String> buildCertificateAliases()
+    {
+        Map<String, String> index = new HashMap<String, String>(entries.size() * 2);
+
         for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); )
         {
             String alias = (String)it.next();
-            ObjectData ent = (ObjectData)entries.get(alias);
+            byte[] encodedCert = getEntryCertificateEncoding((ObjectData)entries.get(alias));
 
-            if (ent.getType().equals(CERTIFICATE))
+            if (encodedCert != null)
             {
-                if (Arrays.areEqual(ent.getData(), encodedCert))
+                String fingerprint = getCertificateFingerprint(encodedCert);
+                if (!index.containsKey(fingerprint))
                 {
-                    return alias;
+                    index.put(fingerprint, alias);
                 }
             }
-            else if (ent.getType().equals(PRIVATE_KEY) || ent.getType().equals(PROTECTED_PRIVATE_KEY))
+        }
+
+        return index;
+    }
+
+    private byte[] getEntryCertificateEncoding(ObjectData ent)
+    {
+        if (ent.getType().equals(CERTIFICATE))
+        {
+            return ent.getData();
+        }
+        else if (ent.getType().equals(PRIVATE_KEY) || ent.getType().equals(PROTECTED_PRIVATE_KEY))
+        {
+            try
             {
-                try
-                {
-                    EncryptedPrivateKeyData encPrivData = EncryptedPrivateKeyData.getInstance(ent.getData());
-                    if (Arrays.areEqual(encPrivData.getCertificateChain()[0].toASN1Primitive().getEncoded(), encodedCert))
-                    {
-                        return alias;
-                    }
-                }
-                catch (IOException e)
-                {
-                    // ignore - this should never happen
-                }
+                EncryptedPrivateKeyData encPrivData = EncryptedPrivateKeyData.getInstance(ent.getData());
+
+                return encPrivData.getCertificateChain()[0].toASN1Primitive().getEncoded();
+            }
+            catch (IOException e)
+            {
+                // ignore - this should never happen
             }
         }
 
         return null;
     }
 
+    private static String getCertificateFingerprint(byte[] encodedCert)
+    {
+        SHA512Digest digest = new SHA512Digest();
+        byte[] hash = new byte[digest.getDigestSize()];
+
+        digest.update(encodedCert, 0, encodedCert.length);
+        digest.doFinal(hash, 0);
+
+        return Hex.toHexString(hash);
+    }
+
+    private byte[] generateEntryKey(KeyDerivationFunc pbkdAlgorithm, String purpose, char[] password, int defKeySize)
+        throws IOException
+    {
+        // entry keys depend only on the password and the parameters (salt, iteration count...), so with the
+        // cache enabled each is only calculated once. The store encryption and integrity keys are never cached.
+        String keyId = purpose + ":" + defKeySize + ":" + Hex.toHexString(pbkdAlgorithm.getEncoded());
+        byte[] key = (byte[])entryKeys.get(keyId, password);
+
+        if (key == null)
+        {
+            key = generateKey(pbkdAlgorithm, purpose, password, defKeySize);
+
+            entryKeys.put(keyId, password, key, null);
+        }
+
+        return key;
+    }
+
+    private Future generateKeyInBackground(final KeyDerivationFunc pbkdAlgorithm, final String purpose, final char[] password, final int defKeySize)
+    {
+        return KeyDerivationTasks.submit(new Callable()
+        {
+            public Object call()
+                throws IOException
+            {
+                return generateKey(pbkdAlgorithm, purpose, password, defKeySize);
+            }
+        });
+    }
+
     private byte[] generateKey(KeyDerivationFunc pbkdAlgorithm, String purpose, char[] password, int defKeySize)
         throws IOException
     {
@@ -802,7 +894,9 @@ private void verifySig(ASN1Encodable store, SignatureCheck integrityCheck, Publi
     private void verifyMac(byte[] content, PbkdMacIntegrityCheck integrityCheck, char[] password)
         throws NoSuchAlgorithmException, IOException, NoSuchProviderException
     {
-        byte[] check = calculateMac(content, integrityCheck.getMacAlgorithm(), integrityCheck.getPbkdAlgorithm(), password);
+        // no default key size for MAC.
+        byte[] macKey = generateKey(integrityCheck.getPbkdAlgorithm(), "INTEGRITY_CHECK", ((password != null) ? password : new char[0]), -1);
+        byte[] check = calculateMac(content, integrityCheck.getMacAlgorithm(), macKey);
 
         if (!Arrays.constantTimeAreEqual(check, integrityCheck.getMac()))
         {
@@ -810,7 +904,7 @@ private void verifyMac(byte[] content, PbkdMacIntegrityCheck integrityCheck, cha
         }
     }
 
-    private byte[] calculateMac(byte[] content, AlgorithmIdentifier algorithm, KeyDerivationFunc pbkdAlgorithm, char[] password)
+    private byte[] calculateMac(byte[] content, AlgorithmIdentifier algorithm, byte[] macKey)
         throws NoSuchAlgorithmException, IOException, NoSuchProviderException
     {
         String algorithmId = algorithm.getAlgorithm().getId();
@@ -819,8 +913,7 @@ private byte[] calculateMac(byte[] content, AlgorithmIdentifier algorithm, KeyDe
 
         try
         {
-            // no default key size for MAC.
-            mac.init(new SecretKeySpec(generateKey(pbkdAlgorithm, "INTEGRITY_CHECK", ((password != null) ? password : new char[0]), -1), algorithmId));
+            mac.init(new SecretKeySpec(macKey, algorithmId));
         }
         catch (InvalidKeyException e)
         {
@@ -1001,8 +1094,6 @@ public void engineStore(OutputStream outputStream, char[] password)
             throw new IOException("KeyStore not initialized");
         }
 
-        EncryptedObjectStoreData encStoreData = getEncryptedObjectStoreData(hmacAlgorithm, password);
-
         // update the salt
         if (MiscObjectIdentifiers.id_scrypt.equals(hmacPkbdAlgorithm.getAlgorithm()))
         {
@@ -1016,10 +1107,26 @@ public void engineStore(OutputStream outputStream, char[] password)
 
             hmacPkbdAlgorithm = generatePkbdAlgorithmIdentifier(hmacPkbdAlgorithm, pbkdf2Params.getKeyLength().intValue());
         }
+
+        // the MAC key doesn't depend on the encrypted store, so derive it while the store is encrypted.
+        Future macKeyResult = generateKeyInBackground(hmacPkbdAlgorithm, "INTEGRITY_CHECK", ((password != null) ? password : new char[0]), -1);
+
+        EncryptedObjectStoreData encStoreData;
+        try
+        {
+            encStoreData = getEncryptedObjectStoreData(hmacAlgorithm, password);
+        }
+        finally
+        {
+            // don't leave the derivation running if the store couldn't be encrypted.
+            KeyDerivationTasks.awaitAll(Collections.singletonList(macKeyResult));
+        }
+
+        byte[] macKey = (byte[])KeyDerivationTasks.getResult(macKeyResult);
         byte[] mac;
         try
         {
-            mac = calculateMac(encStoreData.getEncoded(), hmacAlgorithm, hmacPkbdAlgorithm, password);
+            mac = calculateMac(encStoreData.getEncoded(), hmacAlgorithm, macKey);
         }
         catch (NoSuchProviderException e)
         {
@@ -1210,6 +1317,8 @@ public void engineLoad(InputStream inputStream, char[] password)
         // reset any current values
         entries.clear();
         privateKeyCache.clear();
+        entryKeys.clear();
+        certificateAliases = null;
 
         lastModifiedDate = creationDate = null;
         hmacAlgorithm = null;
@@ -1244,72 +1353,99 @@ public void engineLoad(InputStream inputStream, char[] password)
         ObjectStoreIntegrityCheck integrityCheck = store.getIntegrityCheck();
         AlgorithmIdentifier integrityAlg;
 
-        if (integrityCheck.getType() == ObjectStoreIntegrityCheck.PBKD_MAC_CHECK)
+        // the store encryption key can be derived while the integrity check is done.
+        Future storeKeyResult = null;
+        if (store.getStoreData() instanceof EncryptedObjectStoreData)
         {
-            PbkdMacIntegrityCheck pbkdMacIntegrityCheck = PbkdMacIntegrityCheck.getInstance(integrityCheck.getIntegrityCheck());
-
-            hmacAlgorithm = pbkdMacIntegrityCheck.getMacAlgorithm();
-            hmacPkbdAlgorithm = pbkdMacIntegrityCheck.getPbkdAlgorithm();
-
-            integrityAlg = hmacAlgorithm;
+            AlgorithmIdentifier protectAlgId = ((EncryptedObjectStoreData)store.getStoreData()).getEncryptionAlgorithm();
 
-            try
-            {
-                verifyMac(store.getStoreData().toASN1Primitive().getEncoded(), pbkdMacIntegrityCheck, password);
-            }
-            catch (NoSuchProviderException e)
+            if (protectAlgId.getAlgorithm().equals(PKCSObjectIdentifiers.id_PBES2))
             {
-                throw new IOException(e.getMessage());
+                KeyDerivationFunc storePbkdAlgorithm = PBES2Parameters.getInstance(protectAlgId.getParameters()).getKeyDerivationFunc();
+
+                storeKeyResult = generateKeyInBackground(storePbkdAlgorithm, "STORE_ENCRYPTION", ((password != null) ? password : new char[0]), 32);
             }
         }
-        else if (integrityCheck.getType() == ObjectStoreIntegrityCheck.SIG_CHECK)
+
+        try
         {
-            SignatureCheck sigCheck = SignatureCheck.getInstance(integrityCheck.getIntegrityCheck());
+            if (integrityCheck.getType() == ObjectStoreIntegrityCheck.PBKD_MAC_CHECK)
+            {
+                PbkdMacIntegrityCheck pbkdMacIntegrityCheck = PbkdMacIntegrityCheck.getInstance(integrityCheck.getIntegrityCheck());
 
-            integrityAlg = sigCheck.getSignatureAlgorithm();
+                hmacAlgorithm = pbkdMacIntegrityCheck.getMacAlgorithm();
+                hmacPkbdAlgorithm = pbkdMacIntegrityCheck.getPbkdAlgorithm();
 
-            try
+                integrityAlg = hmacAlgorithm;
+
+                try
+                {
+                    verifyMac(store.getStoreData().toASN1Primitive().getEncoded(), pbkdMacIntegrityCheck, password);
+                }
+                catch (NoSuchProviderException e)
+                {
+                    throw new IOException(e.getMessage());
+                }
+            }
+            else if (integrityCheck.getType() == ObjectStoreIntegrityCheck.SIG_CHECK)
             {
-                org.bouncycastle.asn1.x509.Certificate[] certificates = sigCheck.getCertificates();
-                if (validator != null)
+                SignatureCheck sigCheck = SignatureCheck.getInstance(integrityCheck.getIntegrityCheck());
+
+                integrityAlg = sigCheck.getSignatureAlgorithm();
+
+                try
                 {
-                    if (certificates == null)
+                    org.bouncycastle.asn1.x509.Certificate[] certificates = sigCheck.getCertificates();
+                    if (validator != null)
                     {
-                        throw new IOException("validator specified but no certifcates in store");
-                    }
-                    CertificateFactory certFact = helper.createCertificateFactory("X.509");
-                    X509Certificate[] certs = new X509Certificate[certificates.length];
+                        if (certificates == null)
+                        {
+                            throw new IOException("validator specified but no certifcates in store");
+                        }
+                        CertificateFactory certFact = helper.createCertificateFactory("X.509");
+                        X509Certificate[] certs = new X509Certificate[certificates.length];
 
-                    for (int i = 0; i != certs.length; i++)
-                    {
-                        certs[i] = (X509Certificate)certFact.generateCertificate(
-                                        new ByteArrayInputStream(certificates[i].getEncoded()));
-                    }
+                        for (int i = 0; i != certs.length; i++)
+                        {
+                            certs[i] = (X509Certificate)certFact.generateCertificate(
+                                            new ByteArrayInputStream(certificates[i].getEncoded()));
+                        }
 
-                    if (validator.isValid(certs))
-                    {
-                        verifySig(store.getStoreData(), sigCheck, certs[0].getPublicKey());
+                        if (validator.isValid(certs))
+                        {
+                            verifySig(store.getStoreData(), sigCheck, certs[0].getPublicKey());
+                        }
+                        else
+                        {
+                            throw new IOException("certificate chain in key store signature not valid");
+                        }
                     }
                     else
                     {
-                        throw new IOException("certificate chain in key store signature not valid");
+                        verifySig(store.getStoreData(), sigCheck, verificationKey);
                     }
                 }
-                else
+                catch (GeneralSecurityException e)
                 {
-                    verifySig(store.getStoreData(), sigCheck, verificationKey);
+                    throw new IOException("error verifying signature: " + e.getMessage(), e);
                 }
             }
-            catch (GeneralSecurityException e)
+            else
             {
-                throw new IOException("error verifying signature: " + e.getMessage(), e);
+                throw new IOException("BCFKS KeyStore unable to recognize integrity check.");
             }
         }
-        else
+        finally
         {
-            throw new IOException("BCFKS KeyStore unable to recognize integrity check.");
+            // don't leave the derivation running if the integrity check failed.
+            if (storeKeyResult != null)
+            {
+                KeyDerivationTasks.awaitAll(Collections.singletonList(storeKeyResult));
+            }
         }
 
+        byte[] storeKey = (storeKeyResult != null) ? (byte[])KeyDerivationTasks.getResult(storeKeyResult) : null;
+
         ASN1Encodable sData = store.getStoreData();
 
         ObjectStoreData storeData;
@@ -1318,7 +1454,19 @@ else if (integrityCheck.getType() == ObjectStoreIntegrityCheck.SIG_CHECK)
             EncryptedObjectStoreData encryptedStoreData = (EncryptedObjectStoreData)sData;
             AlgorithmIdentifier protectAlgId = encryptedStoreData.getEncryptionAlgorithm();
 
-            storeData = ObjectStoreData.getInstance(decryptData("STORE_ENCRYPTION", protectAlgId, password, encryptedStoreData.getEncryptedContent().getOctets()));
+            if (storeKey == null)
+            {
+                throw new IOException("BCFKS KeyStore cannot recognize protection algorithm.");
+            }
+
+            try
+            {
+                storeData = ObjectStoreData.getInstance(decryptData(protectAlgId, storeKey, encryptedStoreData.getEncryptedContent().getOctets()));
+            }
+            finally
+            {
+                Arrays.fill(storeKey, (byte)0);
+            }
         }
         else
         {
@@ -1356,6 +1504,22 @@ private byte[] decryptData(String purpose, AlgorithmIdentifier protectAlgId, cha
             throw new IOException("BCFKS KeyStore cannot recognize protection algorithm.");
         }
 
+        PBES2Parameters pbes2Parameters = PBES2Parameters.getInstance(protectAlgId.getParameters());
+        byte[] keyBytes = generateEntryKey(pbes2Parameters.getKeyDerivationFunc(), purpose, ((password != null) ? password : new char[0]), 32);
+
+        try
+        {
+            return decryptData(protectAlgId, keyBytes, encryptedData);
+        }
+        finally
+        {
+            Arrays.fill(keyBytes, (byte)0);
+        }
+    }
+
+    private byte[] decryptData(AlgorithmIdentifier protectAlgId, byte[] keyBytes, byte[] encryptedData)
+        throws IOException
+    {
         PBES2Parameters pbes2Parameters = PBES2Parameters.getInstance(protectAlgId.getParameters());
         EncryptionScheme algId = pbes2Parameters.getEncryptionScheme();
 
@@ -1382,8 +1546,6 @@ else if (algId.getAlgorithm().equals(NISTObjectIdentifiers.id_aes256_wrap_pad))
                 throw new IOException("BCFKS KeyStore cannot recognize protection encryption algorithm.");
             }
 
-            byte[] keyBytes = generateKey(pbes2Parameters.getKeyDerivationFunc(), purpose, ((password != null) ? password : new char[0]), 32);
-
             c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), algParams);
 
             byte[] rv = c.doFinal(encryptedData);
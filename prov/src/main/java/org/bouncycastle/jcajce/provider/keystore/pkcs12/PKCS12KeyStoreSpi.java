@@ -33,9 +33,12 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
@@ -45,6 +48,7 @@
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -91,6 +95,8 @@
 import org.bouncycastle.crypto.util.DigestFactory;
 import org.bouncycastle.jcajce.PKCS12Key;
 import org.bouncycastle.jcajce.PKCS12StoreParameter;
+import org.bouncycastle.jcajce.provider.keystore.util.DerivedKeyCache;
+import org.bouncycastle.jcajce.provider.keystore.util.KeyDerivationTasks;
 import org.bouncycastle.jcajce.spec.GOST28147ParameterSpec;
 import org.bouncycastle.jcajce.spec.PBKDF2KeySpec;
 import org.bouncycastle.jcajce.util.BCJcaJceHelper;
@@ -119,6 +125,9 @@
 
     private static final DefaultSecretKeyProvider keySizeProvider = new DefaultSecretKeyProvider();
 
+    // PBES2 keys derived for this store's entries, only kept if the cache has been enabled.
+    private final DerivedKeyCache derivedKeys = new DerivedKeyCache();
+
     private IgnoresCaseHashtable keys = new IgnoresCaseHashtable();
     private Hashtable localIds = new Hashtable();
     private IgnoresCaseHashtable certs = new IgnoresCaseHashtable();
@@ -617,7 +626,7 @@ protected PrivateKey unwrapKey(
             else if (algorithm.equals(PKCSObjectIdentifiers.id_PBES2))
             {
 
-                Cipher cipher = createCipher(Cipher.UNWRAP_MODE, password, algId);
+                Cipher cipher = createCipher(Cipher.UNWRAP_MODE, password, algId, true);
 
                 // we pass "" as the key algorithm type as it is unknown at this point
                 return (PrivateKey)cipher.unwrap(data, "", Cipher.PRIVATE_KEY);
@@ -631,6 +640,52 @@ else if (algorithm.equals(PKCSObjectIdentifiers.id_PBES2))
         throw new IOException("exception unwrapping private key - cannot recognise: " + algorithm);
     }
 
+    private Map unwrapKeys(
+        ASN1Sequence[] safeContents,
+        final char[] password,
+        final boolean wrongPKCS12Zero)
+    {
+        Map unwrapped = new IdentityHashMap();
+
+        try
+        {
+            for (int i = 0; i != safeContents.length; i++)
+            {
+                ASN1Sequence seq = safeContents[i];
+                if (seq == null)
+                {
+                    continue;
+                }
+
+                for (int j = 0; j != seq.size(); j++)
+                {
+                    SafeBag b = SafeBag.getInstance(seq.getObjectAt(j));
+                    if (b.getBagId().equals(pkcs8ShroudedKeyBag))
+                    {
+                        final org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo eIn = org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo.getInstance(b.getBagValue());
+
+                        unwrapped.put(seq.getObjectAt(j), KeyDerivationTasks.submit(new Callable()
+                        {
+                            public Object call()
+                                throws IOException
+                            {
+                                return unwrapKey(eIn.getEncryptionAlgorithm(), eIn.getEncryptedData(), password, wrongPKCS12Zero);
+                            }
+                        }));
+                    }
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            KeyDerivationTasks.awaitAll(unwrapped.values());
+
+            throw e;
+        }
+
+        return unwrapped;
+    }
+
     protected byte[] wrapKey(
         String algorithm,
         Key key,
@@ -697,7 +752,7 @@ else  if (algorithm.equals(PKCSObjectIdentifiers.id_PBES2))
         {
             try
             {
-                Cipher cipher = createCipher(mode, password, algId);
+                Cipher cipher = createCipher(mode, password, algId, false);
 
                 return cipher.doFinal(data);
             }
@@ -712,23 +767,43 @@ else  if (algorithm.equals(PKCSObjectIdentifiers.id_PBES2))
         }
     }
 
-    private Cipher createCipher(int mode, char[] password, AlgorithmIdentifier algId)
-        throws NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchProviderException
+    private Cipher createCipher(int mode, char[] password, AlgorithmIdentifier algId, boolean isEntryKey)
+        throws NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchProviderException, IOException
     {
         PBES2Parameters alg = PBES2Parameters.getInstance(algId.getParameters());
         PBKDF2Params func = PBKDF2Params.getInstance(alg.getKeyDerivationFunc().getParameters());
         AlgorithmIdentifier encScheme = AlgorithmIdentifier.getInstance(alg.getEncryptionScheme());
 
-        SecretKeyFactory keyFact = helper.createSecretKeyFactory(alg.getKeyDerivationFunc().getAlgorithm().getId());
-        SecretKey key;
+        int keySize = keySizeProvider.getKeySize(encScheme);
+        String keyId = Hex.toHexString(alg.getKeyDerivationFunc().toASN1Primitive().getEncoded()) + ":" + keySize;
+        // only the keys protecting individual entries are cached, never the one for the store's content.
+        byte[] cachedKey = isEntryKey ? (byte[])derivedKeys.get(keyId, password) : null;
+        SecretKey key = null;
 
-        if (func.isDefaultPrf())
+        if (cachedKey != null)
         {
-            key = keyFact.generateSecret(new PBEKeySpec(password, func.getSalt(), validateIterationCount(func.getIterationCount()), keySizeProvider.getKeySize(encScheme)));
+            key = new SecretKeySpec(cachedKey, alg.getKeyDerivationFunc().getAlgorithm().getId());
+            Arrays.fill(cachedKey, (byte)0);
         }
-        else
+
+        if (key == null)
         {
-            key = keyFact.generateSecret(new PBKDF2KeySpec(password, func.getSalt(), validateIterationCount(func.getIterationCount()), keySizeProvider.getKeySize(encScheme), func.getPrf()));
+            SecretKeyFactory keyFact = helper.createSecretKeyFactory(alg.getKeyDerivationFunc().getAlgorithm().getId());
+
+            if (func.isDefaultPrf())
+            {
+                key = keyFact.generateSecret(new PBEKeySpec(password, func.getSalt(), validateIterationCount(func.getIterationCount()), keySize));
+            }
+            else
+            {
+                key = keyFact.generateSecret(new PBKDF2KeySpec(password, func.getSalt(), validateIterationCount(func.getIterationCount()), keySize, func.getPrf()));
+            }
+
+            byte[] keyBytes = isEntryKey ? key.getEncoded() : null;
+            if (keyBytes != null)
+            {
+                derivedKeys.put(keyId, password, keyBytes, null);
+            }
         }
 
         Cipher cipher = Cipher.getInstance(alg.getEncryptionScheme().getAlgorithm().getId());
@@ -753,6 +828,8 @@ public void engineLoad(
         char[] password)
         throws IOException
     {
+        derivedKeys.clear();
+
         if (stream == null)     // just initialising
         {
             return;
@@ -852,255 +929,277 @@ else if (password != null)
             ASN1OctetString content = ASN1OctetString.getInstance(info.getContent());
             AuthenticatedSafe authSafe = AuthenticatedSafe.getInstance(content.getOctets());
             ContentInfo[] c = authSafe.getContentInfo();
+            ASN1Sequence[] safeContents = new ASN1Sequence[c.length];
 
             for (int i = 0; i != c.length; i++)
             {
                 if (c[i].getContentType().equals(data))
                 {
                     ASN1OctetString authSafeContent = ASN1OctetString.getInstance(c[i].getContent());
-                    ASN1Sequence seq = ASN1Sequence.getInstance(authSafeContent.getOctets());
+                    safeContents[i] = ASN1Sequence.getInstance(authSafeContent.getOctets());
+                }
+                else if (c[i].getContentType().equals(encryptedData))
+                {
+                    EncryptedData d = EncryptedData.getInstance(c[i].getContent());
+                    byte[] octets = cryptData(false, d.getEncryptionAlgorithm(),
+                        password, wrongPKCS12Zero, d.getContent().getOctets());
+                    safeContents[i] = ASN1Sequence.getInstance(octets);
+                }
+            }
 
-                    for (int j = 0; j != seq.size(); j++)
+            // each shrouded key has its own PBE parameters, so the keys can all be unwrapped at once.
+            Map unwrappedKeys = unwrapKeys(safeContents, password, wrongPKCS12Zero);
+
+            try
+            {
+                for (int i = 0; i != c.length; i++)
+                {
+                    if (c[i].getContentType().equals(data))
                     {
-                        SafeBag b = SafeBag.getInstance(seq.getObjectAt(j));
-                        if (b.getBagId().equals(pkcs8ShroudedKeyBag))
+                        ASN1Sequence seq = safeContents[i];
+
+                        for (int j = 0; j != seq.size(); j++)
                         {
-                            org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo eIn = org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo.getInstance(b.getBagValue());
-                            PrivateKey privKey = unwrapKey(eIn.getEncryptionAlgorithm(), eIn.getEncryptedData(), password, wrongPKCS12Zero);
+                            SafeBag b = SafeBag.getInstance(seq.getObjectAt(j));
+                            if (b.getBagId().equals(pkcs8ShroudedKeyBag))
+                            {
+                                PrivateKey privKey = (PrivateKey)KeyDerivationTasks.getResult((Future)unwrappedKeys.get(seq.getObjectAt(j)));
 
-                            //
-                            // set the attributes on the key
-                            //
-                            String alias = null;
-                            ASN1OctetString localId = null;
+                                //
+                                // set the attributes on the key
+                                //
+                                String alias = null;
+                                ASN1OctetString localId = null;
 
-                            if (b.getBagAttributes() != null)
-                            {
-                                Enumeration e = b.getBagAttributes().getObjects();
-                                while (e.hasMoreElements())
+                                if (b.getBagAttributes() != null)
                                 {
-                                    ASN1Sequence sq = (ASN1Sequence)e.nextElement();
-                                    ASN1ObjectIdentifier aOid = (ASN1ObjectIdentifier)sq.getObjectAt(0);
-                                    ASN1Set attrSet = (ASN1Set)sq.getObjectAt(1);
-                                    ASN1Primitive attr = null;
-
-                                    if (attrSet.size() > 0)
+                                    Enumeration e = b.getBagAttributes().getObjects();
+                                    while (e.hasMoreElements())
                                     {
-                                        attr = (ASN1Primitive)attrSet.getObjectAt(0);
+                                        ASN1Sequence sq = (ASN1Sequence)e.nextElement();
+                                        ASN1ObjectIdentifier aOid = (ASN1ObjectIdentifier)sq.getObjectAt(0);
+                                        ASN1Set attrSet = (ASN1Set)sq.getObjectAt(1);
+                                        ASN1Primitive attr = null;
 
-                                        if (privKey instanceof PKCS12BagAttributeCarrier)
+                                        if (attrSet.size() > 0)
                                         {
-                                            PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
-                                            ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
-                                            if (existing != null)
+                                            attr = (ASN1Primitive)attrSet.getObjectAt(0);
+
+                                            if (privKey instanceof PKCS12BagAttributeCarrier)
                                             {
-                                                // OK, but the value has to be the same
-                                                if (!existing.toASN1Primitive().equals(attr))
+                                                PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
+                                                ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
+                                                if (existing != null)
                                                 {
-                                                    throw new IOException(
-                                                        "attempt to add existing attribute with different value");
+                                                    // OK, but the value has to be the same
+                                                    if (!existing.toASN1Primitive().equals(attr))
+                                                    {
+                                                        throw new IOException(
+                                                            "attempt to add existing attribute with different value");
+                                                    }
+                                                }
+                                                else
+                                                {
+                                                    bagAttr.setBagAttribute(aOid, attr);
                                                 }
                                             }
-                                            else
-                                            {
-                                                bagAttr.setBagAttribute(aOid, attr);
-                                            }
+                                        }
+
+                                        if (aOid.equals(pkcs_9_at_friendlyName))
+                                        {
+                                            alias = ((DERBMPString)attr).getString();
+                                            keys.put(alias, privKey);
+                                        }
+                                        else if (aOid.equals(pkcs_9_at_localKeyId))
+                                        {
+                                            localId = (ASN1OctetString)attr;
                                         }
                                     }
+                                }
 
-                                    if (aOid.equals(pkcs_9_at_friendlyName))
+                                if (localId != null)
+                                {
+                                    String name = new String(Hex.encode(localId.getOctets()));
+
+                                    if (alias == null)
                                     {
-                                        alias = ((DERBMPString)attr).getString();
-                                        keys.put(alias, privKey);
+                                        keys.put(name, privKey);
                                     }
-                                    else if (aOid.equals(pkcs_9_at_localKeyId))
+                                    else
                                     {
-                                        localId = (ASN1OctetString)attr;
+                                        localIds.put(alias, name);
                                     }
                                 }
-                            }
-
-                            if (localId != null)
-                            {
-                                String name = new String(Hex.encode(localId.getOctets()));
-
-                                if (alias == null)
-                                {
-                                    keys.put(name, privKey);
-                                }
                                 else
                                 {
-                                    localIds.put(alias, name);
+                                    unmarkedKey = true;
+                                    keys.put("unmarked", privKey);
                                 }
                             }
+                            else if (b.getBagId().equals(certBag))
+                            {
+                                chain.addElement(b);
+                            }
                             else
                             {
-                                unmarkedKey = true;
-                                keys.put("unmarked", privKey);
+                                System.out.println("extra in data " + b.getBagId());
+                                System.out.println(ASN1Dump.dumpAsString(b));
                             }
                         }
-                        else if (b.getBagId().equals(certBag))
-                        {
-                            chain.addElement(b);
-                        }
-                        else
-                        {
-                            System.out.println("extra in data " + b.getBagId());
-                            System.out.println(ASN1Dump.dumpAsString(b));
-                        }
                     }
-                }
-                else if (c[i].getContentType().equals(encryptedData))
-                {
-                    EncryptedData d = EncryptedData.getInstance(c[i].getContent());
-                    byte[] octets = cryptData(false, d.getEncryptionAlgorithm(),
-                        password, wrongPKCS12Zero, d.getContent().getOctets());
-                    ASN1Sequence seq = ASN1Sequence.getInstance(octets);
-
-                    for (int j = 0; j != seq.size(); j++)
+                    else if (c[i].getContentType().equals(encryptedData))
                     {
-                        SafeBag b = SafeBag.getInstance(seq.getObjectAt(j));
+                        ASN1Sequence seq = safeContents[i];
 
-                        if (b.getBagId().equals(certBag))
-                        {
-                            chain.addElement(b);
-                        }
-                        else if (b.getBagId().equals(pkcs8ShroudedKeyBag))
+                        for (int j = 0; j != seq.size(); j++)
                         {
-                            org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo eIn = org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo.getInstance(b.getBagValue());
-                            PrivateKey privKey = unwrapKey(eIn.getEncryptionAlgorithm(), eIn.getEncryptedData(), password, wrongPKCS12Zero);
-
-                            //
-                            // set the attributes on the key
-                            //
-                            PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
-                            String alias = null;
-                            ASN1OctetString localId = null;
-
-                            Enumeration e = b.getBagAttributes().getObjects();
-                            while (e.hasMoreElements())
+                            SafeBag b = SafeBag.getInstance(seq.getObjectAt(j));
+
+                            if (b.getBagId().equals(certBag))
+                            {
+                                chain.addElement(b);
+                            }
+                            else if (b.getBagId().equals(pkcs8ShroudedKeyBag))
                             {
-                                ASN1Sequence sq = (ASN1Sequence)e.nextElement();
-                                ASN1ObjectIdentifier aOid = (ASN1ObjectIdentifier)sq.getObjectAt(0);
-                                ASN1Set attrSet = (ASN1Set)sq.getObjectAt(1);
-                                ASN1Primitive attr = null;
+                                PrivateKey privKey = (PrivateKey)KeyDerivationTasks.getResult((Future)unwrappedKeys.get(seq.getObjectAt(j)));
+
+                                //
+                                // set the attributes on the key
+                                //
+                                PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
+                                String alias = null;
+                                ASN1OctetString localId = null;
 
-                                if (attrSet.size() > 0)
+                                Enumeration e = b.getBagAttributes().getObjects();
+                                while (e.hasMoreElements())
                                 {
-                                    attr = (ASN1Primitive)attrSet.getObjectAt(0);
+                                    ASN1Sequence sq = (ASN1Sequence)e.nextElement();
+                                    ASN1ObjectIdentifier aOid = (ASN1ObjectIdentifier)sq.getObjectAt(0);
+                                    ASN1Set attrSet = (ASN1Set)sq.getObjectAt(1);
+                                    ASN1Primitive attr = null;
 
-                                    ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
-                                    if (existing != null)
+                                    if (attrSet.size() > 0)
                                     {
-                                        // OK, but the value has to be the same
-                                        if (!existing.toASN1Primitive().equals(attr))
+                                        attr = (ASN1Primitive)attrSet.getObjectAt(0);
+
+                                        ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
+                                        if (existing != null)
                                         {
-                                            throw new IOException(
-                                                "attempt to add existing attribute with different value");
+                                            // OK, but the value has to be the same
+                                            if (!existing.toASN1Primitive().equals(attr))
+                                            {
+                                                throw new IOException(
+                                                    "attempt to add existing attribute with different value");
+                                            }
+                                        }
+                                        else
+                                        {
+                                            bagAttr.setBagAttribute(aOid, attr);
                                         }
                                     }
-                                    else
+
+                                    if (aOid.equals(pkcs_9_at_friendlyName))
+                                    {
+                                        alias = ((DERBMPString)attr).getString();
+                                        keys.put(alias, privKey);
+                                    }
+                                    else if (aOid.equals(pkcs_9_at_localKeyId))
                                     {
-                                        bagAttr.setBagAttribute(aOid, attr);
+                                        localId = (ASN1OctetString)attr;
                                     }
                                 }
 
-                                if (aOid.equals(pkcs_9_at_friendlyName))
+                                String name = new String(Hex.encode(localId.getOctets()));
+
+                                if (alias == null)
                                 {
-                                    alias = ((DERBMPString)attr).getString();
-                                    keys.put(alias, privKey);
+                                    keys.put(name, privKey);
                                 }
-                                else if (aOid.equals(pkcs_9_at_localKeyId))
+                                else
                                 {
-                                    localId = (ASN1OctetString)attr;
+                                    localIds.put(alias, name);
                                 }
                             }
-
-                            String name = new String(Hex.encode(localId.getOctets()));
-
-                            if (alias == null)
-                            {
-                                keys.put(name, privKey);
-                            }
-                            else
-                            {
-                                localIds.put(alias, name);
-                            }
-                        }
-                        else if (b.getBagId().equals(keyBag))
-                        {
-                            org.bouncycastle.asn1.pkcs.PrivateKeyInfo kInfo = org.bouncycastle.asn1.pkcs.PrivateKeyInfo.getInstance(b.getBagValue());
-                            PrivateKey privKey = BouncyCastleProvider.getPrivateKey(kInfo);
-
-                            //
-                            // set the attributes on the key
-                            //
-                            PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
-                            String alias = null;
-                            ASN1OctetString localId = null;
-
-                            Enumeration e = b.getBagAttributes().getObjects();
-                            while (e.hasMoreElements())
+                            else if (b.getBagId().equals(keyBag))
                             {
-                                ASN1Sequence sq = ASN1Sequence.getInstance(e.nextElement());
-                                ASN1ObjectIdentifier aOid = ASN1ObjectIdentifier.getInstance(sq.getObjectAt(0));
-                                ASN1Set attrSet = ASN1Set.getInstance(sq.getObjectAt(1));
-                                ASN1Primitive attr = null;
+                                org.bouncycastle.asn1.pkcs.PrivateKeyInfo kInfo = org.bouncycastle.asn1.pkcs.PrivateKeyInfo.getInstance(b.getBagValue());
+                                PrivateKey privKey = BouncyCastleProvider.getPrivateKey(kInfo);
 
-                                if (attrSet.size() > 0)
+                                //
+                                // set the attributes on the key
+                                //
+                                PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier)privKey;
+                                String alias = null;
+                                ASN1OctetString localId = null;
+
+                                Enumeration e = b.getBagAttributes().getObjects();
+                                while (e.hasMoreElements())
                                 {
-                                    attr = (ASN1Primitive)attrSet.getObjectAt(0);
+                                    ASN1Sequence sq = ASN1Sequence.getInstance(e.nextElement());
+                                    ASN1ObjectIdentifier aOid = ASN1ObjectIdentifier.getInstance(sq.getObjectAt(0));
+                                    ASN1Set attrSet = ASN1Set.getInstance(sq.getObjectAt(1));
+                                    ASN1Primitive attr = null;
 
-                                    ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
-                                    if (existing != null)
+                                    if (attrSet.size() > 0)
                                     {
-                                        // OK, but the value has to be the same
-                                        if (!existing.toASN1Primitive().equals(attr))
+                                        attr = (ASN1Primitive)attrSet.getObjectAt(0);
+
+                                        ASN1Encodable existing = bagAttr.getBagAttribute(aOid);
+                                        if (existing != null)
                                         {
-                                            throw new IOException(
-                                                "attempt to add existing attribute with different value");
+                                            // OK, but the value has to be the same
+                                            if (!existing.toASN1Primitive().equals(attr))
+                                            {
+                                                throw new IOException(
+                                                    "attempt to add existing attribute with different value");
+                                            }
+                                        }
+                                        else
+                                        {
+                                            bagAttr.setBagAttribute(aOid, attr);
                                         }
-                                    }
-                                    else
-                                    {
-                                        bagAttr.setBagAttribute(aOid, attr);
-                                    }
 
-                                    if (aOid.equals(pkcs_9_at_friendlyName))
-                                    {
-                                        alias = ((DERBMPString)attr).getString();
-                                        keys.put(alias, privKey);
-                                    }
-                                    else if (aOid.equals(pkcs_9_at_localKeyId))
-                                    {
-                                        localId = (ASN1OctetString)attr;
+                                        if (aOid.equals(pkcs_9_at_friendlyName))
+                                        {
+                                            alias = ((DERBMPString)attr).getString();
+                                            keys.put(alias, privKey);
+                                        }
+                                        else if (aOid.equals(pkcs_9_at_localKeyId))
+                                        {
+                                            localId = (ASN1OctetString)attr;
+                                        }
                                     }
                                 }
-                            }
 
-                            String name = new String(Hex.encode(localId.getOctets()));
+                                String name = new String(Hex.encode(localId.getOctets()));
 
-                            if (alias == null)
-                            {
-                                keys.put(name, privKey);
+                                if (alias == null)
+                                {
+                                    keys.put(name, privKey);
+                                }
+                                else
+                                {
+                                    localIds.put(alias, name);
+                                }
                             }
                             else
                             {
-                                localIds.put(alias, name);
+                                System.out.println("extra in encryptedData " + b.getBagId());
+                                System.out.println(ASN1Dump.dumpAsString(b));
                             }
                         }
-                        else
-                        {
-                            System.out.println("extra in encryptedData " + b.getBagId());
-                            System.out.println(ASN1Dump.dumpAsString(b));
-                        }
+                    }
+                    else
+                    {
+                        System.out.println("extra " + c[i].getContentType().getId());
+                        System.out.println("extra " + ASN1Dump.dumpAsString(c[i].getContent()));
                     }
                 }
-                else
-                {
-                    System.out.println("extra " + c[i].getContentType().getId());
-                    System.out.println("extra " + ASN1Dump.dumpAsString(c[i].getContent()));
-                }
+            }
+            finally
+            {
+                // if processing fails part way through the other keys may still be unwrapping - don't leave them running.
+                KeyDerivationTasks.awaitAll(unwrappedKeys.values());
             }
         }
 
@@ -1348,84 +1447,116 @@ private void doStore(OutputStream stream, char[] password, boolean useDEREncodin
         //
         ASN1EncodableVector keyS = new ASN1EncodableVector();
 
-        Enumeration ks = keys.keys();
+        Vector keyNames = new Vector();
+        Vector keyParams = new Vector();
+        Vector wrappedKeys = new Vector();
 
-        while (ks.hasMoreElements())
+        try
         {
-            byte[] kSalt = new byte[SALT_SIZE];
+            Enumeration ks = keys.keys();
 
-            random.nextBytes(kSalt);
+            while (ks.hasMoreElements())
+            {
+                byte[] kSalt = new byte[SALT_SIZE];
 
-            String name = (String)ks.nextElement();
-            PrivateKey privKey = (PrivateKey)keys.get(name);
-            PKCS12PBEParams kParams = new PKCS12PBEParams(kSalt, MIN_ITERATIONS);
-            byte[] kBytes = wrapKey(keyAlgorithm.getId(), privKey, kParams, password);
-            AlgorithmIdentifier kAlgId = new AlgorithmIdentifier(keyAlgorithm, kParams.toASN1Primitive());
-            org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo kInfo = new org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo(kAlgId, kBytes);
-            boolean attrSet = false;
-            ASN1EncodableVector kName = new ASN1EncodableVector();
+                random.nextBytes(kSalt);
 
-            if (privKey instanceof PKCS12BagAttributeCarrier)
-            {
-                PKCS12BagAttributeCarrier bagAttrs = (PKCS12BagAttributeCarrier)privKey;
-                //
-                // make sure we are using the local alias on store
-                //
-                DERBMPString nm = (DERBMPString)bagAttrs.getBagAttribute(pkcs_9_at_friendlyName);
-                if (nm == null || !nm.getString().equals(name))
+                String name = (String)ks.nextElement();
+                final PrivateKey kPrivKey = (PrivateKey)keys.get(name);
+                final PKCS12PBEParams kParams = new PKCS12PBEParams(kSalt, MIN_ITERATIONS);
+                final char[] kPassword = password;
+
+                // the wrapping keys are independent, so derive them all at once.
+                keyNames.addElement(name);
+                keyParams.addElement(kParams);
+                wrappedKeys.addElement(KeyDerivationTasks.submit(new Callable()
                 {
-                    bagAttrs.setBagAttribute(pkcs_9_at_friendlyName, new DERBMPString(name));
-                }
+                    public Object call()
+                        throws IOException
+                    {
+                        return wrapKey(keyAlgorithm.getId(), kPrivKey, kParams, kPassword);
+                    }
+                }));
+            }
 
-                //
-                // make sure we have a local key-id
-                //
-                if (bagAttrs.getBagAttribute(pkcs_9_at_localKeyId) == null)
+            for (int keyIndex = 0; keyIndex != keyNames.size(); keyIndex++)
+            {
+                String name = (String)keyNames.elementAt(keyIndex);
+                PrivateKey privKey = (PrivateKey)keys.get(name);
+                byte[] kBytes = (byte[])KeyDerivationTasks.getResult((Future)wrappedKeys.elementAt(keyIndex));
+                PKCS12PBEParams kParams = (PKCS12PBEParams)keyParams.elementAt(keyIndex);
+                AlgorithmIdentifier kAlgId = new AlgorithmIdentifier(keyAlgorithm, kParams.toASN1Primitive());
+                org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo kInfo = new org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo(kAlgId, kBytes);
+                boolean attrSet = false;
+                ASN1EncodableVector kName = new ASN1EncodableVector();
+
+                if (privKey instanceof PKCS12BagAttributeCarrier)
                 {
-                    Certificate ct = engineGetCertificate(name);
+                    PKCS12BagAttributeCarrier bagAttrs = (PKCS12BagAttributeCarrier)privKey;
+                    //
+                    // make sure we are using the local alias on store
+                    //
+                    DERBMPString nm = (DERBMPString)bagAttrs.getBagAttribute(pkcs_9_at_friendlyName);
+                    if (nm == null || !nm.getString().equals(name))
+                    {
+                        bagAttrs.setBagAttribute(pkcs_9_at_friendlyName, new DERBMPString(name));
+                    }
 
-                    bagAttrs.setBagAttribute(pkcs_9_at_localKeyId, createSubjectKeyId(ct.getPublicKey()));
-                }
+                    //
+                    // make sure we have a local key-id
+                    //
+                    if (bagAttrs.getBagAttribute(pkcs_9_at_localKeyId) == null)
+                    {
+                        Certificate ct = engineGetCertificate(name);
 
-                Enumeration e = bagAttrs.getBagAttributeKeys();
+                        bagAttrs.setBagAttribute(pkcs_9_at_localKeyId, createSubjectKeyId(ct.getPublicKey()));
+                    }
 
-                while (e.hasMoreElements())
-                {
-                    ASN1ObjectIdentifier oid = (ASN1ObjectIdentifier)e.nextElement();
-                    ASN1EncodableVector kSeq = new ASN1EncodableVector();
+                    Enumeration e = bagAttrs.getBagAttributeKeys();
+
+                    while (e.hasMoreElements())
+                    {
+                        ASN1ObjectIdentifier oid = (ASN1ObjectIdentifier)e.nextElement();
+                        ASN1EncodableVector kSeq = new ASN1EncodableVector();
 
-                    kSeq.add(oid);
-                    kSeq.add(new DERSet(bagAttrs.getBagAttribute(oid)));
+                        kSeq.add(oid);
+                        kSeq.add(new DERSet(bagAttrs.getBagAttribute(oid)));
 
-                    attrSet = true;
+                        attrSet = true;
 
-                    kName.add(new DERSequence(kSeq));
+                        kName.add(new DERSequence(kSeq));
+                    }
                 }
-            }
 
-            if (!attrSet)
-            {
-                //
-                // set a default friendly name (from the key id) and local id
-                //
-                ASN1EncodableVector kSeq = new ASN1EncodableVector();
-                Certificate ct = engineGetCertificate(name);
+                if (!attrSet)
+                {
+                    //
+                    // set a default friendly name (from the key id) and local id
+                    //
+                    ASN1EncodableVector kSeq = new ASN1EncodableVector();
+                    Certificate ct = engineGetCertificate(name);
 
-                kSeq.add(pkcs_9_at_localKeyId);
-                kSeq.add(new DERSet(createSubjectKeyId(ct.getPublicKey())));
+                    kSeq.add(pkcs_9_at_localKeyId);
+                    kSeq.add(new DERSet(createSubjectKeyId(ct.getPublicKey())));
 
-                kName.add(new DERSequence(kSeq));
+                    kName.add(new DERSequence(kSeq));
 
-                kSeq = new ASN1EncodableVector();
+                    kSeq = new ASN1EncodableVector();
 
-                kSeq.add(pkcs_9_at_friendlyName);
-                kSeq.add(new DERSet(new DERBMPString(name)));
+                    kSeq.add(pkcs_9_at_friendlyName);
+                    kSeq.add(new DERSet(new DERBMPString(name)));
 
-                kName.add(new DERSequence(kSeq));
-            }
+                    kName.add(new DERSequence(kSeq));
+                }
 
-            SafeBag kBag = new SafeBag(pkcs8ShroudedKeyBag, kInfo.toASN1Primitive(), new DERSet(kName));
-            keyS.add(kBag);
+                SafeBag kBag = new SafeBag(pkcs8ShroudedKeyBag, kInfo.toASN1Primitive(), new DERSet(kName));
+                keyS.add(kBag);
+            }
+        }
+        finally
+        {
+            // if wrapping fails part way through the other keys may still be wrapping - don't leave them running.
+            KeyDerivationTasks.awaitAll(wrappedKeys);
         }
 
         byte[] keySEncoded = new DERSequence(keyS).getEncoded(ASN1Encoding.DER);
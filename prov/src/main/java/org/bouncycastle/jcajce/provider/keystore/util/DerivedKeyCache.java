@@ -0,0 +1,181 @@
+package org.bouncycastle.jcajce.provider.keystore.util;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Properties;
+
+/**
+ * A bounded cache of password derived entry keys, so a key store can avoid running the same PBKDF more than
+ * once. Keys are identified by their derivation parameters (salt, iteration count, key size and so on)
+ * and a cached key is only returned for the password it was derived from.
+ * <p>
+ * The cache is off unless "org.bouncycastle.keystore.derived_key_cache_size" is set to the number of keys
+ * to keep. Note enabling it means the derived keys stay in memory until they are evicted or the key store
+ * is reloaded, so it should only be used for the keys protecting individual entries.
+ * </p>
+ */
+public class DerivedKeyCache
+{
+    private static final String CACHE_SIZE_PROPERTY = "org.bouncycastle.keystore.derived_key_cache_size";
+
+    private final int maxSize;
+    private final Map<String, CachedKey> cache;
+
+    /**
+     * Create a cache sized from the "org.bouncycastle.keystore.derived_key_cache_size" property.
+     */
+    public DerivedKeyCache()
+    {
+        this(getCacheSize());
+    }
+
+    public DerivedKeyCache(final int maxSize)
+    {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, CachedKey>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest)
+            {
+                if (size() > maxSize)
+                {
+                    ((CachedKey)eldest.getValue()).destroy();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the key cached for the passed in derivation parameters.
+     *
+     * @param keyId an encoding of the full set of derivation parameters.
+     * @param password the password the caller would derive the key from.
+     * @return the cached key, null if there isn't one or it was derived from a different password.
+     */
+    public Object get(String keyId, char[] password)
+    {
+        if (maxSize <= 0)
+        {
+            return null;
+        }
+
+        synchronized (cache)
+        {
+            CachedKey cached = (CachedKey)cache.get(keyId);
+
+            if (cached != null && Arrays.constantTimeAreEqual(cached.passwordCheck, calculatePasswordCheck(cached.keyBytes, password)))
+            {
+                return (cached.key != null) ? cached.key : Arrays.clone(cached.keyBytes);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Cache a key derived from the passed in password.
+     *
+     * @param keyId an encoding of the full set of derivation parameters.
+     * @param password the password the key was derived from.
+     * @param keyBytes the derived key material, a copy is kept.
+     * @param key the object to return from get(), null to return a copy of keyBytes.
+     */
+    public void put(String keyId, char[] password, byte[] keyBytes, Object key)
+    {
+        if (maxSize <= 0)
+        {
+            return;
+        }
+
+        byte[] bytes = Arrays.clone(keyBytes);
+
+        synchronized (cache)
+        {
+            CachedKey previous = (CachedKey)cache.put(keyId, new CachedKey(bytes, calculatePasswordCheck(bytes, password), key));
+            if (previous != null)
+            {
+                previous.destroy();
+            }
+        }
+    }
+
+    /**
+     * Remove, and zero, all the cached keys.
+     */
+    public void clear()
+    {
+        synchronized (cache)
+        {
+            for (Iterator it = cache.values().iterator(); it.hasNext();)
+            {
+                ((CachedKey)it.next()).destroy();
+            }
+
+            cache.clear();
+        }
+    }
+
+    // we don't keep the password, or anything that is cheaper to attack than the derived key itself.
+    private static byte[] calculatePasswordCheck(byte[] keyBytes, char[] password)
+    {
+        HMac hMac = new HMac(new SHA256Digest());
+        byte[] passwordBytes = PBEParametersGenerator.PKCS12PasswordToBytes(password);
+        byte[] check = new byte[hMac.getMacSize()];
+
+        hMac.init(new KeyParameter(keyBytes));
+        hMac.update(passwordBytes, 0, passwordBytes.length);
+        hMac.doFinal(check, 0);
+
+        Arrays.fill(passwordBytes, (byte)0);
+
+        return check;
+    }
+
+    private static int getCacheSize()
+    {
+        try
+        {
+            BigInteger size = Properties.asBigInteger(CACHE_SIZE_PROPERTY);
+            if (size != null)
+            {
+                return Math.max(0, size.intValue());
+            }
+        }
+        catch (Exception e)
+        {
+            // ignore - use the default
+        }
+
+        return 0;
+    }
+
+    private static class CachedKey
+    {
+        final byte[] keyBytes;
+        final byte[] passwordCheck;
+        final Object key;
+
+        CachedKey(byte[] keyBytes, byte[] passwordCheck, Object key)
+        {
+            this.keyBytes = keyBytes;
+            this.passwordCheck = passwordCheck;
+            this.key = key;
+        }
+
+        void destroy()
+        {
+            Arrays.fill(keyBytes, (byte)0);
+            Arrays.fill(passwordCheck, (byte)0);
+        }
+    }
+}
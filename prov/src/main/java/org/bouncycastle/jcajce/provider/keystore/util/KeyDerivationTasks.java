@@ -0,0 +1,272 @@
+package org.bouncycastle.jcajce.provider.keystore.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.util.Properties;
+
+/**
+ * Runs independent password based key derivations for the key stores on a shared pool of daemon
+ * threads, so loading or storing a key store with many protected entries isn't limited to one core.
+ * <p>
+ * The pool is only used if "org.bouncycastle.keystore.kdf_threads" is set to more than 1, in which case it
+ * gives the number of threads. By default every task is run on the caller's thread, so loading a key store
+ * doesn't start any threads. When all the threads are busy a task is run on the thread submitting it, so
+ * the pool never queues work.
+ * </p>
+ * <p>
+ * Tasks run with the access control context and any org.bouncycastle.util.Properties thread overrides
+ * of the thread submitting them. The pool threads themselves are created with the provider's class
+ * loader as their context class loader, and without the access control context of the caller that
+ * happened to start them.
+ * </p>
+ */
+public class KeyDerivationTasks
+{
+    private static final String THREADS_PROPERTY = "org.bouncycastle.keystore.kdf_threads";
+
+    private static final Object lock = new Object();
+    private static ExecutorService executor;
+    private static boolean initialized = false;
+
+    private KeyDerivationTasks()
+    {
+    }
+
+    /**
+     * Start a key derivation task.
+     *
+     * @param task the derivation to run.
+     * @return a future for the result of the task, which may already be complete.
+     */
+    public static Future submit(Callable task)
+    {
+        ExecutorService exec = getExecutor();
+
+        if (exec == null)
+        {
+            FutureTask future = new FutureTask(task);
+
+            future.run();
+
+            return future;
+        }
+
+        return exec.submit(new CallerContextTask(task));
+    }
+
+    /**
+     * Wait for every task in a collection to finish, ignoring their results. Used when one result has
+     * failed so the remaining derivations aren't left running once the key store operation is abandoned.
+     *
+     * @param futures the futures returned by submit().
+     */
+    public static void awaitAll(Collection futures)
+    {
+        boolean interrupted = false;
+
+        for (Iterator it = futures.iterator(); it.hasNext();)
+        {
+            Future future = (Future)it.next();
+
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the result of a task started with submit().
+     *
+     * @param future the future returned by submit().
+     * @return the task's result.
+     * @throws IOException if the task threw an IOException, or any other checked exception.
+     */
+    public static Object getResult(Future future)
+        throws IOException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    // the caller needs the result, so keep waiting and restore the interrupt afterwards
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IOException(cause.toString());
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ExecutorService getExecutor()
+    {
+        synchronized (lock)
+        {
+            if (!initialized)
+            {
+                int threads = getThreadCount();
+
+                if (threads > 1)
+                {
+                    executor = new ThreadPoolExecutor(0, threads, 30, TimeUnit.SECONDS, new SynchronousQueue(),
+                        new DaemonThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+
+                initialized = true;
+            }
+
+            return executor;
+        }
+    }
+
+    private static int getThreadCount()
+    {
+        int threads = 1;
+
+        try
+        {
+            BigInteger value = Properties.asBigInteger(THREADS_PROPERTY);
+            if (value != null)
+            {
+                threads = value.intValue();
+            }
+        }
+        catch (Exception e)
+        {
+            // ignore - use the default
+        }
+
+        return threads;
+    }
+
+    private static class CallerContextTask
+        implements Callable
+    {
+        private final Callable task;
+        private final AccessControlContext context;
+        private final Map overrides;
+
+        CallerContextTask(Callable task)
+        {
+            this.task = task;
+            this.context = AccessController.getContext();
+            this.overrides = Properties.getThreadOverrides();
+        }
+
+        public Object call()
+            throws Exception
+        {
+            Map previous = Properties.setThreadOverrides(overrides);
+            try
+            {
+                return AccessController.doPrivileged(new PrivilegedExceptionAction()
+                {
+                    public Object run()
+                        throws Exception
+                    {
+                        return task.call();
+                    }
+                }, context);
+            }
+            catch (PrivilegedActionException e)
+            {
+                throw e.getException();
+            }
+            finally
+            {
+                Properties.setThreadOverrides(previous);
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory
+        implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final String name = "BC keystore KDF " + count.incrementAndGet();
+
+            // a thread inherits the access control context and context class loader of the thread creating it,
+            // which would otherwise be whichever caller first found the pool short of a thread.
+            return (Thread)AccessController.doPrivileged(new PrivilegedAction()
+            {
+                public Object run()
+                {
+                    Thread thread = new Thread(runnable, name);
+
+                    thread.setDaemon(true);
+                    thread.setContextClassLoader(KeyDerivationTasks.class.getClassLoader());
+
+                    return thread;
+                }
+            });
+        }
+    }
+}
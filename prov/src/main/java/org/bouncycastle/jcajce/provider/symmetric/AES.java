@@ -45,6 +45,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseSecretKeyFactory;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseWrapCipher;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.GcmSpecUtil;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 import org.bouncycastle.jcajce.provider.symmetric.util.PBESecretKeyFactory;
@@ -111,7 +112,7 @@ public OFB()
     {
         public GCM()
         {
-            super(new GCMBlockCipher(new AESEngine()));
+            super(new GCMBlockCipher(new AESEngine(), new CachingGCMMultiplier()));
         }
     }
 
@@ -138,7 +139,7 @@ public AESCMAC()
     {
         public AESGMAC()
         {
-            super(new GMac(new GCMBlockCipher(new AESEngine())));
+            super(new GMac(new GCMBlockCipher(new AESEngine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -36,6 +36,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseSecretKeyFactory;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseWrapCipher;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.GcmSpecUtil;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 import org.bouncycastle.jcajce.spec.AEADParameterSpec;
@@ -102,7 +103,7 @@ public CCM()
     {
         public GCM()
         {
-            super(new GCMBlockCipher(new ARIAEngine()));
+            super(new GCMBlockCipher(new ARIAEngine(), new CachingGCMMultiplier()));
         }
     }
 
@@ -138,7 +139,7 @@ public RFC3211Wrap()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new ARIAEngine())));
+            super(new GMac(new GCMBlockCipher(new ARIAEngine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -11,6 +11,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class CAST6
@@ -48,7 +49,7 @@ public KeyGen()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new CAST6Engine())));
+            super(new GMac(new GCMBlockCipher(new CAST6Engine(), new CachingGCMMultiplier())));
         }
     }
 
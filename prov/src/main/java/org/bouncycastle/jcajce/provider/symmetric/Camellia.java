@@ -26,6 +26,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseSecretKeyFactory;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseWrapCipher;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class Camellia
@@ -81,7 +82,7 @@ public RFC3211Wrap()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new CamelliaEngine())));
+            super(new GMac(new GCMBlockCipher(new CamelliaEngine(), new CachingGCMMultiplier())));
         }
     }
 
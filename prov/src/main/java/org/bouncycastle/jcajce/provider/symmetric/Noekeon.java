@@ -20,6 +20,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class Noekeon
@@ -57,7 +58,7 @@ public KeyGen()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new NoekeonEngine())));
+            super(new GMac(new GCMBlockCipher(new NoekeonEngine(), new CachingGCMMultiplier())));
         }
     }
 
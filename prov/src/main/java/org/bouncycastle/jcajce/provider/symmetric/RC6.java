@@ -24,6 +24,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class RC6
@@ -79,7 +80,7 @@ public OFB()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new RC6Engine())));
+            super(new GMac(new GCMBlockCipher(new RC6Engine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -21,6 +21,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class SM4
@@ -67,7 +68,7 @@ public CMAC()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new SM4Engine())));
+            super(new GMac(new GCMBlockCipher(new SM4Engine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -17,6 +17,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 
 public final class Serpent
@@ -105,7 +106,7 @@ public TKeyGen()
     {
         public SerpentGMAC()
         {
-            super(new GMac(new GCMBlockCipher(new SerpentEngine())));
+            super(new GMac(new GCMBlockCipher(new SerpentEngine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -114,7 +115,7 @@ public SerpentGMAC()
     {
         public TSerpentGMAC()
         {
-            super(new GMac(new GCMBlockCipher(new TnepresEngine())));
+            super(new GMac(new GCMBlockCipher(new TnepresEngine(), new CachingGCMMultiplier())));
         }
     }
 
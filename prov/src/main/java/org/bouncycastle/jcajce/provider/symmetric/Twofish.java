@@ -12,6 +12,7 @@
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseKeyGenerator;
 import org.bouncycastle.jcajce.provider.symmetric.util.BaseMac;
 import org.bouncycastle.jcajce.provider.symmetric.util.BlockCipherProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplier;
 import org.bouncycastle.jcajce.provider.symmetric.util.IvAlgorithmParameters;
 import org.bouncycastle.jcajce.provider.symmetric.util.PBESecretKeyFactory;
 
@@ -50,7 +51,7 @@ public KeyGen()
     {
         public GMAC()
         {
-            super(new GMac(new GCMBlockCipher(new TwofishEngine())));
+            super(new GMac(new GCMBlockCipher(new TwofishEngine(), new CachingGCMMultiplier())));
         }
     }
 
@@ -472,7 +472,7 @@ else if (modeName.equals("GCM"))
             }
             else
             {
-                cipher = new AEADGenericBlockCipher(new GCMBlockCipher(baseEngine));
+                cipher = new AEADGenericBlockCipher(new GCMBlockCipher(baseEngine, new CachingGCMMultiplier()));
             }
         }
         else
@@ -0,0 +1,172 @@
+package org.bouncycastle.jcajce.provider.symmetric.util;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.crypto.modes.gcm.GCMMultiplier;
+import org.bouncycastle.crypto.modes.gcm.Tables4kGCMMultiplier;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Properties;
+
+/**
+ * A GCM multiplier that can share its tables with other instances initialised with the same hash subkey,
+ * so a Cipher or Mac created for each message doesn't rebuild them when the key hasn't changed.
+ * <p>
+ * Sharing is off unless "org.bouncycastle.gcm.table_cache_size" is set to the number of most recently
+ * used tables to keep; without it each instance builds its own tables, as Tables4kGCMMultiplier does.
+ * The tables are never modified once built, so one set can be used by any number of threads.
+ * </p>
+ * <p>
+ * Note: with the cache enabled the hash subkeys, and the tables derived from them, for up to that many
+ * keys are kept in memory, unzeroised, after the Ciphers and Macs using them have gone, and finding them
+ * in the cache does not take constant time. Only enable it where that is acceptable.
+ * </p>
+ */
+public class CachingGCMMultiplier
+    implements GCMMultiplier
+{
+    private static final String CACHE_SIZE_PROPERTY = "org.bouncycastle.gcm.table_cache_size";
+
+    private static final TableCache sharedTables = new TableCache(getCacheSize());
+
+    private final TableCache tables;
+
+    private HashSubkey H;
+    private GCMMultiplier multiplier;
+
+    public CachingGCMMultiplier()
+    {
+        this(sharedTables);
+    }
+
+    /**
+     * Create a multiplier using the passed in cache rather than the shared one.
+     *
+     * @param tables the cache to look up, and keep, tables in.
+     */
+    CachingGCMMultiplier(TableCache tables)
+    {
+        this.tables = tables;
+    }
+
+    public void init(byte[] H)
+    {
+        if (tables.maxSize == 0)
+        {
+            if (multiplier == null)
+            {
+                multiplier = new Tables4kGCMMultiplier();
+            }
+            multiplier.init(H);
+            return;
+        }
+
+        if (this.H != null && this.H.matches(H))
+        {
+            return;
+        }
+
+        HashSubkey key = new HashSubkey(H);
+
+        this.multiplier = tables.get(key);
+        this.H = key;
+    }
+
+    public void multiplyH(byte[] x)
+    {
+        multiplier.multiplyH(x);
+    }
+
+    GCMMultiplier getMultiplier()
+    {
+        return multiplier;
+    }
+
+    private static int getCacheSize()
+    {
+        try
+        {
+            BigInteger size = Properties.asBigInteger(CACHE_SIZE_PROPERTY);
+            if (size != null)
+            {
+                return Math.max(0, size.intValue());
+            }
+        }
+        catch (Exception e)
+        {
+            // ignore - use the default
+        }
+
+        return 0;
+    }
+
+    /**
+     * A least recently used cache of tables, keyed by hash subkey.
+     */
+    static class TableCache
+    {
+        private final int maxSize;
+        private final Map<HashSubkey, GCMMultiplier> tables;
+
+        TableCache(final int maxSize)
+        {
+            this.maxSize = maxSize;
+            this.tables = Collections.synchronizedMap(new LinkedHashMap<HashSubkey, GCMMultiplier>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<HashSubkey, GCMMultiplier> eldest)
+                {
+                    return size() > maxSize;
+                }
+            });
+        }
+
+        GCMMultiplier get(HashSubkey key)
+        {
+            GCMMultiplier m = (GCMMultiplier)tables.get(key);
+
+            if (m == null)
+            {
+                m = new Tables4kGCMMultiplier();
+                m.init(key.H);
+
+                tables.put(key, m);
+            }
+
+            return m;
+        }
+
+        int size()
+        {
+            return tables.size();
+        }
+    }
+
+    private static class HashSubkey
+    {
+        private final byte[] H;
+        private final int hashCode;
+
+        HashSubkey(byte[] H)
+        {
+            this.H = Arrays.clone(H);
+            this.hashCode = Arrays.hashCode(H);
+        }
+
+        boolean matches(byte[] other)
+        {
+            return Arrays.constantTimeAreEqual(H, other);
+        }
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof HashSubkey && matches(((HashSubkey)o).H);
+        }
+    }
+}
@@ -1,14 +1,23 @@
 package org.bouncycastle.jce.provider;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.security.AccessController;
 import java.security.PrivateKey;
 import java.security.PrivilegedAction;
 import java.security.Provider;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.isara.IsaraObjectIdentifiers;
@@ -18,7 +27,6 @@
 import org.bouncycastle.jcajce.provider.config.ConfigurableProvider;
 import org.bouncycastle.jcajce.provider.config.ProviderConfiguration;
 import org.bouncycastle.jcajce.provider.symmetric.util.ClassUtil;
-import org.bouncycastle.jcajce.provider.util.AlgorithmProvider;
 import org.bouncycastle.jcajce.provider.util.AsymmetricKeyInfoConverter;
 import org.bouncycastle.pqc.asn1.PQCObjectIdentifiers;
 import org.bouncycastle.pqc.jcajce.provider.lms.LMSKeyFactorySpi;
@@ -30,6 +38,7 @@
 import org.bouncycastle.pqc.jcajce.provider.sphincs.Sphincs256KeyFactorySpi;
 import org.bouncycastle.pqc.jcajce.provider.xmss.XMSSKeyFactorySpi;
 import org.bouncycastle.pqc.jcajce.provider.xmss.XMSSMTKeyFactorySpi;
+import org.bouncycastle.util.Properties;
 
 /**
  * To add the provider at runtime use:
@@ -54,6 +63,17 @@
  * most preferred).
  * <p>Note: JCE algorithm names should be upper-case only so the case insensitive
  * test for getInstance works.
+ * <p>
+ * The provider only registers the algorithms in a group (such as the AES ciphers) when one of them is
+ * first asked for, using a prebuilt index of the provider's services. Set the property
+ * "org.bouncycastle.provider.disable_lazy_load" to "true" to register every algorithm on construction.
+ * <p>
+ * Every method that looks up, iterates over or sizes the provider's table registers the groups it needs
+ * first, so what can be seen is the same as with lazy loading disabled. The exception is the Java 8 map
+ * methods taking a function (forEach, replaceAll, compute, computeIfAbsent, computeIfPresent and merge),
+ * which can't be intercepted while the provider still builds for earlier JVMs, so they only see groups that
+ * have already been registered. Call size() or keySet() first, or disable lazy loading, if they need to
+ * see every algorithm.
  */
 public final class BouncyCastleProvider extends Provider
     implements ConfigurableProvider
@@ -68,6 +88,8 @@ public final class BouncyCastleProvider extends Provider
 
     private static final Class revChkClass = ClassUtil.loadClass(BouncyCastleProvider.class, "java.security.cert.PKIXRevocationChecker");
 
+    private static final String DISABLE_LAZY_LOAD = "org.bouncycastle.provider.disable_lazy_load";
+
     /*
      * Configurable symmetric ciphers
      */
@@ -116,7 +138,7 @@ public final class BouncyCastleProvider extends Provider
     {
         "GOST3411", "Keccak", "MD2", "MD4", "MD5", "SHA1", "RIPEMD128", "RIPEMD160", "RIPEMD256", "RIPEMD320", "SHA224",
         "SHA256", "SHA384", "SHA512", "SHA3", "Skein", "SM3", "Tiger", "Whirlpool", "Blake2b", "Blake2s", "DSTU7564",
-        "Haraka"
+        "Haraka", "ParallelHash", "KangarooTwelve"
     };
 
     /*
@@ -137,6 +159,27 @@ public final class BouncyCastleProvider extends Provider
         "DRBG"
     };
 
+    private static final String[] MAPPINGS = getMappings(new String[][]
+        {
+            { DIGEST_PACKAGE }, DIGESTS,
+            { SYMMETRIC_PACKAGE }, SYMMETRIC_GENERIC,
+            { SYMMETRIC_PACKAGE }, SYMMETRIC_MACS,
+            { SYMMETRIC_PACKAGE }, SYMMETRIC_CIPHERS,
+            { ASYMMETRIC_PACKAGE }, ASYMMETRIC_GENERIC,
+            { ASYMMETRIC_PACKAGE }, ASYMMETRIC_CIPHERS,
+            { KEYSTORE_PACKAGE }, KEYSTORES,
+            { SECURE_RANDOM_PACKAGE }, SECURE_RANDOMS
+        });
+
+    private static final Object indexLock = new Object();
+    private static ServiceIndex serviceIndex;
+    private static boolean indexRead = false;
+    private static boolean[] convertersLoaded;
+
+    // groups not yet registered, null once they all are (or if the index isn't used).
+    private volatile boolean[] pendingGroups;
+    private int pendingCount;
+
     /**
      * Construct a new provider.  This should only be required when
      * using runtime registration of the provider using the
@@ -158,21 +201,44 @@ public Object run()
 
     private void setup()
     {
-        loadAlgorithms(DIGEST_PACKAGE, DIGESTS);
-
-        loadAlgorithms(SYMMETRIC_PACKAGE, SYMMETRIC_GENERIC);
-
-        loadAlgorithms(SYMMETRIC_PACKAGE, SYMMETRIC_MACS);
+        ServiceIndex index = Properties.isOverrideSet(DISABLE_LAZY_LOAD) ? null : getServiceIndex();
 
-        loadAlgorithms(SYMMETRIC_PACKAGE, SYMMETRIC_CIPHERS);
-
-        loadAlgorithms(ASYMMETRIC_PACKAGE, ASYMMETRIC_GENERIC);
+        if (index != null)
+        {
+            boolean[] pending = new boolean[index.getGroupCount()];
+            int count = 0;
 
-        loadAlgorithms(ASYMMETRIC_PACKAGE, ASYMMETRIC_CIPHERS);
+            // the JRE looks for a default SecureRandom without calling getService(), so these are always loaded.
+            for (int i = 0; i != pending.length; i++)
+            {
+                pending[i] = !index.getMappings(i).startsWith(SECURE_RANDOM_PACKAGE);
+                if (pending[i])
+                {
+                    count++;
+                }
+            }
 
-        loadAlgorithms(KEYSTORE_PACKAGE, KEYSTORES);
+            synchronized (this)
+            {
+                this.pendingGroups = pending;
+                this.pendingCount = count;
+            }
 
-        loadAlgorithms(SECURE_RANDOM_PACKAGE, SECURE_RANDOMS);
+            for (int i = 0; i != pending.length; i++)
+            {
+                if (!pending[i])
+                {
+                    ServiceIndex.configure(MAPPINGS[i], this);
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i != MAPPINGS.length; i++)
+            {
+                ServiceIndex.configure(MAPPINGS[i], this);
+            }
+        }
 
         loadPQCKeys();  // so we can handle certificates containing them.
         //
@@ -231,27 +297,396 @@ private void setup()
         put("Alg.Alias.CertStore.X509LDAP", "LDAP");
     }
 
-    private void loadAlgorithms(String packageName, String[] names)
+    private static String[] getMappings(String[][] packagesAndNames)
     {
-        for (int i = 0; i != names.length; i++)
+        List mappings = new ArrayList();
+
+        for (int i = 0; i != packagesAndNames.length; i += 2)
         {
-            Class clazz = ClassUtil.loadClass(BouncyCastleProvider.class, packageName + names[i] + "$Mappings");
+            String packageName = packagesAndNames[i][0];
+            String[] names = packagesAndNames[i + 1];
+
+            for (int j = 0; j != names.length; j++)
+            {
+                mappings.add(packageName + names[j] + "$Mappings");
+            }
+        }
+
+        return (String[])mappings.toArray(new String[mappings.size()]);
+    }
+
+    /**
+     * Return the $Mappings class names in the order the provider loads them.
+     */
+    static String[] getMappings()
+    {
+        return (String[])MAPPINGS.clone();
+    }
 
-            if (clazz != null)
+    private static ServiceIndex getServiceIndex()
+    {
+        synchronized (indexLock)
+        {
+            if (!indexRead)
             {
-                try
+                indexRead = true;
+
+                InputStream in = BouncyCastleProvider.class.getResourceAsStream(ServiceIndex.RESOURCE_NAME);
+                if (in != null)
                 {
-                    ((AlgorithmProvider)clazz.newInstance()).configure(this);
-                }
-                catch (Exception e)
-                {   // this should never ever happen!!
-                    throw new InternalError("cannot create instance of "
-                        + packageName + names[i] + "$Mappings : " + e);
+                    try
+                    {
+                        serviceIndex = ServiceIndex.read(in, MAPPINGS);
+                        if (serviceIndex != null)
+                        {
+                            convertersLoaded = new boolean[serviceIndex.getGroupCount()];
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        // ignore - we just load everything up front.
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            in.close();
+                        }
+                        catch (IOException e)
+                        {
+                            // ignore
+                        }
+                    }
                 }
             }
+
+            return serviceIndex;
+        }
+    }
+
+    private void loadGroup(int group)
+    {
+        synchronized (this)
+        {
+            if (pendingGroups == null || !pendingGroups[group])
+            {
+                return;
+            }
+
+            pendingGroups[group] = false;
+            if (--pendingCount == 0)
+            {
+                pendingGroups = null;
+            }
+
+            configure(MAPPINGS[group], this);
+        }
+    }
+
+    private static void configure(final String mappings, final ConfigurableProvider provider)
+    {
+        AccessController.doPrivileged(new PrivilegedAction()
+        {
+            public Object run()
+            {
+                ServiceIndex.configure(mappings, provider);
+                return null;
+            }
+        });
+    }
+
+    private void loadGroups(int[] groups)
+    {
+        for (int i = 0; i != groups.length; i++)
+        {
+            loadGroup(groups[i]);
+        }
+    }
+
+    private void loadGroupForKey(Object key)
+    {
+        if (pendingGroups != null)
+        {
+            int group = serviceIndex.getKeyGroup(key);
+            if (group >= 0)
+            {
+                loadGroup(group);
+            }
+        }
+    }
+
+    private void loadAllGroups()
+    {
+        if (pendingGroups != null)
+        {
+            for (int i = 0; i != MAPPINGS.length; i++)
+            {
+                loadGroup(i);
+            }
+        }
+    }
+
+    public Service getService(String type, String algorithm)
+    {
+        if (pendingGroups != null)
+        {
+            int[] groups = serviceIndex.getServiceGroups(type, algorithm);
+            if (groups != null)
+            {
+                loadGroups(groups);
+            }
+        }
+
+        return super.getService(type, algorithm);
+    }
+
+    public Set getServices()
+    {
+        loadAllGroups();
+
+        return super.getServices();
+    }
+
+    public Object get(Object key)
+    {
+        loadGroupForKey(key);
+
+        return super.get(key);
+    }
+
+    public String getProperty(String key)
+    {
+        loadGroupForKey(key);
+
+        return super.getProperty(key);
+    }
+
+    public boolean containsKey(Object key)
+    {
+        loadGroupForKey(key);
+
+        return super.containsKey(key);
+    }
+
+    public Object put(Object key, Object value)
+    {
+        // make sure a pending group doesn't later overwrite, or find a duplicate of, the new value
+        loadGroupForKey(key);
+
+        return super.put(key, value);
+    }
+
+    // The Java 8 map methods below have Object only signatures, so they can be covered here. They're written in
+    // terms of get()/put()/remove() rather than calling the Java 8 super methods, so they still compile for earlier JVMs.
+
+    public Object getOrDefault(Object key, Object defaultValue)
+    {
+        Object value = get(key);
+
+        return (value != null) ? value : defaultValue;
+    }
+
+    public synchronized Object putIfAbsent(Object key, Object value)
+    {
+        Object current = get(key);
+        if (current == null)
+        {
+            put(key, value);
+        }
+
+        return current;
+    }
+
+    public synchronized boolean remove(Object key, Object value)
+    {
+        Object current = get(key);
+        if (current != null && current.equals(value))
+        {
+            remove(key);
+            return true;
+        }
+
+        return false;
+    }
+
+    public synchronized Object replace(Object key, Object value)
+    {
+        if (containsKey(key))
+        {
+            return put(key, value);
+        }
+
+        return null;
+    }
+
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue)
+    {
+        Object current = get(key);
+        if (current != null && current.equals(oldValue))
+        {
+            put(key, newValue);
+            return true;
+        }
+
+        return false;
+    }
+
+    public void putAll(Map t)
+    {
+        loadAllGroups();
+
+        super.putAll(t);
+    }
+
+    public Object remove(Object key)
+    {
+        loadGroupForKey(key);
+
+        return super.remove(key);
+    }
+
+    public void clear()
+    {
+        synchronized (this)
+        {
+            pendingGroups = null;
+            super.clear();
         }
     }
 
+    public boolean contains(Object value)
+    {
+        loadAllGroups();
+
+        return super.contains(value);
+    }
+
+    public boolean containsValue(Object value)
+    {
+        loadAllGroups();
+
+        return super.containsValue(value);
+    }
+
+    public int size()
+    {
+        loadAllGroups();
+
+        return super.size();
+    }
+
+    public boolean isEmpty()
+    {
+        loadAllGroups();
+
+        return super.isEmpty();
+    }
+
+    public Set keySet()
+    {
+        loadAllGroups();
+
+        return super.keySet();
+    }
+
+    public Set entrySet()
+    {
+        loadAllGroups();
+
+        return super.entrySet();
+    }
+
+    public Collection values()
+    {
+        loadAllGroups();
+
+        return super.values();
+    }
+
+    public Enumeration keys()
+    {
+        loadAllGroups();
+
+        return super.keys();
+    }
+
+    public Enumeration elements()
+    {
+        loadAllGroups();
+
+        return super.elements();
+    }
+
+    // Depending on the JVM the Properties and Hashtable methods below may read the table directly rather than through
+    // the methods above, so they also register everything first.
+
+    public Enumeration propertyNames()
+    {
+        loadAllGroups();
+
+        return super.propertyNames();
+    }
+
+    public void list(PrintStream out)
+    {
+        loadAllGroups();
+
+        super.list(out);
+    }
+
+    public void list(PrintWriter out)
+    {
+        loadAllGroups();
+
+        super.list(out);
+    }
+
+    public void store(OutputStream out, String comments)
+        throws IOException
+    {
+        loadAllGroups();
+
+        super.store(out, comments);
+    }
+
+    public void storeToXML(OutputStream os, String comment)
+        throws IOException
+    {
+        loadAllGroups();
+
+        super.storeToXML(os, comment);
+    }
+
+    public void storeToXML(OutputStream os, String comment, String encoding)
+        throws IOException
+    {
+        loadAllGroups();
+
+        super.storeToXML(os, comment, encoding);
+    }
+
+    public boolean equals(Object o)
+    {
+        loadAllGroups();
+
+        return super.equals(o);
+    }
+
+    public int hashCode()
+    {
+        loadAllGroups();
+
+        return super.hashCode();
+    }
+
+    public Object clone()
+    {
+        // a copy mustn't share the pending groups with this provider.
+        loadAllGroups();
+
+        return super.clone();
+    }
+
     private void loadPQCKeys()
     {
         addKeyInfoConverter(PQCObjectIdentifiers.sphincs256, new Sphincs256KeyFactorySpi());
@@ -278,6 +713,13 @@ public void setParameter(String parameterName, Object parameter)
 
     public boolean hasAlgorithm(String type, String name)
     {
+        // a group only asks about algorithms from earlier groups, so there's no need to load them.
+        if (pendingGroups != null
+            && (serviceIndex.getKeyGroup(type + "." + name) >= 0 || serviceIndex.getKeyGroup("Alg.Alias." + type + "." + name) >= 0))
+        {
+            return true;
+        }
+
         return containsKey(type + "." + name) || containsKey("Alg.Alias." + type + "." + name);
     }
 
@@ -324,6 +766,45 @@ private static AsymmetricKeyInfoConverter getAsymmetricKeyInfoConverter(ASN1Obje
     {
         synchronized (keyInfoConverters)
         {
+            AsymmetricKeyInfoConverter converter = (AsymmetricKeyInfoConverter)keyInfoConverters.get(algorithm);
+            if (converter != null)
+            {
+                return converter;
+            }
+        }
+
+        return loadAsymmetricKeyInfoConverter(algorithm);
+    }
+
+    // the converter may belong to a group a lazily loaded provider hasn't registered yet.
+    private static AsymmetricKeyInfoConverter loadAsymmetricKeyInfoConverter(ASN1ObjectIdentifier algorithm)
+    {
+        int group;
+        synchronized (indexLock)
+        {
+            if (serviceIndex == null || (group = serviceIndex.getConverterGroup(algorithm)) < 0 || convertersLoaded[group])
+            {
+                return null;
+            }
+            convertersLoaded[group] = true;
+        }
+
+        ServiceIndex.Recorder recorder = new ServiceIndex.Recorder();
+
+        configure(MAPPINGS[group], recorder);
+
+        synchronized (keyInfoConverters)
+        {
+            for (Iterator it = recorder.converters.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry)it.next();
+
+                if (!keyInfoConverters.containsKey(entry.getKey()))
+                {
+                    keyInfoConverters.put(entry.getKey(), entry.getValue());
+                }
+            }
+
             return (AsymmetricKeyInfoConverter)keyInfoConverters.get(algorithm);
         }
     }
@@ -0,0 +1,399 @@
+package org.bouncycastle.jce.provider;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.jcajce.provider.config.ConfigurableProvider;
+import org.bouncycastle.jcajce.provider.symmetric.util.ClassUtil;
+import org.bouncycastle.jcajce.provider.util.AlgorithmProvider;
+import org.bouncycastle.jcajce.provider.util.AsymmetricKeyInfoConverter;
+
+/**
+ * A static index of the provider properties set by each of the algorithm $Mappings classes used by
+ * BouncyCastleProvider, so the provider can defer loading a set of mappings until one of its services
+ * is asked for.
+ * <p>
+ * The index is read from services.properties, which is generated by running main() against the
+ * provider's current set of mappings. Each mappings class is a group, numbered in the order the
+ * provider would load it. Entries in the file are:
+ * <pre>
+ *     mappings.&lt;group&gt;=&lt;$Mappings class name&gt;
+ *     converters.&lt;group&gt;=&lt;comma separated OIDs of the group's key info converters&gt;
+ *     &lt;provider property key&gt;=&lt;group&gt;[,&lt;alias target&gt;]
+ * </pre>
+ * </p>
+ */
+class ServiceIndex
+{
+    static final String RESOURCE_NAME = "services.properties";
+
+    private static final String MAPPINGS_PREFIX = "mappings.";
+    private static final String CONVERTERS_PREFIX = "converters.";
+    private static final String ALIAS_PREFIX = "Alg.Alias.";
+
+    private final String[] mappings;
+    private final Map<String, Integer> keyGroups;
+    private final Map<String, int[]> serviceGroups;
+    private final Map<String, Integer> converterGroups;
+
+    private ServiceIndex(String[] mappings, Map<String, Integer> keyGroups, Map<String, int[]> serviceGroups,
+                         Map<String, Integer> converterGroups)
+    {
+        this.mappings = mappings;
+        this.keyGroups = keyGroups;
+        this.serviceGroups = serviceGroups;
+        this.converterGroups = converterGroups;
+    }
+
+    /**
+     * Read the index for the passed in mappings.
+     *
+     * @param in the stream to read the index from.
+     * @param expectedMappings the $Mappings class names, in load order, the provider expects.
+     * @return the index, or null if it was generated for a different set of mappings.
+     */
+    static ServiceIndex read(InputStream in, String[] expectedMappings)
+        throws IOException
+    {
+        java.util.Properties props = new java.util.Properties();
+
+        props.load(in);
+
+        for (int i = 0; i != expectedMappings.length; i++)
+        {
+            if (!expectedMappings[i].equals(props.getProperty(MAPPINGS_PREFIX + i)))
+            {
+                return null;
+            }
+        }
+        if (props.getProperty(MAPPINGS_PREFIX + expectedMappings.length) != null)
+        {
+            return null;
+        }
+
+        Map<String, Integer> keyGroups = new HashMap<String, Integer>(props.size() * 2);
+        Map<String, Integer> converterGroups = new HashMap<String, Integer>();
+        Map<String, List<Integer>> canonicalGroups = new HashMap<String, List<Integer>>();
+        Map<String, String> aliases = new HashMap<String, String>();
+
+        for (Iterator it = props.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            String key = (String)entry.getKey();
+            String value = (String)entry.getValue();
+
+            if (key.startsWith(MAPPINGS_PREFIX))
+            {
+                continue;
+            }
+
+            if (key.startsWith(CONVERTERS_PREFIX))
+            {
+                Integer group = Integer.valueOf(key.substring(CONVERTERS_PREFIX.length()));
+                String[] oids = value.split(",");
+
+                for (int i = 0; i != oids.length; i++)
+                {
+                    converterGroups.put(oids[i], group);
+                }
+                continue;
+            }
+
+            int comma = value.indexOf(',');
+            Integer group = Integer.valueOf(comma < 0 ? value : value.substring(0, comma));
+
+            keyGroups.put(key, group);
+
+            if (key.startsWith(ALIAS_PREFIX))
+            {
+                // an alias makes up part of the service it refers to, as well as naming it
+                String typeAndAlias = key.substring(ALIAS_PREFIX.length());
+                String serviceKey = getServiceKey(typeAndAlias.substring(0, typeAndAlias.indexOf('.')), value.substring(comma + 1));
+
+                aliases.put(getServiceKey(typeAndAlias), serviceKey);
+                addGroup(canonicalGroups, serviceKey, group);
+            }
+            else
+            {
+                // an attribute is part of the service it follows
+                int space = key.indexOf(' ');
+
+                addGroup(canonicalGroups, getServiceKey(space < 0 ? key : key.substring(0, space)), group);
+            }
+        }
+
+        Map<String, int[]> serviceGroups = new HashMap<String, int[]>(canonicalGroups.size() + aliases.size());
+
+        for (Iterator it = canonicalGroups.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+
+            serviceGroups.put((String)entry.getKey(), toArray((List)entry.getValue()));
+        }
+        for (Iterator it = aliases.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+
+            if (!serviceGroups.containsKey(entry.getKey()))
+            {
+                serviceGroups.put((String)entry.getKey(), serviceGroups.get(entry.getValue()));
+            }
+        }
+
+        return new ServiceIndex(expectedMappings, keyGroups, serviceGroups, converterGroups);
+    }
+
+    int getGroupCount()
+    {
+        return mappings.length;
+    }
+
+    String getMappings(int group)
+    {
+        return mappings[group];
+    }
+
+    /**
+     * Return the group that sets a provider property.
+     *
+     * @param key the property key.
+     * @return the group number, -1 if no group sets the property.
+     */
+    int getKeyGroup(Object key)
+    {
+        Integer group = keyGroups.get(key);
+
+        return group == null ? -1 : group.intValue();
+    }
+
+    /**
+     * Return the groups that make up the service, including its aliases and attributes, for a type and
+     * algorithm (or alias).
+     *
+     * @return the group numbers, null if no group registers the service.
+     */
+    int[] getServiceGroups(String type, String algorithm)
+    {
+        return serviceGroups.get(getServiceKey(type, algorithm));
+    }
+
+    /**
+     * Return the group that adds the key info converter for an OID.
+     *
+     * @return the group number, -1 if no group adds a converter for the OID.
+     */
+    int getConverterGroup(ASN1ObjectIdentifier oid)
+    {
+        Integer group = converterGroups.get(oid.getId());
+
+        return group == null ? -1 : group.intValue();
+    }
+
+    /**
+     * Configure a group's mappings.
+     */
+    static void configure(String mappings, ConfigurableProvider provider)
+    {
+        Class clazz = ClassUtil.loadClass(BouncyCastleProvider.class, mappings);
+
+        if (clazz != null)
+        {
+            try
+            {
+                ((AlgorithmProvider)clazz.newInstance()).configure(provider);
+            }
+            catch (Exception e)
+            {   // this should never ever happen!!
+                throw new InternalError("cannot create instance of " + mappings + " : " + e);
+            }
+        }
+    }
+
+    // the JCA matches algorithm names without regard to case
+    private static String getServiceKey(String type, String algorithm)
+    {
+        return (type + "." + algorithm).toUpperCase(Locale.ENGLISH);
+    }
+
+    private static String getServiceKey(String typeAndAlgorithm)
+    {
+        return typeAndAlgorithm.toUpperCase(Locale.ENGLISH);
+    }
+
+    private static void addGroup(Map<String, List<Integer>> groups, String serviceKey, Integer group)
+    {
+        List<Integer> list = groups.get(serviceKey);
+
+        if (list == null)
+        {
+            list = new ArrayList<Integer>(1);
+            groups.put(serviceKey, list);
+        }
+        if (!list.contains(group))
+        {
+            list.add(group);
+        }
+    }
+
+    private static int[] toArray(List list)
+    {
+        int[] rv = new int[list.size()];
+
+        for (int i = 0; i != rv.length; i++)
+        {
+            rv[i] = ((Integer)list.get(i)).intValue();
+        }
+
+        // load in the same order as the provider would have.
+        Arrays.sort(rv);
+
+        return rv;
+    }
+
+    /**
+     * Regenerate the index from the provider's current mappings.
+     *
+     * @param args the file to write the index to.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        String[] mappings = BouncyCastleProvider.getMappings();
+        java.util.Properties props = new java.util.Properties();
+        Recorder recorder = new Recorder();
+
+        for (int i = 0; i != mappings.length; i++)
+        {
+            recorder.group = i;
+            configure(mappings[i], recorder);
+
+            props.setProperty(MAPPINGS_PREFIX + i, mappings[i]);
+            if (!recorder.converters.isEmpty())
+            {
+                StringBuffer oids = new StringBuffer();
+                for (Iterator it = recorder.converters.keySet().iterator(); it.hasNext();)
+                {
+                    if (oids.length() != 0)
+                    {
+                        oids.append(',');
+                    }
+                    oids.append(((ASN1ObjectIdentifier)it.next()).getId());
+                }
+                props.setProperty(CONVERTERS_PREFIX + i, oids.toString());
+                recorder.converters.clear();
+            }
+        }
+
+        for (Iterator it = recorder.keys.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            String key = (String)entry.getKey();
+            String value = (String)entry.getValue();
+            String group = recorder.keyGroups.get(key).toString();
+
+            props.setProperty(key, key.startsWith(ALIAS_PREFIX) ? group + "," + value : group);
+        }
+
+        // store() escapes each entry onto a single line, sort them so the file only changes with the mappings.
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        props.store(bOut, null);
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader bIn = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bOut.toByteArray()), "ISO-8859-1"));
+        String line;
+        while ((line = bIn.readLine()) != null)
+        {
+            if (!line.startsWith("#"))
+            {
+                lines.add(line);
+            }
+        }
+        Collections.sort(lines);
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(args[0]), "ISO-8859-1");
+        try
+        {
+            out.write("# BouncyCastleProvider service index - generated by " + ServiceIndex.class.getName() + ", do not edit.\n");
+            for (int i = 0; i != lines.size(); i++)
+            {
+                out.write(lines.get(i));
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * A ConfigurableProvider that just records what a set of mappings adds.
+     */
+    static class Recorder
+        implements ConfigurableProvider
+    {
+        final Map<String, String> keys = new LinkedHashMap<String, String>();
+        final Map<String, Integer> keyGroups = new HashMap<String, Integer>();
+        final Map<ASN1ObjectIdentifier, AsymmetricKeyInfoConverter> converters = new LinkedHashMap<ASN1ObjectIdentifier, AsymmetricKeyInfoConverter>();
+
+        int group;
+
+        public void setParameter(String parameterName, Object parameter)
+        {
+        }
+
+        public void addAlgorithm(String key, String value)
+        {
+            if (keys.containsKey(key))
+            {
+                throw new IllegalStateException("duplicate provider key (" + key + ") found");
+            }
+
+            keys.put(key, value);
+            keyGroups.put(key, Integer.valueOf(group));
+        }
+
+        public void addAlgorithm(String type, ASN1ObjectIdentifier oid, String className)
+        {
+            addAlgorithm(type + "." + oid, className);
+            addAlgorithm(type + ".OID." + oid, className);
+        }
+
+        public boolean hasAlgorithm(String type, String name)
+        {
+            return keys.containsKey(type + "." + name) || keys.containsKey(ALIAS_PREFIX + type + "." + name);
+        }
+
+        public void addKeyInfoConverter(ASN1ObjectIdentifier oid, AsymmetricKeyInfoConverter keyInfoConverter)
+        {
+            converters.put(oid, keyInfoConverter);
+        }
+
+        public void addAttributes(String key, Map<String, String> attributeMap)
+        {
+            for (Iterator it = attributeMap.keySet().iterator(); it.hasNext();)
+            {
+                String attributeName = (String)it.next();
+
+                addAlgorithm(key + " " + attributeName, attributeMap.get(attributeName));
+            }
+        }
+    }
+}
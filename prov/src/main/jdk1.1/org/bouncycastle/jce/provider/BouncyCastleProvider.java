@@ -99,7 +99,7 @@ public final class BouncyCastleProvider extends Provider
     {
         "GOST3411", "Keccak", "MD2", "MD4", "MD5", "SHA1", "RIPEMD128", "RIPEMD160", "RIPEMD256", "RIPEMD320", "SHA224",
         "SHA256", "SHA384", "SHA512", "SHA3", "Skein", "SM3", "Tiger", "Whirlpool", "Blake2b", "Blake2s", "DSTU7564",
-        "Haraka"
+        "Haraka", "ParallelHash", "KangarooTwelve"
     };
 
     /*
@@ -0,0 +1,153 @@
+package org.bouncycastle.jcajce.provider.drbg;
+
+import java.security.ProviderException;
+import java.security.SecureRandom;
+
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Tests for the DRBG entropy pool - these drive the gather step directly so no pool thread is started.
+ */
+public class EntropyPoolTest
+    extends SimpleTest
+{
+    public String getName()
+    {
+        return "EntropyPool";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        testEmptyPoolStrongSource();
+        testEmptyPoolNonBlockingSource();
+        testGatherFailure();
+        testPooledEntropy();
+    }
+
+    private void testEmptyPoolStrongSource()
+    {
+        CountingSource strong = new CountingSource(0);
+
+        DRBG.EntropyPool pool = new DRBG.EntropyPool(strong, null, 0, false);
+
+        isTrue("pool not empty", !pool.isFreshEntropyAvailable());
+        isTrue("wrong length", pool.getEntropy(48).length == 48);
+        isTrue("shortfall not read from strong source", strong.getSeedBytes() == 48);
+    }
+
+    private void testEmptyPoolNonBlockingSource()
+    {
+        CountingSource strong = new CountingSource(0);
+        CountingSource nonBlocking = new CountingSource(0);
+
+        DRBG.EntropyPool pool = new DRBG.EntropyPool(strong, nonBlocking, 0, false);
+
+        isTrue("wrong length", pool.getEntropy(48).length == 48);
+        isTrue("shortfall not read from non-blocking source", nonBlocking.getRandomBytes() == 48);
+        isTrue("strong source read", strong.getSeedBytes() == 0);
+    }
+
+    private void testGatherFailure()
+    {
+        CountingSource strong = new CountingSource(2);
+
+        DRBG.EntropyPool pool = new DRBG.EntropyPool(strong, null, 0, false);
+
+        // a failing source must not leave a partial block in the pool
+        isTrue("gather succeeded", !pool.gather());
+        isTrue("gather succeeded", !pool.gather());
+        isTrue("pool not empty", !pool.isFreshEntropyAvailable());
+
+        isTrue("gather failed", pool.gather());
+        isTrue("pool empty", pool.isFreshEntropyAvailable());
+        isTrue("wrong seed length", strong.getSeedBytes() == 2 * DRBG.EntropyPool.BLOCK_SIZE);
+    }
+
+    private void testPooledEntropy()
+    {
+        CountingSource strong = new CountingSource(0);
+        CountingSource nonBlocking = new CountingSource(0);
+
+        DRBG.EntropyPool pool = new DRBG.EntropyPool(strong, nonBlocking, 0, false);
+
+        for (int i = 0; i != DRBG.EntropyPool.POOL_BLOCKS; i++)
+        {
+            isTrue("gather failed", pool.gather());
+        }
+
+        byte[][] blocks = new byte[DRBG.EntropyPool.POOL_BLOCKS][];
+        for (int i = 0; i != blocks.length; i++)
+        {
+            isTrue("pool empty", pool.isFreshEntropyAvailable());
+
+            blocks[i] = pool.getEntropy(DRBG.EntropyPool.BLOCK_SIZE);
+            for (int j = 0; j != i; j++)
+            {
+                isTrue("pooled entropy repeated", !Arrays.areEqual(blocks[i], blocks[j]));
+            }
+        }
+
+        isTrue("pool not empty", !pool.isFreshEntropyAvailable());
+        isTrue("pooled entropy not used", nonBlocking.getRandomBytes() == 0);
+
+        // a request larger than the pool takes what there is and makes up the rest
+        isTrue("gather failed", pool.gather());
+        isTrue("wrong length", pool.getEntropy(48).length == 48);
+        isTrue("wrong shortfall", nonBlocking.getRandomBytes() == 48 - DRBG.EntropyPool.BLOCK_SIZE);
+    }
+
+    private static class CountingSource
+        extends SecureRandom
+    {
+        private final SecureRandom random = new SecureRandom();
+
+        private int failures;
+        private int seedBytes;
+        private int randomBytes;
+
+        CountingSource(int failures)
+        {
+            this.failures = failures;
+        }
+
+        public synchronized byte[] generateSeed(int numBytes)
+        {
+            if (failures > 0)
+            {
+                failures--;
+                throw new ProviderException("seed source failure");
+            }
+
+            seedBytes += numBytes;
+
+            byte[] seed = new byte[numBytes];
+            random.nextBytes(seed);
+            return seed;
+        }
+
+        public synchronized void nextBytes(byte[] bytes)
+        {
+            randomBytes += bytes.length;
+
+            random.nextBytes(bytes);
+        }
+
+        synchronized int getSeedBytes()
+        {
+            return seedBytes;
+        }
+
+        synchronized int getRandomBytes()
+        {
+            return randomBytes;
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new EntropyPoolTest());
+    }
+}
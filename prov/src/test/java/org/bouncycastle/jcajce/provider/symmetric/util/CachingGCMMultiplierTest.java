@@ -0,0 +1,155 @@
+package org.bouncycastle.jcajce.provider.symmetric.util;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.modes.gcm.GCMMultiplier;
+import org.bouncycastle.crypto.modes.gcm.Tables4kGCMMultiplier;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Tests for the GCM table cache - these use their own caches, as the shared one is off by default.
+ */
+public class CachingGCMMultiplierTest
+    extends SimpleTest
+{
+    private final SecureRandom random = new SecureRandom();
+
+    public String getName()
+    {
+        return "CachingGCMMultiplier";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        testNoCache();
+        testHits();
+        testEvictions();
+        testKeyChanges();
+    }
+
+    private void testNoCache()
+    {
+        CachingGCMMultiplier.TableCache cache = new CachingGCMMultiplier.TableCache(0);
+        byte[] H = randomH();
+
+        CachingGCMMultiplier m1 = new CachingGCMMultiplier(cache);
+        CachingGCMMultiplier m2 = new CachingGCMMultiplier(cache);
+
+        m1.init(H);
+        m2.init(H);
+
+        isTrue("tables cached", cache.size() == 0);
+        isTrue("tables shared", m1.getMultiplier() != m2.getMultiplier());
+        checkMultiply(m1, H);
+        checkMultiply(m2, H);
+    }
+
+    private void testHits()
+    {
+        CachingGCMMultiplier.TableCache cache = new CachingGCMMultiplier.TableCache(4);
+        byte[] H = randomH();
+
+        CachingGCMMultiplier m1 = new CachingGCMMultiplier(cache);
+        CachingGCMMultiplier m2 = new CachingGCMMultiplier(cache);
+
+        m1.init(H);
+        // a copy, the cache must match on value.
+        m2.init(Arrays.clone(H));
+
+        isTrue("wrong cache size", cache.size() == 1);
+        isTrue("tables not shared", m1.getMultiplier() == m2.getMultiplier());
+        checkMultiply(m2, H);
+    }
+
+    private void testEvictions()
+    {
+        CachingGCMMultiplier.TableCache cache = new CachingGCMMultiplier.TableCache(2);
+        byte[] H1 = randomH();
+        byte[] H2 = randomH();
+        byte[] H3 = randomH();
+
+        CachingGCMMultiplier m = new CachingGCMMultiplier(cache);
+
+        m.init(H1);
+        GCMMultiplier tables1 = m.getMultiplier();
+        m.init(H2);
+        GCMMultiplier tables2 = m.getMultiplier();
+
+        // use H1 again so H2 is the least recently used
+        m.init(H1);
+        isTrue("H1 not hit", m.getMultiplier() == tables1);
+
+        m.init(H3);
+        isTrue("cache not bounded", cache.size() == 2);
+
+        m.init(H1);
+        isTrue("recently used tables evicted", m.getMultiplier() == tables1);
+
+        m.init(H2);
+        isTrue("least recently used tables not evicted", m.getMultiplier() != tables2);
+        checkMultiply(m, H2);
+        isTrue("cache not bounded", cache.size() == 2);
+    }
+
+    private void testKeyChanges()
+    {
+        CachingGCMMultiplier.TableCache cache = new CachingGCMMultiplier.TableCache(3);
+        byte[][] keys = new byte[5][];
+
+        for (int i = 0; i != keys.length; i++)
+        {
+            keys[i] = randomH();
+        }
+
+        // more keys than the cache holds, so lookups hit and miss as the key changes.
+        CachingGCMMultiplier reused = new CachingGCMMultiplier(cache);
+        for (int round = 0; round != 3; round++)
+        {
+            for (int i = 0; i != keys.length; i++)
+            {
+                CachingGCMMultiplier m = new CachingGCMMultiplier(cache);
+
+                m.init(keys[i]);
+                checkMultiply(m, keys[i]);
+
+                reused.init(keys[i]);
+                checkMultiply(reused, keys[i]);
+
+                reused.init(keys[keys.length - 1 - i]);
+                checkMultiply(reused, keys[keys.length - 1 - i]);
+            }
+        }
+
+        isTrue("cache not bounded", cache.size() == 3);
+    }
+
+    private void checkMultiply(GCMMultiplier m, byte[] H)
+    {
+        GCMMultiplier expected = new Tables4kGCMMultiplier();
+        expected.init(H);
+
+        byte[] x = new byte[16];
+        random.nextBytes(x);
+        byte[] y = Arrays.clone(x);
+
+        expected.multiplyH(x);
+        m.multiplyH(y);
+
+        isTrue("multiply mismatch", Arrays.areEqual(x, y));
+    }
+
+    private byte[] randomH()
+    {
+        byte[] H = new byte[16];
+        random.nextBytes(H);
+        return H;
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new CachingGCMMultiplierTest());
+    }
+}
@@ -20,12 +20,18 @@
 
 import junit.framework.TestCase;
 import org.bouncycastle.asn1.cms.GCMParameters;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.jcajce.provider.symmetric.util.CachingGCMMultiplierTest;
 import org.bouncycastle.jcajce.spec.AEADParameterSpec;
 import org.bouncycastle.jcajce.spec.RepeatedSecretKeySpec;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 import org.bouncycastle.util.test.SimpleTest;
+import org.bouncycastle.util.test.TestResult;
 
 public class AEADTest extends SimpleTest
 {
@@ -68,12 +74,17 @@ public void performTest() throws Exception
             testGCMGeneric(KGCM, NGCM, new byte[0], new byte[0], CGCM);
             testGCMParameterSpecWithMultipleUpdates(K2, N2, A2, P2, C2);
             testRepeatedGCMWithSpec(KGCM, NGCM, A2, P2, Hex.decode("f4732d84342623f65b7d63c3c335dd44b87d"));
+            testGCMKeyChanges();
         }
         else
         {
             System.err.println("GCM AEADTests disabled due to JDK");
         }
         testTampering(aeadAvailable);
+
+        // the table cache is off by default, so its sharing is tested directly.
+        TestResult result = new CachingGCMMultiplierTest().perform();
+        isTrue(result.toString(), result.isSuccessful());
     }
 
     private void testTampering(boolean aeadAvailable)
@@ -418,6 +429,51 @@ private void testGCMGeneric(byte[] K,
         }
     }
 
+    // check the GCM tables always follow the key, whether a cipher is new or reinitialised.
+    private void testGCMKeyChanges()
+        throws Exception
+    {
+        SecureRandom random = new SecureRandom();
+        byte[][] keys = new byte[20][16];
+        byte[] N = new byte[12];
+        byte[] P = new byte[100];
+
+        random.nextBytes(P);
+        for (int i = 0; i != keys.length; i++)
+        {
+            random.nextBytes(keys[i]);
+        }
+
+        Cipher reused = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+        for (int round = 0; round != 3; round++)
+        {
+            for (int i = 0; i != keys.length; i++)
+            {
+                random.nextBytes(N);
+
+                GCMBlockCipher gcm = new GCMBlockCipher(new AESEngine());
+                gcm.init(true, new AEADParameters(new KeyParameter(keys[i]), 128, N));
+                byte[] expected = new byte[gcm.getOutputSize(P.length)];
+                int len = gcm.processBytes(P, 0, P.length, expected, 0);
+                gcm.doFinal(expected, len);
+
+                SecretKeySpec key = new SecretKeySpec(keys[i], "AES");
+                GCMParameterSpec spec = new GCMParameterSpec(128, N);
+
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+                cipher.init(Cipher.ENCRYPT_MODE, key, spec);
+                isTrue("new cipher mismatch", areEqual(expected, cipher.doFinal(P)));
+
+                reused.init(Cipher.ENCRYPT_MODE, key, spec);
+                isTrue("reused cipher mismatch", areEqual(expected, reused.doFinal(P)));
+
+                cipher = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+                cipher.init(Cipher.DECRYPT_MODE, key, spec);
+                isTrue("decrypt mismatch", areEqual(P, cipher.doFinal(expected)));
+            }
+        }
+    }
+
     private void testRepeatedGCMWithSpec(byte[] K,
                                  byte[] N,
                                  byte[] A,
@@ -591,6 +591,106 @@ public void shouldStoreOneECKeyWithChain()
         checkOnePrivateKeyDef(kp1.getPrivate(), new X509Certificate[]{interCert, finalCert}, testPassword);
     }
 
+    public void shouldFindCertificateAliases()
+        throws Exception
+    {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509", "BC");
+
+        X509Certificate trustedCert = (X509Certificate)cf.generateCertificate(new ByteArrayInputStream(trustedCertData));
+        X509Certificate interCert = (X509Certificate)cf.generateCertificate(new ByteArrayInputStream(CertPathTest.interCertBin));
+        X509Certificate finalCert = (X509Certificate)cf.generateCertificate(new ByteArrayInputStream(CertPathTest.finalCertBin));
+
+        KeyStore store1 = KeyStore.getInstance("BCFKS", "BC");
+
+        store1.load(null, null);
+
+        store1.setCertificateEntry("trusted", trustedCert);
+        store1.setCertificateEntry("inter", interCert);
+
+        isEquals("trusted", store1.getCertificateAlias(trustedCert));
+        isEquals("inter", store1.getCertificateAlias(interCert));
+        isTrue(store1.getCertificateAlias(finalCert) == null);
+
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+
+        store1.store(bOut, testPassword);
+
+        KeyStore store2 = KeyStore.getInstance("BCFKS", "BC");
+
+        store2.load(new ByteArrayInputStream(bOut.toByteArray()), testPassword);
+
+        isEquals("trusted", store2.getCertificateAlias(trustedCert));
+        isEquals("inter", store2.getCertificateAlias(interCert));
+
+        // the index must follow changes made after it was built
+        store2.deleteEntry("inter");
+        isTrue(store2.getCertificateAlias(interCert) == null);
+
+        store2.setCertificateEntry("inter2", interCert);
+        isEquals("inter2", store2.getCertificateAlias(interCert));
+
+        store2.setCertificateEntry("trusted", finalCert);
+        isTrue(store2.getCertificateAlias(trustedCert) == null);
+        isEquals("trusted", store2.getCertificateAlias(finalCert));
+    }
+
+    private byte[] storeToBytes(KeyStore store, char[] passwd)
+        throws Exception
+    {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+
+        store.store(bOut, passwd);
+
+        return bOut.toByteArray();
+    }
+
+    public void shouldNotRecoverKeyWithWrongPassword()
+        throws Exception
+    {
+        KeyStore store1 = KeyStore.getInstance("BCFKS", "BC");
+
+        store1.load(null, null);
+
+        SecretKey key = new SecretKeySpec(Hex.decode("000102030405060708090a0b0c0d0e0f"), "AES");
+
+        store1.setKeyEntry("secret", key, testPassword, null);
+
+        byte[] data = storeToBytes(store1, testPassword);
+
+        KeyStore store2;
+
+        // with the cache enabled derived entry keys are reused, but only for the password they came from
+        System.setProperty("org.bouncycastle.keystore.derived_key_cache_size", "16");
+        try
+        {
+            store2 = KeyStore.getInstance("BCFKS", "BC");
+        }
+        finally
+        {
+            System.clearProperty("org.bouncycastle.keystore.derived_key_cache_size");
+        }
+
+        store2.load(new ByteArrayInputStream(data), testPassword);
+
+        checkSecretKey(store2, "secret", testPassword, key);
+        checkSecretKey(store2, "secret", testPassword, key);
+
+        try
+        {
+            store2.getKey("secret", "wrong".toCharArray());
+            fail("key recovered with wrong password");
+        }
+        catch (UnrecoverableKeyException e)
+        {
+            // expected
+        }
+
+        checkInvalidLoadForPassword(store2, "wrong".toCharArray(), data);
+
+        store2.load(new ByteArrayInputStream(data), testPassword);
+        checkSecretKey(store2, "secret", testPassword, key);
+    }
+
     public void shouldRejectInconsistentKeys()
         throws Exception
     {
@@ -1557,6 +1657,8 @@ public void performTest()
         shouldCreateEmptyBCFKSPassword();
         shouldStoreMultipleKeys();
         shouldStoreOneCertificate();
+        shouldFindCertificateAliases();
+        shouldNotRecoverKeyWithWrongPassword();
         shouldStoreOneCertificateWithECDSASignature();
         shouldStoreOneCertificateWithDSASignature();
         shouldStoreOneCertificateWithRSASignature();
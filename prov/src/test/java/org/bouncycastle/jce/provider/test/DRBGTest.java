@@ -3,8 +3,12 @@
 import java.security.SecureRandom;
 import java.security.Security;
 
+import org.bouncycastle.jcajce.provider.drbg.EntropyPoolTest;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Properties;
 import org.bouncycastle.util.test.SimpleTest;
+import org.bouncycastle.util.test.TestResult;
 
 /**
  * This test needs to be run with -Djava.security.debug=provider
@@ -27,6 +31,67 @@ public void performTest()
         Security.addProvider(new BouncyCastleProvider());
 
         SecureRandom.getInstance("DEFAULT", "BC");
+
+        testPerThread("DEFAULT");
+        testPerThread("NONCEANDIV");
+
+        // the pool's internals are only visible in its own package.
+        TestResult result = new EntropyPoolTest().perform();
+        isTrue(result.toString(), result.isSuccessful());
+    }
+
+    private void testPerThread(String algorithm)
+        throws Exception
+    {
+        final SecureRandom random;
+
+        Properties.setThreadOverride("org.bouncycastle.drbg.per_thread", true);
+        try
+        {
+            random = SecureRandom.getInstance(algorithm, "BC");
+        }
+        finally
+        {
+            Properties.setThreadOverride("org.bouncycastle.drbg.per_thread", false);
+        }
+
+        final byte[][] outputs = new byte[4][];
+        Thread[] threads = new Thread[outputs.length];
+
+        for (int i = 0; i != threads.length; i++)
+        {
+            final int index = i;
+
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    byte[] bytes = new byte[32];
+
+                    // enough requests to make each thread's seed source reseed
+                    for (int j = 0; j != 300; j++)
+                    {
+                        random.nextBytes(bytes);
+                    }
+                    outputs[index] = random.generateSeed(32);
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i != threads.length; i++)
+        {
+            threads[i].join();
+        }
+
+        for (int i = 0; i != outputs.length; i++)
+        {
+            isTrue(algorithm + " thread " + i + " failed", outputs[i] != null && outputs[i].length == 32);
+            for (int j = 0; j != i; j++)
+            {
+                isTrue(algorithm + " threads " + j + " and " + i + " matched", !Arrays.areEqual(outputs[i], outputs[j]));
+            }
+        }
     }
 
     public static void main(
@@ -84,6 +84,9 @@
         { UAObjectIdentifiers.dstu7564digest_384.getId(), "72945012b0820c3132846ddc90da511f80bb7b70abd0cb1ab8df785d600c187b9d0ac567e8b6f76fde8a0b417a2ebf88" },
         { "DSTU7564-512", "9e5be7daf7b68b49d2ecbd04c7a5b3af72945012b0820c3132846ddc90da511f80bb7b70abd0cb1ab8df785d600c187b9d0ac567e8b6f76fde8a0b417a2ebf88" },
         { UAObjectIdentifiers.dstu7564digest_512.getId(), "9e5be7daf7b68b49d2ecbd04c7a5b3af72945012b0820c3132846ddc90da511f80bb7b70abd0cb1ab8df785d600c187b9d0ac567e8b6f76fde8a0b417a2ebf88" },
+        { "PARALLELHASH128-256", "f07b9b1d0da389544bce61cfead55b2d599ecbb6aedc21e2850513900290fd0b" },
+        { "PARALLELHASH256-512", "820040c1e9577df899a483b67d235c8cc25b61a99ad604d2f64c2b998f21b43e1f4952584fcad517c5993ea0c013ee6f3f9622343084894fdeef516ab0df3353" },
+        { "KANGAROOTWELVE", "ab174f328c55a5510b0b209791bf8b60e801a7cfc2aa42042dcb8f547fbe3a7d" },
     };
     
     public String getName()
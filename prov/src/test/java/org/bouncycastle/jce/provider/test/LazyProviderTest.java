@@ -0,0 +1,243 @@
+package org.bouncycastle.jce.provider.test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Properties;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Check a provider that registers its algorithms on demand looks the same as one that registers
+ * them all up front.
+ */
+public class LazyProviderTest
+    extends SimpleTest
+{
+    private static final String DISABLE_LAZY_LOAD = "org.bouncycastle.provider.disable_lazy_load";
+
+    public String getName()
+    {
+        return "LazyProvider";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        Provider eager = createEagerProvider();
+
+        testServices(eager);
+        testAliases(eager);
+        testProperties(eager);
+        testGetInstance();
+        testMapMethods(eager);
+        testServiceList(eager);
+        testTableMethods(eager);
+    }
+
+    private void testServices(Provider eager)
+    {
+        for (Iterator it = eager.getServices().iterator(); it.hasNext();)
+        {
+            Provider.Service service = (Provider.Service)it.next();
+            Provider.Service lazyService = new BouncyCastleProvider().getService(service.getType(), service.getAlgorithm());
+
+            isTrue("service missing: " + service.getType() + "." + service.getAlgorithm(), lazyService != null);
+            isEquals(service.toString(), lazyService.toString());
+        }
+    }
+
+    private void testAliases(Provider eager)
+    {
+        for (Iterator it = eager.keySet().iterator(); it.hasNext();)
+        {
+            String key = (String)it.next();
+
+            if (key.startsWith("Alg.Alias."))
+            {
+                String typeAndAlias = key.substring("Alg.Alias.".length());
+                String type = typeAndAlias.substring(0, typeAndAlias.indexOf('.'));
+                String alias = typeAndAlias.substring(type.length() + 1);
+
+                Provider.Service service = eager.getService(type, alias);
+                Provider.Service lazyService = new BouncyCastleProvider().getService(type, alias);
+
+                // an alias for an unregistered algorithm doesn't give a service
+                if (service == null)
+                {
+                    isTrue("unexpected alias: " + key, lazyService == null);
+                }
+                else
+                {
+                    isTrue("alias missing: " + key, lazyService != null);
+                    isEquals(service.toString(), lazyService.toString());
+                }
+            }
+        }
+    }
+
+    private void testProperties(Provider eager)
+    {
+        Provider lazy = new BouncyCastleProvider();
+
+        isEquals("Alg.Alias.Cipher.1.2.840.113549.1.1.1 mismatch",
+            eager.getProperty("Alg.Alias.Cipher.1.2.840.113549.1.1.1"), lazy.getProperty("Alg.Alias.Cipher.1.2.840.113549.1.1.1"));
+        isTrue("hasAlgorithm failed", ((BouncyCastleProvider)lazy).hasAlgorithm("MessageDigest", "SHA-256"));
+
+        isEquals("key set mismatch", eager.keySet(), lazy.keySet());
+        for (Iterator it = eager.keySet().iterator(); it.hasNext();)
+        {
+            Object key = it.next();
+
+            isEquals("value mismatch for " + key, eager.get(key), lazy.get(key));
+        }
+        isEquals("services mismatch", eager.getServices().size(), lazy.getServices().size());
+    }
+
+    private void testGetInstance()
+        throws Exception
+    {
+        Provider lazy = new BouncyCastleProvider();
+
+        isEquals(lazy, Cipher.getInstance("AES/GCM/NoPadding", lazy).getProvider());
+        isEquals(lazy, Cipher.getInstance("RSA/NONE/OAEPWithSHA256AndMGF1Padding", lazy).getProvider());
+        isEquals(lazy, java.security.Signature.getInstance("SHA256withECDSA", lazy).getProvider());
+
+        // provider put() should override a pending group, as it would for a loaded one
+        lazy = new BouncyCastleProvider();
+        lazy.put("Cipher.AES", "org.bouncycastle.jcajce.provider.symmetric.AES$ECB");
+        isEquals("org.bouncycastle.jcajce.provider.symmetric.AES$ECB", lazy.getService("Cipher", "AES").getClassName());
+    }
+
+    private void testMapMethods(Provider eager)
+    {
+        String key = "Cipher.AES";
+        Object value = eager.get(key);
+
+        // each call is made on a new provider, so the group for the key is still pending when it arrives.
+        isEquals("getOrDefault", value, new BouncyCastleProvider().getOrDefault(key, "missing"));
+        isEquals("getOrDefault", "missing", new BouncyCastleProvider().getOrDefault("Cipher.NOT-AN-ALGORITHM", "missing"));
+
+        BouncyCastleProvider lazy = new BouncyCastleProvider();
+        isEquals("putIfAbsent", value, lazy.putIfAbsent(key, "other"));
+        isEquals("putIfAbsent", value, lazy.get(key));
+
+        lazy = new BouncyCastleProvider();
+        isTrue("remove", lazy.remove(key, value));
+        isTrue("remove", lazy.get(key) == null);
+
+        lazy = new BouncyCastleProvider();
+        isEquals("replace", value, lazy.replace(key, "other"));
+        isEquals("replace", "other", lazy.get(key));
+
+        lazy = new BouncyCastleProvider();
+        isTrue("replace", lazy.replace(key, value, "other"));
+        isEquals("replace", "other", lazy.get(key));
+    }
+
+    // the service index is generated, so check it against eager registration - both must list exactly the same services.
+    private void testServiceList(Provider eager)
+    {
+        Set eagerServices = toStrings(eager.getServices());
+        Set lazyServices = toStrings(new BouncyCastleProvider().getServices());
+
+        for (Iterator it = eagerServices.iterator(); it.hasNext();)
+        {
+            Object service = it.next();
+
+            isTrue("service missing from lazy provider: " + service, lazyServices.contains(service));
+        }
+        for (Iterator it = lazyServices.iterator(); it.hasNext();)
+        {
+            Object service = it.next();
+
+            isTrue("service missing from eager provider: " + service, eagerServices.contains(service));
+        }
+    }
+
+    private void testTableMethods(Provider eager)
+    {
+        // each call is made on a new provider, so every group is still pending when it arrives.
+        isEquals("size", eager.size(), new BouncyCastleProvider().size());
+        isEquals("hashCode", eager.hashCode(), new BouncyCastleProvider().hashCode());
+        isTrue("equals", new BouncyCastleProvider().equals(eager));
+        isEquals("values", new HashSet(eager.values()), new HashSet(new BouncyCastleProvider().values()));
+        isEquals("propertyNames", count(eager.propertyNames()), count(new BouncyCastleProvider().propertyNames()));
+        isEquals("keys", count(eager.keys()), count(new BouncyCastleProvider().keys()));
+        isEquals("elements", count(eager.elements()), count(new BouncyCastleProvider().elements()));
+        isEquals("list", list(eager), list(new BouncyCastleProvider()));
+
+        BouncyCastleProvider lazy = new BouncyCastleProvider();
+        Provider copy = (Provider)lazy.clone();
+        isEquals("clone", eager.keySet(), copy.keySet());
+
+        // the copy is independent, registering a group in one mustn't hide it from the other.
+        lazy = new BouncyCastleProvider();
+        copy = (Provider)lazy.clone();
+        isTrue("clone", lazy.getService("Cipher", "AES") != null);
+        isTrue("clone", copy.getService("Cipher", "AES") != null);
+    }
+
+    private static Set toStrings(Set services)
+    {
+        Set strings = new HashSet();
+
+        for (Iterator it = services.iterator(); it.hasNext();)
+        {
+            strings.add(it.next().toString());
+        }
+
+        return strings;
+    }
+
+    private static int count(Enumeration en)
+    {
+        int count = 0;
+
+        while (en.hasMoreElements())
+        {
+            en.nextElement();
+            count++;
+        }
+
+        return count;
+    }
+
+    private static Set list(Provider provider)
+    {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+
+        provider.list(pw);
+        pw.flush();
+
+        // the order of the listing depends on the table, so compare the lines.
+        return new HashSet(Arrays.asList(sw.toString().split("\n")));
+    }
+
+    private static Provider createEagerProvider()
+    {
+        boolean wasSet = Properties.setThreadOverride(DISABLE_LAZY_LOAD, true);
+        try
+        {
+            return new BouncyCastleProvider();
+        }
+        finally
+        {
+            Properties.setThreadOverride(DISABLE_LAZY_LOAD, wasSet);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        runTest(new LazyProviderTest());
+    }
+}
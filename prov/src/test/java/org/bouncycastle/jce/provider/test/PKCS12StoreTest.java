@@ -19,6 +19,7 @@
 import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Enumeration;
+import java.util.concurrent.Callable;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -41,11 +42,14 @@
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.jcajce.PKCS12StoreParameter;
+import org.bouncycastle.jcajce.provider.keystore.util.KeyDerivationTasks;
 import org.bouncycastle.jce.PKCS12Util;
 import org.bouncycastle.jce.interfaces.PKCS12BagAttributeCarrier;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.provider.JDKPKCS12StoreParameter;
 import org.bouncycastle.jce.provider.X509CertificateObject;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Properties;
 import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
 import org.bouncycastle.util.test.SimpleTest;
@@ -1535,6 +1539,146 @@ private void testBCFKSLoad()
         }
     }
 
+    private void testConcurrentLoadStore()
+        throws Exception
+    {
+        testConcurrentLoadStore("PKCS12");
+        testConcurrentLoadStore("PKCS12-3DES-3DES");
+    }
+
+    private void testConcurrentLoadStore(final String type)
+        throws Exception
+    {
+        final char[] password = "concurrent".toCharArray();
+        final PrivateKey[] keys = new PrivateKey[6];
+
+        KeyStore keyStore = KeyStore.getInstance(type, BC);
+
+        keyStore.load(null, null);
+
+        for (int i = 0; i != keys.length; i++)
+        {
+            KeyPair kp = TestUtils.generateRSAKeyPair();
+
+            keys[i] = kp.getPrivate();
+            keyStore.setKeyEntry("key" + i, kp.getPrivate(), null,
+                new Certificate[]{ TestUtils.generateRootCert(kp, new X500Name("CN=Key " + i)) });
+        }
+
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+
+        keyStore.store(bOut, password);
+
+        final byte[] baseData = bOut.toByteArray();
+
+        Thread[] threads = new Thread[4];
+        final Exception[] failures = new Exception[threads.length];
+
+        for (int t = 0; t != threads.length; t++)
+        {
+            final int index = t;
+
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        byte[] data = baseData;
+
+                        for (int round = 0; round != 3; round++)
+                        {
+                            KeyStore ks = KeyStore.getInstance(type, BC);
+
+                            ks.load(new ByteArrayInputStream(data), password);
+
+                            checkKeys(ks, keys, password);
+
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                            ks.store(out, password);
+
+                            data = out.toByteArray();
+                        }
+
+                        // tasks run on other threads still see the submitting thread's overrides
+                        String property = "org.bouncycastle.test.pkcs12_concurrent_" + index;
+
+                        Properties.setThreadOverride(property, true);
+                        try
+                        {
+                            if (!((Boolean)KeyDerivationTasks.getResult(KeyDerivationTasks.submit(new PropertyCheck(property)))).booleanValue())
+                            {
+                                throw new IllegalStateException("thread override not visible to task");
+                            }
+                        }
+                        finally
+                        {
+                            Properties.removeThreadOverride(property);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        failures[index] = e;
+                    }
+                }
+            };
+        }
+
+        for (int t = 0; t != threads.length; t++)
+        {
+            threads[t].start();
+        }
+
+        for (int t = 0; t != threads.length; t++)
+        {
+            threads[t].join();
+        }
+
+        for (int t = 0; t != failures.length; t++)
+        {
+            if (failures[t] != null)
+            {
+                fail("concurrent " + type + " load/store failed: " + failures[t], failures[t]);
+            }
+        }
+    }
+
+    private static void checkKeys(KeyStore ks, PrivateKey[] keys, char[] password)
+        throws Exception
+    {
+        if (ks.size() != keys.length)
+        {
+            throw new IllegalStateException("wrong number of entries: " + ks.size());
+        }
+
+        for (int i = 0; i != keys.length; i++)
+        {
+            Key key = ks.getKey("key" + i, password);
+
+            if (key == null || !Arrays.areEqual(keys[i].getEncoded(), key.getEncoded()))
+            {
+                throw new IllegalStateException("key" + i + " not recovered");
+            }
+        }
+    }
+
+    private static class PropertyCheck
+        implements Callable
+    {
+        private final String property;
+
+        PropertyCheck(String property)
+        {
+            this.property = property;
+        }
+
+        public Object call()
+        {
+            return Boolean.valueOf(Properties.isOverrideSet(property));
+        }
+    }
+
     public String getName()
     {
         return "PKCS12Store";
@@ -1581,6 +1725,7 @@ public void performTest()
         }
 
         testOrphanedCertCleanup();
+        testConcurrentLoadStore();
     }
 
     public static void main(
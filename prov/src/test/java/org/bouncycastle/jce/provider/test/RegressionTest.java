@@ -90,7 +90,8 @@
         new SM2CipherTest(),
         new ZucTest(),
         new ChaCha20Poly1305Test(),
-        new SipHash128Test()
+        new SipHash128Test(),
+        new LazyProviderTest()
     };
 
     public static void main(String[] args)
@@ -42,6 +42,8 @@ private static <T> List<T> copyList(Collection<T> list)
     private List<BCSNIServerName> serverNames;
     private List<BCSNIMatcher> sniMatchers;
     private boolean useCipherSuitesOrder;
+    private int recordSizeLimit = -1;
+    private boolean dynamicRecordSizing = false;
 
     public BCSSLParameters()
     {
@@ -211,4 +213,40 @@ public boolean getUseCipherSuitesOrder()
     {
         return useCipherSuitesOrder;
     }
+
+    /**
+     * Set the largest record (as the RFC 8449 "record_size_limit" value) to receive, or -1 for no limit
+     * of our own. A client only offers the extension when this is not -1. Valid limits are from 64 to
+     * 2^14 + 1.
+     */
+    public void setRecordSizeLimit(int recordSizeLimit)
+    {
+        if (recordSizeLimit != -1 && (recordSizeLimit < 64 || recordSizeLimit > (1 << 14) + 1))
+        {
+            throw new IllegalArgumentException("'recordSizeLimit' must be -1, or in the range 64 to 2^14 + 1");
+        }
+
+        this.recordSizeLimit = recordSizeLimit;
+    }
+
+    public int getRecordSizeLimit()
+    {
+        return recordSizeLimit;
+    }
+
+    /**
+     * Set whether application data is sent in small records at first (and after idle periods), for a
+     * faster time-to-first-byte, before switching to full-size records for bulk transfer. This is off
+     * unless enabled here, or by default via the "org.bouncycastle.jsse.enableDynamicRecordSizing" system
+     * property.
+     */
+    public void setDynamicRecordSizing(boolean dynamicRecordSizing)
+    {
+        this.dynamicRecordSizing = dynamicRecordSizing;
+    }
+
+    public boolean getDynamicRecordSizing()
+    {
+        return dynamicRecordSizing;
+    }
 }
@@ -0,0 +1,73 @@
+package org.bouncycastle.jsse.provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} that scatters its output across a sequence of {@link ByteBuffer}s, so that
+ * {@link ProvSSLEngine} can have the protocol write straight into the caller's buffers.
+ */
+class ByteBufferOutputStream
+    extends OutputStream
+{
+    private final ByteBuffer[] single = new ByteBuffer[1];
+
+    private ByteBuffer[] bufs = null;
+    private int index = 0, end = 0;
+
+    ByteBufferOutputStream reset(ByteBuffer buf)
+    {
+        single[0] = buf;
+        return reset(single, 0, 1);
+    }
+
+    ByteBufferOutputStream reset(ByteBuffer[] bufs, int off, int len)
+    {
+        this.bufs = bufs;
+        this.index = off;
+        this.end = off + len;
+        return this;
+    }
+
+    void clear()
+    {
+        single[0] = null;
+        this.bufs = null;
+        this.index = 0;
+        this.end = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        nextBuffer().put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            ByteBuffer buf = nextBuffer();
+            int count = Math.min(buf.remaining(), len);
+            buf.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    private ByteBuffer nextBuffer() throws IOException
+    {
+        while (index < end)
+        {
+            ByteBuffer buf = bufs[index];
+            if (buf.hasRemaining())
+            {
+                return buf;
+            }
+            ++index;
+        }
+        throw new IOException("Insufficient space in output buffer(s)");
+    }
+}
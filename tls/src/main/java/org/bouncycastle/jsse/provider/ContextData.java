@@ -1,16 +1,25 @@
 package org.bouncycastle.jsse.provider;
 
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.bouncycastle.jsse.BCX509ExtendedKeyManager;
 import org.bouncycastle.jsse.BCX509ExtendedTrustManager;
+import org.bouncycastle.tls.Certificate;
 import org.bouncycastle.tls.ProtocolVersion;
 import org.bouncycastle.tls.SignatureAndHashAlgorithm;
+import org.bouncycastle.tls.TlsUtils;
 import org.bouncycastle.tls.crypto.impl.jcajce.JcaTlsCrypto;
 
 final class ContextData
 {
+    private static final int provServerCertificateCacheSize = PropertyUtils
+        .getIntegerSystemProperty("org.bouncycastle.jsse.server.certificateCacheSize", 32, 0, 1024);
+
     private final ProvSSLContextSpi context;
     private final JcaTlsCrypto crypto;
     private final BCX509ExtendedKeyManager x509KeyManager;
@@ -20,6 +29,21 @@
     private final NamedGroupInfo.PerContext namedGroups;
     private final SignatureSchemeInfo.PerContext signatureSchemes;
 
+    /*
+     * NOTE: The server's Certificate messages, shared across connections so that each one is only
+     * encoded (and has its "end point hash" calculated) once. This is configured as a simple LRU cache
+     * using the "access order" constructor.
+     */
+    @SuppressWarnings("serial")
+    private final Map<List<X509Certificate>, Certificate[]> serverCertificates =
+        new LinkedHashMap<List<X509Certificate>, Certificate[]>(16, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(Map.Entry<List<X509Certificate>, Certificate[]> eldest)
+        {
+            return size() > provServerCertificateCacheSize;
+        }
+    };
+
     ContextData(ProvSSLContextSpi context, JcaTlsCrypto crypto, BCX509ExtendedKeyManager x509KeyManager,
         BCX509ExtendedTrustManager x509TrustManager)
     {
@@ -33,6 +57,45 @@
         this.signatureSchemes = SignatureSchemeInfo.createPerContext(context.isFips(), crypto, namedGroups);
     }
 
+    /**
+     * Get a (possibly cached) Certificate message for a server certificate chain.
+     *
+     * @param isTLSv13
+     *            whether to return the TLS 1.3 form (with an empty certificate_request_context).
+     */
+    Certificate getServerCertificateMessage(X509Certificate[] chain, boolean isTLSv13)
+    {
+        if (provServerCertificateCacheSize < 1)
+        {
+            return isTLSv13
+                ?   JsseUtils.getCertificateMessage13(crypto, chain, TlsUtils.EMPTY_BYTES)
+                :   JsseUtils.getCertificateMessage(crypto, chain);
+        }
+
+        List<X509Certificate> key = Arrays.asList(chain.clone());
+        int index = isTLSv13 ? 1 : 0;
+
+        synchronized (serverCertificates)
+        {
+            Certificate[] certificates = serverCertificates.get(key);
+            if (null == certificates)
+            {
+                certificates = new Certificate[2];
+                serverCertificates.put(key, certificates);
+            }
+
+            Certificate certificate = certificates[index];
+            if (null == certificate)
+            {
+                certificate = isTLSv13
+                    ?   JsseUtils.getCertificateMessage13(crypto, chain, TlsUtils.EMPTY_BYTES)
+                    :   JsseUtils.getCertificateMessage(crypto, chain);
+                certificates[index] = certificate;
+            }
+            return certificate;
+        }
+    }
+
     NamedGroupInfo.PerConnection getNamedGroups(ProvSSLParameters sslParameters, ProtocolVersion[] activeProtocolVersions)
     {
         return NamedGroupInfo.createPerConnection(namedGroups, sslParameters, activeProtocolVersions);
@@ -4,6 +4,7 @@
 import java.net.UnknownHostException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
@@ -113,6 +114,69 @@ && matchesDNSName(hostname, ((ASN1String)commonName).getString(), allWildcards))
         }
     }
 
+    /**
+     * Get the names that {@link #checkHostname(String, X509Certificate, boolean)} would try to match a domain
+     * name against, i.e. the subject alternative dNSName entries if there are any, else the most specific CN.
+     *
+     * @return the (unnormalized) names, or null if they could not be determined.
+     */
+    static List<String> getDomainNames(X509Certificate certificate)
+    {
+        List<String> result = new ArrayList<String>();
+
+        Collection<List<?>> subjectAltNames;
+        try
+        {
+            subjectAltNames = certificate.getSubjectAlternativeNames();
+        }
+        catch (CertificateException e)
+        {
+            return null;
+        }
+
+        if (null != subjectAltNames)
+        {
+            for (List<?> subjectAltName : subjectAltNames)
+            {
+                int type = ((Integer)subjectAltName.get(0)).intValue();
+                if (GeneralName.dNSName == type)
+                {
+                    result.add((String)subjectAltName.get(1));
+                }
+            }
+
+            if (!result.isEmpty())
+            {
+                return result;
+            }
+        }
+
+        ASN1Primitive commonName = findMostSpecificCN(certificate.getSubjectX500Principal());
+        if (commonName instanceof ASN1String)
+        {
+            result.add(((ASN1String)commonName).getString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Normalize a domain name (or DNS name pattern) in the same way as the matching here does.
+     *
+     * @return the normalized name, or null if it can never match.
+     */
+    static String normalizeDomainName(String name)
+    {
+        try
+        {
+            return IDNUtil.toUnicode(IDNUtil.toASCII(name, 0), 0).toLowerCase(Locale.ENGLISH);
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
     private static ASN1Primitive findMostSpecificCN(X500Principal principal)
     {
         if (null != principal)
@@ -1,16 +1,25 @@
 package org.bouncycastle.jsse.provider;
 
+import org.bouncycastle.jsse.BCSNIServerName;
+
 class JsseSessionParameters
 {
     private final String identificationProtocol;
+    private final BCSNIServerName matchedSNIServerName;
 
-    JsseSessionParameters(String identificationProtocol)
+    JsseSessionParameters(String identificationProtocol, BCSNIServerName matchedSNIServerName)
     {
         this.identificationProtocol = identificationProtocol;
+        this.matchedSNIServerName = matchedSNIServerName;
     }
 
     public String getIdentificationProtocol()
     {
         return identificationProtocol;
     }
+
+    public BCSNIServerName getMatchedSNIServerName()
+    {
+        return matchedSNIServerName;
+    }
 }
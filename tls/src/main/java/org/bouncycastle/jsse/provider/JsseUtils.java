@@ -135,14 +135,29 @@ static String[] copyOf(String[] data, int newLength)
 
     static TlsCredentialedDecryptor createCredentialedDecryptor(JcaTlsCrypto crypto, BCX509Key x509Key)
     {
-        PrivateKey privateKey = x509Key.getPrivateKey();
         Certificate certificate = getCertificateMessage(crypto, x509Key.getCertificateChain());
 
+        return createCredentialedDecryptor(crypto, x509Key, certificate);
+    }
+
+    static TlsCredentialedDecryptor createCredentialedDecryptor(JcaTlsCrypto crypto, BCX509Key x509Key,
+        Certificate certificate)
+    {
+        PrivateKey privateKey = x509Key.getPrivateKey();
+
         return new JceDefaultTlsCredentialedDecryptor(crypto, certificate, privateKey);
     }
 
     static TlsCredentialedSigner createCredentialedSigner(TlsContext context, JcaTlsCrypto crypto, BCX509Key x509Key,
         SignatureAndHashAlgorithm sigAndHashAlg)
+    {
+        Certificate certificate = getCertificateMessage(crypto, x509Key.getCertificateChain());
+
+        return createCredentialedSigner(context, crypto, x509Key, certificate, sigAndHashAlg);
+    }
+
+    static TlsCredentialedSigner createCredentialedSigner(TlsContext context, JcaTlsCrypto crypto, BCX509Key x509Key,
+        Certificate certificate, SignatureAndHashAlgorithm sigAndHashAlg)
     {
         /*
          * TODO[jsse] Before proceeding with EC credentials, check (TLS 1.2+) that the used curve
@@ -151,7 +166,6 @@ static TlsCredentialedSigner createCredentialedSigner(TlsContext context, JcaTls
 
         TlsCryptoParameters cryptoParams = new TlsCryptoParameters(context);
         PrivateKey privateKey = x509Key.getPrivateKey();
-        Certificate certificate = getCertificateMessage(crypto, x509Key.getCertificateChain());
 
         return new JcaDefaultTlsCredentialedSigner(cryptoParams, crypto, privateKey, certificate, sigAndHashAlg);
     }
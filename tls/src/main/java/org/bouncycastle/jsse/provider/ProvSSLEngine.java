@@ -30,12 +30,20 @@
 import org.bouncycastle.tls.TlsFatalAlert;
 import org.bouncycastle.tls.TlsProtocol;
 import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsSignerExecutor;
 
 /*
- * TODO[jsse] Known limitations (relative to SSLEngine javadoc): 1. The wrap() and unwrap() methods
- * are synchronized, so will not execute concurrently with each other. 2. Never delegates tasks i.e.
- * getDelegatedTasks() will always return null; CPU-intensive parts of the handshake will execute
- * during wrap/unwrap calls.
+ * NOTE: Once the initial handshake is complete, wrap() and unwrap() only hold separate locks for
+ * the outbound and inbound directions respectively, so they can execute concurrently with each other
+ * (the protocol itself guards the state they share). During the handshake (or while an exception is
+ * pending) they also synchronize on the engine.
+ *
+ * NOTE: If enabled via "org.bouncycastle.jsse.engine.enableDelegatedTasks", a server engine delegates
+ * its TLS 1.3 CertificateVerify signing operation, i.e. unwrap reports NEED_TASK and getDelegatedTask()
+ * returns the signing task. The handshake is resumed by the next wrap/unwrap after the task has run.
+ *
+ * TODO[jsse] Known limitations (relative to SSLEngine javadoc): 1. Apart from the above, never
+ * delegates tasks; other CPU-intensive parts of the handshake will execute during wrap/unwrap calls.
  */
 class ProvSSLEngine
     extends SSLEngine
@@ -43,6 +51,9 @@
 {
     private static final Logger LOG = Logger.getLogger(ProvSSLEngine.class.getName());
 
+    private static final boolean provEnableDelegatedTasks = PropertyUtils
+        .getBooleanSystemProperty("org.bouncycastle.jsse.engine.enableDelegatedTasks", false);
+
     protected final ContextData contextData;
     protected final ProvSSLParameters sslParameters;
 
@@ -60,6 +71,24 @@
 
     protected SSLException deferredException = null;
 
+    // NOTE: A signing task from the protocol, until collected via getDelegatedTask
+    private Runnable delegatedTask = null;
+    // NOTE: Set while the protocol's signing task has not yet completed
+    private volatile boolean delegatedTaskPending = false;
+
+    // NOTE: Held by unwrap/wrap respectively, to guard the state below
+    private final Object unwrapLock = new Object();
+    private final Object wrapLock = new Object();
+
+    // NOTE: Reused by unwrap for copying between ByteBuffers and the protocol
+    private final byte[] recordHeader = new byte[RecordFormat.FRAGMENT_OFFSET];
+    private final ByteBufferOutputStream appDataOutput = new ByteBufferOutputStream();
+    private byte[] unwrapScratch = new byte[0];
+
+    // NOTE: Reused by wrap for copying between ByteBuffers and the protocol
+    private final ByteBufferOutputStream recordOutput = new ByteBufferOutputStream();
+    private byte[] wrapScratch = new byte[0];
+
     protected ProvSSLEngine(ContextData contextData)
     {
         this(contextData, null, -1);
@@ -244,7 +273,28 @@ public synchronized BCSSLConnection getConnection()
     @Override
     public synchronized Runnable getDelegatedTask()
     {
-        return null;
+        final Runnable task = this.delegatedTask;
+        if (null == task)
+        {
+            return null;
+        }
+
+        this.delegatedTask = null;
+
+        return new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    delegatedTaskPending = false;
+                }
+            }
+        };
     }
 
     @Override
@@ -280,6 +330,12 @@ public synchronized SSLSession getHandshakeSession()
     @Override
     public synchronized SSLEngineResult.HandshakeStatus getHandshakeStatus()
     {
+        if (handshakeStatus == HandshakeStatus.NEED_TASK && !delegatedTaskPending)
+        {
+            // NOTE: The handshake will be resumed by the next wrap/unwrap
+            return HandshakeStatus.NEED_WRAP;
+        }
+
         return handshakeStatus;
     }
 
@@ -425,7 +481,24 @@ public synchronized void setWantClientAuth(boolean want)
     }
 
     @Override
-    public synchronized SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length)
+    public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length)
+        throws SSLException
+    {
+        synchronized (unwrapLock)
+        {
+            if (isApplicationDataOnly())
+            {
+                return implUnwrap(src, dsts, offset, length);
+            }
+
+            synchronized (this)
+            {
+                return implUnwrap(src, dsts, offset, length);
+            }
+        }
+    }
+
+    private SSLEngineResult implUnwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length)
         throws SSLException
     {
         // TODO[jsse] Argument checks - see javadoc
@@ -435,6 +508,29 @@ public synchronized SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, in
             beginHandshake();
         }
 
+        if (handshakeStatus == HandshakeStatus.NEED_TASK)
+        {
+            if (delegatedTaskPending)
+            {
+                return new SSLEngineResult(Status.OK, HandshakeStatus.NEED_TASK, 0, 0);
+            }
+
+            try
+            {
+                resumeAfterDelegatedTask();
+            }
+            catch (IOException e)
+            {
+                // NOTE: See 'deferredException' workaround below
+                if (this.deferredException == null)
+                {
+                    this.deferredException = new SSLException(e);
+                }
+
+                return new SSLEngineResult(Status.OK, HandshakeStatus.NEED_WRAP, 0, 0);
+            }
+        }
+
         Status resultStatus = Status.OK;
         int bytesConsumed = 0, bytesProduced = 0;
 
@@ -457,32 +553,39 @@ else if (hasInsufficientSpace(dsts, offset, length, preview.getApplicationDataLi
                 }
                 else
                 {
-                    byte[] record = new byte[preview.getRecordSize()];
-                    src.get(record);
-
-                    protocol.offerInput(record);
-                    bytesConsumed += record.length;
+                    /*
+                     * NOTE: The record is decrypted in place, directly in the 'src' array where possible, and
+                     * any application data is written straight into 'dsts'.
+                     */
+                    int recordSize = preview.getRecordSize();
 
-                    int appDataAvailable = protocol.getAvailableInputBytes();
-                    for (int dstIndex = 0; dstIndex < length && appDataAvailable > 0; ++dstIndex)
+                    ByteBufferOutputStream appDataOutput = this.appDataOutput.reset(dsts, offset, length);
+                    try
                     {
-                        ByteBuffer dst = dsts[offset + dstIndex];
-                        int count = Math.min(dst.remaining(), appDataAvailable);
-                        if (count > 0)
+                        if (src.hasArray() && !src.isReadOnly())
                         {
-                            byte[] appData = new byte[count];
-                            int numRead = protocol.readInput(appData, 0, count);
-                            assert numRead == count;
-                
-                            dst.put(appData);
-                
-                            bytesProduced += count;
-                            appDataAvailable -= count;
+                            int position = src.position();
+                            src.position(position + recordSize);
+
+                            bytesProduced += protocol.offerInput(src.array(), src.arrayOffset() + position,
+                                recordSize, appDataOutput);
+                        }
+                        else
+                        {
+                            byte[] record = getUnwrapScratch(recordSize);
+                            src.get(record, 0, recordSize);
+
+                            bytesProduced += protocol.offerInput(record, 0, recordSize, appDataOutput);
                         }
                     }
+                    finally
+                    {
+                        appDataOutput.clear();
+                    }
+                    bytesConsumed += recordSize;
 
                     // We pre-checked the output would fit, so there should be nothing left over.
-                    if (appDataAvailable != 0)
+                    if (protocol.getAvailableInputBytes() != 0)
                     {
                         // TODO[tls] Expose a method to fail the connection externally
                         throw new TlsFatalAlert(AlertDescription.record_overflow);
@@ -524,7 +627,16 @@ else if (hasInsufficientSpace(dsts, offset, length, preview.getApplicationDataLi
         HandshakeStatus resultHandshakeStatus = handshakeStatus;
         if (handshakeStatus == HandshakeStatus.NEED_UNWRAP)
         {
-            if (protocol.getAvailableOutputBytes() > 0)
+            if (delegatedTaskPending)
+            {
+                /*
+                 * The protocol is waiting for the signing task; its output so far will be sent along with
+                 * the rest of the server's flight once the handshake is resumed.
+                 */
+                handshakeStatus = HandshakeStatus.NEED_TASK;
+                resultHandshakeStatus = HandshakeStatus.NEED_TASK;
+            }
+            else if (protocol.getAvailableOutputBytes() > 0)
             {
                 handshakeStatus = HandshakeStatus.NEED_WRAP;
                 resultHandshakeStatus = HandshakeStatus.NEED_WRAP;
@@ -549,7 +661,24 @@ else if (protocol.isClosed())
     }
 
     @Override
-    public synchronized SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst)
+    public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst)
+        throws SSLException
+    {
+        synchronized (wrapLock)
+        {
+            if (isApplicationDataOnly())
+            {
+                return implWrap(srcs, offset, length, dst);
+            }
+
+            synchronized (this)
+            {
+                return implWrap(srcs, offset, length, dst);
+            }
+        }
+    }
+
+    private SSLEngineResult implWrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst)
         throws SSLException
     {
         if (deferredException != null)
@@ -566,6 +695,24 @@ public synchronized SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int leng
             beginHandshake();
         }
 
+        if (handshakeStatus == HandshakeStatus.NEED_TASK)
+        {
+            if (delegatedTaskPending)
+            {
+                return new SSLEngineResult(Status.OK, HandshakeStatus.NEED_TASK, 0, 0);
+            }
+
+            try
+            {
+                resumeAfterDelegatedTask();
+            }
+            catch (IOException e)
+            {
+                // NOTE: Any alert raised is flushed by subsequent wrap calls
+                throw new SSLException(e);
+            }
+        }
+
         Status resultStatus = Status.OK;
         int bytesConsumed = 0, bytesProduced = 0;
 
@@ -589,9 +736,11 @@ else if (protocol.getAvailableOutputBytes() > 0)
                 try
                 {
                     /*
-                     * Generate at most one maximum-sized application data record per call.
+                     * Generate at most one maximum-sized application data record per call. The limit is
+                     * only read once, since a record size policy may change its answer at any time.
                      */
-                    int srcRemaining = getTotalRemaining(srcs, offset, length, protocol.getApplicationDataLimit());
+                    int fragmentLimit = protocol.getApplicationDataLimit();
+                    int srcRemaining = getTotalRemaining(srcs, offset, length, fragmentLimit);
                     if (srcRemaining > 0)
                     {
                         RecordPreview preview = protocol.previewOutputRecord(srcRemaining);
@@ -605,21 +754,48 @@ else if (protocol.getAvailableOutputBytes() > 0)
                         }
                         else
                         {
-                            for (int srcIndex = 0; srcIndex < length && srcLimit > 0; ++srcIndex)
+                            /*
+                             * The application data is gathered from 'srcs' (without copying if it is all
+                             * in one array), and the records are written straight into 'dst'.
+                             */
+                            byte[] input;
+                            int inputOff;
+
+                            ByteBuffer single = getSingleSource(srcs, offset, length, srcLimit);
+                            if (null != single)
                             {
-                                ByteBuffer src = srcs[offset + srcIndex];
-                                int count = Math.min(src.remaining(), srcLimit);
-                                if (count > 0)
+                                input = single.array();
+                                inputOff = single.arrayOffset() + single.position();
+                                single.position(single.position() + srcLimit);
+                            }
+                            else
+                            {
+                                input = getWrapScratch(srcLimit);
+                                inputOff = 0;
+
+                                int pos = 0;
+                                for (int srcIndex = 0; srcIndex < length && pos < srcLimit; ++srcIndex)
                                 {
-                                    byte[] input = new byte[count];
-                                    src.get(input);
-    
-                                    protocol.writeApplicationData(input, 0, count);
-    
-                                    bytesConsumed += count;
-                                    srcLimit -= count;
+                                    ByteBuffer src = srcs[offset + srcIndex];
+                                    int count = Math.min(src.remaining(), srcLimit - pos);
+                                    src.get(input, pos, count);
+                                    pos += count;
                                 }
                             }
+
+                            ByteBufferOutputStream recordOutput = this.recordOutput.reset(dst);
+                            try
+                            {
+                                int dstPosition = dst.position();
+                                protocol.writeApplicationData(input, inputOff, srcLimit, recordOutput, fragmentLimit);
+                                bytesProduced += dst.position() - dstPosition;
+                            }
+                            finally
+                            {
+                                recordOutput.clear();
+                            }
+
+                            bytesConsumed += srcLimit;
                         }
                     }
                 }
@@ -640,12 +816,22 @@ else if (protocol.getAvailableOutputBytes() > 0)
             int count = Math.min(dst.remaining(), outputAvailable);
             if (count > 0)
             {
-                byte[] output = new byte[count];
-                int numRead = protocol.readOutput(output, 0, count);
-                assert numRead == count;
-    
-                dst.put(output);
-    
+                if (dst.hasArray())
+                {
+                    int numRead = protocol.readOutput(dst.array(), dst.arrayOffset() + dst.position(), count);
+                    assert numRead == count;
+
+                    dst.position(dst.position() + count);
+                }
+                else
+                {
+                    byte[] output = getWrapScratch(count);
+                    int numRead = protocol.readOutput(output, 0, count);
+                    assert numRead == count;
+
+                    dst.put(output, 0, count);
+                }
+
                 bytesProduced += count;
                 outputAvailable -= count;
             }
@@ -691,6 +877,31 @@ public String getPeerHost()
         return super.getPeerHost();
     }
 
+    public TlsSignerExecutor getSignerExecutor()
+    {
+        if (!provEnableDelegatedTasks)
+        {
+            return null;
+        }
+
+        return new TlsSignerExecutor()
+        {
+            public void execute(Runnable signingTask)
+            {
+                synchronized (ProvSSLEngine.this)
+                {
+                    if (delegatedTaskPending)
+                    {
+                        throw new IllegalStateException("A signing task is already pending");
+                    }
+
+                    delegatedTask = signingTask;
+                    delegatedTaskPending = true;
+                }
+            }
+        };
+    }
+
     public String getPeerHostSNI()
     {
         return super.getPeerHost();
@@ -740,8 +951,6 @@ private RecordPreview getRecordPreview(ByteBuffer src)
             return null;
         }
 
-        byte[] recordHeader = new byte[RecordFormat.FRAGMENT_OFFSET];
-
         int position = src.position();
         src.get(recordHeader);
         src.position(position);
@@ -749,6 +958,70 @@ private RecordPreview getRecordPreview(ByteBuffer src)
         return protocol.previewInputRecord(recordHeader);
     }
 
+    private byte[] getUnwrapScratch(int length)
+    {
+        if (unwrapScratch.length < length)
+        {
+            unwrapScratch = new byte[length];
+        }
+        return unwrapScratch;
+    }
+
+    private byte[] getWrapScratch(int length)
+    {
+        if (wrapScratch.length < length)
+        {
+            wrapScratch = new byte[length];
+        }
+        return wrapScratch;
+    }
+
+    /*
+     * Called (with the engine locked) once the signing task has run. The rest of the server's flight, or
+     * an alert if the signing failed, is then waiting to be wrapped.
+     */
+    private void resumeAfterDelegatedTask() throws IOException
+    {
+        this.handshakeStatus = HandshakeStatus.NEED_WRAP;
+
+        // NOTE: The engine may have been closed while the task was outstanding
+        if (!protocol.isClosed())
+        {
+            ((TlsServerProtocol)protocol).resumeHandshake();
+        }
+    }
+
+    /*
+     * Once the initial handshake is complete (and no exception is pending), the engine state used by
+     * wrap/unwrap no longer changes, so they need not synchronize on the engine.
+     */
+    private synchronized boolean isApplicationDataOnly()
+    {
+        return initialHandshakeBegun && null != protocol && handshakeStatus == HandshakeStatus.NOT_HANDSHAKING
+            && null == deferredException;
+    }
+
+    /*
+     * Returns the only buffer with any data remaining, if it has an accessible array, or else null.
+     */
+    private static ByteBuffer getSingleSource(ByteBuffer[] srcs, int off, int len, int limit)
+    {
+        ByteBuffer result = null;
+        for (int i = 0; i < len; ++i)
+        {
+            ByteBuffer src = srcs[off + i];
+            if (src.hasRemaining())
+            {
+                if (null != result)
+                {
+                    return null;
+                }
+                result = src;
+            }
+        }
+        return (null != result && result.hasArray() && result.remaining() >= limit) ? result : null;
+    }
+
     private int getTotalRemaining(ByteBuffer[] bufs, int off, int len, int limit)
     {
         int result = 0;
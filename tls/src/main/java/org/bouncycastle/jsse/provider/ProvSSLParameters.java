@@ -28,6 +28,9 @@ private static <T> List<T> copyList(Collection<T> list)
         return Collections.unmodifiableList(new ArrayList<T>(list));
     }
 
+    private static final boolean provEnableDynamicRecordSizing = PropertyUtils.getBooleanSystemProperty(
+        "org.bouncycastle.jsse.enableDynamicRecordSizing", false);
+
     private final ProvSSLContextSpi context;
 
     private String[] cipherSuites;
@@ -43,6 +46,8 @@ private static <T> List<T> copyList(Collection<T> list)
     private BCApplicationProtocolSelector<SSLEngine> engineAPSelector;
     private BCApplicationProtocolSelector<SSLSocket> socketAPSelector;
     private ProvSSLSession sessionToResume;
+    private int recordSizeLimit = -1;
+    private boolean dynamicRecordSizing = provEnableDynamicRecordSizing;
 
     ProvSSLParameters(ProvSSLContextSpi context, String[] cipherSuites, String[] protocols)
     {
@@ -66,6 +71,8 @@ ProvSSLParameters copy()
         p.engineAPSelector = engineAPSelector;
         p.socketAPSelector = socketAPSelector;
         p.sessionToResume = sessionToResume;
+        p.recordSizeLimit = recordSizeLimit;
+        p.dynamicRecordSizing = dynamicRecordSizing;
         return p;
     }
 
@@ -241,4 +248,29 @@ public void setSessionToResume(ProvSSLSession sessionToResume)
     {
         this.sessionToResume = sessionToResume;
     }
+
+    public int getRecordSizeLimit()
+    {
+        return recordSizeLimit;
+    }
+
+    public void setRecordSizeLimit(int recordSizeLimit)
+    {
+        if (recordSizeLimit != -1 && (recordSizeLimit < 64 || recordSizeLimit > (1 << 14) + 1))
+        {
+            throw new IllegalArgumentException("'recordSizeLimit' must be -1, or in the range 64 to 2^14 + 1");
+        }
+
+        this.recordSizeLimit = recordSizeLimit;
+    }
+
+    public boolean getDynamicRecordSizing()
+    {
+        return dynamicRecordSizing;
+    }
+
+    public void setDynamicRecordSizing(boolean dynamicRecordSizing)
+    {
+        this.dynamicRecordSizing = dynamicRecordSizing;
+    }
 }
@@ -30,6 +30,7 @@
 import org.bouncycastle.tls.TlsFatalAlert;
 import org.bouncycastle.tls.TlsProtocol;
 import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsSignerExecutor;
 
 class ProvSSLSocketWrap
     extends ProvSSLSocketBase
@@ -651,6 +652,12 @@ public int getPeerPort()
         return getPort();
     }
 
+    public TlsSignerExecutor getSignerExecutor()
+    {
+        // NOTE: The socket drives the handshake itself, so just sign in place
+        return null;
+    }
+
     public synchronized void notifyHandshakeComplete(ProvSSLConnection connection)
     {
         if (null != handshakeSession)
@@ -22,6 +22,7 @@
 import org.bouncycastle.tls.CertificateStatusRequestItemV2;
 import org.bouncycastle.tls.CertificateStatusType;
 import org.bouncycastle.tls.DefaultTlsClient;
+import org.bouncycastle.tls.DefaultTlsRecordSizePolicy;
 import org.bouncycastle.tls.IdentifierType;
 import org.bouncycastle.tls.OCSPStatusRequest;
 import org.bouncycastle.tls.ProtocolName;
@@ -31,13 +32,16 @@
 import org.bouncycastle.tls.SignatureAlgorithm;
 import org.bouncycastle.tls.SignatureAndHashAlgorithm;
 import org.bouncycastle.tls.TlsAuthentication;
+import org.bouncycastle.tls.TlsCertificateCompression;
 import org.bouncycastle.tls.TlsCredentials;
 import org.bouncycastle.tls.TlsDHGroupVerifier;
 import org.bouncycastle.tls.TlsFatalAlert;
+import org.bouncycastle.tls.TlsRecordSizePolicy;
 import org.bouncycastle.tls.TlsServerCertificate;
 import org.bouncycastle.tls.TlsSession;
 import org.bouncycastle.tls.TlsUtils;
 import org.bouncycastle.tls.TrustedAuthority;
+import org.bouncycastle.tls.ZlibCertificateCompression;
 import org.bouncycastle.tls.crypto.impl.jcajce.JcaTlsCrypto;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.IPAddress;
@@ -56,6 +60,11 @@
     private static final boolean provClientEnableTrustedCAKeys = PropertyUtils
         .getBooleanSystemProperty("org.bouncycastle.jsse.client.enableTrustedCAKeysExtension", false);
 
+    private static final TlsCertificateCompression[] provCertificateCompression = PropertyUtils
+        .getBooleanSystemProperty("org.bouncycastle.jsse.client.enableCertificateCompression", true)
+        ? new TlsCertificateCompression[]{ new ZlibCertificateCompression() }
+        : null;
+
     protected final ProvTlsManager manager;
     protected final ProvSSLParameters sslParameters;
     protected final JsseSecurityParameters jsseSecurityParameters = new JsseSecurityParameters();
@@ -434,7 +443,7 @@ public synchronized void notifyHandshakeComplete() throws IOException
             String peerHost = manager.getPeerHost();
             int peerPort = manager.getPeerPort();
             JsseSessionParameters jsseSessionParameters = new JsseSessionParameters(
-                sslParameters.getEndpointIdentificationAlgorithm());
+                sslParameters.getEndpointIdentificationAlgorithm(), null);
 
             this.sslSession = sslSessionContext.reportSession(peerHost, peerPort, connectionTlsSession,
                 jsseSessionParameters);
@@ -443,6 +452,20 @@ public synchronized void notifyHandshakeComplete() throws IOException
         manager.notifyHandshakeComplete(new ProvSSLConnection(context, sslSession));
     }
 
+    @Override
+    public synchronized void notifySessionToResume(TlsSession session) throws IOException
+    {
+        // NOTE: Replaces the connection's session as the one to resume for this peer
+        ProvSSLSessionContext sslSessionContext = manager.getContextData().getClientSessionContext();
+        String peerHost = manager.getPeerHost();
+        int peerPort = manager.getPeerPort();
+        JsseSessionParameters jsseSessionParameters = null == sslSession
+            ? new JsseSessionParameters(sslParameters.getEndpointIdentificationAlgorithm(), null)
+            : sslSession.getJsseSessionParameters();
+
+        sslSessionContext.reportSession(peerHost, peerPort, session, jsseSessionParameters);
+    }
+
     @Override
     public void notifySecureRenegotiation(boolean secureRenegotiation) throws IOException
     {
@@ -529,6 +552,24 @@ public void notifySessionID(byte[] sessionID)
         }
     }
 
+    @Override
+    public int getRecordSizeLimit()
+    {
+        return sslParameters.getRecordSizeLimit();
+    }
+
+    @Override
+    public TlsRecordSizePolicy getRecordSizePolicy()
+    {
+        return sslParameters.getDynamicRecordSizing() ? new DefaultTlsRecordSizePolicy() : null;
+    }
+
+    @Override
+    public TlsCertificateCompression[] getCertificateCompression()
+    {
+        return provCertificateCompression;
+    }
+
     @Override
     public boolean requiresExtendedMasterSecret()
     {
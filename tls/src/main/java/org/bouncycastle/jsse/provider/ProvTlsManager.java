@@ -6,6 +6,7 @@
 import java.util.List;
 
 import org.bouncycastle.jsse.BCX509Key;
+import org.bouncycastle.tls.TlsSignerExecutor;
 
 interface ProvTlsManager
 {
@@ -27,6 +28,8 @@
 
     int getPeerPort();
 
+    TlsSignerExecutor getSignerExecutor();
+
     void notifyHandshakeComplete(ProvSSLConnection connection);
 
     void notifyHandshakeSession(ProvSSLSessionHandshake handshakeSession);
@@ -22,10 +22,12 @@
 import org.bouncycastle.jsse.java.security.BCAlgorithmConstraints;
 import org.bouncycastle.tls.AlertDescription;
 import org.bouncycastle.tls.AlertLevel;
+import org.bouncycastle.tls.CachingCertificateCompression;
 import org.bouncycastle.tls.Certificate;
 import org.bouncycastle.tls.CertificateRequest;
 import org.bouncycastle.tls.CertificateStatus;
 import org.bouncycastle.tls.ClientCertificateType;
+import org.bouncycastle.tls.DefaultTlsRecordSizePolicy;
 import org.bouncycastle.tls.DefaultTlsServer;
 import org.bouncycastle.tls.KeyExchangeAlgorithm;
 import org.bouncycastle.tls.ProtocolName;
@@ -35,11 +37,15 @@
 import org.bouncycastle.tls.SignatureAlgorithm;
 import org.bouncycastle.tls.SignatureAndHashAlgorithm;
 import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsCertificateCompression;
 import org.bouncycastle.tls.TlsExtensionsUtils;
 import org.bouncycastle.tls.TlsFatalAlert;
+import org.bouncycastle.tls.TlsRecordSizePolicy;
 import org.bouncycastle.tls.TlsSession;
+import org.bouncycastle.tls.TlsSignerExecutor;
 import org.bouncycastle.tls.TlsUtils;
 import org.bouncycastle.tls.TrustedAuthority;
+import org.bouncycastle.tls.ZlibCertificateCompression;
 import org.bouncycastle.tls.crypto.TlsCertificate;
 import org.bouncycastle.tls.crypto.impl.jcajce.JcaTlsCrypto;
 
@@ -60,6 +66,14 @@
     private static final boolean provServerEnableTrustedCAKeys = PropertyUtils
         .getBooleanSystemProperty("org.bouncycastle.jsse.server.enableTrustedCAKeysExtension", false);
 
+    /*
+     * NOTE: Shared by all server connections so that each certificate chain is only compressed once.
+     */
+    private static final TlsCertificateCompression[] provCertificateCompression = PropertyUtils
+        .getBooleanSystemProperty("org.bouncycastle.jsse.server.enableCertificateCompression", true)
+        ? new TlsCertificateCompression[]{ new CachingCertificateCompression(new ZlibCertificateCompression()) }
+        : null;
+
     protected final ProvTlsManager manager;
     protected final ProvSSLParameters sslParameters;
     protected final JsseSecurityParameters jsseSecurityParameters = new JsseSecurityParameters();
@@ -380,8 +394,8 @@ public int getSelectedCipherSuite() throws IOException
         final SecurityParameters securityParameters = context.getSecurityParametersHandshake();
 
         /*
-         * TODO[jsse] Ideally, setting the handshake session would be done in getSessionToResume, but
-         * that is currently never called.
+         * NOTE: For TLS 1.3 this is replaced by a resumed handshake session once a ticket is accepted
+         * (see notifySessionToResume).
          */
         {
             ProvSSLSessionContext sslSessionContext = contextData.getServerSessionContext();
@@ -494,6 +508,43 @@ public TlsSession getSessionToResume(byte[] sessionID)
         return null;
     }
 
+    @Override
+    public TlsSession peekSessionToResume(byte[] ticket)
+    {
+        ProvSSLSession availableSSLSession = getResumableSession(ticket);
+
+        return null == availableSSLSession ? null : availableSSLSession.getTlsSession();
+    }
+
+    @Override
+    public void notifySessionToResume(TlsSession session) throws IOException
+    {
+        /*
+         * NOTE: The session may have been removed from the cache since it was looked up, in which case
+         * a new one is reported at the end of the handshake (see notifyHandshakeComplete).
+         */
+        ProvSSLSession availableSSLSession = getResumableSession(session.getSessionID());
+        if (null != availableSSLSession && availableSSLSession.getTlsSession() != session)
+        {
+            availableSSLSession = null;
+        }
+
+        this.sslSession = availableSSLSession;
+
+        ProvSSLSessionContext sslSessionContext = manager.getContextData().getServerSessionContext();
+        String peerHost = manager.getPeerHost();
+        int peerPort = manager.getPeerPort();
+        SecurityParameters securityParameters = context.getSecurityParametersHandshake();
+
+        // NOTE: isResumable ensures these match the session's own parameters
+        JsseSessionParameters jsseSessionParameters = null != availableSSLSession
+            ? availableSSLSession.getJsseSessionParameters()
+            : new JsseSessionParameters(sslParameters.getEndpointIdentificationAlgorithm(), matchedSNIServerName);
+
+        manager.notifyHandshakeSession(new ProvSSLSessionResumed(sslSessionContext, peerHost, peerPort,
+            securityParameters, jsseSecurityParameters, session, jsseSessionParameters));
+    }
+
     @Override
     public void notifyAlertRaised(short alertLevel, short alertDescription, String message, Throwable cause)
     {
@@ -613,7 +664,7 @@ public synchronized void notifyHandshakeComplete() throws IOException
             String peerHost = manager.getPeerHost();
             int peerPort = manager.getPeerPort();
             JsseSessionParameters jsseSessionParameters = new JsseSessionParameters(
-                sslParameters.getEndpointIdentificationAlgorithm());
+                sslParameters.getEndpointIdentificationAlgorithm(), matchedSNIServerName);
 
             this.sslSession = sslSessionContext.reportSession(peerHost, peerPort, connectionTlsSession,
                 jsseSessionParameters);
@@ -677,6 +728,30 @@ public void processClientExtensions(@SuppressWarnings("rawtypes") Hashtable clie
         }
     }
 
+    @Override
+    public int getRecordSizeLimit()
+    {
+        return sslParameters.getRecordSizeLimit();
+    }
+
+    @Override
+    public TlsRecordSizePolicy getRecordSizePolicy()
+    {
+        return sslParameters.getDynamicRecordSizing() ? new DefaultTlsRecordSizePolicy() : null;
+    }
+
+    @Override
+    public TlsCertificateCompression[] getCertificateCompression()
+    {
+        return provCertificateCompression;
+    }
+
+    @Override
+    public TlsSignerExecutor getSignerExecutor()
+    {
+        return manager.getSignerExecutor();
+    }
+
     @Override
     public boolean requiresExtendedMasterSecret()
     {
@@ -694,16 +769,69 @@ protected boolean isClientAuthEnabled()
         return sslParameters.getNeedClientAuth() || sslParameters.getWantClientAuth();
     }
 
+    @Override
+    public long getNewSessionTicketLifetime()
+    {
+        if (!manager.getEnableSessionCreation())
+        {
+            return 0L;
+        }
+
+        /*
+         * RFC 8446 4.6.1. Servers MUST NOT use any value greater than 604800 seconds (7 days). A session
+         * timeout of 0 means no limit, so the maximum is used.
+         */
+        int sessionTimeout = manager.getContextData().getServerSessionContext().getSessionTimeout();
+
+        return sessionTimeout < 1 ? 604800L : Math.min(sessionTimeout, 604800L);
+    }
+
+    protected ProvSSLSession getResumableSession(byte[] sessionID)
+    {
+        ProvSSLSessionContext sslSessionContext = manager.getContextData().getServerSessionContext();
+        ProvSSLSession availableSSLSession = sslSessionContext.getSessionImpl(sessionID);
+
+        if (null == availableSSLSession
+            || null == availableSSLSession.getTlsSession()
+            || !isResumable(availableSSLSession))
+        {
+            return null;
+        }
+
+        return availableSSLSession;
+    }
+
     protected boolean isResumable(ProvSSLSession availableSSLSession)
     {
+        JsseSessionParameters jsseSessionParameters = availableSSLSession.getJsseSessionParameters();
+
+        String endpointIDAlgorithm = sslParameters.getEndpointIdentificationAlgorithm();
+        if (null != endpointIDAlgorithm)
+        {
+            String identificationProtocol = jsseSessionParameters.getIdentificationProtocol();
+            if (!endpointIDAlgorithm.equalsIgnoreCase(identificationProtocol))
+            {
+                LOG.finest("Session not resumed - endpoint ID algorithm mismatch; requested: " + endpointIDAlgorithm
+                    + ", session: " + identificationProtocol);
+                return false;
+            }
+        }
+
         /*
-         * TODO[jsse] - Note that session resumption is not yet implemented in the low-level TLS layer anyway.
-         * 
-         * Checks that will need to be done here before this can return true:
-         * - endpoint ID algorithm consistency
-         * - SNI consistency
+         * RFC 8446 4.6.1. [..] the server MUST ensure that any instance of resumption [..] the SNI value
+         * of the original session is compatible with the current one.
          */
-        return false;
+        BCSNIServerName sessionSNIServerName = jsseSessionParameters.getMatchedSNIServerName();
+        if (null == matchedSNIServerName
+            ? null != sessionSNIServerName
+            : !matchedSNIServerName.equals(sessionSNIServerName))
+        {
+            LOG.finest("Session not resumed - SNI mismatch; requested: " + matchedSNIServerName + ", session: "
+                + sessionSNIServerName);
+            return false;
+        }
+
+        return true;
     }
 
     protected TlsCredentials selectCredentials(Principal[] issuers, int cipherSuite) throws IOException
@@ -781,7 +909,7 @@ protected TlsCredentials selectServerCredentials12(Principal[] issuers, int keyE
             }
 
             return JsseUtils.createCredentialedSigner(context, getCrypto(), x509Key,
-                signatureSchemeInfo.getSignatureAndHashAlgorithm());
+                getCertificateMessage(x509Key, false), signatureSchemeInfo.getSignatureAndHashAlgorithm());
         }
 
         return null;
@@ -814,8 +942,13 @@ protected TlsCredentials selectServerCredentials13(Principal[] issuers, byte[] c
                 continue;
             }
 
-            return JsseUtils.createCredentialedSigner13(context, getCrypto(), x509Key,
-                sigScheme.getSignatureAndHashAlgorithm(), certificateRequestContext);
+            Certificate certificate = TlsUtils.isNullOrEmpty(certificateRequestContext)
+                ?   getCertificateMessage(x509Key, true)
+                :   JsseUtils.getCertificateMessage13(getCrypto(), x509Key.getCertificateChain(),
+                        certificateRequestContext);
+
+            return JsseUtils.createCredentialedSigner(context, getCrypto(), x509Key, certificate,
+                sigScheme.getSignatureAndHashAlgorithm());
         }
 
         return null;
@@ -840,9 +973,16 @@ protected TlsCredentials selectServerCredentialsLegacy(Principal[] issuers, int
 
         if (KeyExchangeAlgorithm.RSA == keyExchangeAlgorithm)
         {
-            return JsseUtils.createCredentialedDecryptor(getCrypto(), x509Key);
+            return JsseUtils.createCredentialedDecryptor(getCrypto(), x509Key,
+                getCertificateMessage(x509Key, false));
         }
 
-        return JsseUtils.createCredentialedSigner(context, getCrypto(), x509Key, null);
+        return JsseUtils.createCredentialedSigner(context, getCrypto(), x509Key, getCertificateMessage(x509Key, false),
+            null);
+    }
+
+    protected Certificate getCertificateMessage(BCX509Key x509Key, boolean isTLSv13)
+    {
+        return manager.getContextData().getServerCertificateMessage(x509Key.getCertificateChain(), isTLSv13);
     }
 }
@@ -17,6 +17,7 @@
 import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
@@ -27,7 +28,9 @@
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +44,7 @@
 import org.bouncycastle.jsse.BCX509Key;
 import org.bouncycastle.jsse.java.security.BCAlgorithmConstraints;
 import org.bouncycastle.tls.KeyExchangeAlgorithm;
+import org.bouncycastle.util.IPAddress;
 
 class ProvX509KeyManager
     extends BCX509ExtendedKeyManager
@@ -52,9 +56,17 @@
     private static final boolean provKeyManagerCheckEKU = PropertyUtils
         .getBooleanSystemProperty("org.bouncycastle.jsse.keyManager.checkEKU", true);
 
+    /*
+     * NOTE: A KeyStore can be modified in place without changing its size (e.g. a certificate rotated under the
+     * same alias), so indexes are also rebuilt after this many seconds.
+     */
+    private static final long provKeyManagerIndexMaxAgeMillis = 1000L * PropertyUtils
+        .getIntegerSystemProperty("org.bouncycastle.jsse.keyManager.indexMaxAgeSeconds", 60, 0, Integer.MAX_VALUE);
+
     private final AtomicLong versions = new AtomicLong();
     private final JcaJceHelper helper;
     private final List<KeyStore.Builder> builders;
+    private final AtomicReferenceArray<KeyStoreIndex> indexes;
 
     @SuppressWarnings("serial")
     private final Map<String, SoftReference<KeyStore.PrivateKeyEntry>> cachedEntries = Collections.synchronizedMap(
@@ -171,6 +183,19 @@ private static String[] getKeyTypesLegacyServer(int... keyExchangeAlgorithms)
     {
         this.helper = helper;
         this.builders = builders;
+        this.indexes = new AtomicReferenceArray<KeyStoreIndex>(builders.size());
+
+        for (int i = 0, count = builders.size(); i < count; ++i)
+        {
+            try
+            {
+                getIndex(i);
+            }
+            catch (Exception e)
+            {
+                LOG.log(Level.FINER, "Failed to index KeyStore from builder " + i, e);
+            }
+        }
     }
 
     public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket)
@@ -382,21 +407,17 @@ private List<Match> getAliasesFromBuilder(int builderIndex, List<String> keyType
         BCAlgorithmConstraints algorithmConstraints, boolean forServer, Date atDate, String requestedHostName)
         throws Exception
     {
-        KeyStore.Builder builder = builders.get(builderIndex);
-        KeyStore keyStore = builder.getKeyStore();
+        KeyStoreIndex index = getIndex(builderIndex);
 
         List<Match> matches = null;
 
-        for (Enumeration<String> en = keyStore.aliases(); en.hasMoreElements();)
+        for (IndexEntry entry : index.getCandidates(keyTypes, uniqueIssuers, forServer))
         {
-            String localAlias = en.nextElement();
-
-            Match match = getPotentialMatch(builderIndex, builder, keyStore, localAlias, Match.Quality.NONE, keyTypes,
-                uniqueIssuers, algorithmConstraints, forServer, atDate, requestedHostName);
-
-            if (null != match)
+            if (isSuitableChain(entry.chain, keyTypes, uniqueIssuers, algorithmConstraints, forServer))
             {
-                matches = addToMatches(matches, match);
+                Match.Quality quality = getCertificateQuality(entry.chain[0], atDate, requestedHostName);
+                matches = addToMatches(matches, new Match(quality, builderIndex, entry.localAlias, index.keyStore,
+                    entry.chain));
             }
         }
 
@@ -445,56 +466,79 @@ private Match getBestMatchFromBuilder(int builderIndex, List<String> keyTypes, S
         BCAlgorithmConstraints algorithmConstraints, boolean forServer, Date atDate, String requestedHostName)
         throws Exception
     {
-        KeyStore.Builder builder = builders.get(builderIndex);
-        KeyStore keyStore = builder.getKeyStore();
+        KeyStoreIndex index = getIndex(builderIndex);
 
-        Match bestMatch = Match.NOTHING;
+        Match.Quality qualityFloor = Match.Quality.OK;
 
-        for (Enumeration<String> en = keyStore.aliases(); en.hasMoreElements();)
+        if (null != requestedHostName)
         {
-            String localAlias = en.nextElement();
-
-            Match match = getPotentialMatch(builderIndex, builder, keyStore, localAlias, bestMatch.quality, keyTypes,
-                uniqueIssuers, algorithmConstraints, forServer, atDate, requestedHostName);
-
-            if (null != match)
+            List<IndexEntry> sniCandidates = index.getHostNameCandidates(requestedHostName);
+            if (null != sniCandidates)
             {
-                bestMatch = match;
+                Match sniMatch = getBestMatchFromCandidates(builderIndex, index, sniCandidates, qualityFloor, keyTypes,
+                    uniqueIssuers, algorithmConstraints, forServer, atDate, requestedHostName);
 
-                if (Match.Quality.OK == bestMatch.quality)
+                if (sniMatch.quality.compareTo(Match.Quality.MISMATCH_SNI) < 0)
                 {
-                    break;
+                    return sniMatch;
                 }
+
+                // Every entry that could match the requested host name has been considered
+                qualityFloor = Match.Quality.MISMATCH_SNI;
             }
         }
 
-        return bestMatch;
-    }
-
-    private String getNextVersionSuffix()
-    {
-        return "." + versions.incrementAndGet();
+        return getBestMatchFromCandidates(builderIndex, index, index.getCandidates(keyTypes, uniqueIssuers, forServer),
+            qualityFloor, keyTypes, uniqueIssuers, algorithmConstraints, forServer, atDate, requestedHostName);
     }
 
-    private Match getPotentialMatch(int builderIndex, KeyStore.Builder builder, KeyStore keyStore, String localAlias,
-        Match.Quality qualityLimit, List<String> keyTypes, Set<Principal> uniqueIssuers,
+    private Match getBestMatchFromCandidates(int builderIndex, KeyStoreIndex index, List<IndexEntry> candidates,
+        Match.Quality qualityFloor, List<String> keyTypes, Set<Principal> uniqueIssuers,
         BCAlgorithmConstraints algorithmConstraints, boolean forServer, Date atDate, String requestedHostName)
-        throws Exception
     {
-        if (keyStore.isKeyEntry(localAlias))
+        Match bestMatch = Match.NOTHING;
+
+        for (IndexEntry entry : candidates)
         {
-            X509Certificate[] chain = JsseUtils.getX509CertificateChain(keyStore.getCertificateChain(localAlias));
-            if (isSuitableChain(chain, keyTypes, uniqueIssuers, algorithmConstraints, forServer))
+            /*
+             * NOTE: Candidates are ordered by their best possible quality, so once that can't improve on the
+             * best match so far, neither can any later candidate.
+             */
+            Match.Quality bestPossible = max(qualityFloor, entry.bestQuality);
+            if (bestMatch.quality.compareTo(bestPossible) <= 0)
             {
-                Match.Quality quality = getCertificateQuality(chain[0], atDate, requestedHostName);
-                if (quality.compareTo(qualityLimit) < 0)
+                break;
+            }
+
+            if (isSuitableChain(entry.chain, keyTypes, uniqueIssuers, algorithmConstraints, forServer))
+            {
+                Match.Quality quality = getCertificateQuality(entry.chain[0], atDate, requestedHostName);
+                if (quality.compareTo(bestMatch.quality) < 0)
                 {
-                    return new Match(quality, builderIndex, localAlias, keyStore, chain);
+                    bestMatch = new Match(quality, builderIndex, entry.localAlias, index.keyStore, entry.chain);
                 }
             }
         }
 
-        return null;
+        return bestMatch;
+    }
+
+    private KeyStoreIndex getIndex(int builderIndex) throws Exception
+    {
+        KeyStore keyStore = builders.get(builderIndex).getKeyStore();
+
+        KeyStoreIndex index = indexes.get(builderIndex);
+        if (null == index || !index.isCurrent(keyStore, System.currentTimeMillis()))
+        {
+            index = KeyStoreIndex.build(keyStore);
+            indexes.set(builderIndex, index);
+        }
+        return index;
+    }
+
+    private String getNextVersionSuffix()
+    {
+        return "." + versions.incrementAndGet();
     }
 
     private KeyStore.PrivateKeyEntry getPrivateKeyEntry(String alias)
@@ -602,6 +646,11 @@ private static List<Match> addToAllMatches(List<Match> allMatches, List<Match> m
         return allMatches;
     }
 
+    private static Match.Quality max(Match.Quality a, Match.Quality b)
+    {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
     private static List<Match> addToMatches(List<Match> matches, Match match)
     {
         if (null == matches)
@@ -851,4 +900,279 @@ private boolean appliesTo(PublicKey publicKey)
                 || (null != clazz && clazz.isInstance(publicKey));
         }
     }
+
+    private static final class IndexEntry
+    {
+        final int ordinal;
+        final String localAlias;
+        final X509Certificate[] chain;
+        final Match.Quality bestQuality;
+
+        IndexEntry(int ordinal, String localAlias, X509Certificate[] chain, Match.Quality bestQuality)
+        {
+            this.ordinal = ordinal;
+            this.localAlias = localAlias;
+            this.chain = chain;
+            this.bestQuality = bestQuality;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the key entries in a {@link KeyStore}, indexed so that per-handshake selection
+     * only considers entries that could possibly match. The full suitability checks (which depend on the
+     * handshake's algorithm constraints and the current time) are still applied to each candidate.
+     */
+    private static final class KeyStoreIndex
+    {
+        static KeyStoreIndex build(KeyStore keyStore) throws KeyStoreException
+        {
+            List<String> aliases = new ArrayList<String>();
+            List<X509Certificate[]> chains = new ArrayList<X509Certificate[]>();
+            List<Match.Quality> bestQualities = new ArrayList<Match.Quality>();
+
+            for (Enumeration<String> en = keyStore.aliases(); en.hasMoreElements();)
+            {
+                String localAlias = en.nextElement();
+                if (!keyStore.isKeyEntry(localAlias))
+                {
+                    continue;
+                }
+
+                X509Certificate[] chain = JsseUtils.getX509CertificateChain(keyStore.getCertificateChain(localAlias));
+                if (null == chain || chain.length < 1 || !isSuitableChainForTLS(chain))
+                {
+                    continue;
+                }
+
+                aliases.add(localAlias);
+                chains.add(chain);
+                bestQualities.add(getBestQuality(chain[0]));
+            }
+
+            /*
+             * Order entries by their best possible quality, otherwise preserving the KeyStore order (which
+             * decides between otherwise equal matches).
+             */
+            List<IndexEntry> entries = new ArrayList<IndexEntry>(aliases.size());
+            for (Match.Quality quality : new Match.Quality[]{ Match.Quality.OK, Match.Quality.RSA_MULTI_USE })
+            {
+                for (int i = 0; i < aliases.size(); ++i)
+                {
+                    if (quality == bestQualities.get(i))
+                    {
+                        entries.add(new IndexEntry(entries.size(), aliases.get(i), chains.get(i), quality));
+                    }
+                }
+            }
+
+            return new KeyStoreIndex(keyStore, keyStore.size(), System.currentTimeMillis(), entries);
+        }
+
+        private static <K> void add(Map<K, List<IndexEntry>> map, K key, IndexEntry entry)
+        {
+            List<IndexEntry> list = map.get(key);
+            if (null == list)
+            {
+                list = new ArrayList<IndexEntry>(1);
+                map.put(key, list);
+            }
+            // NOTE: Entries are added in order, so this avoids duplicates within a list
+            if (list.isEmpty() || list.get(list.size() - 1) != entry)
+            {
+                list.add(entry);
+            }
+        }
+
+        private static Match.Quality getBestQuality(X509Certificate eeCert)
+        {
+            // See getCertificateQuality
+            if ("RSA".equalsIgnoreCase(JsseUtils.getPublicKeyAlgorithm(eeCert.getPublicKey())))
+            {
+                boolean[] keyUsage = eeCert.getKeyUsage();
+                if (ProvAlgorithmChecker.supportsKeyUsage(keyUsage, ProvAlgorithmChecker.KU_DIGITAL_SIGNATURE) &&
+                    ProvAlgorithmChecker.supportsKeyUsage(keyUsage, ProvAlgorithmChecker.KU_KEY_ENCIPHERMENT))
+                {
+                    return Match.Quality.RSA_MULTI_USE;
+                }
+            }
+            return Match.Quality.OK;
+        }
+
+        private static Map<String, List<IndexEntry>> indexKeyTypes(List<IndexEntry> entries,
+            Map<String, PublicKeyFilter> filters)
+        {
+            Map<String, List<IndexEntry>> byKeyType = new HashMap<String, List<IndexEntry>>();
+            for (IndexEntry entry : entries)
+            {
+                PublicKey publicKey = entry.chain[0].getPublicKey();
+                for (Map.Entry<String, PublicKeyFilter> filter : filters.entrySet())
+                {
+                    if (filter.getValue().appliesTo(publicKey))
+                    {
+                        add(byKeyType, filter.getKey(), entry);
+                    }
+                }
+            }
+            return byKeyType;
+        }
+
+        private static List<IndexEntry> merge(List<List<IndexEntry>> lists)
+        {
+            switch (lists.size())
+            {
+            case 0:
+                return Collections.emptyList();
+            case 1:
+                return lists.get(0);
+            default:
+            {
+                Map<Integer, IndexEntry> merged = new TreeMap<Integer, IndexEntry>();
+                for (List<IndexEntry> list : lists)
+                {
+                    for (IndexEntry entry : list)
+                    {
+                        merged.put(entry.ordinal, entry);
+                    }
+                }
+                return new ArrayList<IndexEntry>(merged.values());
+            }
+            }
+        }
+
+        private static <K> List<IndexEntry> select(Map<K, List<IndexEntry>> map, Collection<? extends K> keys)
+        {
+            List<List<IndexEntry>> lists = new ArrayList<List<IndexEntry>>(keys.size());
+            for (K key : keys)
+            {
+                List<IndexEntry> list = map.get(key);
+                if (null != list)
+                {
+                    lists.add(list);
+                }
+            }
+            return merge(lists);
+        }
+
+        final KeyStore keyStore;
+        private final int size;
+        private final long created;
+        private final Map<String, List<IndexEntry>> byKeyTypeClient, byKeyTypeServer;
+        private final Map<Principal, List<IndexEntry>> byIssuer = new HashMap<Principal, List<IndexEntry>>();
+        private final Map<String, List<IndexEntry>> byHostName = new HashMap<String, List<IndexEntry>>();
+        private final Map<String, List<IndexEntry>> byWildcardParent = new HashMap<String, List<IndexEntry>>();
+        private final List<IndexEntry> otherHostNames = new ArrayList<IndexEntry>();
+
+        private KeyStoreIndex(KeyStore keyStore, int size, long created, List<IndexEntry> entries)
+        {
+            this.keyStore = keyStore;
+            this.size = size;
+            this.created = created;
+            this.byKeyTypeClient = indexKeyTypes(entries, FILTERS_CLIENT);
+            this.byKeyTypeServer = indexKeyTypes(entries, FILTERS_SERVER);
+
+            for (IndexEntry entry : entries)
+            {
+                // See isSuitableChainForIssuers
+                X509Certificate[] chain = entry.chain;
+                for (int i = 0; i < chain.length; ++i)
+                {
+                    add(byIssuer, chain[i].getIssuerX500Principal(), entry);
+                }
+                if (chain[0].getBasicConstraints() >= 0)
+                {
+                    add(byIssuer, chain[0].getSubjectX500Principal(), entry);
+                }
+
+                // See HostnameUtil.checkHostname
+                List<String> names = HostnameUtil.getDomainNames(chain[0]);
+                if (null == names)
+                {
+                    otherHostNames.add(entry);
+                    continue;
+                }
+                for (String name : names)
+                {
+                    name = HostnameUtil.normalizeDomainName(name);
+                    if (null == name)
+                    {
+                        continue;
+                    }
+
+                    int wildcardPos = name.lastIndexOf('*'), dotPos = name.indexOf('.');
+                    if (wildcardPos < 0)
+                    {
+                        add(byHostName, name, entry);
+                    }
+                    else if (dotPos > wildcardPos)
+                    {
+                        add(byWildcardParent, name.substring(dotPos + 1), entry);
+                    }
+                    else if (otherHostNames.isEmpty() || otherHostNames.get(otherHostNames.size() - 1) != entry)
+                    {
+                        otherHostNames.add(entry);
+                    }
+                }
+            }
+        }
+
+        List<IndexEntry> getCandidates(List<String> keyTypes, Set<Principal> uniqueIssuers, boolean forServer)
+        {
+            // NOTE: Empty issuers means same as absent issuers, per SunJSSE
+            if (null != uniqueIssuers && !uniqueIssuers.isEmpty())
+            {
+                return select(byIssuer, uniqueIssuers);
+            }
+
+            return select(forServer ? byKeyTypeServer : byKeyTypeClient, keyTypes);
+        }
+
+        /**
+         * @return every entry that could match the host name, or null if the host name can't be looked up.
+         */
+        List<IndexEntry> getHostNameCandidates(String hostName)
+        {
+            if (IPAddress.isValid(hostName))
+            {
+                return null;
+            }
+
+            String name = HostnameUtil.normalizeDomainName(hostName);
+            if (null == name)
+            {
+                return null;
+            }
+
+            List<List<IndexEntry>> lists = new ArrayList<List<IndexEntry>>(3);
+
+            List<IndexEntry> exact = byHostName.get(name);
+            if (null != exact)
+            {
+                lists.add(exact);
+            }
+
+            int dotPos = name.indexOf('.');
+            if (dotPos >= 0)
+            {
+                List<IndexEntry> wildcard = byWildcardParent.get(name.substring(dotPos + 1));
+                if (null != wildcard)
+                {
+                    lists.add(wildcard);
+                }
+            }
+
+            if (!otherHostNames.isEmpty())
+            {
+                lists.add(otherHostNames);
+            }
+
+            return merge(lists);
+        }
+
+        boolean isCurrent(KeyStore keyStore, long now) throws KeyStoreException
+        {
+            return this.keyStore == keyStore
+                && this.size == keyStore.size()
+                && now - created < provKeyManagerIndexMaxAgeMillis;
+        }
+    }
 }
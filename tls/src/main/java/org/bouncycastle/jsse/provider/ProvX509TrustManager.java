@@ -3,6 +3,7 @@
 import java.net.Socket;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.cert.CertPath;
@@ -11,7 +12,6 @@
 import java.security.cert.CertStoreParameters;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.PKIXCertPathBuilderResult;
@@ -23,6 +23,7 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,8 +32,13 @@
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
 import org.bouncycastle.jcajce.util.JcaJceHelper;
 import org.bouncycastle.jsse.BCExtendedSSLSession;
 import org.bouncycastle.jsse.BCSNIHostName;
@@ -40,6 +46,8 @@
 import org.bouncycastle.jsse.BCX509ExtendedTrustManager;
 import org.bouncycastle.jsse.java.security.BCAlgorithmConstraints;
 import org.bouncycastle.tls.KeyExchangeAlgorithm;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
 
 class ProvX509TrustManager
     extends BCX509ExtendedTrustManager
@@ -50,6 +58,10 @@
         .getBooleanSystemProperty("com.sun.net.ssl.checkRevocation", false);
     private static final boolean provTrustManagerCheckEKU = PropertyUtils
         .getBooleanSystemProperty("org.bouncycastle.jsse.trustManager.checkEKU", true);
+    private static final int provTrustManagerChainCacheSize = PropertyUtils
+        .getIntegerSystemProperty("org.bouncycastle.jsse.trustManager.chainCacheSize", 256, 0, Integer.MAX_VALUE);
+    private static final long provTrustManagerChainCacheMillis = 1000L * PropertyUtils
+        .getIntegerSystemProperty("org.bouncycastle.jsse.trustManager.chainCacheSeconds", 300, 0, Integer.MAX_VALUE);
 
     private static final Map<String, Integer> keyUsagesServer = createKeyUsagesServer();
 
@@ -87,6 +99,14 @@ private static Map<String, Integer> createKeyUsagesServer()
     private final PKIXBuilderParameters pkixParametersTemplate;
     private final X509TrustManager exportX509TrustManager;
 
+    // Trust anchors indexed by subject (and then key identifier), or null if the index can't be used
+    private final Map<X500Principal, List<TrustAnchor>> trustAnchorsBySubject;
+
+    // Recently validated chains; null if results can't safely be re-used
+    private final Map<String, ValidatedChain> validatedChains;
+
+    private volatile Provider pkixProvider = null;
+
     ProvX509TrustManager(JcaJceHelper helper, Set<TrustAnchor> trustAnchors)
         throws InvalidAlgorithmParameterException
     {
@@ -105,6 +125,8 @@ private static Map<String, Integer> createKeyUsagesServer()
         }
 
         this.exportX509TrustManager = X509TrustManagerUtil.exportX509TrustManager(this);
+        this.trustAnchorsBySubject = createTrustAnchorIndex(pkixParametersTemplate);
+        this.validatedChains = createValidatedChainCache(pkixParametersTemplate);
     }
 
     ProvX509TrustManager(JcaJceHelper helper, PKIXParameters baseParameters)
@@ -139,6 +161,8 @@ else if (baseParameters instanceof PKIXBuilderParameters)
         }
 
         this.exportX509TrustManager = X509TrustManagerUtil.exportX509TrustManager(this);
+        this.trustAnchorsBySubject = createTrustAnchorIndex(pkixParametersTemplate);
+        this.validatedChains = createValidatedChainCache(pkixParametersTemplate);
     }
 
     X509TrustManager getExportX509TrustManager()
@@ -201,9 +225,19 @@ private X509Certificate[] buildCertPath(X509Certificate[] chain, BCAlgorithmCons
             return new X509Certificate[]{ eeCert };
         }
 
-        // TODO Can we cache the CertificateFactory instance?
-        CertificateFactory certificateFactory = helper.createCertificateFactory("X.509");
-        Provider pkixProvider = certificateFactory.getProvider();
+        String chainKey = null;
+        if (null != validatedChains && statusResponses.isEmpty())
+        {
+            chainKey = getChainKey(chain);
+
+            X509Certificate[] trustedChain = getValidatedChain(chainKey, algorithmConstraints);
+            if (null != trustedChain)
+            {
+                return trustedChain;
+            }
+        }
+
+        Provider pkixProvider = getPKIXProvider();
 
         CertStoreParameters certStoreParameters = getCertStoreParameters(eeCert, chain);
         CertStore certStore;
@@ -219,6 +253,7 @@ private X509Certificate[] buildCertPath(X509Certificate[] chain, BCAlgorithmCons
         X509CertSelector certSelector = new X509CertSelector();
         certSelector.setCertificate(eeCert);
 
+        // NOTE: CertPathBuilder instances aren't thread-safe, but with an explicit provider this is cheap
         CertPathBuilder pkixBuilder;
         try
         {
@@ -234,6 +269,12 @@ private X509Certificate[] buildCertPath(X509Certificate[] chain, BCAlgorithmCons
         pkixParameters.addCertStore(certStore);
         pkixParameters.setTargetCertConstraints(certSelector);
 
+        Set<TrustAnchor> trustAnchors = getCandidateTrustAnchors(chain);
+        if (null != trustAnchors)
+        {
+            pkixParameters.setTrustAnchors(trustAnchors);
+        }
+
         if (!statusResponses.isEmpty())
         {
             addStatusResponses(pkixBuilder, pkixParameters, chain, statusResponses);
@@ -246,7 +287,14 @@ private X509Certificate[] buildCertPath(X509Certificate[] chain, BCAlgorithmCons
          * chain. SunJSSE appears to consider this to be any trusted cert in original-location
          * cacerts file with alias.contains(" [jdk")
          */
-        return getTrustedChain(result.getCertPath(), result.getTrustAnchor());
+        X509Certificate[] trustedChain = getTrustedChain(result.getCertPath(), result.getTrustAnchor());
+
+        if (null != chainKey)
+        {
+            addValidatedChain(chainKey, trustedChain);
+        }
+
+        return trustedChain;
     }
 
     private void checkTrusted(X509Certificate[] chain, String authType, TransportData transportData,
@@ -271,6 +319,120 @@ private void checkTrusted(X509Certificate[] chain, String authType, TransportDat
         checkExtendedTrust(trustedChain, authType, transportData, checkServerTrusted);
     }
 
+    private void addValidatedChain(String chainKey, X509Certificate[] trustedChain)
+    {
+        long now = System.currentTimeMillis();
+        long notBefore = Long.MIN_VALUE, notAfter = now + provTrustManagerChainCacheMillis;
+
+        // NOTE: The trust anchor's own validity period is not checked by PKIX
+        for (int i = 0; i < trustedChain.length - 1; ++i)
+        {
+            notBefore = Math.max(notBefore, trustedChain[i].getNotBefore().getTime());
+            notAfter = Math.min(notAfter, trustedChain[i].getNotAfter().getTime());
+        }
+
+        if (notBefore <= now && now < notAfter)
+        {
+            validatedChains.put(chainKey, new ValidatedChain(trustedChain.clone(), notBefore, notAfter));
+        }
+    }
+
+    /**
+     * If the only certificates available for building a path are those in the peer's chain, then the trust
+     * anchor must have issued one of them, so only those anchors need to be considered.
+     *
+     * @return the subset of trust anchors to use, or null to use all of them.
+     */
+    private Set<TrustAnchor> getCandidateTrustAnchors(X509Certificate[] chain)
+    {
+        if (null == trustAnchorsBySubject)
+        {
+            return null;
+        }
+
+        Set<TrustAnchor> result = new HashSet<TrustAnchor>();
+        for (int i = 0; i < chain.length; ++i)
+        {
+            X509Certificate cert = chain[i];
+
+            List<TrustAnchor> candidates = trustAnchorsBySubject.get(cert.getIssuerX500Principal());
+            if (null == candidates)
+            {
+                continue;
+            }
+
+            if (candidates.size() > 1)
+            {
+                byte[] keyID = getAuthorityKeyIdentifier(cert);
+                if (null != keyID)
+                {
+                    boolean found = false;
+                    for (TrustAnchor candidate : candidates)
+                    {
+                        X509Certificate trustedCert = candidate.getTrustedCert();
+                        if (null != trustedCert && Arrays.areEqual(keyID, getSubjectKeyIdentifier(trustedCert)))
+                        {
+                            result.add(candidate);
+                            found = true;
+                        }
+                    }
+                    if (found)
+                    {
+                        continue;
+                    }
+                }
+            }
+
+            result.addAll(candidates);
+        }
+
+        return result.isEmpty() ? null : result;
+    }
+
+    private Provider getPKIXProvider() throws GeneralSecurityException
+    {
+        Provider result = pkixProvider;
+        if (null == result)
+        {
+            result = helper.createCertificateFactory("X.509").getProvider();
+            pkixProvider = result;
+        }
+        return result;
+    }
+
+    private X509Certificate[] getValidatedChain(String chainKey, BCAlgorithmConstraints algorithmConstraints)
+        throws GeneralSecurityException
+    {
+        ValidatedChain validatedChain = validatedChains.get(chainKey);
+        if (null == validatedChain)
+        {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now < validatedChain.notBefore || now >= validatedChain.notAfter)
+        {
+            validatedChains.remove(chainKey);
+            return null;
+        }
+
+        /*
+         * The algorithm constraints can differ per connection, so re-run the checks that the PKIX builder
+         * would have made using ProvAlgorithmChecker.
+         */
+        X509Certificate[] trustedChain = validatedChain.trustedChain;
+
+        ProvAlgorithmChecker algorithmChecker = new ProvAlgorithmChecker(helper, algorithmConstraints);
+        algorithmChecker.init(false);
+
+        for (int i = trustedChain.length - 2; i >= 0; --i)
+        {
+            algorithmChecker.check(trustedChain[i], Collections.<String> emptySet());
+        }
+
+        return trustedChain.clone();
+    }
+
     // NOTE: We avoid re-reading eeCert from chain[0]
     private CertStoreParameters getCertStoreParameters(X509Certificate eeCert, X509Certificate[] chain)
     {
@@ -441,6 +603,110 @@ private static void checkEndpointID(X509Certificate certificate, String endpoint
         checkEndpointID(peerHost, certificate, endpointIDAlg);
     }
 
+    @SuppressWarnings("serial")
+    private static Map<String, ValidatedChain> createValidatedChainCache(PKIXBuilderParameters pkixParameters)
+    {
+        /*
+         * Results are only re-usable when they depend on nothing but the chain and the current time; i.e. no
+         * revocation checking (which must see current status), no fixed validation date, and no custom
+         * checkers (which may be stateful).
+         */
+        if (null == pkixParameters
+            || provTrustManagerChainCacheSize < 1
+            || provTrustManagerChainCacheMillis < 1
+            || pkixParameters.isRevocationEnabled()
+            || null != pkixParameters.getDate()
+            || !pkixParameters.getCertPathCheckers().isEmpty())
+        {
+            return null;
+        }
+
+        return Collections.synchronizedMap(new LinkedHashMap<String, ValidatedChain>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, ValidatedChain> eldest)
+            {
+                return size() > provTrustManagerChainCacheSize;
+            }
+        });
+    }
+
+    private static Map<X500Principal, List<TrustAnchor>> createTrustAnchorIndex(PKIXBuilderParameters pkixParameters)
+    {
+        // NOTE: Any other CertStores might provide a path to an anchor that issued none of the peer's certificates
+        if (null == pkixParameters || !pkixParameters.getCertStores().isEmpty())
+        {
+            return null;
+        }
+
+        Map<X500Principal, List<TrustAnchor>> result = new HashMap<X500Principal, List<TrustAnchor>>();
+        for (TrustAnchor trustAnchor : pkixParameters.getTrustAnchors())
+        {
+            X509Certificate trustedCert = trustAnchor.getTrustedCert();
+            X500Principal subject = null == trustedCert ? trustAnchor.getCA() : trustedCert.getSubjectX500Principal();
+            if (null == subject)
+            {
+                return null;
+            }
+
+            List<TrustAnchor> trustAnchors = result.get(subject);
+            if (null == trustAnchors)
+            {
+                trustAnchors = new ArrayList<TrustAnchor>(1);
+                result.put(subject, trustAnchors);
+            }
+            trustAnchors.add(trustAnchor);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static byte[] getAuthorityKeyIdentifier(X509Certificate certificate)
+    {
+        try
+        {
+            byte[] extensionValue = certificate.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+            if (null != extensionValue)
+            {
+                return AuthorityKeyIdentifier.getInstance(ASN1OctetString.getInstance(extensionValue).getOctets())
+                    .getKeyIdentifier();
+            }
+        }
+        catch (RuntimeException e)
+        {
+        }
+        return null;
+    }
+
+    private static String getChainKey(X509Certificate[] chain) throws GeneralSecurityException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < chain.length; ++i)
+        {
+            byte[] encoding = chain[i].getEncoded();
+            byte[] length = new byte[]{ (byte)(encoding.length >>> 24), (byte)(encoding.length >>> 16),
+                (byte)(encoding.length >>> 8), (byte)encoding.length };
+            digest.update(length);
+            digest.update(encoding);
+        }
+        return Hex.toHexString(digest.digest());
+    }
+
+    private static byte[] getSubjectKeyIdentifier(X509Certificate certificate)
+    {
+        try
+        {
+            byte[] extensionValue = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+            if (null != extensionValue)
+            {
+                return SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(extensionValue).getOctets())
+                    .getKeyIdentifier();
+            }
+        }
+        catch (RuntimeException e)
+        {
+        }
+        return null;
+    }
+
     private static X509Certificate getTrustedCert(TrustAnchor trustAnchor) throws CertificateException
     {
         X509Certificate trustedCert = trustAnchor.getTrustedCert();
@@ -477,4 +743,17 @@ private static X509Certificate[] getTrustedChain(CertPath certPath, TrustAnchor
         result[result.length - 1] = getTrustedCert(trustAnchor);
         return result;
     }
+
+    private static final class ValidatedChain
+    {
+        final X509Certificate[] trustedChain;
+        final long notBefore, notAfter;
+
+        ValidatedChain(X509Certificate[] trustedChain, long notBefore, long notAfter)
+        {
+            this.trustedChain = trustedChain;
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+    }
 }
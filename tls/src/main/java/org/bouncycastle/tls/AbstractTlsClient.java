@@ -427,4 +427,15 @@ public void notifyNewSessionTicket(NewSessionTicket newSessionTicket)
         throws IOException
     {
     }
+
+    public void notifySessionToResume(TlsSession session)
+        throws IOException
+    {
+    }
+
+    public byte[] getEarlyData()
+        throws IOException
+    {
+        return null;
+    }
 }
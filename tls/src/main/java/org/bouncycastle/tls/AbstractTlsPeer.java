@@ -67,6 +67,11 @@ public boolean allowLegacyResumption()
         return false;
     }
 
+    public short[] getPSKKeyExchangeModes()
+    {
+        return new short[]{ PskKeyExchangeMode.psk_dhe_ke };
+    }
+
     public boolean requiresExtendedMasterSecret()
     {
         return false;
@@ -133,6 +138,26 @@ public short getHeartbeatPolicy()
         return HeartbeatMode.peer_not_allowed_to_send;
     }
 
+    public byte[] getNewConnectionID()
+    {
+        return null;
+    }
+
+    public int getRecordSizeLimit()
+    {
+        return -1;
+    }
+
+    public TlsRecordSizePolicy getRecordSizePolicy()
+    {
+        return null;
+    }
+
+    public TlsCertificateCompression[] getCertificateCompression()
+    {
+        return null;
+    }
+
     public int getRenegotiationPolicy()
     {
         return RenegotiationPolicy.DENY;
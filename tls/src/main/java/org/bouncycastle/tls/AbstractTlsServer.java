@@ -266,6 +266,15 @@ public TlsSession getSessionToResume(byte[] sessionID)
         return null;
     }
 
+    public TlsSession peekSessionToResume(byte[] ticket)
+    {
+        return null;
+    }
+
+    public void notifySessionToResume(TlsSession session) throws IOException
+    {
+    }
+
     public void notifyClientVersion(ProtocolVersion clientVersion)
         throws IOException
     {
@@ -336,6 +345,15 @@ public void processClientExtensions(Hashtable clientExtensions)
                 throw new TlsFatalAlert(AlertDescription.illegal_parameter);
             }
 
+            /*
+             * RFC 8449 5. A server that supports the "record_size_limit" extension MUST ignore a
+             * "max_fragment_length" that appears in a ClientHello if both extensions appear.
+             */
+            if (TlsExtensionsUtils.getRecordSizeLimitExtension(clientExtensions) >= 0)
+            {
+                this.maxFragmentLengthOffered = -1;
+            }
+
             this.truncatedHMacOffered = TlsExtensionsUtils.hasTruncatedHMacExtension(clientExtensions);
 
             // We only support uncompressed format, this is just to validate the extension, and note its presence.
@@ -565,4 +583,28 @@ public NewSessionTicket getNewSessionTicket()
          */
         return new NewSessionTicket(0L, TlsUtils.EMPTY_BYTES);
     }
+
+    public long getNewSessionTicketLifetime()
+        throws IOException
+    {
+        return 0L;
+    }
+
+    public long getMaxEarlyDataSize()
+        throws IOException
+    {
+        return 0L;
+    }
+
+    public TlsEarlyDataReplayStore getEarlyDataReplayStore()
+        throws IOException
+    {
+        return null;
+    }
+
+    public TlsSignerExecutor getSignerExecutor()
+        throws IOException
+    {
+        return null;
+    }
 }
@@ -4,7 +4,7 @@
 import java.io.OutputStream;
 
 /**
- * A queue for bytes. This file could be more optimized.
+ * A queue for bytes. Once grown, the buffer is reused for subsequent data (see {@link #shrink()}).
  */
 public class ByteQueue
 {
@@ -162,6 +162,23 @@ public HandshakeMessageInput readHandshakeMessage(int length)
         return new HandshakeMessageInput(databuf, position, length);
     }
 
+    /**
+     * Remove a single byte from the beginning of the data.
+     *
+     * @return The removed byte, as an int in the range 0 to 255.
+     */
+    public int removeUint8()
+    {
+        if (available < 1)
+        {
+            throw new IllegalStateException("Not enough data to read");
+        }
+
+        int b = databuf[skipped] & 0xFF;
+        removeData(1);
+        return b;
+    }
+
     public int readInt32()
     {
         if (available < 4)
@@ -188,6 +205,14 @@ public void removeData(int i)
          */
         available -= i;
         skipped += i;
+
+        /*
+         * Once drained, later data can start at the beginning again (saving a compaction in addData).
+         */
+        if (available == 0)
+        {
+            skipped = 0;
+        }
     }
 
     /**
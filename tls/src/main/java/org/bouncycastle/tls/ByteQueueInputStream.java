@@ -38,7 +38,7 @@ public int read()
         {
             return -1;
         }
-        return buffer.removeData(1, 0)[0] & 0xFF;
+        return buffer.removeUint8();
     }
 
     public int read(byte[] b)
@@ -10,6 +10,7 @@
     extends OutputStream
 {
     private ByteQueue buffer;
+    private final byte[] singleByte = new byte[1];
 
     public ByteQueueOutputStream()
     {
@@ -23,7 +24,8 @@ public ByteQueue getBuffer()
 
     public void write(int b) throws IOException
     {
-        buffer.addData(new byte[]{ (byte)b }, 0, 1);
+        singleByte[0] = (byte)b;
+        buffer.addData(singleByte, 0, 1);
     }
 
     public void write(byte[] b, int off, int len) throws IOException
@@ -0,0 +1,93 @@
+package org.bouncycastle.tls;
+
+import java.io.IOException;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A {@link TlsCertificateCompression} that remembers the most recent compression results, so that a
+ * server presenting the same certificate chain on many connections only compresses it once. An instance
+ * may be shared between connections.
+ */
+public class CachingCertificateCompression
+    implements TlsCertificateCompression
+{
+    public static final int DEFAULT_CACHE_SIZE = 8;
+
+    private static class Entry
+    {
+        final int hashCode;
+        final byte[] certificateMessage;
+        final byte[] compressed;
+
+        Entry(int hashCode, byte[] certificateMessage, byte[] compressed)
+        {
+            this.hashCode = hashCode;
+            this.certificateMessage = certificateMessage;
+            this.compressed = compressed;
+        }
+    }
+
+    protected final TlsCertificateCompression compression;
+
+    private final Entry[] entries;
+    private int next = 0;
+
+    public CachingCertificateCompression(TlsCertificateCompression compression)
+    {
+        this(compression, DEFAULT_CACHE_SIZE);
+    }
+
+    public CachingCertificateCompression(TlsCertificateCompression compression, int cacheSize)
+    {
+        if (null == compression)
+        {
+            throw new NullPointerException("'compression' cannot be null");
+        }
+        if (cacheSize < 1)
+        {
+            throw new IllegalArgumentException("'cacheSize' must be at least 1");
+        }
+
+        this.compression = compression;
+        this.entries = new Entry[cacheSize];
+    }
+
+    public int getAlgorithm()
+    {
+        return compression.getAlgorithm();
+    }
+
+    public byte[] compress(byte[] certificateMessage) throws IOException
+    {
+        int hashCode = Arrays.hashCode(certificateMessage);
+
+        synchronized (this)
+        {
+            for (int i = 0; i < entries.length; ++i)
+            {
+                Entry entry = entries[i];
+                if (null != entry && entry.hashCode == hashCode
+                    && Arrays.areEqual(entry.certificateMessage, certificateMessage))
+                {
+                    return entry.compressed;
+                }
+            }
+        }
+
+        byte[] compressed = compression.compress(certificateMessage);
+
+        synchronized (this)
+        {
+            entries[next] = new Entry(hashCode, Arrays.clone(certificateMessage), compressed);
+            next = (next + 1) % entries.length;
+        }
+
+        return compressed;
+    }
+
+    public byte[] decompress(byte[] compressedCertificateMessage, int uncompressedLength) throws IOException
+    {
+        return compression.decompress(compressedCertificateMessage, uncompressedLength);
+    }
+}
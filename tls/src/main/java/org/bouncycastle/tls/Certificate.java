@@ -8,6 +8,7 @@
 import java.util.Vector;
 
 import org.bouncycastle.tls.crypto.TlsCertificate;
+import org.bouncycastle.util.Arrays;
 
 /**
  * Parsing and encoding of a <i>Certificate</i> struct from RFC 4346.
@@ -49,6 +50,10 @@ private static CertificateEntry[] convert(TlsCertificate[] certificateList)
     protected final byte[] certificateRequestContext;
     protected final CertificateEntry[] certificateEntryList;
 
+    // NOTE: Cached on first use by getEncoding
+    private volatile CachedEncoding cachedEncoding = null;
+    private volatile byte[] endPointHash = null;
+
     public Certificate(TlsCertificate[] certificateList)
     {
         this(null, convert(certificateList));
@@ -121,6 +126,12 @@ public boolean isEmpty()
     /**
      * Encode this {@link Certificate} to an {@link OutputStream}, and optionally calculate the
      * "end point hash" (per RFC 5929's tls-server-end-point binding).
+     * <p>
+     * The encoding (and "end point hash") is calculated on first use and then reused, so a server can
+     * present the same instance on many connections without re-encoding it each time. The (TLS 1.3)
+     * extensions of the {@link CertificateEntry}s are checked on each use though, so the encoding is
+     * recalculated if they have changed since (e.g. for a fresh OCSP response).
+     * </p>
      *
      * @param messageOutput the {@link OutputStream} to encode to.
      * @param endPointHashOutput the {@link OutputStream} to write the "end point hash" (or null).
@@ -128,6 +139,15 @@ public boolean isEmpty()
      */
     public void encode(TlsContext context, OutputStream messageOutput, OutputStream endPointHashOutput)
         throws IOException
+    {
+        messageOutput.write(getEncoding(context, endPointHashOutput));
+    }
+
+    /**
+     * NOTE: The returned array is shared and must not be modified.
+     */
+    byte[] getEncoding(TlsContext context, OutputStream endPointHashOutput)
+        throws IOException
     {
         final boolean isTLSv13 = TlsUtils.isTLSv13(context);
 
@@ -136,26 +156,67 @@ public void encode(TlsContext context, OutputStream messageOutput, OutputStream
             throw new IllegalStateException();
         }
 
-        if (isTLSv13)
+        byte[][] extEncodings = isTLSv13 ? encodeExtensions() : null;
+
+        CachedEncoding cachedEncoding = this.cachedEncoding;
+        if (null == cachedEncoding || !cachedEncoding.hasExtEncodings(extEncodings))
+        {
+            this.cachedEncoding = cachedEncoding = new CachedEncoding(createEncoding(extEncodings), extEncodings);
+        }
+
+        if (endPointHashOutput != null && certificateEntryList.length > 0)
         {
-            TlsUtils.writeOpaque8(certificateRequestContext, messageOutput);
+            byte[] endPointHash = this.endPointHash;
+            if (null == endPointHash)
+            {
+                TlsCertificate cert = certificateEntryList[0].getCertificate();
+                endPointHash = TlsUtils.calculateEndPointHash(context, cert, cert.getEncoded());
+                this.endPointHash = endPointHash = (null == endPointHash) ? TlsUtils.EMPTY_BYTES : endPointHash;
+            }
+            if (endPointHash.length > 0)
+            {
+                endPointHashOutput.write(endPointHash);
+            }
         }
 
+        return cachedEncoding.encoding;
+    }
+
+    /**
+     * @return the encoded (TLS 1.3) extensions of each {@link CertificateEntry}.
+     */
+    protected byte[][] encodeExtensions()
+        throws IOException
+    {
+        int count = certificateEntryList.length;
+        byte[][] extEncodings = new byte[count][];
+        for (int i = 0; i < count; ++i)
+        {
+            Hashtable extensions = certificateEntryList[i].getExtensions();
+            extEncodings[i] = (null == extensions)
+                ?   TlsUtils.EMPTY_BYTES
+                :   TlsProtocol.writeExtensionsData(extensions);
+        }
+        return extEncodings;
+    }
+
+    /**
+     * @param extEncodings the encoded extensions of each {@link CertificateEntry} for TLS 1.3 (see
+     *            {@link #encodeExtensions()}), or null for earlier versions.
+     */
+    protected byte[] createEncoding(byte[][] extEncodings)
+        throws IOException
+    {
+        final boolean isTLSv13 = null != extEncodings;
+
         int count = certificateEntryList.length;
         Vector certEncodings = new Vector(count);
-        Vector extEncodings = isTLSv13 ? new Vector(count) : null;
 
         long totalLength = 0;
         for (int i = 0; i < count; ++i)
         {
             CertificateEntry entry = certificateEntryList[i];
-            TlsCertificate cert = entry.getCertificate();
-            byte[] derEncoding = cert.getEncoded();
-
-            if (i == 0 && endPointHashOutput != null)
-            {
-                calculateEndPointHash(context, cert, derEncoding, endPointHashOutput);
-            }
+            byte[] derEncoding = entry.getCertificate().getEncoded();
 
             certEncodings.addElement(derEncoding);
             totalLength += derEncoding.length;
@@ -163,31 +224,44 @@ public void encode(TlsContext context, OutputStream messageOutput, OutputStream
 
             if (isTLSv13)
             {
-                Hashtable extensions = entry.getExtensions();
-                byte[] extEncoding = (null == extensions)
-                    ?   TlsUtils.EMPTY_BYTES
-                    :   TlsProtocol.writeExtensionsData(extensions);
-
-                extEncodings.addElement(extEncoding);
-                totalLength += extEncoding.length;
+                totalLength += extEncodings[i].length;
                 totalLength += 2;
             }
         }
 
         TlsUtils.checkUint24(totalLength);
-        TlsUtils.writeUint24((int)totalLength, messageOutput);
+
+        int prefixLength = isTLSv13 ? 1 + certificateRequestContext.length : 0;
+        byte[] encoding = new byte[prefixLength + 3 + (int)totalLength];
+
+        int pos = 0;
+        if (isTLSv13)
+        {
+            TlsUtils.writeUint8(certificateRequestContext.length, encoding, pos);
+            System.arraycopy(certificateRequestContext, 0, encoding, pos + 1, certificateRequestContext.length);
+            pos += prefixLength;
+        }
+
+        TlsUtils.writeUint24((int)totalLength, encoding, pos);
+        pos += 3;
 
         for (int i = 0; i < count; ++i)
         {
             byte[] certEncoding = (byte[])certEncodings.elementAt(i);
-            TlsUtils.writeOpaque24(certEncoding, messageOutput);
+            TlsUtils.writeUint24(certEncoding.length, encoding, pos);
+            System.arraycopy(certEncoding, 0, encoding, pos + 3, certEncoding.length);
+            pos += 3 + certEncoding.length;
 
             if (isTLSv13)
             {
-                byte[] extEncoding = (byte[])extEncodings.elementAt(i);
-                TlsUtils.writeOpaque16(extEncoding, messageOutput);
+                byte[] extEncoding = extEncodings[i];
+                TlsUtils.writeUint16(extEncoding.length, encoding, pos);
+                System.arraycopy(extEncoding, 0, encoding, pos + 2, extEncoding.length);
+                pos += 2 + extEncoding.length;
             }
         }
+
+        return encoding;
     }
 
     /**
@@ -265,6 +339,35 @@ protected static void calculateEndPointHash(TlsContext context, TlsCertificate c
         }
     }
 
+    private static final class CachedEncoding
+    {
+        final byte[] encoding;
+        final byte[][] extEncodings;
+
+        CachedEncoding(byte[] encoding, byte[][] extEncodings)
+        {
+            this.encoding = encoding;
+            this.extEncodings = extEncodings;
+        }
+
+        boolean hasExtEncodings(byte[][] extEncodings)
+        {
+            if (null == this.extEncodings || null == extEncodings)
+            {
+                return this.extEncodings == extEncodings;
+            }
+
+            for (int i = 0; i < extEncodings.length; ++i)
+            {
+                if (!Arrays.areEqual(this.extEncodings[i], extEncodings[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     protected TlsCertificate[] cloneCertificateList()
     {
         int count = certificateEntryList.length;
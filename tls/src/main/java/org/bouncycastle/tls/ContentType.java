@@ -10,4 +10,9 @@
     public static final short handshake = 22;
     public static final short application_data = 23;
     public static final short heartbeat = 24;
+
+    /*
+     * RFC 9146
+     */
+    public static final short tls12_cid = 25;
 }
@@ -506,6 +506,15 @@ else if (!TlsUtils.isTLSv13(client_version)
             }
         }
 
+        // Connection ID
+        {
+            byte[] connectionID = state.client.getNewConnectionID();
+            if (null != connectionID && isConnectionIDSupported(state.offeredCipherSuites))
+            {
+                TlsExtensionsUtils.addConnectionIDExtension(state.clientExtensions, connectionID);
+            }
+        }
+
 
 
         ClientHello clientHello = new ClientHello(legacy_version, securityParameters.getClientRandom(), session_id,
@@ -828,6 +837,26 @@ else if (HeartbeatMode.peer_allowed_to_send != heartbeatExtension.getMode())
             }
         }
 
+        // Connection ID
+        {
+            /*
+             * RFC 9146 3. [..] the server [..] responds with a "connection_id" extension in the ServerHello,
+             * containing the CID it wishes the client to use when sending messages towards it.
+             */
+            byte[] serverConnectionID = TlsExtensionsUtils.getConnectionIDExtension(state.serverExtensions);
+            if (null != serverConnectionID)
+            {
+                if (!isConnectionIDSupported(securityParameters.getCipherSuite()))
+                {
+                    throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+                }
+
+                securityParameters.connectionIDLocal = TlsExtensionsUtils.getConnectionIDExtension(
+                    state.clientExtensions);
+                securityParameters.connectionIDPeer = serverConnectionID;
+            }
+        }
+
 
 
         Hashtable sessionClientExtensions = state.clientExtensions, sessionServerExtensions = state.serverExtensions;
@@ -0,0 +1,586 @@
+package org.bouncycastle.tls;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.tls.crypto.TlsCrypto;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Serves many DTLS connections from a single (blocking) {@link DatagramChannel}. One thread, calling
+ * {@link #run()}, receives every datagram and routes it to its connection; first by RFC 9146 connection ID (so
+ * that a client stays associated with its connection when its address changes), then by source address.
+ * <p>
+ * A new client must first complete the stateless cookie exchange (see {@link DTLSVerifier}) before any
+ * per-connection state is created. Handshakes, and the processing of received records, then run as tasks on
+ * the supplied {@link Executor}, so that the number of threads needn't grow with the number of connections.
+ * </p>
+ * <p>
+ * NOTE: A handshake task still occupies an executor thread for the duration of the handshake, since
+ * {@link DTLSServerProtocol} is blocking. Heartbeat and retransmission timers are only serviced while records
+ * are being received.
+ * </p>
+ */
+public class DTLSDemultiplexer
+    implements Runnable
+{
+    public static final int DEFAULT_CONNECTION_ID_LENGTH = 8;
+
+    protected static final int MIN_IP_OVERHEAD = 20;
+    protected static final int MAX_IP_OVERHEAD = MIN_IP_OVERHEAD + 64;
+    protected static final int UDP_OVERHEAD = 8;
+
+    protected static final int RECEIVE_QUEUE_LIMIT = 64;
+
+    private static final Datagram CLOSED = new Datagram(null, null);
+
+    /**
+     * Callbacks from a {@link DTLSDemultiplexer}. Calls for a given connection are never concurrent.
+     */
+    public interface Handler
+    {
+        /**
+         * Create the {@link TlsServer} for a new connection. To have the connection use a connection ID (and
+         * so be able to follow the client to a new address), the server's {@link TlsPeer#getNewConnectionID()}
+         * must return the given connectionID.
+         */
+        TlsServer createServer(SocketAddress peerAddress, byte[] connectionID) throws IOException;
+
+        void notifyConnectionEstablished(Connection connection) throws IOException;
+
+        void notifyDataReceived(Connection connection, byte[] buf, int off, int len) throws IOException;
+
+        /**
+         * @param cause
+         *            null if the connection was closed normally.
+         */
+        void notifyConnectionClosed(Connection connection, Throwable cause);
+    }
+
+    protected final DatagramChannel channel;
+    protected final Executor executor;
+    protected final Handler handler;
+    protected final TlsCrypto crypto;
+    protected final int connectionIDLength;
+    protected final int receiveLimit, sendLimit;
+
+    private final DTLSVerifier verifier;
+    private final ConcurrentHashMap connectionsByID = new ConcurrentHashMap();
+    private final ConcurrentHashMap connectionsByAddress = new ConcurrentHashMap();
+
+    private volatile boolean closed = false;
+
+    public DTLSDemultiplexer(DatagramChannel channel, int mtu, Executor executor, Handler handler, TlsCrypto crypto)
+    {
+        this(channel, mtu, executor, handler, crypto, DEFAULT_CONNECTION_ID_LENGTH);
+    }
+
+    /**
+     * @param connectionIDLength
+     *            the length of the connection IDs this server will issue, from 1 to 255.
+     */
+    public DTLSDemultiplexer(DatagramChannel channel, int mtu, Executor executor, Handler handler, TlsCrypto crypto,
+        int connectionIDLength)
+    {
+        if (null == channel || !channel.isBlocking())
+        {
+            throw new IllegalArgumentException("'channel' must be in blocking mode");
+        }
+        if (null == executor)
+        {
+            throw new NullPointerException("'executor' cannot be null");
+        }
+        if (null == handler)
+        {
+            throw new NullPointerException("'handler' cannot be null");
+        }
+        if (connectionIDLength < 1 || !TlsUtils.isValidUint8(connectionIDLength))
+        {
+            throw new IllegalArgumentException("'connectionIDLength' must be from 1 to 255");
+        }
+
+        this.channel = channel;
+        this.executor = executor;
+        this.handler = handler;
+        this.crypto = crypto;
+        this.connectionIDLength = connectionIDLength;
+
+        // NOTE: As of JDK 1.6, can use NetworkInterface.getMTU
+
+        this.receiveLimit = mtu - MIN_IP_OVERHEAD - UDP_OVERHEAD;
+        this.sendLimit = mtu - MAX_IP_OVERHEAD - UDP_OVERHEAD;
+
+        this.verifier = new DTLSVerifier(crypto);
+    }
+
+    /**
+     * Receive and dispatch datagrams until {@link #close()} is called (or the channel is closed).
+     */
+    public void run()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(receiveLimit);
+
+        while (!closed && channel.isOpen())
+        {
+            SocketAddress source;
+            try
+            {
+                buffer.clear();
+                source = channel.receive(buffer);
+            }
+            catch (IOException e)
+            {
+                continue;
+            }
+
+            if (null != source)
+            {
+                buffer.flip();
+                byte[] datagram = new byte[buffer.remaining()];
+                buffer.get(datagram);
+
+                dispatch(source, datagram);
+            }
+        }
+    }
+
+    /**
+     * Close all connections that have not received a datagram in the last idleMillis milliseconds.
+     *
+     * @return the number of connections closed.
+     */
+    public int closeIdleConnections(long idleMillis)
+    {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int count = 0;
+
+        Iterator it = connectionsByID.values().iterator();
+        while (it.hasNext())
+        {
+            Connection connection = (Connection)it.next();
+            if (connection.lastReceivedMillis < cutoff)
+            {
+                connection.close();
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    public int getConnectionCount()
+    {
+        return connectionsByID.size();
+    }
+
+    /**
+     * Stop receiving, close all connections, and close the channel.
+     */
+    public void close()
+    {
+        if (!closed)
+        {
+            closed = true;
+
+            Iterator it = connectionsByID.values().iterator();
+            while (it.hasNext())
+            {
+                ((Connection)it.next()).close();
+            }
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore
+            }
+        }
+    }
+
+    protected void dispatch(SocketAddress source, byte[] datagram)
+    {
+        Connection connection = null;
+
+        byte[] connectionID = getRecordConnectionID(datagram);
+        if (null != connectionID)
+        {
+            connection = (Connection)connectionsByID.get(Hex.toHexString(connectionID));
+        }
+        if (null == connection)
+        {
+            connection = (Connection)connectionsByAddress.get(source);
+        }
+
+        if (null != connection)
+        {
+            connection.enqueue(source, datagram);
+        }
+        else
+        {
+            accept(source, datagram);
+        }
+    }
+
+    protected void accept(final SocketAddress source, byte[] datagram)
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        DatagramSender sender = new DatagramSender()
+        {
+            public int getSendLimit() throws IOException
+            {
+                return sendLimit;
+            }
+
+            public void send(byte[] buf, int off, int len) throws IOException
+            {
+                channel.send(ByteBuffer.wrap(buf, off, len), source);
+            }
+        };
+
+        final DTLSRequest request = verifier.verifyRequest(getClientID(source), datagram, 0, datagram.length, sender);
+        if (null == request)
+        {
+            return;
+        }
+
+        final Connection connection = new Connection(source, generateConnectionID());
+
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    connection.handshake(request);
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            connection.closed(e);
+        }
+    }
+
+    private byte[] getClientID(SocketAddress source)
+    {
+        if (source instanceof InetSocketAddress)
+        {
+            InetSocketAddress inetSource = (InetSocketAddress)source;
+            byte[] address = inetSource.getAddress().getAddress();
+            byte[] clientID = Arrays.copyOf(address, address.length + 2);
+            TlsUtils.writeUint16(inetSource.getPort(), clientID, address.length);
+            return clientID;
+        }
+        return Strings.toUTF8ByteArray(source.toString());
+    }
+
+    private byte[] getRecordConnectionID(byte[] datagram)
+    {
+        // NOTE: Only the first record of a datagram is considered
+        if (datagram.length < 13 + connectionIDLength || ContentType.tls12_cid != TlsUtils.readUint8(datagram, 0))
+        {
+            return null;
+        }
+        return Arrays.copyOfRange(datagram, 11, 11 + connectionIDLength);
+    }
+
+    private byte[] generateConnectionID()
+    {
+        byte[] connectionID = new byte[connectionIDLength];
+        do
+        {
+            crypto.getSecureRandom().nextBytes(connectionID);
+        }
+        while (connectionsByID.containsKey(Hex.toHexString(connectionID)));
+
+        return connectionID;
+    }
+
+    private static class Datagram
+    {
+        final SocketAddress source;
+        final byte[] data;
+
+        Datagram(SocketAddress source, byte[] data)
+        {
+            this.source = source;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A single DTLS connection served by a {@link DTLSDemultiplexer}.
+     */
+    public class Connection
+    {
+        private final byte[] connectionID;
+        private final String connectionIDKey;
+        private final BlockingQueue receiveQueue = new LinkedBlockingQueue(RECEIVE_QUEUE_LIMIT);
+        private final AtomicBoolean receiveScheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closedNotified = new AtomicBoolean(false);
+        private final ConnectionTransport transport = new ConnectionTransport();
+
+        private volatile SocketAddress peerAddress;
+        private volatile DTLSTransport dtlsTransport = null;
+        private volatile long lastReceivedMillis = System.currentTimeMillis();
+
+        Connection(SocketAddress peerAddress, byte[] connectionID)
+        {
+            this.peerAddress = peerAddress;
+            this.connectionID = connectionID;
+            this.connectionIDKey = Hex.toHexString(connectionID);
+
+            connectionsByID.put(connectionIDKey, this);
+            connectionsByAddress.put(peerAddress, this);
+        }
+
+        /**
+         * The connection ID issued to the client, which is only in use if the client negotiated it.
+         */
+        public byte[] getConnectionID()
+        {
+            return Arrays.clone(connectionID);
+        }
+
+        public SocketAddress getPeerAddress()
+        {
+            return peerAddress;
+        }
+
+        /**
+         * @return the {@link DTLSTransport} for sending, or null if the handshake has not completed.
+         */
+        public DTLSTransport getDTLSTransport()
+        {
+            return dtlsTransport;
+        }
+
+        public void close()
+        {
+            DTLSTransport dtlsTransport = this.dtlsTransport;
+            if (null != dtlsTransport)
+            {
+                try
+                {
+                    dtlsTransport.close();
+                }
+                catch (IOException e)
+                {
+                    // Ignore
+                }
+            }
+
+            closed(null);
+        }
+
+        void closed(Throwable cause)
+        {
+            if (closedNotified.compareAndSet(false, true))
+            {
+                connectionsByID.remove(connectionIDKey, this);
+                connectionsByAddress.remove(peerAddress, this);
+
+                receiveQueue.clear();
+                receiveQueue.offer(CLOSED);
+
+                handler.notifyConnectionClosed(this, cause);
+            }
+        }
+
+        void enqueue(SocketAddress source, byte[] data)
+        {
+            this.lastReceivedMillis = System.currentTimeMillis();
+
+            // NOTE: If the connection isn't keeping up, datagrams are dropped (as the network might do)
+            if (receiveQueue.offer(new Datagram(source, data)) && null != dtlsTransport)
+            {
+                scheduleReceive();
+            }
+        }
+
+        void handshake(DTLSRequest request)
+        {
+            try
+            {
+                TlsServer server = handler.createServer(peerAddress, getConnectionID());
+
+                this.dtlsTransport = new DTLSServerProtocol().accept(server, transport, request);
+
+                handler.notifyConnectionEstablished(this);
+
+                if (!receiveQueue.isEmpty())
+                {
+                    scheduleReceive();
+                }
+            }
+            catch (Exception e)
+            {
+                closed(e);
+            }
+        }
+
+        void receive()
+        {
+            try
+            {
+                DTLSTransport dtlsTransport = this.dtlsTransport;
+                byte[] buf = new byte[dtlsTransport.getReceiveLimit()];
+
+                for (;;)
+                {
+                    int len = dtlsTransport.receive(buf, 0, buf.length, 1);
+                    if (len >= 0)
+                    {
+                        handler.notifyDataReceived(this, buf, 0, len);
+                    }
+                    else if (receiveQueue.isEmpty())
+                    {
+                        break;
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                closed(e);
+                return;
+            }
+            finally
+            {
+                receiveScheduled.set(false);
+            }
+
+            // Datagrams may have arrived after the last poll, but before the flag was reset
+            if (!receiveQueue.isEmpty())
+            {
+                scheduleReceive();
+            }
+        }
+
+        private void scheduleReceive()
+        {
+            if (receiveScheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    executor.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            receive();
+                        }
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    receiveScheduled.set(false);
+                    closed(e);
+                }
+            }
+        }
+
+        private class ConnectionTransport
+            implements DatagramTransport, DTLSPeerAddressTracker
+        {
+            // Only accessed from the (single) thread receiving for this connection at any time
+            private SocketAddress lastSource = null;
+
+            public int getReceiveLimit() throws IOException
+            {
+                return receiveLimit;
+            }
+
+            public int getSendLimit() throws IOException
+            {
+                return sendLimit;
+            }
+
+            public int receive(byte[] buf, int off, int len, int waitMillis) throws IOException
+            {
+                Datagram datagram;
+                try
+                {
+                    if (waitMillis == 0)
+                    {
+                        datagram = (Datagram)receiveQueue.take();
+                    }
+                    else
+                    {
+                        datagram = (Datagram)receiveQueue.poll(waitMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+
+                if (null == datagram)
+                {
+                    return -1;
+                }
+                if (CLOSED == datagram)
+                {
+                    receiveQueue.offer(CLOSED);
+                    throw new IOException("Connection closed");
+                }
+
+                this.lastSource = datagram.source;
+
+                int copyLength = Math.min(len, datagram.data.length);
+                System.arraycopy(datagram.data, 0, buf, off, copyLength);
+                return copyLength;
+            }
+
+            public void send(byte[] buf, int off, int len) throws IOException
+            {
+                if (len > sendLimit)
+                {
+                    /*
+                     * RFC 4347 4.1.1. "If the application attempts to send a record larger than the MTU,
+                     * the DTLS implementation SHOULD generate an error, thus avoiding sending a packet
+                     * which will be fragmented."
+                     */
+                    throw new TlsFatalAlert(AlertDescription.internal_error);
+                }
+
+                channel.send(ByteBuffer.wrap(buf, off, len), peerAddress);
+            }
+
+            public void close() throws IOException
+            {
+                closed(null);
+            }
+
+            public void notifyPeerAddressVerified()
+            {
+                SocketAddress newAddress = lastSource;
+                SocketAddress oldAddress = peerAddress;
+                if (null != newAddress && !newAddress.equals(oldAddress))
+                {
+                    peerAddress = newAddress;
+                    connectionsByAddress.remove(oldAddress, Connection.this);
+                    connectionsByAddress.put(newAddress, Connection.this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.bouncycastle.tls;
+
+/**
+ * Optional interface for a {@link DatagramTransport} that can follow a peer whose address changes, e.g. a
+ * client behind a NAT whose binding is reassigned. Only relevant when an RFC 9146 connection ID is in use,
+ * since then records can be associated with the connection regardless of where they came from.
+ */
+public interface DTLSPeerAddressTracker
+{
+    /**
+     * Called by the DTLS record layer when a record containing the connection ID has passed authentication
+     * checks, and is newer than any previously received record. The transport MAY then start sending to the
+     * source address of the datagram that record was received in.
+     * <p>
+     * RFC 9146 6. Implementations [..] MUST NOT update the address to send to [..] unless the received
+     * datagram has been cryptographically verified [..], and the datagram is "newer" [..] than the newest
+     * datagram received.
+     * </p>
+     */
+    void notifyPeerAddressVerified();
+}
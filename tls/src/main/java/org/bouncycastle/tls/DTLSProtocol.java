@@ -97,6 +97,27 @@ protected static void sendCertificateMessage(TlsContext context, DTLSReliableHan
         securityParameters.localCertificate = certificate;
     }
 
+    /*
+     * NOTE: RFC 9146 connection IDs are currently only supported with AEAD cipher suites.
+     */
+    protected static boolean isConnectionIDSupported(int cipherSuite) throws IOException
+    {
+        return TlsUtils.isAEADCipherSuite(cipherSuite);
+    }
+
+    protected static boolean isConnectionIDSupported(int[] cipherSuites) throws IOException
+    {
+        for (int i = 0; i < cipherSuites.length; ++i)
+        {
+            int cipherSuite = cipherSuites[i];
+            if (!CipherSuite.isSCSV(cipherSuite) && !isConnectionIDSupported(cipherSuite))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected static int validateSelectedCipherSuite(int selectedCipherSuite, short alertDescription)
         throws IOException
     {
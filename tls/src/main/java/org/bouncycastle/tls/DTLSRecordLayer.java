@@ -109,6 +109,9 @@ private static void sendDatagram(DatagramSender sender, byte[] buf, int off, int
     private DTLSEpoch currentEpoch, pendingEpoch;
     private DTLSEpoch readEpoch, writeEpoch;
 
+    // RFC 9146 connection IDs, if negotiated; used in records for any epoch after the initial one
+    private volatile byte[] readConnectionID = null, writeConnectionID = null;
+
     private DTLSHandshakeRetransmit retransmit = null;
     private DTLSEpoch retransmitEpoch = null;
     private Timeout retransmitTimeout = null;
@@ -191,6 +194,10 @@ void initPendingEpoch(TlsCipher pendingCipher)
 
         // TODO Check for overflow
         this.pendingEpoch = new DTLSEpoch(writeEpoch.getEpoch() + 1, pendingCipher);
+
+        SecurityParameters securityParameters = context.getSecurityParametersHandshake();
+        this.readConnectionID = getConnectionID(securityParameters.getConnectionIDLocal());
+        this.writeConnectionID = getConnectionID(securityParameters.getConnectionIDPeer());
     }
 
     void handshakeSuccessful(DTLSHandshakeRetransmit retransmit)
@@ -244,15 +251,19 @@ void resetWriteEpoch()
     public int getReceiveLimit()
         throws IOException
     {
+        int recordHeaderLength = getRecordHeaderLength(readEpoch, readConnectionID);
+
         return Math.min(this.plaintextLimit,
-            readEpoch.getCipher().getPlaintextLimit(transport.getReceiveLimit() - RECORD_HEADER_LENGTH));
+            readEpoch.getCipher().getPlaintextLimit(transport.getReceiveLimit() - recordHeaderLength));
     }
 
     public int getSendLimit()
         throws IOException
     {
+        int recordHeaderLength = getRecordHeaderLength(writeEpoch, writeConnectionID);
+
         return Math.min(this.plaintextLimit,
-            writeEpoch.getCipher().getPlaintextLimit(transport.getSendLimit() - RECORD_HEADER_LENGTH));
+            writeEpoch.getCipher().getPlaintextLimit(transport.getSendLimit() - recordHeaderLength));
     }
 
     public int receive(byte[] buf, int off, int len, int waitMillis)
@@ -305,7 +316,7 @@ else if (Timeout.hasExpired(heartbeatResendTimeout, currentTimeMillis))
                 waitMillis = 1;
             }
 
-            int receiveLimit = Math.min(len, getReceiveLimit()) + RECORD_HEADER_LENGTH;
+            int receiveLimit = Math.min(len, getReceiveLimit()) + getRecordHeaderLength(readEpoch, readConnectionID);
             if (null == record || record.length < receiveLimit)
             {
                 record = new byte[receiveLimit];
@@ -484,11 +495,6 @@ private int processRecord(int received, byte[] record, byte[] buf, int off)
         {
             return -1;
         }
-        int length = TlsUtils.readUint16(record, 11);
-        if (received != (length + RECORD_HEADER_LENGTH))
-        {
-            return -1;
-        }
 
         // TODO[dtls13] Deal with opaque record type for 1.3 AEAD ciphers
         short recordType = TlsUtils.readUint8(record, 0);
@@ -501,10 +507,29 @@ private int processRecord(int received, byte[] record, byte[] buf, int off)
         case ContentType.handshake:
         case ContentType.heartbeat:
             break;
+        case ContentType.tls12_cid:
+        {
+            if (null == readConnectionID)
+            {
+                return -1;
+            }
+            break;
+        }
         default:
             return -1;
         }
 
+        int recordHeaderLength = getReadRecordHeaderLength(recordType);
+        if (received < recordHeaderLength)
+        {
+            return -1;
+        }
+        int length = TlsUtils.readUint16(record, recordHeaderLength - 2);
+        if (received != (length + recordHeaderLength))
+        {
+            return -1;
+        }
+
         int epoch = TlsUtils.readUint16(record, 3);
 
         DTLSEpoch recordEpoch = null;
@@ -523,6 +548,23 @@ else if (recordType == ContentType.handshake && null != retransmitEpoch
             return -1;
         }
 
+        /*
+         * RFC 9146 4. [..] the tls12_cid content type [..] is used [..] for all records that include
+         * a CID. Records for the initial epoch never carry one, and once negotiated the CID is always present.
+         */
+        if (ContentType.tls12_cid == recordType)
+        {
+            if (recordEpoch.getEpoch() < 1
+                || !Arrays.constantTimeAreEqual(readConnectionID.length, readConnectionID, 0, record, 11))
+            {
+                return -1;
+            }
+        }
+        else if (null != readConnectionID && recordEpoch.getEpoch() > 0)
+        {
+            return -1;
+        }
+
         long seq = TlsUtils.readUint48(record, 5);
         if (recordEpoch.getReplayWindow().shouldDiscard(seq))
         {
@@ -557,9 +599,18 @@ else if (recordType == ContentType.handshake && null != retransmitEpoch
         long macSeqNo = getMacSequenceNumber(recordEpoch.getEpoch(), seq);
 
         TlsDecodeResult decoded = recordEpoch.getCipher().decodeCiphertext(macSeqNo, recordType, recordVersion, record,
-            RECORD_HEADER_LENGTH, length);
+            recordHeaderLength, length);
 
-        recordEpoch.getReplayWindow().reportAuthenticated(seq);
+        boolean latest = recordEpoch.getReplayWindow().reportAuthenticated(seq);
+
+        /*
+         * RFC 9146 6. The peer address may only be updated for an authenticated record that is newer than the
+         * newest record received so far (the CID is only used in the current read epoch).
+         */
+        if (latest && ContentType.tls12_cid == recordType && transport instanceof DTLSPeerAddressTracker)
+        {
+            ((DTLSPeerAddressTracker)transport).notifyPeerAddressVerified();
+        }
 
         if (decoded.len > this.plaintextLimit)
         {
@@ -737,15 +788,22 @@ private int receiveRecord(byte[] buf, int off, int len, int waitMillis)
     {
         if (recordQueue.available() > 0)
         {
-            int length = 0;
+            int recordHeaderLength = RECORD_HEADER_LENGTH, length = 0;
             if (recordQueue.available() >= RECORD_HEADER_LENGTH)
             {
-                byte[] lengthBytes = new byte[2];
-                recordQueue.read(lengthBytes, 0, 2, 11);
-                length = TlsUtils.readUint16(lengthBytes, 0);
+                byte[] typeBytes = new byte[1];
+                recordQueue.read(typeBytes, 0, 1, 0);
+                recordHeaderLength = getReadRecordHeaderLength(TlsUtils.readUint8(typeBytes, 0));
+
+                if (recordQueue.available() >= recordHeaderLength)
+                {
+                    byte[] lengthBytes = new byte[2];
+                    recordQueue.read(lengthBytes, 0, 2, recordHeaderLength - 2);
+                    length = TlsUtils.readUint16(lengthBytes, 0);
+                }
             }
 
-            int received = Math.min(recordQueue.available(), RECORD_HEADER_LENGTH + length);
+            int received = Math.min(recordQueue.available(), recordHeaderLength + length);
             recordQueue.removeData(buf, off, received, 0);
             return received;
         }
@@ -755,8 +813,14 @@ private int receiveRecord(byte[] buf, int off, int len, int waitMillis)
         {
             this.inConnection = true;
 
-            int fragmentLength = TlsUtils.readUint16(buf, off + 11);
-            int recordLength = RECORD_HEADER_LENGTH + fragmentLength;
+            int recordHeaderLength = getReadRecordHeaderLength(TlsUtils.readUint8(buf, off));
+            if (received < recordHeaderLength)
+            {
+                return received;
+            }
+
+            int fragmentLength = TlsUtils.readUint16(buf, off + recordHeaderLength - 2);
+            int recordLength = recordHeaderLength + fragmentLength;
             if (received > recordLength)
             {
                 recordQueue.addData(buf, off + recordLength, received - recordLength);
@@ -819,25 +883,55 @@ private void sendRecord(short contentType, byte[] buf, int off, int len) throws
             long recordSequenceNumber = writeEpoch.allocateSequenceNumber();
             long macSequenceNumber = getMacSequenceNumber(recordEpoch, recordSequenceNumber);
             ProtocolVersion recordVersion = writeVersion;
+            byte[] connectionID = recordEpoch < 1 ? null : writeConnectionID;
+            int recordHeaderLength = getRecordHeaderLength(writeEpoch, writeConnectionID);
 
             TlsEncodeResult encoded = writeEpoch.getCipher().encodePlaintext(macSequenceNumber, contentType,
-                recordVersion, RECORD_HEADER_LENGTH, buf, off, len);
+                recordVersion, recordHeaderLength, buf, off, len);
 
-            int ciphertextLength = encoded.len - RECORD_HEADER_LENGTH;
+            int ciphertextLength = encoded.len - recordHeaderLength;
             TlsUtils.checkUint16(ciphertextLength);
 
             TlsUtils.writeUint8(encoded.recordType, encoded.buf, encoded.off + 0);
             TlsUtils.writeVersion(recordVersion, encoded.buf, encoded.off + 1);
             TlsUtils.writeUint16(recordEpoch, encoded.buf, encoded.off + 3);
             TlsUtils.writeUint48(recordSequenceNumber, encoded.buf, encoded.off + 5);
-            TlsUtils.writeUint16(ciphertextLength, encoded.buf, encoded.off + 11);
+            if (null != connectionID)
+            {
+                System.arraycopy(connectionID, 0, encoded.buf, encoded.off + 11, connectionID.length);
+            }
+            TlsUtils.writeUint16(ciphertextLength, encoded.buf, encoded.off + recordHeaderLength - 2);
 
             sendDatagram(transport, encoded.buf, encoded.off, encoded.len);
         }
     }
 
+    private int getReadRecordHeaderLength(short recordType)
+    {
+        byte[] connectionID = readConnectionID;
+        if (ContentType.tls12_cid != recordType || null == connectionID)
+        {
+            return RECORD_HEADER_LENGTH;
+        }
+        return RECORD_HEADER_LENGTH + connectionID.length;
+    }
+
+    private static byte[] getConnectionID(byte[] connectionID)
+    {
+        return null == connectionID || connectionID.length < 1 ? null : connectionID;
+    }
+
     private static long getMacSequenceNumber(int epoch, long sequence_number)
     {
         return ((epoch & 0xFFFFFFFFL) << 48) | sequence_number;
     }
+
+    private static int getRecordHeaderLength(DTLSEpoch epoch, byte[] connectionID)
+    {
+        if (epoch.getEpoch() < 1 || null == connectionID)
+        {
+            return RECORD_HEADER_LENGTH;
+        }
+        return RECORD_HEADER_LENGTH + connectionID.length;
+    }
 }
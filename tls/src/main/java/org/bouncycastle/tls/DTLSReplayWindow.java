@@ -48,8 +48,9 @@ boolean shouldDiscard(long seq)
      * Report that a received record with the given sequence number passed authentication checks.
      *
      * @param seq the 48-bit DTLSPlainText.sequence_number field of an authenticated record.
+     * @return true if the record is newer than any previously authenticated record.
      */
-    void reportAuthenticated(long seq)
+    boolean reportAuthenticated(long seq)
     {
         if ((seq & VALID_SEQ_MASK) != seq)
         {
@@ -63,6 +64,7 @@ void reportAuthenticated(long seq)
             {
                 bitmap |= (1L << diff);
             }
+            return false;
         }
         else
         {
@@ -77,6 +79,7 @@ void reportAuthenticated(long seq)
                 bitmap |= 1;
             }
             latestConfirmedSeq = seq;
+            return true;
         }
     }
 
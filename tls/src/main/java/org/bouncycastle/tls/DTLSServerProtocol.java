@@ -505,6 +505,26 @@ else if (state.resumedSession && !state.server.allowLegacyResumption())
             TlsExtensionsUtils.addHeartbeatExtension(state.serverExtensions, new HeartbeatExtension(state.heartbeatPolicy));
         }
 
+        // Connection ID
+        {
+            /*
+             * RFC 9146 3. A server willing to use CIDs will respond with a "connection_id" extension in the
+             * ServerHello, containing the CID it wishes the client to use when sending messages towards it.
+             */
+            byte[] clientConnectionID = TlsExtensionsUtils.getConnectionIDExtension(state.clientExtensions);
+            if (null != clientConnectionID && isConnectionIDSupported(securityParameters.getCipherSuite()))
+            {
+                byte[] serverConnectionID = state.server.getNewConnectionID();
+                if (null != serverConnectionID)
+                {
+                    TlsExtensionsUtils.addConnectionIDExtension(state.serverExtensions, serverConnectionID);
+
+                    securityParameters.connectionIDLocal = serverConnectionID;
+                    securityParameters.connectionIDPeer = clientConnectionID;
+                }
+            }
+        }
+
 
 
         /*
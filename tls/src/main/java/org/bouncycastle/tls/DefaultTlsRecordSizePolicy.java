@@ -0,0 +1,108 @@
+package org.bouncycastle.tls;
+
+/**
+ * A {@link TlsRecordSizePolicy} that starts each burst of application data with small records, then
+ * grows them by a fixed step per record until the burst either reaches a threshold size, or exceeds
+ * the plaintext limit. After an idle period (i.e. once the TCP congestion window has likely been
+ * reset) the next burst starts small again.
+ */
+public class DefaultTlsRecordSizePolicy
+    implements TlsRecordSizePolicy
+{
+    // NOTE: Leaves room for IP/TCP headers and options, and record protection, in a 1280-byte packet
+    public static final int DEFAULT_INITIAL_RECORD_SIZE = 1200;
+    public static final long DEFAULT_BOOST_THRESHOLD = 128 * 1024;
+    public static final int DEFAULT_IDLE_MILLIS = 1000;
+
+    private final int initialRecordSize;
+    private final long boostThreshold;
+    private final int idleMillis;
+
+    private long bytesWritten = 0L;
+    private int recordsWritten = 0;
+    private long lastWriteTime = 0L;
+
+    public DefaultTlsRecordSizePolicy()
+    {
+        this(DEFAULT_INITIAL_RECORD_SIZE, DEFAULT_BOOST_THRESHOLD, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * @param initialRecordSize
+     *            the plaintext length of the first record of a burst; each following record grows by
+     *            this amount.
+     * @param boostThreshold
+     *            the number of bytes written in a burst after which full-size records are used.
+     * @param idleMillis
+     *            the idle time (in milliseconds) after which a write starts a new burst, or 0 to only
+     *            use small records at the start of the connection.
+     */
+    public DefaultTlsRecordSizePolicy(int initialRecordSize, long boostThreshold, int idleMillis)
+    {
+        if (initialRecordSize <= 0)
+        {
+            throw new IllegalArgumentException("'initialRecordSize' must be > 0");
+        }
+        if (boostThreshold < 0L)
+        {
+            throw new IllegalArgumentException("'boostThreshold' cannot be negative");
+        }
+        if (idleMillis < 0)
+        {
+            throw new IllegalArgumentException("'idleMillis' cannot be negative");
+        }
+
+        this.initialRecordSize = initialRecordSize;
+        this.boostThreshold = boostThreshold;
+        this.idleMillis = idleMillis;
+    }
+
+    public synchronized int getApplicationDataRecordSize(int plaintextLimit)
+    {
+        long bytes = bytesWritten;
+        int records = recordsWritten;
+
+        if (isIdle(currentTimeMillis()))
+        {
+            bytes = 0L;
+            records = 0;
+        }
+
+        if (bytes >= boostThreshold)
+        {
+            return plaintextLimit;
+        }
+
+        long recordSize = (long)initialRecordSize * (records + 1);
+        return (int)Math.max(1L, Math.min(recordSize, plaintextLimit));
+    }
+
+    public synchronized void notifyApplicationDataWritten(int length)
+    {
+        long now = currentTimeMillis();
+
+        if (isIdle(now))
+        {
+            this.bytesWritten = 0L;
+            this.recordsWritten = 0;
+        }
+
+        if (length > 0 && bytesWritten < boostThreshold)
+        {
+            this.bytesWritten += length;
+            ++this.recordsWritten;
+        }
+
+        this.lastWriteTime = now;
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isIdle(long now)
+    {
+        return idleMillis > 0 && recordsWritten > 0 && (now - lastWriteTime) >= idleMillis;
+    }
+}
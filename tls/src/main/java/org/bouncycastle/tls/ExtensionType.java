@@ -104,6 +104,11 @@
      */
     public static final int cached_info = 25;
 
+    /*
+     * RFC 8879
+     */
+    public static final int compress_certificate = 27;
+
     /*
      * RFC 8449
      */
@@ -128,6 +133,11 @@
     public static final int signature_algorithms_cert = 50;
     public static final int key_share = 51;
 
+    /*
+     * RFC 9146
+     */
+    public static final int connection_id = 54;
+
     /*
      * RFC 5746 3.2.
      */
@@ -189,6 +199,8 @@ public static String getName(int extensionType)
             return "token_binding";
         case cached_info:
             return "cached_info";
+        case compress_certificate:
+            return "compress_certificate";
         case record_size_limit:
             return "record_size_limit";
         case session_ticket:
@@ -213,6 +225,8 @@ public static String getName(int extensionType)
             return "signature_algorithms_cert";
         case key_share:
             return "key_share";
+        case connection_id:
+            return "connection_id";
         case renegotiation_info:
             return "renegotiation_info";
         default:
@@ -255,6 +269,7 @@ public static boolean isRecognized(int extensionType)
         case extended_master_secret:
         case token_binding:
         case cached_info:
+        case compress_certificate:
         case record_size_limit:
         case session_ticket:
         case pre_shared_key:
@@ -267,6 +282,7 @@ public static boolean isRecognized(int extensionType)
         case post_handshake_auth:
         case signature_algorithms_cert:
         case key_share:
+        case connection_id:
         case renegotiation_info:
             return true;
         default:
@@ -26,4 +26,9 @@ void updateHash(TlsHash hash)
     {
         hash.update(buf, mark, count - mark);
     }
+
+    void updateHashPrefix(TlsHash hash, int bindersSize)
+    {
+        hash.update(buf, mark, count - mark - bindersSize);
+    }
 }
@@ -3,6 +3,8 @@
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import org.bouncycastle.tls.crypto.TlsHash;
+
 class HandshakeMessageOutput
     extends ByteArrayOutputStream
 {
@@ -31,10 +33,28 @@ static void send(TlsProtocol protocol, short handshakeType, byte[] body)
     void send(TlsProtocol protocol) throws IOException
     {
         // Patch actual length back in
+        patchLength();
+        protocol.writeHandshakeMessage(buf, 0, count);
+        buf = null;
+    }
+
+    void updateHashPrefix(TlsHash hash, int bindersSize) throws IOException
+    {
+        // The hash covers the header, so the actual length has to be patched in first
+        patchLength();
+        hash.update(buf, 0, count - bindersSize);
+    }
+
+    void writeBinder(byte[] binder)
+    {
+        // NOTE: Overwrites the placeholder binder, which is always the last one written
+        System.arraycopy(binder, 0, buf, count - binder.length, binder.length);
+    }
+
+    private void patchLength() throws IOException
+    {
         int length = count - 4;
         TlsUtils.checkUint24(length);
         TlsUtils.writeUint24(length, buf, 1);
-        protocol.writeHandshakeMessage(buf, 0, count);
-        buf = null;
     }
 }
@@ -40,4 +40,9 @@
     public static final short encrypted_extensions = 8; 
     public static final short key_update = 24; 
     public static final short message_hash = 254; 
+
+    /*
+     * RFC 8879
+     */
+    public static final short compressed_certificate = 25;
 }
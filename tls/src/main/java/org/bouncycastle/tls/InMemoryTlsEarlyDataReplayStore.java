@@ -0,0 +1,141 @@
+package org.bouncycastle.tls;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.bouncycastle.util.Longs;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * A {@link TlsEarlyDataReplayStore} holding its state in memory, suitable for a single server instance.
+ * <p>
+ * Early data is only accepted when the client's view of the ticket age places the ClientHello within a
+ * window of the current time (RFC 8446 8.3). Within that window, either each ClientHello.random is only
+ * accepted once (RFC 8446 8.2), or (for single-use tickets) each ticket is only accepted once over its whole
+ * lifetime (RFC 8446 8.1).
+ * </p>
+ */
+public class InMemoryTlsEarlyDataReplayStore
+    implements TlsEarlyDataReplayStore
+{
+    public static final long DEFAULT_WINDOW_MILLIS = 10000L;
+
+    protected final boolean singleUseTickets;
+    protected final long windowMillis;
+
+    // Hashtable is (String -> Long), hex-encoded key to expiry time
+    protected final Hashtable entries = new Hashtable();
+    protected long nextPurgeTime = 0L;
+
+    /**
+     * A strike register with a window of {@link #DEFAULT_WINDOW_MILLIS} milliseconds.
+     */
+    public InMemoryTlsEarlyDataReplayStore()
+    {
+        this(false, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param singleUseTickets
+     *            true to accept early data only once per ticket, false to accept it once per
+     *            ClientHello.random.
+     * @param windowMillis
+     *            the maximum difference (in milliseconds) between the expected and actual arrival times of
+     *            a ClientHello offering early data.
+     */
+    public InMemoryTlsEarlyDataReplayStore(boolean singleUseTickets, long windowMillis)
+    {
+        if (windowMillis < 0L)
+        {
+            throw new IllegalArgumentException("'windowMillis' cannot be negative");
+        }
+
+        this.singleUseTickets = singleUseTickets;
+        this.windowMillis = windowMillis;
+    }
+
+    public synchronized boolean accept(SessionParameters ticketParameters, byte[] clientRandom,
+        long clientTicketAge)
+    {
+        byte[] ticket = ticketParameters.getTicket();
+        if (null == ticket || null == clientRandom)
+        {
+            return false;
+        }
+
+        long now = currentTimeMillis();
+
+        /*
+         * RFC 8446 8.3. expected_arrival_time = adjusted_creation_time + clients_ticket_age. If the
+         * expected_arrival_time is outside the window, the server SHOULD reject 0-RTT.
+         */
+        long expectedArrivalTime = ticketParameters.getTicketIssueTime() + clientTicketAge;
+        if (Math.abs(now - expectedArrivalTime) > windowMillis)
+        {
+            return false;
+        }
+
+        purgeExpired(now);
+
+        String key;
+        long expiry;
+        if (singleUseTickets)
+        {
+            key = Hex.toHexString(ticket);
+            expiry = ticketParameters.getTicketIssueTime() + ticketParameters.getTicketLifetime() * 1000L;
+        }
+        else
+        {
+            // NOTE: A replayed ClientHello fails the freshness check once outside the window
+            key = Hex.toHexString(clientRandom);
+            expiry = expectedArrivalTime + windowMillis;
+        }
+
+        if (entries.containsKey(key))
+        {
+            return false;
+        }
+
+        entries.put(key, Longs.valueOf(Math.max(expiry, now)));
+        return true;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    protected void purgeExpired(long now)
+    {
+        if (now < nextPurgeTime)
+        {
+            return;
+        }
+
+        Vector expired = new Vector();
+
+        Enumeration keys = entries.keys();
+        while (keys.hasMoreElements())
+        {
+            Object key = keys.nextElement();
+            long expiry = ((Long)entries.get(key)).longValue();
+            if (expiry < now)
+            {
+                expired.addElement(key);
+            }
+        }
+
+        for (int i = 0; i < expired.size(); ++i)
+        {
+            entries.remove(expired.elementAt(i));
+        }
+
+        this.nextPurgeTime = now + Math.max(1000L, windowMillis);
+    }
+}
@@ -36,6 +36,21 @@ public Vector getIdentities()
         return identities;
     }
 
+    /**
+     * @return the encoded length of the binders, i.e. the trailing part of the ClientHello that is
+     *         excluded from the PSK binder transcript (RFC 8446 4.2.11.2).
+     */
+    public int getBindersSize()
+    {
+        int bindersSize = 2;
+        for (int i = 0; i < binders.size(); ++i)
+        {
+            byte[] binder = (byte[])binders.elementAt(i);
+            bindersSize += 1 + binder.length;
+        }
+        return bindersSize;
+    }
+
     public void encode(OutputStream output) throws IOException
     {
         // identities
@@ -109,7 +124,7 @@ public static OfferedPsks parse(InputStream input) throws IOException
             ByteArrayInputStream buf = new ByteArrayInputStream(bindersData);
             do
             {
-                byte[] binder = TlsUtils.readOpaque8(input, 32);
+                byte[] binder = TlsUtils.readOpaque8(buf, 32);
                 binders.add(binder);
             }
             while (buf.available() > 0);
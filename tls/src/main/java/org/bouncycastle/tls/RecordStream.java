@@ -19,17 +19,21 @@
     private static int DEFAULT_PLAINTEXT_LIMIT = (1 << 14);
 
     private final Record inputRecord = new Record();
+    private final Object writeLock = new Object();
 
     private TlsProtocol handler;
     private InputStream input;
     private OutputStream output;
 //    private TlsContext context = null;
     private TlsCipher pendingCipher = null, readCipher = null, readCipherDeferred = null, writeCipher = null;
+    private TlsCipher readCipherAfterEarlyData = null;
     private SequenceNumber readSeqNo = new SequenceNumber(), writeSeqNo = new SequenceNumber();
 
     private ProtocolVersion writeVersion = null;
 
     private int plaintextLimit, ciphertextLimit;
+    private int writePlaintextLimit, pendingPlaintextLimit = -1;
+    private int skipEarlyDataLimit = -1;
     private boolean ignoreChangeCipherSpec;
 
     RecordStream(TlsProtocol handler, InputStream input, OutputStream output)
@@ -49,15 +53,52 @@ void init(TlsContext context)
         setPlaintextLimit(DEFAULT_PLAINTEXT_LIMIT);
     }
 
-    int getPlaintextLimit()
+    /*
+     * NOTE: Held while each record is written to the output, so (in non-blocking mode) the protocol can
+     * also use it to guard the buffered output against concurrent reads.
+     */
+    Object getWriteLock()
     {
-        return plaintextLimit;
+        return writeLock;
+    }
+
+    int getWritePlaintextLimit()
+    {
+        return writePlaintextLimit;
     }
 
     void setPlaintextLimit(int plaintextLimit)
     {
         this.plaintextLimit = plaintextLimit;
         this.ciphertextLimit = readCipher.getCiphertextDecodeLimit(plaintextLimit);
+        this.writePlaintextLimit = plaintextLimit;
+        this.pendingPlaintextLimit = -1;
+    }
+
+    /*
+     * RFC 8449 4. The record size limit only applies to records sent toward the endpoint that advertises
+     * the limit. [..] Unprotected messages are not subject to this limit.
+     */
+    void setReadPlaintextLimit(int plaintextLimit, boolean deferred)
+    {
+        plaintextLimit = Math.min(plaintextLimit, DEFAULT_PLAINTEXT_LIMIT);
+
+        if (deferred)
+        {
+            // NOTE: Takes effect along with the next read cipher
+            this.pendingPlaintextLimit = plaintextLimit;
+        }
+        else
+        {
+            this.plaintextLimit = plaintextLimit;
+            this.ciphertextLimit = readCipher.getCiphertextDecodeLimit(plaintextLimit);
+            this.pendingPlaintextLimit = -1;
+        }
+    }
+
+    void setWritePlaintextLimit(int plaintextLimit)
+    {
+        this.writePlaintextLimit = Math.min(plaintextLimit, DEFAULT_PLAINTEXT_LIMIT);
     }
 
     void setWriteVersion(ProtocolVersion writeVersion)
@@ -103,12 +144,45 @@ void enablePendingCipherRead(boolean deferred)
         }
         else
         {
-            this.readCipher = pendingCipher;
-            this.ciphertextLimit = readCipher.getCiphertextDecodeLimit(plaintextLimit);
-            this.readSeqNo = new SequenceNumber();
+            setReadCipher(pendingCipher);
         }
     }
 
+    /*
+     * RFC 8446 4.2.10. The server reads accepted early data with the early cipher, then switches to the
+     * (pending) handshake cipher on receipt of the EndOfEarlyData message.
+     */
+    void enablePendingCipherReadAfterEarlyData()
+        throws IOException
+    {
+        if (pendingCipher == null || readCipherDeferred != null || readCipherAfterEarlyData != null)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        this.readCipherAfterEarlyData = pendingCipher;
+    }
+
+    void notifyEndOfEarlyDataReceived()
+        throws IOException
+    {
+        if (readCipherAfterEarlyData == null)
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
+        setReadCipher(readCipherAfterEarlyData);
+        this.readCipherAfterEarlyData = null;
+    }
+
+    /*
+     * RFC 8446 4.2.10. If the server [..] rejects the early data, it skips past early data by attempting
+     * to deprotect received records using the handshake traffic key, discarding records which fail
+     * deprotection (up to the configured max_early_data_size).
+     */
+    void setSkipEarlyDataLimit(int skipEarlyDataLimit)
+    {
+        this.skipEarlyDataLimit = skipEarlyDataLimit;
+    }
+
     void enablePendingCipherWrite()
         throws IOException
     {
@@ -120,14 +194,25 @@ void enablePendingCipherWrite()
         this.writeSeqNo = new SequenceNumber();
     }
 
+    /*
+     * RFC 8446 4.1.2. A client that offered early data sends a second ClientHello (after a HelloRetryRequest)
+     * unprotected, as for the first.
+     */
+    void resetWriteCipher()
+    {
+        this.writeCipher = TlsNullNullCipher.INSTANCE;
+        this.writeSeqNo = new SequenceNumber();
+    }
+
     void finaliseHandshake()
         throws IOException
     {
-        if (readCipher != pendingCipher || writeCipher != pendingCipher)
+        if (readCipher != pendingCipher || writeCipher != pendingCipher || readCipherAfterEarlyData != null)
         {
             throw new TlsFatalAlert(AlertDescription.handshake_failure);
         }
         this.pendingCipher = null;
+        this.skipEarlyDataLimit = -1;
     }
 
     RecordPreview previewRecordHeader(byte[] recordHeader) throws IOException
@@ -154,10 +239,10 @@ RecordPreview previewRecordHeader(byte[] recordHeader) throws IOException
 
     RecordPreview previewOutputRecord(int applicationDataSize)
     {
-        int applicationDataLimit = Math.max(0, Math.min(plaintextLimit, applicationDataSize));
+        int applicationDataLimit = Math.max(0, Math.min(writePlaintextLimit, applicationDataSize));
 
         int recordSize = RecordFormat.FRAGMENT_OFFSET
-            + writeCipher.getCiphertextEncodeLimit(applicationDataLimit, plaintextLimit);
+            + writeCipher.getCiphertextEncodeLimit(applicationDataLimit, writePlaintextLimit);
 
         return new RecordPreview(recordSize, applicationDataLimit);
     }
@@ -191,7 +276,10 @@ boolean readFullRecord(byte[] input, int inputOff, int inputLen)
         TlsDecodeResult decoded = decodeAndVerify(recordType, recordVersion, input,
             inputOff + RecordFormat.FRAGMENT_OFFSET, length);
 
-        handler.processRecord(decoded.contentType, decoded.buf, decoded.off, decoded.len);
+        if (null != decoded)
+        {
+            handler.processRecord(decoded.contentType, decoded.buf, decoded.off, decoded.len);
+        }
         return true;
     }
 
@@ -229,7 +317,10 @@ boolean readRecord()
             inputRecord.reset();
         }
 
-        handler.processRecord(decoded.contentType, decoded.buf, decoded.off, decoded.len);
+        if (null != decoded)
+        {
+            handler.processRecord(decoded.contentType, decoded.buf, decoded.off, decoded.len);
+        }
         return true;
     }
 
@@ -237,7 +328,38 @@ TlsDecodeResult decodeAndVerify(short recordType, ProtocolVersion recordVersion,
         throws IOException
     {
         long seqNo = readSeqNo.nextValue(AlertDescription.unexpected_message);
-        TlsDecodeResult decoded = readCipher.decodeCiphertext(seqNo, recordType, recordVersion, ciphertext, off, len);
+
+        TlsDecodeResult decoded;
+        if (skipEarlyDataLimit < 0)
+        {
+            decoded = readCipher.decodeCiphertext(seqNo, recordType, recordVersion, ciphertext, off, len);
+        }
+        else
+        {
+            try
+            {
+                decoded = readCipher.decodeCiphertext(seqNo, recordType, recordVersion, ciphertext, off, len);
+                this.skipEarlyDataLimit = -1;
+            }
+            catch (TlsFatalAlert e)
+            {
+                if (AlertDescription.bad_record_mac != e.getAlertDescription())
+                {
+                    throw e;
+                }
+
+                int skipped = Math.max(0, readCipher.getPlaintextLimit(len));
+                if (skipped > skipEarlyDataLimit)
+                {
+                    throw new TlsFatalAlert(AlertDescription.unexpected_message, e);
+                }
+
+                // NOTE: Nothing was yet deprotected with this cipher, so the sequence number restarts
+                this.skipEarlyDataLimit -= skipped;
+                this.readSeqNo = new SequenceNumber();
+                return null;
+            }
+        }
 
         checkLength(decoded.len, plaintextLimit, AlertDescription.record_overflow);
 
@@ -255,6 +377,12 @@ TlsDecodeResult decodeAndVerify(short recordType, ProtocolVersion recordVersion,
 
     void writeRecord(short contentType, byte[] plaintext, int plaintextOffset, int plaintextLength)
         throws IOException
+    {
+        writeRecord(contentType, plaintext, plaintextOffset, plaintextLength, output);
+    }
+
+    void writeRecord(short contentType, byte[] plaintext, int plaintextOffset, int plaintextLength,
+        OutputStream output) throws IOException
     {
         // Never send anything until a valid ClientHello has been received
         if (writeVersion == null)
@@ -265,7 +393,7 @@ void writeRecord(short contentType, byte[] plaintext, int plaintextOffset, int p
         /*
          * RFC 5246 6.2.1 The length should not exceed 2^14.
          */
-        checkLength(plaintextLength, plaintextLimit, AlertDescription.internal_error);
+        checkLength(plaintextLength, writePlaintextLimit, AlertDescription.internal_error);
 
         /*
          * RFC 5246 6.2.1 Implementations MUST NOT send zero-length fragments of Handshake, Alert,
@@ -276,29 +404,33 @@ void writeRecord(short contentType, byte[] plaintext, int plaintextOffset, int p
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        long seqNo = writeSeqNo.nextValue(AlertDescription.internal_error);
-        ProtocolVersion recordVersion = writeVersion;
+        // NOTE: The write cipher may reuse its output buffer, so each record is written out before the next
+        synchronized (writeLock)
+        {
+            long seqNo = writeSeqNo.nextValue(AlertDescription.internal_error);
+            ProtocolVersion recordVersion = writeVersion;
 
-        TlsEncodeResult encoded = writeCipher.encodePlaintext(seqNo, contentType, recordVersion,
-            RecordFormat.FRAGMENT_OFFSET, plaintext, plaintextOffset, plaintextLength);
+            TlsEncodeResult encoded = writeCipher.encodePlaintext(seqNo, contentType, recordVersion,
+                RecordFormat.FRAGMENT_OFFSET, plaintext, plaintextOffset, plaintextLength);
 
-        int ciphertextLength = encoded.len - RecordFormat.FRAGMENT_OFFSET;
-        TlsUtils.checkUint16(ciphertextLength);
+            int ciphertextLength = encoded.len - RecordFormat.FRAGMENT_OFFSET;
+            TlsUtils.checkUint16(ciphertextLength);
 
-        TlsUtils.writeUint8(encoded.recordType, encoded.buf, encoded.off + RecordFormat.TYPE_OFFSET);
-        TlsUtils.writeVersion(recordVersion, encoded.buf, encoded.off + RecordFormat.VERSION_OFFSET);
-        TlsUtils.writeUint16(ciphertextLength, encoded.buf, encoded.off + RecordFormat.LENGTH_OFFSET);
+            TlsUtils.writeUint8(encoded.recordType, encoded.buf, encoded.off + RecordFormat.TYPE_OFFSET);
+            TlsUtils.writeVersion(recordVersion, encoded.buf, encoded.off + RecordFormat.VERSION_OFFSET);
+            TlsUtils.writeUint16(ciphertextLength, encoded.buf, encoded.off + RecordFormat.LENGTH_OFFSET);
 
-        try
-        {
-            output.write(encoded.buf, encoded.off, encoded.len);
-        }
-        catch (InterruptedIOException e)
-        {
-            throw new TlsFatalAlert(AlertDescription.internal_error, e);
-        }
+            try
+            {
+                output.write(encoded.buf, encoded.off, encoded.len);
+            }
+            catch (InterruptedIOException e)
+            {
+                throw new TlsFatalAlert(AlertDescription.internal_error, e);
+            }
 
-        output.flush();
+            output.flush();
+        }
     }
 
     void close() throws IOException
@@ -353,6 +485,19 @@ private void checkChangeCipherSpec(byte[] buf, int off, int len)
         }
     }
 
+    private void setReadCipher(TlsCipher readCipher)
+    {
+        if (pendingPlaintextLimit >= 0)
+        {
+            this.plaintextLimit = pendingPlaintextLimit;
+            this.pendingPlaintextLimit = -1;
+        }
+
+        this.readCipher = readCipher;
+        this.ciphertextLimit = readCipher.getCiphertextDecodeLimit(plaintextLimit);
+        this.readSeqNo = new SequenceNumber();
+    }
+
     private short checkRecordType(byte[] buf, int off)
         throws IOException
     {
@@ -360,10 +505,8 @@ private short checkRecordType(byte[] buf, int off)
 
         if (null != readCipherDeferred && recordType == ContentType.application_data)
         {
-            this.readCipher = readCipherDeferred;
+            setReadCipher(readCipherDeferred);
             this.readCipherDeferred = null;
-            this.ciphertextLimit = readCipher.getCiphertextDecodeLimit(plaintextLimit);
-            this.readSeqNo = new SequenceNumber();
         }
         else if (readCipher.usesOpaqueRecordType())
         {
@@ -417,6 +560,9 @@ private static void checkLength(int length, int limit, short alertDescription)
     {
         private final byte[] header = new byte[RecordFormat.FRAGMENT_OFFSET];
 
+        // NOTE: Retained across records, so that steady-state reading doesn't allocate
+        private byte[] fragmentBuf = null;
+
         volatile byte[] buf = header;
         volatile int pos = 0;
 
@@ -487,8 +633,16 @@ private void resize(int length)
         {
             if (buf.length < length)
             {
-                byte[] tmp = new byte[length];
-                System.arraycopy(buf, 0, tmp, 0, pos);
+                byte[] tmp = fragmentBuf;
+                if (null == tmp || tmp.length < length)
+                {
+                    tmp = new byte[length];
+                    fragmentBuf = tmp;
+                }
+                if (tmp != buf)
+                {
+                    System.arraycopy(buf, 0, tmp, 0, pos);
+                }
                 buf = tmp;
             }
         }
@@ -26,6 +26,7 @@
     TlsSecret exporterMasterSecret = null;
     TlsSecret handshakeSecret = null;
     TlsSecret masterSecret = null;
+    TlsSecret resumptionMasterSecret = null;
     TlsSecret sharedSecret = null;
     TlsSecret trafficSecretClient = null;
     TlsSecret trafficSecretServer = null;
@@ -38,6 +39,9 @@
     byte[] srpIdentity = null;
     byte[] tlsServerEndPoint = null;
     byte[] tlsUnique = null;
+    byte[] connectionIDLocal = null;
+    byte[] connectionIDPeer = null;
+    boolean earlyDataAccepted = false;
     boolean encryptThenMAC = false;
     boolean extendedMasterSecret = false;
     boolean extendedPadding = false;
@@ -237,6 +241,14 @@ public TlsSecret getMasterSecret()
         return masterSecret;
     }
 
+    /**
+     * NOTE: Not cleared at the end of the handshake, since TLS 1.3 NewSessionTicket messages are sent after it.
+     */
+    public TlsSecret getResumptionMasterSecret()
+    {
+        return resumptionMasterSecret;
+    }
+
     public TlsSecret getSharedSecret()
     {
         return sharedSecret;
@@ -297,6 +309,32 @@ public byte[] getTLSUnique()
         return tlsUnique;
     }
 
+    /**
+     * @return the RFC 9146 connection ID that the peer includes in the records it sends to us, or null
+     *         if none was negotiated.
+     */
+    public byte[] getConnectionIDLocal()
+    {
+        return connectionIDLocal;
+    }
+
+    /**
+     * @return the RFC 9146 connection ID that we include in the records we send to the peer, or null if
+     *         none was negotiated.
+     */
+    public byte[] getConnectionIDPeer()
+    {
+        return connectionIDPeer;
+    }
+
+    /**
+     * @return whether TLS 1.3 early data (0-RTT) was offered by the client and accepted by the server.
+     */
+    public boolean isEarlyDataAccepted()
+    {
+        return earlyDataAccepted;
+    }
+
     public boolean isEncryptThenMAC()
     {
         return encryptThenMAC;
@@ -22,6 +22,11 @@
         private byte[] srpIdentity = null;
         private byte[] encodedServerExtensions = null;
         private boolean extendedMasterSecret = false;
+        private byte[] ticket = null;
+        private long ticketAgeAdd = 0L;
+        private long ticketLifetime = 0L;
+        private long ticketIssueTime = 0L;
+        private long maxEarlyDataSize = 0L;
 
         public Builder()
         {
@@ -34,7 +39,7 @@ public SessionParameters build()
             validate(this.masterSecret != null, "masterSecret");
             return new SessionParameters(cipherSuite, compressionAlgorithm, localCertificate, masterSecret,
                 negotiatedVersion, peerCertificate, pskIdentity, srpIdentity, encodedServerExtensions,
-                extendedMasterSecret);
+                extendedMasterSecret, ticket, ticketAgeAdd, ticketLifetime, ticketIssueTime, maxEarlyDataSize);
         }
 
         public Builder setCipherSuite(int cipherSuite)
@@ -67,6 +72,17 @@ public Builder setMasterSecret(TlsSecret masterSecret)
             return this;
         }
 
+        /**
+         * Set the TLS 1.3 max_early_data_size (RFC 8446 4.2.10) permitted with this session's ticket.
+         *
+         * @param maxEarlyDataSize the maximum amount of 0-RTT data, in bytes; 0 if early data is not permitted.
+         */
+        public Builder setMaxEarlyDataSize(long maxEarlyDataSize)
+        {
+            this.maxEarlyDataSize = maxEarlyDataSize;
+            return this;
+        }
+
         public Builder setNegotiatedVersion(ProtocolVersion negotiatedVersion)
         {
             this.negotiatedVersion = negotiatedVersion;
@@ -91,6 +107,24 @@ public Builder setSRPIdentity(byte[] srpIdentity)
             return this;
         }
 
+        /**
+         * Set the TLS 1.3 session ticket (RFC 8446 4.6.1) that this session is resumed with.
+         *
+         * @param ticket          the opaque ticket, used as the PSK identity.
+         * @param ticketAgeAdd    the ticket_age_add value (a uint32).
+         * @param ticketLifetime  the ticket lifetime, in seconds.
+         * @param ticketIssueTime the time (as per {@link System#currentTimeMillis()}) the ticket was issued
+         *                        (server) or received (client).
+         */
+        public Builder setTicket(byte[] ticket, long ticketAgeAdd, long ticketLifetime, long ticketIssueTime)
+        {
+            this.ticket = ticket;
+            this.ticketAgeAdd = ticketAgeAdd;
+            this.ticketLifetime = ticketLifetime;
+            this.ticketIssueTime = ticketIssueTime;
+            return this;
+        }
+
         public Builder setServerExtensions(Hashtable serverExtensions) throws IOException
         {
             if (serverExtensions == null || serverExtensions.isEmpty())
@@ -125,10 +159,16 @@ private void validate(boolean condition, String parameter)
     private byte[] srpIdentity = null;
     private byte[] encodedServerExtensions;
     private boolean extendedMasterSecret;
+    private byte[] ticket;
+    private long ticketAgeAdd;
+    private long ticketLifetime;
+    private long ticketIssueTime;
+    private long maxEarlyDataSize;
 
     private SessionParameters(int cipherSuite, short compressionAlgorithm, Certificate localCertificate,
         TlsSecret masterSecret, ProtocolVersion negotiatedVersion, Certificate peerCertificate, byte[] pskIdentity,
-        byte[] srpIdentity, byte[] encodedServerExtensions, boolean extendedMasterSecret)
+        byte[] srpIdentity, byte[] encodedServerExtensions, boolean extendedMasterSecret, byte[] ticket,
+        long ticketAgeAdd, long ticketLifetime, long ticketIssueTime, long maxEarlyDataSize)
     {
         this.cipherSuite = cipherSuite;
         this.compressionAlgorithm = compressionAlgorithm;
@@ -140,6 +180,11 @@ private SessionParameters(int cipherSuite, short compressionAlgorithm, Certifica
         this.srpIdentity = Arrays.clone(srpIdentity);
         this.encodedServerExtensions = encodedServerExtensions;
         this.extendedMasterSecret = extendedMasterSecret;
+        this.ticket = ticket;
+        this.ticketAgeAdd = ticketAgeAdd;
+        this.ticketLifetime = ticketLifetime;
+        this.ticketIssueTime = ticketIssueTime;
+        this.maxEarlyDataSize = maxEarlyDataSize;
     }
 
     public void clear()
@@ -154,7 +199,7 @@ public SessionParameters copy()
     {
         return new SessionParameters(cipherSuite, compressionAlgorithm, localCertificate, masterSecret,
             negotiatedVersion, peerCertificate, pskIdentity, srpIdentity, encodedServerExtensions,
-            extendedMasterSecret);
+            extendedMasterSecret, ticket, ticketAgeAdd, ticketLifetime, ticketIssueTime, maxEarlyDataSize);
     }
 
     public int getCipherSuite()
@@ -177,6 +222,11 @@ public TlsSecret getMasterSecret()
         return masterSecret;
     }
 
+    public long getMaxEarlyDataSize()
+    {
+        return maxEarlyDataSize;
+    }
+
     public ProtocolVersion getNegotiatedVersion()
     {
         return negotiatedVersion;
@@ -197,6 +247,41 @@ public byte[] getSRPIdentity()
         return srpIdentity;
     }
 
+    public byte[] getTicket()
+    {
+        return ticket;
+    }
+
+    public long getTicketAgeAdd()
+    {
+        return ticketAgeAdd;
+    }
+
+    public long getTicketIssueTime()
+    {
+        return ticketIssueTime;
+    }
+
+    public long getTicketLifetime()
+    {
+        return ticketLifetime;
+    }
+
+    /**
+     * @param now the current time (as per {@link System#currentTimeMillis()}).
+     * @return whether a TLS 1.3 ticket is set and its lifetime has not yet expired.
+     */
+    public boolean isTicketValid(long now)
+    {
+        if (null == ticket)
+        {
+            return false;
+        }
+
+        long age = now - ticketIssueTime;
+        return age >= 0L && age < ticketLifetime * 1000L;
+    }
+
     public boolean isExtendedMasterSecret()
     {
         return extendedMasterSecret;
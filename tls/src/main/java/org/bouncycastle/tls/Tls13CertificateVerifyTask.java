@@ -0,0 +1,88 @@
+package org.bouncycastle.tls;
+
+import java.io.IOException;
+
+import org.bouncycastle.tls.crypto.TlsCrypto;
+
+/**
+ * Generates a TLS 1.3 CertificateVerify signature from a snapshot of the transcript hash, so that it can
+ * be run by a {@link TlsSignerExecutor} independently of the protocol instance.
+ */
+class Tls13CertificateVerifyTask
+    implements Runnable
+{
+    private final TlsCrypto crypto;
+    private final TlsCredentialedSigner credentialedSigner;
+    private final SignatureAndHashAlgorithm signatureAndHashAlgorithm;
+    private final String contextString;
+    private final byte[] prfHash;
+
+    private volatile DigitallySigned result = null;
+    private volatile Throwable failure = null;
+    private volatile boolean done = false;
+
+    Tls13CertificateVerifyTask(TlsContext context, TlsCredentialedSigner credentialedSigner,
+        TlsHandshakeHash handshakeHash) throws IOException
+    {
+        SignatureAndHashAlgorithm signatureAndHashAlgorithm = credentialedSigner.getSignatureAndHashAlgorithm();
+        if (null == signatureAndHashAlgorithm)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        this.crypto = context.getCrypto();
+        this.credentialedSigner = credentialedSigner;
+        this.signatureAndHashAlgorithm = signatureAndHashAlgorithm;
+        this.contextString = TlsUtils.get13CertificateVerifyContextString(context.isServer());
+        this.prfHash = TlsUtils.getCurrentPRFHash(handshakeHash);
+    }
+
+    public void run()
+    {
+        if (done)
+        {
+            throw new IllegalStateException("Signing task has already been run");
+        }
+
+        try
+        {
+            byte[] signature = TlsUtils.generate13CertificateVerify(crypto, credentialedSigner, contextString,
+                prfHash, signatureAndHashAlgorithm.getHash());
+
+            this.result = new DigitallySigned(signatureAndHashAlgorithm, signature);
+        }
+        catch (Throwable t)
+        {
+            this.failure = t;
+        }
+        finally
+        {
+            this.done = true;
+        }
+    }
+
+    boolean isDone()
+    {
+        return done;
+    }
+
+    DigitallySigned getResult() throws IOException
+    {
+        if (!done)
+        {
+            throw new IllegalStateException("Signing task has not been run");
+        }
+
+        Throwable t = this.failure;
+        if (null != t)
+        {
+            if (t instanceof TlsFatalAlert)
+            {
+                throw (TlsFatalAlert)t;
+            }
+            throw new TlsFatalAlert(AlertDescription.internal_error, t);
+        }
+
+        return result;
+    }
+}
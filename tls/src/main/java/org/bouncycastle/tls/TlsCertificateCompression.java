@@ -0,0 +1,38 @@
+package org.bouncycastle.tls;
+
+import java.io.IOException;
+
+/**
+ * Interface for a certificate compression algorithm (RFC 8879), used to compress and decompress the
+ * body of a TLS 1.3 Certificate message.
+ */
+public interface TlsCertificateCompression
+{
+    /**
+     * @return the {@link CertificateCompressionAlgorithm} implemented.
+     */
+    int getAlgorithm();
+
+    /**
+     * Compress an encoded Certificate message (without the handshake message header).
+     *
+     * @param certificateMessage
+     *            the encoded Certificate message.
+     * @return the compressed data.
+     * @throws IOException
+     */
+    byte[] compress(byte[] certificateMessage) throws IOException;
+
+    /**
+     * Decompress a received CompressedCertificate.compressed_certificate_message.
+     *
+     * @param compressedCertificateMessage
+     *            the compressed data.
+     * @param uncompressedLength
+     *            the length the peer claims for the decompressed data.
+     * @return the encoded Certificate message, of exactly uncompressedLength bytes.
+     * @throws IOException
+     *             if the data cannot be decompressed to the expected length.
+     */
+    byte[] decompress(byte[] compressedCertificateMessage, int uncompressedLength) throws IOException;
+}
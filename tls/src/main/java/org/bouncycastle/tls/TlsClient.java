@@ -97,4 +97,34 @@ Vector getClientSupplementalData()
      */
     void notifyNewSessionTicket(NewSessionTicket newSessionTicket)
         throws IOException;
+
+    /**
+     * RFC 8446 4.6.1. New Session Ticket Message
+     * <p>
+     * This method will be called for each TLS 1.3 NewSessionTicket message received after the
+     * handshake. The session carries the ticket and the PSK derived for it, and can be returned from a
+     * later call to {@link #getSessionToResume()} to resume it.
+     *
+     * @param session The resumable session.
+     * @throws IOException
+     */
+    void notifySessionToResume(TlsSession session)
+        throws IOException;
+
+    /**
+     * RFC 8446 4.2.10. Early Data Indication
+     * <p>
+     * Called when resuming a TLS 1.3 session whose ticket permits early data (0-RTT). Any data returned
+     * is sent immediately after the ClientHello, provided it is no larger than the ticket's
+     * max_early_data_size. Check {@link SecurityParameters#isEarlyDataAccepted()} once the handshake
+     * completes; if the server rejected the early data, it has been discarded and must be sent again.
+     * <p>
+     * NOTE: Early data is not forward secret, and can be replayed by an attacker. Only use it for
+     * requests that are safe to repeat.
+     *
+     * @return The early data to send, or null to not send early data.
+     * @throws IOException
+     */
+    byte[] getEarlyData()
+        throws IOException;
 }
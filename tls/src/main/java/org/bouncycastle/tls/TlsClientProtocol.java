@@ -9,6 +9,8 @@
 import java.util.Vector;
 
 import org.bouncycastle.tls.crypto.TlsAgreement;
+import org.bouncycastle.tls.crypto.TlsCrypto;
+import org.bouncycastle.tls.crypto.TlsHash;
 import org.bouncycastle.tls.crypto.TlsSecret;
 import org.bouncycastle.tls.crypto.TlsStreamSigner;
 import org.bouncycastle.util.Arrays;
@@ -29,6 +31,7 @@
 
     protected CertificateStatus certificateStatus = null;
     protected CertificateRequest certificateRequest = null;
+    protected boolean earlyDataOffered = false;
 
     /**
      * Constructor for non-blocking mode.<br>
@@ -149,6 +152,7 @@ protected void cleanupHandshake()
 
         this.certificateStatus = null;
         this.certificateRequest = null;
+        this.earlyDataOffered = false;
     }
 
     protected TlsContext getContext()
@@ -174,16 +178,10 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        if (this.resumedSession)
-        {
-            /*
-             * TODO[tls13] Abbreviated handshakes (PSK resumption)
-             * 
-             * NOTE: No CertificateRequest, Certificate, CertificateVerify messages, but client
-             * might now send EndOfEarlyData after receiving server Finished message.
-             */
-            throw new TlsFatalAlert(AlertDescription.internal_error);
-        }
+        /*
+         * NOTE: For abbreviated handshakes (PSK resumption) the server sends no CertificateRequest,
+         * Certificate, CertificateVerify messages.
+         */
 
         switch (type)
         {
@@ -198,9 +196,11 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             }
             case CS_SERVER_CERTIFICATE_REQUEST:
             {
-                /*
-                 * TODO[tls13] For PSK-only key exchange, there's no Certificate message.
-                 */
+                if (this.resumedSession)
+                {
+                    throw new TlsFatalAlert(AlertDescription.unexpected_message);
+                }
+
                 receive13ServerCertificate(buf);
                 this.connection_state = CS_SERVER_CERTIFICATE;
                 break;
@@ -210,6 +210,31 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             }
             break;
         }
+        case HandshakeType.compressed_certificate:
+        {
+            switch (this.connection_state)
+            {
+            case CS_SERVER_ENCRYPTED_EXTENSIONS:
+            {
+                skip13CertificateRequest();
+                // Fall through
+            }
+            case CS_SERVER_CERTIFICATE_REQUEST:
+            {
+                if (this.resumedSession)
+                {
+                    throw new TlsFatalAlert(AlertDescription.unexpected_message);
+                }
+
+                receive13ServerCompressedCertificate(buf);
+                this.connection_state = CS_SERVER_CERTIFICATE;
+                break;
+            }
+            default:
+                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            }
+            break;
+        }
         case HandshakeType.certificate_request:
         {
             switch (this.connection_state)
@@ -221,6 +246,11 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             }
             case CS_SERVER_ENCRYPTED_EXTENSIONS:
             {
+                if (this.resumedSession)
+                {
+                    throw new TlsFatalAlert(AlertDescription.unexpected_message);
+                }
+
                 receive13CertificateRequest(buf, false);
                 this.connection_state = CS_SERVER_CERTIFICATE_REQUEST;
                 break;
@@ -289,6 +319,14 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
                 // See RFC 8446 D.4.
                 recordStream.setIgnoreChangeCipherSpec(false);
 
+                if (tlsClientContext.getSecurityParametersHandshake().isEarlyDataAccepted())
+                {
+                    send13EndOfEarlyDataMessage();
+                    this.connection_state = CS_CLIENT_END_OF_EARLY_DATA;
+
+                    recordStream.enablePendingCipherWrite();
+                }
+
                 if (null != certificateRequest)
                 {
                     TlsCredentialedSigner clientCredentials = TlsUtils.establish13ClientCredentials(authentication,
@@ -321,6 +359,9 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
                 send13FinishedMessage();
                 this.connection_state = CS_CLIENT_FINISHED;
 
+                TlsUtils.establish13ResumptionMasterSecret(tlsClientContext,
+                    TlsUtils.getCurrentPRFHash(handshakeHash));
+
                 TlsUtils.establish13PhaseApplication(tlsClientContext, serverFinishedTranscriptHash, recordStream);
 
                 recordStream.enablePendingCipherWrite();
@@ -996,11 +1037,39 @@ protected void process13ServerHello(ServerHello serverHello, boolean afterHelloR
                 throw new TlsFatalAlert(AlertDescription.illegal_parameter);
             }
 
-            this.resumedSession = false;
-            securityParameters.sessionID = TlsUtils.EMPTY_BYTES;
-            tlsClient.notifySessionID(TlsUtils.EMPTY_BYTES);
-
             TlsUtils.negotiatedCipherSuite(securityParameters, cipherSuite);
+        }
+
+        final boolean offeredPSK = null != TlsUtils.getExtensionData(clientHello.getExtensions(),
+            TlsExtensionsUtils.EXT_pre_shared_key);
+        final short[] offeredPSKKeyExchangeModes = TlsExtensionsUtils.getPSKKeyExchangeModesExtension(
+            clientHello.getExtensions());
+
+        final int selected_identity = TlsExtensionsUtils.getPreSharedKeyServerHello(serverHelloExtensions);
+        if (selected_identity >= 0)
+        {
+            /*
+             * RFC 8446 4.2.11. Clients MUST verify that the server's selected_identity is within the
+             * range supplied by the client, that the server selected a cipher suite indicating a Hash
+             * associated with the PSK [..]. If these values are not consistent, the client MUST abort
+             * the handshake with an "illegal_parameter" alert.
+             */
+            if (!offeredPSK || selected_identity != getOfferedPskIndex(clientHello.getExtensions())
+                || TlsUtils.getPRFAlgorithm13(sessionParameters.getCipherSuite()) != securityParameters.getPRFAlgorithm())
+            {
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+            }
+        }
+
+        this.resumedSession = selected_identity >= 0;
+        securityParameters.sessionID = resumedSession ? tlsSession.getSessionID() : TlsUtils.EMPTY_BYTES;
+
+        if (!afterHelloRetryRequest || resumedSession)
+        {
+            tlsClient.notifySessionID(securityParameters.getSessionID());
+        }
+        if (!afterHelloRetryRequest)
+        {
             tlsClient.notifySelectedCipherSuite(cipherSuite);
         }
 
@@ -1018,13 +1087,33 @@ protected void process13ServerHello(ServerHello serverHello, boolean afterHelloR
          */
         securityParameters.extendedMasterSecret = true;
 
+        KeyShareEntry keyShareEntry = TlsExtensionsUtils.getKeyShareServerHello(serverHelloExtensions);
+        if (resumedSession)
         {
-            KeyShareEntry keyShareEntry = TlsExtensionsUtils.getKeyShareServerHello(serverHelloExtensions);
-            if (null == keyShareEntry)
+            // RFC 8446 4.2.9. The server MUST NOT select a key exchange mode that is not listed by the client.
+            short pskKeyExchangeMode = null == keyShareEntry
+                ? PskKeyExchangeMode.psk_ke
+                : PskKeyExchangeMode.psk_dhe_ke;
+
+            if (!Arrays.contains(offeredPSKKeyExchangeModes, pskKeyExchangeMode))
             {
                 throw new TlsFatalAlert(AlertDescription.illegal_parameter);
             }
 
+            securityParameters.psk = tlsClientContext.getCrypto().adoptSecret(sessionMasterSecret).extract();
+        }
+        else if (null == keyShareEntry)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+
+        if (null == keyShareEntry)
+        {
+            this.clientAgreements = null;
+        }
+        else
+        {
+
             TlsAgreement agreement = (TlsAgreement)clientAgreements.get(Integers.valueOf(keyShareEntry.getNamedGroup()));
             if (null == agreement)
             {
@@ -1035,10 +1124,11 @@ protected void process13ServerHello(ServerHello serverHello, boolean afterHelloR
 
             agreement.receivePeerValue(keyShareEntry.getKeyExchange());
             securityParameters.sharedSecret = agreement.calculateSecret();
-
-            TlsUtils.establish13PhaseSecrets(tlsClientContext);
         }
 
+        TlsUtils.establish13PhaseSecrets(tlsClientContext);
+
+        if (!resumedSession)
         {
             invalidateSession();
 
@@ -1055,11 +1145,10 @@ protected void process13ServerHelloCoda(ServerHello serverHello, boolean afterHe
         TlsUtils.establish13PhaseHandshake(tlsClientContext, serverHelloTranscriptHash, recordStream);
 
         // See RFC 8446 D.4.
-        if (!afterHelloRetryRequest)
+        if (!afterHelloRetryRequest && !earlyDataOffered)
         {
             recordStream.setIgnoreChangeCipherSpec(true);
 
-            // TODO[tls13] If offering early data, the record is placed immediately after the first ClientHello.
             /*
              * TODO[tls13] Ideally wait until just after Server Finished received, but then we'd need to defer
              * the enabling of the pending write cipher
@@ -1067,7 +1156,14 @@ protected void process13ServerHelloCoda(ServerHello serverHello, boolean afterHe
             sendChangeCipherSpecMessage();
         }
 
-        recordStream.enablePendingCipherWrite();
+        /*
+         * NOTE: When early data was offered, the early data cipher stays in use for writing until it is known
+         * (from EncryptedExtensions) whether the server accepted it.
+         */
+        if (!earlyDataOffered)
+        {
+            recordStream.enablePendingCipherWrite();
+        }
         recordStream.enablePendingCipherRead(false);
     }
 
@@ -1405,6 +1501,19 @@ else if (TlsUtils.hasExpectedEmptyExtensionData(sessionServerExtensions, TlsExte
 
         applyMaxFragmentLengthExtension();
 
+        /*
+         * RFC 8449 5. A client MUST treat receipt of both "max_fragment_length" and "record_size_limit"
+         * as a fatal error, and it SHOULD generate an "illegal_parameter" alert.
+         */
+        if (TlsExtensionsUtils.getRecordSizeLimitExtension(serverExtensions) >= 0
+            && TlsExtensionsUtils.getMaxFragmentLengthExtension(serverExtensions) >= 0)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+
+        // NOTE: The server's limit applies from its ChangeCipherSpec
+        applyRecordSizeLimitExtension(clientExtensions, serverExtensions, true);
+
         if (this.resumedSession)
         {
             securityParameters.masterSecret = sessionMasterSecret;
@@ -1463,6 +1572,56 @@ protected void receive13EncryptedExtensions(ByteArrayInputStream buf)
 
         // TODO[tls13] Check permitted types and request/response consistency
 
+        /*
+         * RFC 8446 4.2.10. If the server has supplied an "early_data" extension, the client MUST verify
+         * that the server's selected_identity is 0. If any other value is returned, the client MUST abort
+         * the handshake with an "illegal_parameter" alert.
+         */
+        if (TlsExtensionsUtils.hasEarlyDataIndication(serverExtensions))
+        {
+            SecurityParameters securityParameters = tlsClientContext.getSecurityParametersHandshake();
+
+            if (!earlyDataOffered || !resumedSession
+                || securityParameters.getCipherSuite() != sessionParameters.getCipherSuite())
+            {
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+            }
+
+            /*
+             * RFC 8446 4.2.10. [..] the server MUST verify that [..] the selected ALPN protocol [matches]
+             * those associated with the selected PSK. The early data was sent for the ticket's protocol,
+             * so the server can't have accepted it for any other.
+             */
+            ProtocolName ticketProtocol = TlsExtensionsUtils.getALPNExtensionServer(
+                sessionParameters.readServerExtensions());
+            ProtocolName applicationProtocol = TlsExtensionsUtils.getALPNExtensionServer(serverExtensions);
+            if (null == ticketProtocol ? null != applicationProtocol : !ticketProtocol.equals(applicationProtocol))
+            {
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+            }
+
+            securityParameters.earlyDataAccepted = true;
+        }
+        else if (earlyDataOffered)
+        {
+            // NOTE: The early data was rejected, so switch to the handshake traffic keys immediately
+            recordStream.enablePendingCipherWrite();
+        }
+
+        /*
+         * RFC 8449 4. In TLS 1.3, the server sends the "record_size_limit" extension in the
+         * EncryptedExtensions message.
+         */
+        if (TlsExtensionsUtils.getRecordSizeLimitExtension(serverExtensions) >= 0)
+        {
+            if (null == TlsUtils.getExtensionData(clientExtensions, TlsExtensionsUtils.EXT_record_size_limit))
+            {
+                throw new TlsFatalAlert(AlertDescription.unsupported_extension);
+            }
+
+            applyRecordSizeLimitExtension(clientExtensions, serverExtensions, false);
+        }
+
         /*
          * TODO[tls13] Review all extensions that are processed in processServerHello (i.e. pre-1.3)
          * and explicitly set all extension-related values (even if ignored from 1.3).
@@ -1480,8 +1639,6 @@ protected void receive13EncryptedExtensions(ByteArrayInputStream buf)
     protected void receive13NewSessionTicket(ByteArrayInputStream buf)
         throws IOException
     {
-        // TODO[tls13] Do something more than just ignore them
-
 //        struct {
 //            uint32 ticket_lifetime;
 //            uint32 ticket_age_add;
@@ -1490,12 +1647,64 @@ protected void receive13NewSessionTicket(ByteArrayInputStream buf)
 //            Extension extensions<0..2^16-2>;
 //        } NewSessionTicket;
 
-        TlsUtils.readUint32(buf);
-        TlsUtils.readUint32(buf);
-        TlsUtils.readOpaque8(buf);
-        TlsUtils.readOpaque16(buf);
-        TlsUtils.readOpaque16(buf);
+        long ticketLifetime = TlsUtils.readUint32(buf);
+        long ticketAgeAdd = TlsUtils.readUint32(buf);
+        byte[] ticketNonce = TlsUtils.readOpaque8(buf);
+        byte[] ticket = TlsUtils.readOpaque16(buf, 1);
+        byte[] extBytes = TlsUtils.readOpaque16(buf);
         assertEmpty(buf);
+
+        Hashtable ticketExtensions = readExtensionsData(extBytes);
+
+        /*
+         * RFC 8446 4.6.1. early_data: The value indicates the maximum amount of 0-RTT data that the client
+         * is allowed to send when using this ticket, in bytes.
+         */
+        long maxEarlyDataSize = Math.max(0L, TlsExtensionsUtils.getEarlyDataMaxSize(ticketExtensions));
+
+        /*
+         * RFC 8446 4.6.1. Servers MUST NOT use any value greater than 604800 seconds (7 days). The value
+         * of zero indicates that the ticket should be discarded immediately.
+         */
+        if (ticketLifetime > 604800L)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+        if (ticketLifetime == 0L)
+        {
+            return;
+        }
+
+        TlsSession connectionSession = tlsClientContext.getSession();
+        SessionParameters connectionParameters = null == connectionSession
+            ? null
+            : connectionSession.exportSessionParameters();
+        if (null == connectionParameters)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        SecurityParameters securityParameters = tlsClientContext.getSecurityParametersConnection();
+
+        TlsSecret psk = TlsUtils.calculate13ResumptionPSK(securityParameters, ticketNonce);
+
+        SessionParameters ticketParameters = new SessionParameters.Builder()
+            .setCipherSuite(connectionParameters.getCipherSuite())
+            .setCompressionAlgorithm(connectionParameters.getCompressionAlgorithm())
+            .setExtendedMasterSecret(true)
+            .setLocalCertificate(connectionParameters.getLocalCertificate())
+            .setMasterSecret(psk)
+            .setMaxEarlyDataSize(maxEarlyDataSize)
+            .setNegotiatedVersion(connectionParameters.getNegotiatedVersion())
+            .setPeerCertificate(connectionParameters.getPeerCertificate())
+            .setServerExtensions(connectionParameters.readServerExtensions())
+            .setTicket(ticket, ticketAgeAdd, ticketLifetime, System.currentTimeMillis())
+            .build();
+
+        // NOTE: The session ID is only a local handle, the ticket is what gets offered to the server
+        byte[] sessionID = tlsClientContext.getNonceGenerator().generateNonce(32);
+
+        tlsClient.notifySessionToResume(TlsUtils.importSession(sessionID, ticketParameters));
     }
 
     protected void receive13ServerCertificate(ByteArrayInputStream buf)
@@ -1507,6 +1716,53 @@ protected void receive13ServerCertificate(ByteArrayInputStream buf)
         handleServerCertificate();
     }
 
+    protected void receive13ServerCompressedCertificate(ByteArrayInputStream buf)
+        throws IOException
+    {
+        CompressedCertificate compressedCertificate = CompressedCertificate.parse(buf);
+        assertEmpty(buf);
+
+        /*
+         * RFC 8879 4. If the client [..] receives a CompressedCertificate message using an algorithm
+         * other than one it advertised, it MUST abort the connection with the "illegal_parameter" alert.
+         */
+        int algorithm = compressedCertificate.getAlgorithm();
+        int[] offeredAlgorithms = TlsExtensionsUtils.getCompressCertificateExtension(clientExtensions);
+        TlsCertificateCompression compression = null != offeredAlgorithms && Arrays.contains(offeredAlgorithms, algorithm)
+            ? getCertificateCompression(tlsClient, algorithm)
+            : null;
+        if (null == compression)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+
+        byte[] certificateMessage;
+        try
+        {
+            certificateMessage = compression.decompress(compressedCertificate.getCompressedCertificateMessage(),
+                compressedCertificate.getUncompressedLength());
+        }
+        catch (TlsFatalAlert e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_certificate, e);
+        }
+        catch (RuntimeException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_certificate, e);
+        }
+
+        if (null == certificateMessage || certificateMessage.length != compressedCertificate.getUncompressedLength())
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_certificate);
+        }
+
+        receive13ServerCertificate(new ByteArrayInputStream(certificateMessage));
+    }
+
     protected void receive13ServerCertificateVerify(ByteArrayInputStream buf)
         throws IOException
     {
@@ -1604,21 +1860,37 @@ protected void send13ClientHelloRetry() throws IOException
             clientHelloRetryGroup);
 
         /*
-         * TODO[tls13] Updating the "pre_shared_key" extension if present by recomputing the
+         * RFC 8446 4.1.2. Updating the "pre_shared_key" extension if present by recomputing the
          * "obfuscated_ticket_age" and binder values and (optionally) removing any PSKs which are
          * incompatible with the server's indicated cipher suite.
          */
+        if (null != clientHelloExtensions.remove(TlsExtensionsUtils.EXT_pre_shared_key))
+        {
+            int prfAlgorithm = tlsClientContext.getSecurityParametersHandshake().getPRFAlgorithm();
+            if (TlsUtils.getPRFAlgorithm13(sessionParameters.getCipherSuite()) == prfAlgorithm)
+            {
+                add13PreSharedKeyToClientHello(clientHelloExtensions, clientHello.getCipherSuites());
+            }
+        }
 
         /*
          * TODO[tls13] Optionally adding, removing, or changing the length of the "padding"
          * extension [RFC7685].
          */
 
-        // See RFC 8446 D.4.
+        /*
+         * RFC 8446 4.1.2. [..] the early data (if any) is considered rejected, and the second ClientHello
+         * is sent unprotected.
+         */
+        if (earlyDataOffered)
+        {
+            recordStream.resetWriteCipher();
+        }
+        // See RFC 8446 D.4. (the record was already placed immediately after the first ClientHello)
+        else
         {
             recordStream.setIgnoreChangeCipherSpec(true);
 
-            // TODO[tls13] If offering early data, the record is placed immediately after the first ClientHello.
             sendChangeCipherSpecMessage();
         }
 
@@ -1681,8 +1953,10 @@ protected void sendClientHello()
 
         if (legacy_session_id.length > 0 && this.sessionParameters != null)
         {
+            // NOTE: TLS 1.3 sessions are resumed via the "pre_shared_key" extension instead
             if (!Arrays.contains(offeredCipherSuites, sessionParameters.getCipherSuite())
-                || CompressionMethod._null != sessionParameters.getCompressionAlgorithm())
+                || CompressionMethod._null != sessionParameters.getCompressionAlgorithm()
+                || TlsUtils.isTLSv13(sessionParameters.getNegotiatedVersion()))
             {
                 legacy_session_id = TlsUtils.EMPTY_BYTES;
             }
@@ -1731,6 +2005,24 @@ else if (!offeringTLSv13Plus && tlsClient.requiresExtendedMasterSecret())
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
+        if (offeringTLSv13Plus)
+        {
+            int[] certificateCompressionAlgorithms = getCertificateCompressionAlgorithms(tlsClient);
+            if (null != certificateCompressionAlgorithms)
+            {
+                TlsExtensionsUtils.addCompressCertificateExtension(clientExtensions,
+                    certificateCompressionAlgorithms);
+            }
+        }
+
+        {
+            int recordSizeLimit = getRecordSizeLimit(tlsClient, offeringTLSv13Plus, false);
+            if (recordSizeLimit >= 0)
+            {
+                TlsExtensionsUtils.addRecordSizeLimitExtension(clientExtensions, recordSizeLimit);
+            }
+        }
+
         {
             boolean useGMTUnixTime = !offeringTLSv13Plus && tlsClient.shouldUseGMTUnixTime();
 
@@ -1791,21 +2083,174 @@ else if (!offeringTLSv13Plus && tlsClient.requiresExtendedMasterSecret())
             offeredCipherSuites = Arrays.append(offeredCipherSuites, CipherSuite.TLS_FALLBACK_SCSV);
         }
 
+        byte[] earlyData = null;
+        if (offeringTLSv13Plus && !securityParameters.isRenegotiating())
+        {
+            add13PreSharedKeyToClientHello(clientExtensions, offeredCipherSuites);
 
+            earlyData = add13EarlyDataToClientHello(clientExtensions);
+        }
 
         this.clientHello = new ClientHello(legacy_version, securityParameters.getClientRandom(), legacy_session_id,
             null, offeredCipherSuites, clientExtensions);
 
         sendClientHelloMessage();
+
+        if (null != earlyData)
+        {
+            send13EarlyData(earlyData);
+        }
     }
 
     protected void sendClientHelloMessage() throws IOException
     {
         HandshakeMessageOutput message = new HandshakeMessageOutput(HandshakeType.client_hello);
         clientHello.encode(tlsClientContext, message);
+
+        OfferedPsks offeredPsks = TlsExtensionsUtils.getPreSharedKeyClientHello(clientHello.getExtensions());
+        if (null != offeredPsks)
+        {
+            TlsCrypto crypto = tlsClientContext.getCrypto();
+            short hashAlgorithm = TlsUtils.getHashAlgorithmForPRFAlgorithm(
+                TlsUtils.getPRFAlgorithm13(sessionParameters.getCipherSuite()));
+
+            /*
+             * RFC 8446 4.2.11.2. The PSK binder [..] is the Transcript-Hash of the partial ClientHello up
+             * to and including the PreSharedKeyExtension.identities field. [..] If the server responds
+             * with a HelloRetryRequest and the client then sends ClientHello2, its binder will be computed
+             * over: Transcript-Hash(ClientHello1, HelloRetryRequest, Truncate(ClientHello2))
+             */
+            TlsHash truncatedHash = CS_SERVER_HELLO_RETRY_REQUEST == connection_state
+                ? handshakeHash.forkPRFHash()
+                : crypto.createHash(hashAlgorithm);
+
+            // NOTE: The session being resumed is the last identity offered, so its binder is written last
+            message.updateHashPrefix(truncatedHash, offeredPsks.getBindersSize());
+
+            byte[] psk = crypto.adoptSecret(sessionMasterSecret).extract();
+            byte[] binder = TlsUtils.calculate13PSKBinder(crypto, hashAlgorithm, psk, truncatedHash.calculateHash());
+            message.writeBinder(binder);
+        }
+
         message.send(this);
     }
 
+    /*
+     * The index of the identity for the session being resumed, which is always the last one offered.
+     */
+    protected static int getOfferedPskIndex(Hashtable clientHelloExtensions) throws IOException
+    {
+        OfferedPsks offeredPsks = TlsExtensionsUtils.getPreSharedKeyClientHello(clientHelloExtensions);
+
+        return null == offeredPsks ? -1 : offeredPsks.getIdentities().size() - 1;
+    }
+
+    /*
+     * RFC 8446 4.2.11. Offers the TLS 1.3 session being resumed (if any) as a PSK. The binder is a
+     * placeholder until the ClientHello has been encoded (see sendClientHelloMessage).
+     */
+    protected void add13PreSharedKeyToClientHello(Hashtable clientHelloExtensions, int[] offeredCipherSuites)
+        throws IOException
+    {
+        short[] pskKeyExchangeModes = tlsClient.getPSKKeyExchangeModes();
+        if (null == sessionParameters || null == sessionMasterSecret
+            || null == pskKeyExchangeModes || pskKeyExchangeModes.length < 1
+            || !TlsUtils.isTLSv13(sessionParameters.getNegotiatedVersion())
+            || !Arrays.contains(offeredCipherSuites, sessionParameters.getCipherSuite()))
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (!sessionParameters.isTicketValid(now))
+        {
+            return;
+        }
+
+        /*
+         * RFC 8446 4.2.11.1. The "obfuscated_ticket_age" field of each PskIdentity contains an obfuscated
+         * version of the ticket age formed by taking the age in milliseconds and adding the
+         * "ticket_age_add" value that was included with the ticket, modulo 2^32.
+         */
+        long obfuscatedTicketAge = (now - sessionParameters.getTicketIssueTime() + sessionParameters.getTicketAgeAdd())
+            & 0xFFFFFFFFL;
+
+        short hashAlgorithm = TlsUtils.getHashAlgorithmForPRFAlgorithm(
+            TlsUtils.getPRFAlgorithm13(sessionParameters.getCipherSuite()));
+
+        Vector identities = new Vector(1);
+        identities.addElement(new PskIdentity(sessionParameters.getTicket(), obfuscatedTicketAge));
+
+        Vector binders = new Vector(1);
+        binders.addElement(new byte[HashAlgorithm.getOutputSize(hashAlgorithm)]);
+
+        TlsExtensionsUtils.addPSKKeyExchangeModesExtension(clientHelloExtensions, pskKeyExchangeModes);
+        TlsExtensionsUtils.addPreSharedKeyClientHello(clientHelloExtensions, new OfferedPsks(identities, binders));
+    }
+
+    /*
+     * RFC 8446 4.2.10. Early data can only be offered with the first PSK, and within the max_early_data_size
+     * of the ticket it was issued with. Returns the early data to send after the ClientHello, or null.
+     */
+    protected byte[] add13EarlyDataToClientHello(Hashtable clientHelloExtensions)
+        throws IOException
+    {
+        if (null == TlsUtils.getExtensionData(clientHelloExtensions, TlsExtensionsUtils.EXT_pre_shared_key)
+            || sessionParameters.getMaxEarlyDataSize() <= 0L)
+        {
+            return null;
+        }
+
+        byte[] earlyData = tlsClient.getEarlyData();
+        if (null == earlyData || earlyData.length < 1 || earlyData.length > sessionParameters.getMaxEarlyDataSize())
+        {
+            return null;
+        }
+
+        TlsExtensionsUtils.addEarlyDataIndication(clientHelloExtensions);
+        this.earlyDataOffered = true;
+
+        return earlyData;
+    }
+
+    protected void send13EarlyData(byte[] earlyData)
+        throws IOException
+    {
+        short hashAlgorithm = TlsUtils.getHashAlgorithmForPRFAlgorithm(
+            TlsUtils.getPRFAlgorithm13(sessionParameters.getCipherSuite()));
+
+        handshakeHash.trackHashAlgorithm(hashAlgorithm);
+        byte[] clientHelloTranscriptHash = handshakeHash.getFinalHash(hashAlgorithm);
+
+        /*
+         * See RFC 8446 D.4. If offering early data, the record is placed immediately after the first
+         * ClientHello.
+         */
+        recordStream.setIgnoreChangeCipherSpec(true);
+        sendChangeCipherSpecMessage();
+
+        TlsUtils.establish13PhaseEarlyClient(tlsClientContext, sessionParameters, sessionMasterSecret,
+            clientHelloTranscriptHash, recordStream);
+
+        recordStream.setWriteVersion(ProtocolVersion.TLSv12);
+        recordStream.enablePendingCipherWrite();
+
+        int total = 0;
+        do
+        {
+            int toWrite = Math.min(earlyData.length - total, recordStream.getWritePlaintextLimit());
+            safeWriteRecord(ContentType.application_data, earlyData, total, toWrite);
+            total += toWrite;
+        }
+        while (total < earlyData.length);
+    }
+
+    protected void send13EndOfEarlyDataMessage()
+        throws IOException
+    {
+        HandshakeMessageOutput.send(this, HandshakeType.end_of_early_data, TlsUtils.EMPTY_BYTES);
+    }
+
     protected void sendClientKeyExchange()
         throws IOException
     {
@@ -1825,7 +2270,14 @@ protected void skip13ServerCertificate()
     {
         this.authentication = null;
 
-        // TODO[tls13] May be skipped for PSK handshakes?
-        throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        /*
+         * RFC 8446 4.4.2. The server MUST send a Certificate message whenever the agreed-upon key
+         * exchange method uses certificates for authentication (this includes all key exchange methods
+         * defined in this document except PSK).
+         */
+        if (!this.resumedSession)
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
     }
 }
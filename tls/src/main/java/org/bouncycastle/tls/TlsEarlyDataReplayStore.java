@@ -0,0 +1,25 @@
+package org.bouncycastle.tls;
+
+/**
+ * Interface for the anti-replay mechanism a server uses before accepting TLS 1.3 early data (0-RTT), see
+ * RFC 8446 8. Implementations might e.g. permit each ticket to be used for early data only once, or
+ * record the ClientHello values seen within a time window (a "strike register").
+ */
+public interface TlsEarlyDataReplayStore
+{
+    /**
+     * Record an attempt to send early data, and decide whether it can be accepted. This is only called once
+     * the PSK binder has been verified and all other conditions for accepting early data are met.
+     *
+     * @param ticketParameters
+     *            the {@link SessionParameters} of the ticket being resumed (see
+     *            {@link SessionParameters#getTicket()}).
+     * @param clientRandom
+     *            the ClientHello.random of the connection offering early data.
+     * @param clientTicketAge
+     *            the client's view of the age of the ticket in milliseconds, i.e. with the
+     *            ticket_age_add value already removed from the obfuscated_ticket_age.
+     * @return true if (and only if) the early data is not a replay and can be accepted.
+     */
+    boolean accept(SessionParameters ticketParameters, byte[] clientRandom, long clientTicketAge);
+}
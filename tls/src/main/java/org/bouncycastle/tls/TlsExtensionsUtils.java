@@ -20,6 +20,8 @@
     public static final Integer EXT_certificate_authorities = Integers.valueOf(ExtensionType.certificate_authorities);
     public static final Integer EXT_client_certificate_type = Integers.valueOf(ExtensionType.client_certificate_type);
     public static final Integer EXT_client_certificate_url = Integers.valueOf(ExtensionType.client_certificate_url);
+    public static final Integer EXT_compress_certificate = Integers.valueOf(ExtensionType.compress_certificate);
+    public static final Integer EXT_connection_id = Integers.valueOf(ExtensionType.connection_id);
     public static final Integer EXT_cookie = Integers.valueOf(ExtensionType.cookie);
     public static final Integer EXT_early_data = Integers.valueOf(ExtensionType.early_data);
     public static final Integer EXT_ec_point_formats = Integers.valueOf(ExtensionType.ec_point_formats);
@@ -85,6 +87,16 @@ public static void addClientCertificateURLExtension(Hashtable extensions)
         extensions.put(EXT_client_certificate_url, createClientCertificateURLExtension());
     }
 
+    public static void addCompressCertificateExtension(Hashtable extensions, int[] algorithms) throws IOException
+    {
+        extensions.put(EXT_compress_certificate, createCompressCertificateExtension(algorithms));
+    }
+
+    public static void addConnectionIDExtension(Hashtable extensions, byte[] connectionID) throws IOException
+    {
+        extensions.put(EXT_connection_id, createConnectionIDExtension(connectionID));
+    }
+
     public static void addCookieExtension(Hashtable extensions, byte[] cookie) throws IOException
     {
         extensions.put(EXT_cookie, createCookieExtension(cookie));
@@ -305,6 +317,19 @@ public static short getClientCertificateTypeExtensionServer(Hashtable extensions
         return extensionData == null ? -1 : readCertificateTypeExtensionServer(extensionData);
     }
 
+    public static int[] getCompressCertificateExtension(Hashtable extensions)
+        throws IOException
+    {
+        byte[] extensionData = TlsUtils.getExtensionData(extensions, EXT_compress_certificate);
+        return extensionData == null ? null : readCompressCertificateExtension(extensionData);
+    }
+
+    public static byte[] getConnectionIDExtension(Hashtable extensions) throws IOException
+    {
+        byte[] extensionData = TlsUtils.getExtensionData(extensions, EXT_connection_id);
+        return extensionData == null ? null : readConnectionIDExtension(extensionData);
+    }
+
     public static byte[] getCookieExtension(Hashtable extensions)
         throws IOException
     {
@@ -607,6 +632,30 @@ public static byte[] createClientCertificateURLExtension()
         return createEmptyExtensionData();
     }
 
+    public static byte[] createCompressCertificateExtension(int[] algorithms) throws IOException
+    {
+        if (algorithms == null || algorithms.length < 1 || algorithms.length > 127)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        int length = 2 * algorithms.length;
+        byte[] extensionData = new byte[1 + length];
+        TlsUtils.writeUint8(length, extensionData, 0);
+        TlsUtils.writeUint16Array(algorithms, extensionData, 1);
+        return extensionData;
+    }
+
+    public static byte[] createConnectionIDExtension(byte[] connectionID) throws IOException
+    {
+        if (connectionID == null)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        return TlsUtils.encodeOpaque8(connectionID);
+    }
+
     public static byte[] createCookieExtension(byte[] cookie) throws IOException
     {
         if (cookie == null || cookie.length < 1 || cookie.length >= (1 << 16))
@@ -1066,6 +1115,33 @@ public static boolean readClientCertificateURLExtension(byte[] extensionData) th
         return readEmptyExtensionData(extensionData);
     }
 
+    public static int[] readCompressCertificateExtension(byte[] extensionData) throws IOException
+    {
+        if (extensionData == null)
+        {
+            throw new IllegalArgumentException("'extensionData' cannot be null");
+        }
+
+        ByteArrayInputStream buf = new ByteArrayInputStream(extensionData);
+
+        int length = TlsUtils.readUint8(buf);
+        if (length < 2 || (length & 1) != 0)
+        {
+            throw new TlsFatalAlert(AlertDescription.decode_error);
+        }
+
+        int[] algorithms = TlsUtils.readUint16Array(length / 2, buf);
+
+        TlsProtocol.assertEmpty(buf);
+
+        return algorithms;
+    }
+
+    public static byte[] readConnectionIDExtension(byte[] extensionData) throws IOException
+    {
+        return TlsUtils.decodeOpaque8(extensionData);
+    }
+
     public static byte[] readCookieExtension(byte[] extensionData) throws IOException
     {
         return TlsUtils.decodeOpaque16(extensionData, 1);
@@ -41,6 +41,15 @@
 
     boolean allowLegacyResumption();
 
+    /**
+     * RFC 8446 4.2.9. The PSK key exchange modes supported for TLS 1.3 session resumption, in order of
+     * preference. The default is to support only {@link PskKeyExchangeMode#psk_dhe_ke}, which retains
+     * forward secrecy; adding {@link PskKeyExchangeMode#psk_ke} trades that for a cheaper handshake.
+     *
+     * @return an array of {@link PskKeyExchangeMode} values, or null/empty to disable resumption.
+     */
+    short[] getPSKKeyExchangeModes();
+
     /**
      * This implementation supports RFC 7627 and will always negotiate the extended_master_secret
      * extension where possible. When connecting to a peer that does not offer/accept this
@@ -154,6 +163,66 @@
      */
     short getHeartbeatPolicy();
 
+    /**
+     * <p>
+     * NOTE: Currently only respected by DTLS protocols (and only with AEAD cipher suites).
+     * </p>
+     * <p>
+     * Return the RFC 9146 connection ID that this peer wants the remote peer to include in the records
+     * it sends, or null to not use connection IDs. A zero-length connection ID indicates that this peer is
+     * willing to send connection IDs, but doesn't need to receive them. A client only offers the
+     * "connection_id" extension if all the cipher suites it offers are AEAD cipher suites.
+     * </p>
+     *
+     * @return the connection ID (at most 255 bytes), or null.
+     */
+    byte[] getNewConnectionID();
+
+    /**
+     * <p>
+     * NOTE: Currently only respected by TLS protocols.
+     * </p>
+     * <p>
+     * Return the largest record (as the RFC 8449 "record_size_limit" value) this peer is willing to
+     * receive, or -1 for no limit of its own. A client only offers the extension when this is not -1; a
+     * server answers any client offering it, using the protocol maximum if this is -1.
+     * </p>
+     *
+     * @return the record size limit, at least 64, or -1.
+     */
+    int getRecordSizeLimit();
+
+    /**
+     * <p>
+     * NOTE: Currently only respected by TLS protocols.
+     * </p>
+     * <p>
+     * Return a {@link TlsRecordSizePolicy} instance that will control the size of outgoing application
+     * data records, or null to always use the largest records permitted.
+     * </p>
+     *
+     * @return an instance of {@link TlsRecordSizePolicy}, or null.
+     * @see DefaultTlsRecordSizePolicy
+     */
+    TlsRecordSizePolicy getRecordSizePolicy();
+
+    /**
+     * <p>
+     * NOTE: Currently only respected by TLS 1.3 protocols.
+     * </p>
+     * <p>
+     * Return the RFC 8879 certificate compression algorithms this peer supports, in order of preference.
+     * A client offers them in the "compress_certificate" extension; a server compresses its Certificate
+     * message with the first of them that the client also offered. Return null (or an empty array) to
+     * disable certificate compression.
+     * </p>
+     *
+     * @return an array of {@link TlsCertificateCompression}, or null.
+     * @see ZlibCertificateCompression
+     * @see CachingCertificateCompression
+     */
+    TlsCertificateCompression[] getCertificateCompression();
+
     /**
      * WARNING: EXPERIMENTAL FEATURE
      * 
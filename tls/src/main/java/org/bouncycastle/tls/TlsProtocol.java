@@ -127,10 +127,16 @@ protected boolean isTLSv13ConnectionState()
      * Queues for data from some protocols.
      */
     private ByteQueue applicationDataQueue = new ByteQueue(0);
+    // NOTE: Only set for the duration of an offerInput call that delivers application data directly
+    private OutputStream applicationDataOutput = null;
+    private int applicationDataOutputCount = 0;
     private ByteQueue alertQueue = new ByteQueue(2);
     private ByteQueue handshakeQueue = new ByteQueue(0);
 //    private ByteQueue heartbeatQueue = new ByteQueue();
 
+    // Scratch space for previewing buffered input (see offerInput)
+    private final byte[] recordHeader = new byte[RecordFormat.FRAGMENT_OFFSET];
+
     RecordStream recordStream;
     TlsHandshakeHash handshakeHash;
 
@@ -143,6 +149,7 @@ protected boolean isTLSv13ConnectionState()
     private volatile boolean appDataSplitEnabled = true;
     private volatile boolean resumableHandshake = false;
     private volatile int appDataSplitMode = ADS_MODE_1_Nsub1;
+    private volatile TlsRecordSizePolicy recordSizePolicy = null;
 
     protected TlsSession tlsSession = null;
     protected SessionParameters sessionParameters = null;
@@ -374,6 +381,88 @@ protected void applyMaxFragmentLengthExtension()
         }
     }
 
+    /*
+     * RFC 8449 4. The record size limit only applies to records sent toward the endpoint that advertises
+     * the limit. [..] In TLS 1.3, the value [..] includes the content type and padding added in TLS 1.3.
+     */
+    protected void applyRecordSizeLimitExtension(Hashtable localExtensions, Hashtable peerExtensions,
+        boolean deferRead) throws IOException
+    {
+        int localLimit = TlsExtensionsUtils.getRecordSizeLimitExtension(localExtensions);
+        int peerLimit = TlsExtensionsUtils.getRecordSizeLimitExtension(peerExtensions);
+        if (localLimit < 0 || peerLimit < 0)
+        {
+            return;
+        }
+
+        int innerPlaintextOverhead = TlsUtils.isTLSv13(getContext()) ? 1 : 0;
+
+        recordStream.setWritePlaintextLimit(peerLimit - innerPlaintextOverhead);
+        recordStream.setReadPlaintextLimit(localLimit - innerPlaintextOverhead, deferRead);
+    }
+
+    /*
+     * RFC 8449 4. [..] a TLS 1.3 implementation can advertise a value up to the protocol-defined limit
+     * of 2^14 + 1, [..] a TLS 1.2 implementation [..] uses a value of 2^14.
+     */
+    protected static int getRecordSizeLimit(TlsPeer peer, boolean isTLSv13, boolean useProtocolLimit)
+        throws IOException
+    {
+        int protocolLimit = (1 << 14) + (isTLSv13 ? 1 : 0);
+
+        int recordSizeLimit = peer.getRecordSizeLimit();
+        if (recordSizeLimit < 0)
+        {
+            return useProtocolLimit ? protocolLimit : -1;
+        }
+        if (recordSizeLimit < 64)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        return Math.min(recordSizeLimit, protocolLimit);
+    }
+
+    protected static int[] getCertificateCompressionAlgorithms(TlsPeer peer)
+        throws IOException
+    {
+        TlsCertificateCompression[] compressions = peer.getCertificateCompression();
+        if (null == compressions || compressions.length < 1)
+        {
+            return null;
+        }
+
+        int[] algorithms = new int[0];
+        for (int i = 0; i < compressions.length; ++i)
+        {
+            int algorithm = compressions[i].getAlgorithm();
+            if (!TlsUtils.isValidUint16(algorithm))
+            {
+                throw new TlsFatalAlert(AlertDescription.internal_error);
+            }
+            if (!Arrays.contains(algorithms, algorithm))
+            {
+                algorithms = Arrays.append(algorithms, algorithm);
+            }
+        }
+        return algorithms;
+    }
+
+    protected static TlsCertificateCompression getCertificateCompression(TlsPeer peer, int algorithm)
+    {
+        TlsCertificateCompression[] compressions = peer.getCertificateCompression();
+        if (null != compressions)
+        {
+            for (int i = 0; i < compressions.length; ++i)
+            {
+                if (compressions[i].getAlgorithm() == algorithm)
+                {
+                    return compressions[i];
+                }
+            }
+        }
+        return null;
+    }
+
     protected void checkReceivedChangeCipherSpec(boolean expected)
         throws IOException
     {
@@ -469,6 +558,7 @@ protected void completeHandshake()
             if (!appDataReady)
             {
                 this.appDataReady = true;
+                this.recordSizePolicy = getPeer().getRecordSizePolicy();
 
                 if (blocking)
                 {
@@ -524,9 +614,18 @@ protected void processRecord(short protocol, byte[] buf, int off, int len)
         {
             if (!appDataReady)
             {
-                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+                // NOTE: Only TLS 1.3 early data can precede completion of the initial handshake
+                processEarlyData(len);
+            }
+            if (null != applicationDataOutput && applicationDataQueue.available() == 0)
+            {
+                applicationDataOutput.write(buf, off, len);
+                applicationDataOutputCount += len;
+            }
+            else
+            {
+                applicationDataQueue.addData(buf, off, len);
             }
-            applicationDataQueue.addData(buf, off, len);
             processApplicationDataQueue();
             break;
         }
@@ -570,6 +669,18 @@ protected void processRecord(short protocol, byte[] buf, int off, int len)
         }
     }
 
+    /**
+     * Called for application data received before the initial handshake has completed, which is only
+     * permitted for (accepted) TLS 1.3 early data.
+     *
+     * @param length the length of the early data in the record.
+     */
+    protected void processEarlyData(int length)
+        throws IOException
+    {
+        throw new TlsFatalAlert(AlertDescription.unexpected_message);
+    }
+
     private void processHandshakeQueue(ByteQueue queue)
         throws IOException
     {
@@ -670,9 +781,8 @@ private void processAlertQueue()
             /*
              * An alert is always 2 bytes. Read the alert.
              */
-            byte[] alert = alertQueue.removeData(2, 0);
-            short alertLevel = alert[0];
-            short alertDescription = alert[1];
+            short alertLevel = (short)alertQueue.removeUint8();
+            short alertDescription = (short)alertQueue.removeUint8();
 
             handleAlertMessage(alertLevel, alertDescription);
         }
@@ -859,10 +969,23 @@ protected boolean safeReadFullRecord(byte[] input, int inputOff, int inputLen)
 
     protected void safeWriteRecord(short type, byte[] buf, int offset, int len)
         throws IOException
+    {
+        safeWriteRecord(type, buf, offset, len, null);
+    }
+
+    protected void safeWriteRecord(short type, byte[] buf, int offset, int len, OutputStream recordOutput)
+        throws IOException
     {
         try
         {
-            recordStream.writeRecord(type, buf, offset, len);
+            if (null == recordOutput)
+            {
+                recordStream.writeRecord(type, buf, offset, len);
+            }
+            else
+            {
+                recordStream.writeRecord(type, buf, offset, len, recordOutput);
+            }
         }
         catch (TlsFatalAlert e)
         {
@@ -905,6 +1028,80 @@ protected void safeWriteRecord(short type, byte[] buf, int offset, int len)
      */
     public void writeApplicationData(byte[] buf, int offset, int len)
         throws IOException
+    {
+        writeApplicationDataRecords(buf, offset, len, null, -1);
+    }
+
+    /**
+     * Write some application data, with the resulting records written directly to a caller-supplied
+     * {@link OutputStream} instead of being buffered for {@link #readOutput(byte[], int, int)}. Only
+     * allowed in non-blocking mode. If other output is pending (see {@link #getAvailableOutputBytes()}),
+     * the records are buffered behind it as usual, so that they stay in order. Use
+     * {@link #previewOutputRecord(int)} to find how much output will be produced.
+     * <p>
+     * The data is fragmented according to 'fragmentLimit' rather than by consulting the
+     * {@link TlsRecordSizePolicy} for each record, so a preview of at most 'fragmentLimit' bytes made
+     * beforehand stays accurate even if the policy's answer changes in the meantime (e.g. after an idle
+     * period).
+     * </p>
+     *
+     * @param buf
+     *            The buffer containing application data to send
+     * @param offset
+     *            The offset at which the application data begins
+     * @param len
+     *            The number of bytes of application data
+     * @param recordOutput
+     *            The {@link OutputStream} to write the encrypted records to
+     * @param fragmentLimit
+     *            The maximum plaintext length of each record, normally a value previously returned by
+     *            {@link #getApplicationDataLimit()}
+     * @throws IllegalStateException
+     *             If called before the initial handshake has completed.
+     * @throws IOException
+     *             If connection is already closed, or for encryption or transport errors.
+     */
+    public void writeApplicationData(byte[] buf, int offset, int len, OutputStream recordOutput, int fragmentLimit)
+        throws IOException
+    {
+        if (fragmentLimit < 1 || fragmentLimit > recordStream.getWritePlaintextLimit())
+        {
+            throw new IllegalArgumentException("'fragmentLimit' must be between 1 and the current plaintext limit");
+        }
+
+        if (null == recordOutput)
+        {
+            writeApplicationDataRecords(buf, offset, len, null, fragmentLimit);
+            return;
+        }
+
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot write records directly in blocking mode!");
+        }
+
+        synchronized (recordStream.getWriteLock())
+        {
+            /*
+             * NOTE: If other output (e.g. an alert written while processing input on another thread) is
+             * already pending, the records are buffered behind it instead, to keep them in order.
+             */
+            if (outputBuffer.getBuffer().available() != 0)
+            {
+                recordOutput = null;
+            }
+
+            writeApplicationDataRecords(buf, offset, len, recordOutput, fragmentLimit);
+        }
+    }
+
+    /**
+     * @param fragmentLimit
+     *            the maximum plaintext length of each record, or -1 to ask {@link #getApplicationDataLimit()}
+     *            before each record.
+     */
+    protected void writeApplicationDataRecords(byte[] buf, int offset, int len, OutputStream recordOutput,
+        int fragmentLimit) throws IOException
     {
         if (this.closed)
         {
@@ -937,11 +1134,11 @@ public void writeApplicationData(byte[] buf, int offset, int len)
                         this.appDataSplitEnabled = false;
                         // fall through intended!
                     case ADS_MODE_0_N:
-                        safeWriteRecord(ContentType.application_data, TlsUtils.EMPTY_BYTES, 0, 0);
+                        safeWriteRecord(ContentType.application_data, TlsUtils.EMPTY_BYTES, 0, 0, recordOutput);
                         break;
                     case ADS_MODE_1_Nsub1:
                     default:
-                        safeWriteRecord(ContentType.application_data, buf, offset, 1);
+                        safeWriteRecord(ContentType.application_data, buf, offset, 1, recordOutput);
                         ++offset;
                         --len;
                         break;
@@ -950,11 +1147,17 @@ public void writeApplicationData(byte[] buf, int offset, int len)
 
             if (len > 0)
             {
-                // Fragment data according to the current fragment limit.
-                int toWrite = Math.min(len, recordStream.getPlaintextLimit());
-                safeWriteRecord(ContentType.application_data, buf, offset, toWrite);
+                // Fragment data according to the current fragment limit (and record size policy).
+                int toWrite = Math.min(len, fragmentLimit < 0 ? getApplicationDataLimit() : fragmentLimit);
+                safeWriteRecord(ContentType.application_data, buf, offset, toWrite, recordOutput);
                 offset += toWrite;
                 len -= toWrite;
+
+                TlsRecordSizePolicy policy = this.recordSizePolicy;
+                if (null != policy)
+                {
+                    policy.notifyApplicationDataWritten(toWrite);
+                }
             }
         }
     }
@@ -1010,7 +1213,7 @@ protected void writeHandshakeMessage(byte[] buf, int off, int len) throws IOExce
         do
         {
             // Fragment data according to the current fragment limit.
-            int toWrite = Math.min(len - total, recordStream.getPlaintextLimit());
+            int toWrite = Math.min(len - total, recordStream.getWritePlaintextLimit());
             safeWriteRecord(ContentType.handshake, buf, off + total, toWrite);
             total += toWrite;
         }
@@ -1094,10 +1297,10 @@ public RecordPreview previewOutputRecord(int applicationDataSize) throws IOExcep
         {
             throw new IllegalStateException("Cannot use previewOutputRecord() in blocking mode!");
         }
-        if (outputBuffer.getBuffer().available() != 0)
-        {
-            throw new IllegalStateException("Can only use previewOutputRecord() for record-aligned output.");
-        }
+        /*
+         * NOTE: Any output already pending (possibly written concurrently while processing input) will
+         * precede the previewed record(s), but doesn't affect their size.
+         */
 
         if (closed)
         {
@@ -1197,7 +1400,6 @@ public void offerInput(byte[] input, int inputOff, int inputLen) throws IOExcept
         // loop while there are enough bytes to read the length of the next record
         while (inputBuffers.available() >= RecordFormat.FRAGMENT_OFFSET)
         {
-            byte[] recordHeader = new byte[RecordFormat.FRAGMENT_OFFSET];
             if (RecordFormat.FRAGMENT_OFFSET != inputBuffers.peek(recordHeader))
             {
                 throw new TlsFatalAlert(AlertDescription.internal_error);
@@ -1225,9 +1427,61 @@ public void offerInput(byte[] input, int inputOff, int inputLen) throws IOExcept
         }
     }
 
+    /**
+     * Offer input as for {@link #offerInput(byte[], int, int)}, but write any application data received
+     * directly to a caller-supplied {@link OutputStream} instead of buffering it for
+     * {@link #readInput(byte[], int, int)}. Only allowed in non-blocking mode. If earlier application
+     * data is still waiting to be read, any new application data is buffered behind it as usual.<br>
+     * <br>
+     * Use {@link #previewInputRecord(byte[])} to check that the output has room for the application
+     * data before offering a record. When the input is exactly one record (and no partial record is
+     * buffered), the record is decrypted in place, so the contents of the input buffer are modified.
+     *
+     * @param input The input buffer to offer
+     * @param inputOff The offset within the input buffer that input begins
+     * @param inputLen The number of bytes of input being offered
+     * @param applicationDataOutput The {@link OutputStream} to write any application data to
+     * @return The number of bytes of application data written to applicationDataOutput.
+     * @throws IOException If an error occurs while decrypting or processing a record
+     */
+    public int offerInput(byte[] input, int inputOff, int inputLen, OutputStream applicationDataOutput)
+        throws IOException
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use offerInput() in blocking mode! Use getInputStream() instead.");
+        }
+        if (null == applicationDataOutput)
+        {
+            throw new NullPointerException("'applicationDataOutput' cannot be null");
+        }
+
+        this.applicationDataOutput = applicationDataOutput;
+        this.applicationDataOutputCount = 0;
+        try
+        {
+            offerInput(input, inputOff, inputLen);
+            return applicationDataOutputCount;
+        }
+        finally
+        {
+            this.applicationDataOutput = null;
+            this.applicationDataOutputCount = 0;
+        }
+    }
+
     public int getApplicationDataLimit()
     {
-        return recordStream.getPlaintextLimit();
+        int plaintextLimit = recordStream.getWritePlaintextLimit();
+
+        TlsRecordSizePolicy policy = this.recordSizePolicy;
+        if (null != policy)
+        {
+            int recordSize = policy.getApplicationDataRecordSize(plaintextLimit);
+            return Math.max(1, Math.min(recordSize, plaintextLimit));
+        }
+
+        return plaintextLimit;
     }
 
     /**
@@ -1291,7 +1545,10 @@ public int getAvailableOutputBytes()
             throw new IllegalStateException("Cannot use getAvailableOutputBytes() in blocking mode! Use getOutputStream() instead.");
         }
         
-        return outputBuffer.getBuffer().available();
+        synchronized (recordStream.getWriteLock())
+        {
+            return outputBuffer.getBuffer().available();
+        }
     }
 
     /**
@@ -1314,9 +1571,12 @@ public int readOutput(byte[] buffer, int offset, int length)
             throw new IllegalStateException("Cannot use readOutput() in blocking mode! Use getOutputStream() instead.");
         }
         
-        int bytesToRead = Math.min(getAvailableOutputBytes(), length);
-        outputBuffer.getBuffer().removeData(buffer, offset, bytesToRead, 0);
-        return bytesToRead;
+        synchronized (recordStream.getWriteLock())
+        {
+            int bytesToRead = Math.min(getAvailableOutputBytes(), length);
+            outputBuffer.getBuffer().removeData(buffer, offset, bytesToRead, 0);
+            return bytesToRead;
+        }
     }
 
     protected void invalidateSession()
@@ -1424,9 +1684,8 @@ protected void sendCertificateMessage(Certificate certificate, OutputStream endP
         }
         else
         {
-            HandshakeMessageOutput message = new HandshakeMessageOutput(HandshakeType.certificate);
-            certificate.encode(context, message, endPointHash);
-            message.send(this);
+            HandshakeMessageOutput.send(this, HandshakeType.certificate,
+                certificate.getEncoding(context, endPointHash));
         }
 
         securityParameters.localCertificate = certificate;
@@ -1446,8 +1705,36 @@ protected void send13CertificateMessage(Certificate certificate, OutputStream en
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        HandshakeMessageOutput message = new HandshakeMessageOutput(HandshakeType.certificate);
-        certificate.encode(context, message, endPointHash);
+        HandshakeMessageOutput.send(this, HandshakeType.certificate, certificate.getEncoding(context, endPointHash));
+
+        securityParameters.localCertificate = certificate;
+    }
+
+    protected void send13CompressedCertificateMessage(Certificate certificate, OutputStream endPointHash,
+        TlsCertificateCompression compression) throws IOException
+    {
+        if (null == certificate || null == compression)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        TlsContext context = getContext();
+        SecurityParameters securityParameters = context.getSecurityParametersHandshake();
+        if (null != securityParameters.getLocalCertificate())
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        byte[] certificateMessage = certificate.getEncoding(context, endPointHash);
+
+        byte[] compressed = compression.compress(certificateMessage);
+
+        CompressedCertificate compressedCertificate = new CompressedCertificate(compression.getAlgorithm(),
+            certificateMessage.length, compressed);
+
+        HandshakeMessageOutput message = new HandshakeMessageOutput(HandshakeType.compressed_certificate,
+            7 + compressed.length);
+        compressedCertificate.encode(message);
         message.send(this);
 
         securityParameters.localCertificate = certificate;
@@ -1739,6 +2026,17 @@ protected static void writeExtensionsData(Hashtable extensions, ByteArrayOutputS
          */
         writeSelectedExtensions(buf, extensions, true);
         writeSelectedExtensions(buf, extensions, false);
+
+        /*
+         * RFC 8446 4.2.11. The "pre_shared_key" extension MUST be the last extension in the ClientHello (this
+         * facilitates implementation as described below).
+         */
+        byte[] preSharedKey = (byte[])extensions.get(TlsExtensionsUtils.EXT_pre_shared_key);
+        if (null != preSharedKey)
+        {
+            TlsUtils.writeUint16(ExtensionType.pre_shared_key, buf);
+            TlsUtils.writeOpaque16(preSharedKey, buf);
+        }
     }
 
     protected static void writeSelectedExtensions(OutputStream output, Hashtable extensions, boolean selectEmpty)
@@ -1751,6 +2049,11 @@ protected static void writeSelectedExtensions(OutputStream output, Hashtable ext
             int extension_type = key.intValue();
             byte[] extension_data = (byte[])extensions.get(key);
 
+            if (ExtensionType.pre_shared_key == extension_type)
+            {
+                continue;
+            }
+
             if (selectEmpty == (extension_data.length == 0))
             {
                 TlsUtils.checkUint16(extension_type);
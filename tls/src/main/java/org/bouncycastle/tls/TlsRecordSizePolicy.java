@@ -0,0 +1,27 @@
+package org.bouncycastle.tls;
+
+/**
+ * Interface for choosing the size of outgoing application data records, e.g. to send small records
+ * (each fitting a single TCP segment) while a connection is new, and full-size records for bulk
+ * transfer.
+ */
+public interface TlsRecordSizePolicy
+{
+    /**
+     * Return the maximum plaintext length of the next application data record.
+     *
+     * @param plaintextLimit
+     *            the largest plaintext length currently permitted for a record (see e.g.
+     *            {@link ExtensionType#record_size_limit}).
+     * @return a length between 1 and plaintextLimit.
+     */
+    int getApplicationDataRecordSize(int plaintextLimit);
+
+    /**
+     * Notify that an application data record was written.
+     *
+     * @param length
+     *            the plaintext length of the record.
+     */
+    void notifyApplicationDataWritten(int length);
+}
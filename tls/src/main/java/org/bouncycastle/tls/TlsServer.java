@@ -25,6 +25,26 @@
      */
     TlsSession getSessionToResume(byte[] sessionID);
 
+    /**
+     * RFC 8446 4.2.11. Return the session for a ticket offered as a TLS 1.3 PSK identity, if available.
+     * Unlike {@link #getSessionToResume(byte[])} this must not have side effects, since the session may
+     * still be rejected (e.g. its binder may not verify) and other identities may then be tried;
+     * {@link #notifySessionToResume(TlsSession)} is called for the one that is accepted.
+     *
+     * @param ticket the ticket (session ID) offered by the client.
+     * @return A {@link TlsSession} with the specified session ID, or null.
+     */
+    TlsSession peekSessionToResume(byte[] ticket);
+
+    /**
+     * RFC 8446 4.2.11. Called once a session returned by {@link #peekSessionToResume(byte[])} has been
+     * accepted, i.e. its PSK binder has been verified, and the handshake will resume it.
+     *
+     * @param session the session being resumed.
+     * @throws IOException
+     */
+    void notifySessionToResume(TlsSession session) throws IOException;
+
     void notifyClientVersion(ProtocolVersion clientVersion) throws IOException;
 
     void notifyFallback(boolean isFallback) throws IOException;
@@ -115,4 +135,50 @@ void notifyClientCertificate(Certificate clientCertificate)
      */
     NewSessionTicket getNewSessionTicket()
         throws IOException;
+
+    /**
+     * RFC 8446 4.6.1. New Session Ticket Message
+     * <p>
+     * Called at the end of a TLS 1.3 handshake. If a positive lifetime is returned, a NewSessionTicket
+     * is sent to the client and the connection's session is replaced by one identified by the ticket,
+     * which will later be looked up via {@link #peekSessionToResume(byte[])} when the client offers it.
+     *
+     * @return The ticket lifetime in seconds (capped at 604800), or 0 to not issue a ticket.
+     * @throws IOException
+     */
+    long getNewSessionTicketLifetime()
+        throws IOException;
+
+    /**
+     * RFC 8446 4.2.10. Early Data Indication
+     * <p>
+     * The max_early_data_size advertised in NewSessionTicket messages, and enforced when a client later
+     * resumes with the ticket. Early data is only offered in tickets if {@link #getEarlyDataReplayStore()}
+     * also returns non-null.
+     *
+     * @return The maximum amount of early data (in bytes) to accept, or 0 to not accept early data.
+     * @throws IOException
+     */
+    long getMaxEarlyDataSize()
+        throws IOException;
+
+    /**
+     * RFC 8446 8. 0-RTT and Anti-Replay
+     *
+     * @return The {@link TlsEarlyDataReplayStore} that early data is checked against before being
+     *         accepted, or null to not accept early data.
+     * @throws IOException
+     */
+    TlsEarlyDataReplayStore getEarlyDataReplayStore()
+        throws IOException;
+
+    /**
+     * Return a {@link TlsSignerExecutor} to run the server's TLS 1.3 CertificateVerify signing operation,
+     * which will suspend the handshake until the signature is available. Only used in non-blocking mode.
+     *
+     * @return a {@link TlsSignerExecutor}, or null to sign on the thread driving the handshake.
+     * @throws IOException
+     */
+    TlsSignerExecutor getSignerExecutor()
+        throws IOException;
 }
@@ -12,6 +12,9 @@
 import org.bouncycastle.tls.crypto.TlsCrypto;
 import org.bouncycastle.tls.crypto.TlsDHConfig;
 import org.bouncycastle.tls.crypto.TlsECConfig;
+import org.bouncycastle.tls.crypto.TlsHash;
+import org.bouncycastle.tls.crypto.TlsNonceGenerator;
+import org.bouncycastle.tls.crypto.TlsSecret;
 import org.bouncycastle.util.Arrays;
 
 public class TlsServerProtocol
@@ -23,6 +26,9 @@
     protected int[] offeredCipherSuites = null;
     protected TlsKeyExchange keyExchange = null;
     protected CertificateRequest certificateRequest = null;
+    protected long earlyDataRemaining = -1L;
+
+    private volatile Tls13CertificateVerifyTask pendingCertificateVerify = null;
 
     /**
      * Constructor for non-blocking mode.<br>
@@ -104,6 +110,73 @@ protected void cleanupHandshake()
         this.offeredCipherSuites = null;
         this.keyExchange = null;
         this.certificateRequest = null;
+        this.earlyDataRemaining = -1L;
+        this.pendingCertificateVerify = null;
+    }
+
+    /**
+     * Whether the (non-blocking) handshake is waiting for a signing task given to the server's
+     * {@link TlsSignerExecutor}. Once the task has run, call {@link #resumeHandshake()} to continue.
+     *
+     * @return true if a signing task is outstanding.
+     * @see TlsServer#getSignerExecutor()
+     */
+    public boolean isHandshakeSuspended()
+    {
+        return null != pendingCertificateVerify;
+    }
+
+    /**
+     * In blocking mode, as for {@link TlsProtocol#resumeHandshake()}. In non-blocking mode, continue a
+     * handshake that was suspended (see {@link #isHandshakeSuspended()}) after its signing task has run.
+     * The remaining server handshake messages are then available via {@link #readOutput(byte[], int, int)}.
+     *
+     * @throws IOException
+     *             if the connection has failed, or the signing task failed.
+     */
+    public void resumeHandshake() throws IOException
+    {
+        if (blocking)
+        {
+            super.resumeHandshake();
+            return;
+        }
+
+        Tls13CertificateVerifyTask task = this.pendingCertificateVerify;
+        if (null == task)
+        {
+            throw new IllegalStateException("No suspended handshake");
+        }
+        if (!task.isDone())
+        {
+            throw new IllegalStateException("Signing task has not been run");
+        }
+        if (isClosed())
+        {
+            throw new IOException("Connection is closed, cannot resume handshake");
+        }
+
+        try
+        {
+            this.pendingCertificateVerify = null;
+
+            send13ServerHelloCodaSigned(task.getResult());
+        }
+        catch (TlsFatalAlert e)
+        {
+            handleException(e.getAlertDescription(), "Failed to resume handshake", e);
+            throw e;
+        }
+        catch (IOException e)
+        {
+            handleException(AlertDescription.internal_error, "Failed to resume handshake", e);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            handleException(AlertDescription.internal_error, "Failed to resume handshake", e);
+            throw new TlsFatalAlert(AlertDescription.internal_error, e);
+        }
     }
 
     protected boolean expectCertificateVerifyMessage()
@@ -119,8 +192,8 @@ protected boolean expectCertificateVerifyMessage()
             && (null == keyExchange || keyExchange.requiresCertificateVerify());
     }
 
-    protected ServerHello generate13ServerHello(ClientHello clientHello, boolean afterHelloRetryRequest)
-        throws IOException
+    protected ServerHello generate13ServerHello(ClientHello clientHello, HandshakeMessageInput clientHelloMessage,
+        boolean afterHelloRetryRequest) throws IOException
     {
         SecurityParameters securityParameters = tlsServerContext.getSecurityParametersHandshake();
         if (securityParameters.isRenegotiating())
@@ -136,6 +209,15 @@ protected ServerHello generate13ServerHello(ClientHello clientHello, boolean aft
 
         if (afterHelloRetryRequest)
         {
+            /*
+             * RFC 8446 4.2.10. A client MUST NOT include the "early_data" extension in its followup
+             * ClientHello.
+             */
+            if (TlsExtensionsUtils.hasEarlyDataIndication(clientHello.getExtensions()))
+            {
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+            }
+
             /*
              * TODO[tls13] RFC 8446 4.1.2 [..] when the server has responded to its ClientHello with
              * a HelloRetryRequest [..] the client MUST send the same ClientHello without
@@ -179,11 +261,7 @@ protected ServerHello generate13ServerHello(ClientHello clientHello, boolean aft
                 }
             }
 
-            if (null == clientShare)
-            {
-                // TODO[tls13] Send HelloRetryRequest
-                throw new TlsFatalAlert(AlertDescription.internal_error);
-            }
+            // NOTE: A missing client share is only acceptable for a psk_ke resumption (checked below)
         }
 
         /*
@@ -211,35 +289,10 @@ protected ServerHello generate13ServerHello(ClientHello clientHello, boolean aft
             tlsServer.processClientExtensions(clientExtensions);
         }
 
-        /*
-         * RFC 8446 4.2.3. Clients which desire the server to authenticate itself via a
-         * certificate MUST send the "signature_algorithms" extension. If a server is authenticating
-         * via a certificate and the client has not sent a "signature_algorithms" extension, then
-         * the server MUST abort the handshake with a "missing_extension" alert.
-         */
-        // TODO[tls13] Revisit this check if we add support for PSK-only key exchange.
-        if (null == securityParameters.getClientSigAlgs())
-        {
-            throw new TlsFatalAlert(AlertDescription.missing_extension);
-        }
-
-        /*
-         * NOTE: Currently no server support for session resumption
-         * 
-         * If adding support, ensure securityParameters.tlsUnique is set to the localVerifyData, but
-         * ONLY when extended_master_secret has been negotiated (otherwise NULL).
-         */
         byte[] legacy_session_id = clientHello.getSessionID();
 
-        {
-            invalidateSession();
-
-            securityParameters.sessionID = TlsUtils.EMPTY_BYTES;
-
-            this.tlsSession = TlsUtils.importSession(securityParameters.getSessionID(), null);
-            this.sessionParameters = null;
-            this.sessionMasterSecret = null;
-        }
+        // NOTE: Checked after PSK selection, before defaults are established by negotiatedVersionTLSServer
+        boolean clientSentSigAlgs = (null != securityParameters.getClientSigAlgs());
 
         TlsUtils.negotiatedVersionTLSServer(tlsServerContext);
 
@@ -272,9 +325,53 @@ protected ServerHello generate13ServerHello(ClientHello clientHello, boolean aft
             TlsUtils.negotiatedCipherSuite(securityParameters, cipherSuite);
         }
 
+        /*
+         * RFC 8446 2.2. Resumption and Pre-Shared Key (PSK). Only tickets previously issued by this server
+         * (see send13NewSessionTicketMessage) are recognised, and not after a HelloRetryRequest.
+         */
+        short pskKeyExchangeMode = afterHelloRetryRequest ? -1 : select13PSKKeyExchangeMode(null != clientShare);
+        int selectedIdentity = pskKeyExchangeMode < 0 ? -1 : select13SessionToResume(clientHelloMessage);
+
+        if (selectedIdentity >= 0)
+        {
+            securityParameters.sessionID = tlsSession.getSessionID();
+        }
+        else
+        {
+            /*
+             * RFC 8446 4.2.3. Clients which desire the server to authenticate itself via a
+             * certificate MUST send the "signature_algorithms" extension. If a server is authenticating
+             * via a certificate and the client has not sent a "signature_algorithms" extension, then
+             * the server MUST abort the handshake with a "missing_extension" alert.
+             */
+            if (!clientSentSigAlgs)
+            {
+                throw new TlsFatalAlert(AlertDescription.missing_extension);
+            }
+
+            if (null == clientShare)
+            {
+                // TODO[tls13] Send HelloRetryRequest
+                throw new TlsFatalAlert(AlertDescription.internal_error);
+            }
+
+            invalidateSession();
+
+            securityParameters.sessionID = TlsUtils.EMPTY_BYTES;
+
+            this.tlsSession = TlsUtils.importSession(securityParameters.getSessionID(), null);
+            this.sessionParameters = null;
+            this.sessionMasterSecret = null;
+        }
+
         Hashtable serverHelloExtensions = new Hashtable();
         Hashtable serverEncryptedExtensions = TlsExtensionsUtils.ensureExtensionsInitialised(tlsServer.getServerExtensions());
 
+        if (selectedIdentity >= 0)
+        {
+            TlsExtensionsUtils.addPreSharedKeyServerHello(serverHelloExtensions, selectedIdentity);
+        }
+
         ProtocolVersion serverLegacyVersion = ProtocolVersion.TLSv12;
         TlsExtensionsUtils.addSupportedVersionsExtensionServer(serverHelloExtensions, serverVersion);
 
@@ -338,6 +435,8 @@ protected ServerHello generate13ServerHello(ClientHello clientHello, boolean aft
         // TODO[tls13] Review this extension
 //        applyMaxFragmentLengthExtension();
 
+        // NOTE: For psk_ke there is no "key_share" extension and the (EC)DHE input is zeroes
+        if (PskKeyExchangeMode.psk_ke != pskKeyExchangeMode || selectedIdentity < 0)
         {
             int namedGroup = clientShare.getNamedGroup();
     
@@ -361,8 +460,47 @@ else if (NamedGroup.refersToASpecificFiniteField(namedGroup))
 
             agreement.receivePeerValue(clientShare.getKeyExchange());
             securityParameters.sharedSecret = agreement.calculateSecret();
-            // TODO[tls13] We need the PRF for this i.e. the cipher suite has to have been negotiated 
-            TlsUtils.establish13PhaseSecrets(tlsServerContext);
+        }
+
+        TlsUtils.establish13PhaseSecrets(tlsServerContext);
+
+        if (TlsExtensionsUtils.hasEarlyDataIndication(clientExtensions))
+        {
+            if (accept13EarlyData(clientHello, selectedIdentity))
+            {
+                TlsExtensionsUtils.addEarlyDataIndication(serverEncryptedExtensions);
+                securityParameters.earlyDataAccepted = true;
+
+                TlsHash clientHelloHash = crypto.createHash(securityParameters.getPRFHashAlgorithm());
+                clientHelloMessage.updateHashPrefix(clientHelloHash, 0);
+
+                TlsUtils.establish13PhaseEarly(tlsServerContext, clientHelloHash.calculateHash(), recordStream);
+                recordStream.enablePendingCipherRead(false);
+
+                this.earlyDataRemaining = sessionParameters.getMaxEarlyDataSize();
+            }
+            else
+            {
+                /*
+                 * RFC 8446 4.2.10. If the server [..] rejects the early data, it skips past early data
+                 * [..] up to the configured max_early_data_size.
+                 */
+                long skipLimit = Math.max(0L, tlsServer.getMaxEarlyDataSize());
+                recordStream.setSkipEarlyDataLimit((int)Math.min(skipLimit, Integer.MAX_VALUE));
+            }
+        }
+
+        /*
+         * RFC 8449 4. In TLS 1.3, the server sends the "record_size_limit" extension in the
+         * EncryptedExtensions message.
+         */
+        if (null != TlsUtils.getExtensionData(clientExtensions, TlsExtensionsUtils.EXT_record_size_limit))
+        {
+            TlsExtensionsUtils.addRecordSizeLimitExtension(serverEncryptedExtensions,
+                getRecordSizeLimit(tlsServer, true, true));
+
+            // NOTE: The client's limit applies from its handshake traffic keys (i.e. not to early data)
+            applyRecordSizeLimitExtension(serverEncryptedExtensions, clientExtensions, true);
         }
 
         this.serverExtensions = serverEncryptedExtensions;
@@ -371,7 +509,48 @@ else if (NamedGroup.refersToASpecificFiniteField(namedGroup))
             securityParameters.getCipherSuite(), serverHelloExtensions);
     }
 
-    protected ServerHello generateServerHello(ClientHello clientHello) throws IOException
+    /*
+     * RFC 8446 4.2.10. In order to accept early data, the server MUST have accepted a PSK cipher suite and
+     * selected the first key offered in the client's "pre_shared_key" extension. In addition, it MUST verify
+     * that the cipher suite and the selected ALPN protocol match those associated with the selected PSK.
+     */
+    protected boolean accept13EarlyData(ClientHello clientHello, int selectedIdentity)
+        throws IOException
+    {
+        SecurityParameters securityParameters = tlsServerContext.getSecurityParametersHandshake();
+
+        if (0 != selectedIdentity
+            || sessionParameters.getMaxEarlyDataSize() <= 0L
+            || securityParameters.getCipherSuite() != sessionParameters.getCipherSuite())
+        {
+            return false;
+        }
+
+        ProtocolName ticketProtocol = TlsExtensionsUtils.getALPNExtensionServer(
+            sessionParameters.readServerExtensions());
+        ProtocolName applicationProtocol = securityParameters.getApplicationProtocol();
+        if (null == ticketProtocol ? null != applicationProtocol : !ticketProtocol.equals(applicationProtocol))
+        {
+            return false;
+        }
+
+        TlsEarlyDataReplayStore replayStore = tlsServer.getEarlyDataReplayStore();
+        if (null == replayStore)
+        {
+            return false;
+        }
+
+        OfferedPsks offeredPsks = TlsExtensionsUtils.getPreSharedKeyClientHello(clientExtensions);
+        PskIdentity identity = (PskIdentity)offeredPsks.getIdentities().elementAt(0);
+        long clientTicketAge = (identity.getObfuscatedTicketAge() - sessionParameters.getTicketAgeAdd())
+            & 0xFFFFFFFFL;
+
+        // NOTE: Called last, so that only early data that would otherwise be accepted is recorded
+        return replayStore.accept(sessionParameters, clientHello.getRandom(), clientTicketAge);
+    }
+
+    protected ServerHello generateServerHello(ClientHello clientHello, HandshakeMessageInput clientHelloMessage)
+        throws IOException
     {
         ProtocolVersion clientLegacyVersion = clientHello.getVersion();
         if (!clientLegacyVersion.isTLS())
@@ -463,7 +642,7 @@ protected ServerHello generateServerHello(ClientHello clientHello) throws IOExce
 
             recordStream.setWriteVersion(ProtocolVersion.TLSv12);
 
-            return generate13ServerHello(clientHello, false);
+            return generate13ServerHello(clientHello, clientHelloMessage, false);
         }
 
         recordStream.setWriteVersion(serverVersion);
@@ -748,6 +927,19 @@ else if (TlsUtils.hasExpectedEmptyExtensionData(serverExtensions, TlsExtensionsU
 
         applyMaxFragmentLengthExtension();
 
+        /*
+         * RFC 8449 4. Endpoints SHOULD advertise the "record_size_limit" extension, even if they have no
+         * need to limit the size of records.
+         */
+        if (null != TlsUtils.getExtensionData(clientExtensions, TlsExtensionsUtils.EXT_record_size_limit))
+        {
+            TlsExtensionsUtils.addRecordSizeLimitExtension(serverExtensions,
+                getRecordSizeLimit(tlsServer, false, true));
+
+            // NOTE: The client's limit applies from its ChangeCipherSpec
+            applyRecordSizeLimitExtension(serverExtensions, clientExtensions, true);
+        }
+
         return new ServerHello(serverVersion, securityParameters.getServerRandom(), tlsSession.getSessionID(),
             securityParameters.getCipherSuite(), serverExtensions);
     }
@@ -775,16 +967,10 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        if (this.resumedSession)
-        {
-            /*
-             * TODO[tls13] Abbreviated handshakes (PSK resumption)
-             * 
-             * NOTE: No CertificateRequest, Certificate, CertificateVerify messages, but client
-             * might now send EndOfEarlyData after receiving server Finished message.
-             */
-            throw new TlsFatalAlert(AlertDescription.internal_error);
-        }
+        /*
+         * NOTE: For abbreviated handshakes (PSK resumption) no CertificateRequest is sent, so no client
+         * Certificate, CertificateVerify messages are expected.
+         */
 
         switch (type)
         {
@@ -794,6 +980,16 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             {
             case CS_SERVER_FINISHED:
             {
+                skip13EndOfEarlyData();
+                // Fall through
+            }
+            case CS_CLIENT_END_OF_EARLY_DATA:
+            {
+                if (null == certificateRequest)
+                {
+                    throw new TlsFatalAlert(AlertDescription.unexpected_message);
+                }
+
                 receive13ClientCertificate(buf);
                 this.connection_state = CS_CLIENT_CERTIFICATE;
                 break;
@@ -833,7 +1029,7 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
                 ClientHello clientHelloRetry = receiveClientHelloMessage(buf);
                 this.connection_state = CS_CLIENT_HELLO_RETRY;
 
-                ServerHello serverHello = generate13ServerHello(clientHelloRetry, true);
+                ServerHello serverHello = generate13ServerHello(clientHelloRetry, buf, true);
                 sendServerHelloMessage(serverHello);
                 this.connection_state = CS_SERVER_HELLO;
 
@@ -845,11 +1041,31 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             }
             break;
         }
+        case HandshakeType.end_of_early_data:
+        {
+            switch (this.connection_state)
+            {
+            case CS_SERVER_FINISHED:
+            {
+                receive13EndOfEarlyData(buf);
+                this.connection_state = CS_CLIENT_END_OF_EARLY_DATA;
+                break;
+            }
+            default:
+                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            }
+            break;
+        }
         case HandshakeType.finished:
         {
             switch (this.connection_state)
             {
             case CS_SERVER_FINISHED:
+            {
+                skip13EndOfEarlyData();
+                // Fall through
+            }
+            case CS_CLIENT_END_OF_EARLY_DATA:
             {
                 skip13ClientCertificate();
                 // Fall through
@@ -862,6 +1078,7 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
             case CS_CLIENT_CERTIFICATE_VERIFY:
             {
                 receive13ClientFinished(buf);
+                buf.updateHash(handshakeHash);
                 this.connection_state = CS_CLIENT_FINISHED;
 
                 // See RFC 8446 D.4.
@@ -870,6 +1087,12 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
                 // NOTE: Completes the switch to application-data phase (server entered after CS_SERVER_FINISHED).
                 recordStream.enablePendingCipherRead(false);
 
+                long ticketLifetime = tlsServer.getNewSessionTicketLifetime();
+                if (ticketLifetime > 0L)
+                {
+                    send13NewSessionTicketMessage(ticketLifetime);
+                }
+
                 completeHandshake();
                 break;
             }
@@ -898,7 +1121,6 @@ protected void handle13HandshakeMessage(short type, HandshakeMessageInput buf)
         case HandshakeType.certificate_url:
         case HandshakeType.client_key_exchange:
         case HandshakeType.encrypted_extensions:
-        case HandshakeType.end_of_early_data:
         case HandshakeType.hello_request:
         case HandshakeType.hello_verify_request:
         case HandshakeType.message_hash:
@@ -955,7 +1177,7 @@ protected void handleHandshakeMessage(short type, HandshakeMessageInput buf)
                 ClientHello clientHello = receiveClientHelloMessage(buf);
                 this.connection_state = CS_CLIENT_HELLO;
 
-                ServerHello serverHello = generateServerHello(clientHello);
+                ServerHello serverHello = generateServerHello(clientHello, buf);
                 handshakeHash.notifyPRFDetermined();
 
                 if (TlsUtils.isTLSv13(securityParameters.getNegotiatedVersion()))
@@ -1327,6 +1549,21 @@ protected void receive13ClientCertificateVerify(ByteArrayInputStream buf)
             handshakeHash);
     }
 
+    protected void receive13EndOfEarlyData(ByteArrayInputStream buf) throws IOException
+    {
+        if (!tlsServerContext.getSecurityParametersHandshake().isEarlyDataAccepted())
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
+
+        assertEmpty(buf);
+
+        this.earlyDataRemaining = -1L;
+
+        // RFC 8446 4.5. [..] the server then switches to the client's handshake traffic keys
+        recordStream.notifyEndOfEarlyDataReceived();
+    }
+
     protected void receive13ClientFinished(ByteArrayInputStream buf) throws IOException
     {
         processFinishedMessage(buf);
@@ -1417,11 +1654,38 @@ protected void send13ServerHelloCoda(ServerHello serverHello, boolean afterHello
         TlsUtils.establish13PhaseHandshake(tlsServerContext, serverHelloTranscriptHash, recordStream);
 
         recordStream.enablePendingCipherWrite();
-        recordStream.enablePendingCipherRead(true);
+
+        if (securityParameters.isEarlyDataAccepted())
+        {
+            // NOTE: The early data cipher remains in use until the client's EndOfEarlyData
+            recordStream.enablePendingCipherReadAfterEarlyData();
+        }
+        else
+        {
+            recordStream.enablePendingCipherRead(true);
+        }
 
         send13EncryptedExtensionsMessage(serverExtensions);
         this.connection_state = CS_SERVER_ENCRYPTED_EXTENSIONS;
 
+        if (this.resumedSession)
+        {
+            /*
+             * RFC 8446 4.3.2. Servers which are authenticating with a PSK MUST NOT send the
+             * CertificateRequest message in the main handshake. No Certificate, CertificateVerify
+             * either, since the server's identity is bound to the PSK.
+             */
+            send13FinishedMessage();
+            this.connection_state = CS_SERVER_FINISHED;
+
+            byte[] serverFinishedTranscriptHash = TlsUtils.getCurrentPRFHash(handshakeHash);
+
+            TlsUtils.establish13PhaseApplication(tlsServerContext, serverFinishedTranscriptHash, recordStream);
+
+            recordStream.enablePendingCipherWrite();
+            return;
+        }
+
         // CertificateRequest
         {
             this.certificateRequest = tlsServer.getCertificateRequest();
@@ -1439,10 +1703,6 @@ protected void send13ServerHelloCoda(ServerHello serverHello, boolean afterHello
             }
         }
 
-        /*
-         * TODO[tls13] For PSK-only key exchange, there's no Certificate message.
-         */
-
         TlsCredentialedSigner serverCredentials = TlsUtils.establish13ServerCredentials(tlsServer);
         if (null == serverCredentials)
         {
@@ -1462,7 +1722,15 @@ protected void send13ServerHelloCoda(ServerHello serverHello, boolean afterHello
 
             ByteArrayOutputStream endPointHash = new ByteArrayOutputStream();
             Certificate serverCertificate = serverCredentials.getCertificate();
-            send13CertificateMessage(serverCertificate, endPointHash);
+            TlsCertificateCompression compression = select13CertificateCompression();
+            if (null == compression)
+            {
+                send13CertificateMessage(serverCertificate, endPointHash);
+            }
+            else
+            {
+                send13CompressedCertificateMessage(serverCertificate, endPointHash, compression);
+            }
             securityParameters.tlsServerEndPoint = endPointHash.toByteArray();
             /*
              * TODO[tls13] This is supposed to be negotiated independently for client (CH extension)
@@ -1474,8 +1742,38 @@ protected void send13ServerHelloCoda(ServerHello serverHello, boolean afterHello
 
         // CertificateVerify
         {
-            DigitallySigned certificateVerify = TlsUtils.generate13CertificateVerify(tlsServerContext, serverCredentials,
+            TlsSignerExecutor signerExecutor = blocking ? null : tlsServer.getSignerExecutor();
+            if (null == signerExecutor)
+            {
+                DigitallySigned certificateVerify = TlsUtils.generate13CertificateVerify(tlsServerContext,
+                    serverCredentials, handshakeHash);
+                send13ServerHelloCodaSigned(certificateVerify);
+                return;
+            }
+
+            /*
+             * NOTE: The signature only covers the transcript so far, so the handshake can be suspended here
+             * (with the preceding messages already queued for output) until the signing task has run.
+             */
+            Tls13CertificateVerifyTask task = new Tls13CertificateVerifyTask(tlsServerContext, serverCredentials,
                 handshakeHash);
+            this.pendingCertificateVerify = task;
+
+            signerExecutor.execute(task);
+
+            if (task.isDone() && task == this.pendingCertificateVerify)
+            {
+                this.pendingCertificateVerify = null;
+
+                send13ServerHelloCodaSigned(task.getResult());
+            }
+        }
+    }
+
+    protected void send13ServerHelloCodaSigned(DigitallySigned certificateVerify) throws IOException
+    {
+        // CertificateVerify
+        {
             send13CertificateVerifyMessage(certificateVerify);
             this.connection_state = CS_CLIENT_CERTIFICATE_VERIFY;
         }
@@ -1516,6 +1814,81 @@ protected void sendHelloRequestMessage()
         HandshakeMessageOutput.send(this, HandshakeType.hello_request, TlsUtils.EMPTY_BYTES);
     }
 
+    protected void send13NewSessionTicketMessage(long ticketLifetime)
+        throws IOException
+    {
+        SecurityParameters securityParameters = tlsServerContext.getSecurityParametersHandshake();
+
+        TlsUtils.establish13ResumptionMasterSecret(tlsServerContext, TlsUtils.getCurrentPRFHash(handshakeHash));
+
+        /*
+         * RFC 8446 4.6.1. Servers MUST NOT use any value greater than 604800 seconds (7 days).
+         * 
+         * NOTE: The ticket is a random session ID, for a session (holding the ticket PSK) to be found via
+         * TlsServer.peekSessionToResume. Only one ticket is issued per connection, so the nonce is empty.
+         */
+        ticketLifetime = Math.min(ticketLifetime, 604800L);
+
+        TlsNonceGenerator nonceGenerator = tlsServerContext.getNonceGenerator();
+        byte[] ticket = nonceGenerator.generateNonce(32);
+        long ticketAgeAdd = TlsUtils.readUint32(nonceGenerator.generateNonce(4), 0);
+        byte[] ticketNonce = TlsUtils.EMPTY_BYTES;
+
+        TlsSecret psk = TlsUtils.calculate13ResumptionPSK(securityParameters, ticketNonce);
+
+        Certificate localCertificate, peerCertificate;
+        if (this.resumedSession)
+        {
+            localCertificate = sessionParameters.getLocalCertificate();
+            peerCertificate = sessionParameters.getPeerCertificate();
+        }
+        else
+        {
+            localCertificate = securityParameters.getLocalCertificate();
+            peerCertificate = securityParameters.getPeerCertificate();
+        }
+
+        /*
+         * RFC 8446 4.6.1. early_data: The value indicates the maximum amount of 0-RTT data that the client
+         * is allowed to send when using this ticket. Only offered when replayed early data can be detected.
+         */
+        Hashtable ticketExtensions = new Hashtable();
+        long maxEarlyDataSize = Math.min(tlsServer.getMaxEarlyDataSize(), 0xFFFFFFFFL);
+        if (maxEarlyDataSize > 0L && null != tlsServer.getEarlyDataReplayStore())
+        {
+            TlsExtensionsUtils.addEarlyDataMaxSize(ticketExtensions, maxEarlyDataSize);
+        }
+        else
+        {
+            maxEarlyDataSize = 0L;
+        }
+
+        SessionParameters ticketParameters = new SessionParameters.Builder()
+            .setCipherSuite(securityParameters.getCipherSuite())
+            .setCompressionAlgorithm(securityParameters.getCompressionAlgorithm())
+            .setExtendedMasterSecret(true)
+            .setLocalCertificate(localCertificate)
+            .setMasterSecret(psk)
+            .setMaxEarlyDataSize(maxEarlyDataSize)
+            .setNegotiatedVersion(securityParameters.getNegotiatedVersion())
+            .setPeerCertificate(peerCertificate)
+            .setServerExtensions(serverExtensions)
+            .setTicket(ticket, ticketAgeAdd, ticketLifetime, System.currentTimeMillis())
+            .build();
+
+        HandshakeMessageOutput message = new HandshakeMessageOutput(HandshakeType.new_session_ticket);
+        TlsUtils.writeUint32(ticketLifetime, message);
+        TlsUtils.writeUint32(ticketAgeAdd, message);
+        TlsUtils.writeOpaque8(ticketNonce, message);
+        TlsUtils.writeOpaque16(ticket, message);
+        TlsUtils.writeOpaque16(writeExtensionsData(ticketExtensions), message);
+        message.send(this);
+
+        // NOTE: The ticket session replaces the connection's session, so it is reported on completion
+        this.tlsSession = TlsUtils.importSession(ticket, ticketParameters);
+        this.sessionParameters = ticketParameters;
+    }
+
     protected void sendNewSessionTicketMessage(NewSessionTicket newSessionTicket)
         throws IOException
     {
@@ -1549,6 +1922,184 @@ protected void sendServerKeyExchangeMessage(byte[] serverKeyExchange)
         HandshakeMessageOutput.send(this, HandshakeType.server_key_exchange, serverKeyExchange);
     }
 
+    /*
+     * RFC 8879 3. The server MAY compress the Certificate message with any one of the algorithms offered in the
+     * "compress_certificate" extension. Selects the first of the server's compressions the client offered, or
+     * null if there is none (including when the extension is absent).
+     */
+    protected TlsCertificateCompression select13CertificateCompression()
+        throws IOException
+    {
+        int[] offeredAlgorithms = TlsExtensionsUtils.getCompressCertificateExtension(clientExtensions);
+        if (null != offeredAlgorithms)
+        {
+            TlsCertificateCompression[] compressions = tlsServer.getCertificateCompression();
+            if (null != compressions)
+            {
+                for (int i = 0; i < compressions.length; ++i)
+                {
+                    if (Arrays.contains(offeredAlgorithms, compressions[i].getAlgorithm()))
+                    {
+                        return compressions[i];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * RFC 8446 4.2.9. Selects a PSK key exchange mode supported by both client and server, preferring
+     * psk_dhe_ke, or -1 if there is none (including when no PSK was offered).
+     */
+    protected short select13PSKKeyExchangeMode(boolean hasClientShare)
+        throws IOException
+    {
+        if (null == clientExtensions || null == TlsExtensionsUtils.getPreSharedKeyClientHello(clientExtensions))
+        {
+            return -1;
+        }
+
+        /*
+         * RFC 8446 4.2.9. If clients offer "pre_shared_key" without a "psk_key_exchange_modes" extension,
+         * servers MUST abort the handshake.
+         */
+        short[] clientModes = TlsExtensionsUtils.getPSKKeyExchangeModesExtension(clientExtensions);
+        if (null == clientModes)
+        {
+            throw new TlsFatalAlert(AlertDescription.missing_extension);
+        }
+
+        short[] serverModes = tlsServer.getPSKKeyExchangeModes();
+        if (null == serverModes)
+        {
+            return -1;
+        }
+
+        if (hasClientShare
+            && Arrays.contains(clientModes, PskKeyExchangeMode.psk_dhe_ke)
+            && Arrays.contains(serverModes, PskKeyExchangeMode.psk_dhe_ke))
+        {
+            return PskKeyExchangeMode.psk_dhe_ke;
+        }
+
+        if (Arrays.contains(clientModes, PskKeyExchangeMode.psk_ke)
+            && Arrays.contains(serverModes, PskKeyExchangeMode.psk_ke))
+        {
+            return PskKeyExchangeMode.psk_ke;
+        }
+
+        return -1;
+    }
+
+    /*
+     * RFC 8446 4.2.11. Selects the first offered PSK identity that is a known, unexpired ticket for the
+     * negotiated hash, and validates its binder. On success the ticket's session becomes the connection's
+     * session to resume and the selected identity index is returned, otherwise -1.
+     */
+    protected int select13SessionToResume(HandshakeMessageInput clientHelloMessage)
+        throws IOException
+    {
+        OfferedPsks offeredPsks = TlsExtensionsUtils.getPreSharedKeyClientHello(clientExtensions);
+
+        SecurityParameters securityParameters = tlsServerContext.getSecurityParametersHandshake();
+        TlsCrypto crypto = tlsServerContext.getCrypto();
+        long now = System.currentTimeMillis();
+
+        Vector identities = offeredPsks.getIdentities();
+        for (int i = 0; i < identities.size(); ++i)
+        {
+            PskIdentity identity = (PskIdentity)identities.elementAt(i);
+            byte[] ticket = identity.getIdentity();
+
+            // NOTE: Our tickets are session IDs, so anything longer cannot be one of them
+            if (ticket.length < 1 || ticket.length > 32)
+            {
+                continue;
+            }
+
+            TlsSession sessionToResume = tlsServer.peekSessionToResume(ticket);
+            if (null == sessionToResume || !sessionToResume.isResumable())
+            {
+                continue;
+            }
+
+            SessionParameters resumeParameters = sessionToResume.exportSessionParameters();
+            if (null == resumeParameters
+                || !resumeParameters.isTicketValid(now)
+                || !TlsUtils.isTLSv13(resumeParameters.getNegotiatedVersion())
+                || TlsUtils.getPRFAlgorithm13(resumeParameters.getCipherSuite()) != securityParameters.getPRFAlgorithm())
+            {
+                continue;
+            }
+
+            byte[] psk;
+            TlsSecret resumeMasterSecret = resumeParameters.getMasterSecret();
+            synchronized (resumeMasterSecret)
+            {
+                if (!resumeMasterSecret.isAlive())
+                {
+                    continue;
+                }
+                psk = crypto.adoptSecret(resumeMasterSecret).extract();
+            }
+
+            /*
+             * RFC 8446 4.2.11. Prior to accepting PSK key establishment, the server MUST validate the
+             * corresponding binder value. If this value is not present or does not validate, the server
+             * MUST abort the handshake.
+             */
+            TlsHash truncatedHash = crypto.createHash(securityParameters.getPRFHashAlgorithm());
+            clientHelloMessage.updateHashPrefix(truncatedHash, offeredPsks.getBindersSize());
+
+            byte[] binder = (byte[])offeredPsks.getBinders().elementAt(i);
+            byte[] expectedBinder = TlsUtils.calculate13PSKBinder(crypto, securityParameters.getPRFHashAlgorithm(),
+                psk, truncatedHash.calculateHash());
+
+            if (!Arrays.constantTimeAreEqual(expectedBinder, binder))
+            {
+                throw new TlsFatalAlert(AlertDescription.decrypt_error);
+            }
+
+            securityParameters.psk = psk;
+
+            tlsServer.notifySessionToResume(sessionToResume);
+
+            this.tlsSession = sessionToResume;
+            this.sessionParameters = resumeParameters;
+            this.sessionMasterSecret = null;
+            this.resumedSession = true;
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    protected void processEarlyData(int length) throws IOException
+    {
+        /*
+         * RFC 8446 4.2.10. If the server accepted early data, it MUST NOT accept more than
+         * max_early_data_size bytes of 0-RTT data, terminating the connection with an
+         * "unexpected_message" alert otherwise.
+         */
+        if (earlyDataRemaining < length)
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
+
+        this.earlyDataRemaining -= length;
+    }
+
+    protected void skip13EndOfEarlyData() throws IOException
+    {
+        // RFC 8446 4.5. If the server sent an "early_data" extension, the client MUST send EndOfEarlyData
+        if (tlsServerContext.getSecurityParametersHandshake().isEarlyDataAccepted())
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
+    }
+
     protected void skip13ClientCertificate() throws IOException
     {
         if (null != certificateRequest)
@@ -0,0 +1,24 @@
+package org.bouncycastle.tls;
+
+/**
+ * Interface for running the (potentially slow) private key operation of a server handshake somewhere other
+ * than the thread driving the protocol, e.g. on a thread pool, or queued together with other signing work
+ * so that it can be batched.
+ * <p>
+ * Only used by a {@link TlsServerProtocol} in non-blocking mode. When a signing task has been handed to
+ * {@link #execute(Runnable)}, the handshake is suspended (see {@link TlsServerProtocol#isHandshakeSuspended()})
+ * until the task has run and {@link TlsServerProtocol#resumeHandshake()} is called.
+ * </p>
+ */
+public interface TlsSignerExecutor
+{
+    /**
+     * Arrange for a signing task to be run. The task does not access the protocol instance, and may be run
+     * on any thread, either before this method returns or at some later time. Any failure of the signing
+     * operation is captured by the task and reported when the handshake is resumed.
+     *
+     * @param signingTask
+     *            the signing task, which MUST eventually be run exactly once.
+     */
+    void execute(Runnable signingTask);
+}
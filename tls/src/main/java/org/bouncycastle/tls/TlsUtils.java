@@ -1679,7 +1679,7 @@ private static void establish13TrafficSecrets(TlsContext context, byte[] transcr
                 transcriptHash);
         }
 
-        // TODO[tls13] Early data (client->server only)
+        // NOTE: For early data (client->server only) serverLabel is null
 
         recordStream.setPendingCipher(initCipher(context));
     }
@@ -1703,9 +1703,8 @@ static void establish13PhaseEarly(TlsContext context, byte[] clientHelloTranscri
         SecurityParameters securityParameters = context.getSecurityParametersHandshake();
         TlsSecret phaseSecret = securityParameters.getEarlySecret();
 
-        // TODO[tls13] binder_key
+        // NOTE: The binder_key is derived separately, see calculate13PSKBinder
 
-        // TODO[tls13] Early data (client->server only)
         if (null != recordStream)
         {
             establish13TrafficSecrets(context, clientHelloTranscriptHash, phaseSecret, "c e traffic", null,
@@ -1716,6 +1715,50 @@ static void establish13PhaseEarly(TlsContext context, byte[] clientHelloTranscri
             clientHelloTranscriptHash);
     }
 
+    /*
+     * RFC 8446 4.2.10. A client sends early data protected with the client_early_traffic_secret derived from
+     * the first PSK it offers, before any parameters are negotiated; the version and cipher suite of the
+     * session being resumed are assumed only while the early data cipher is created.
+     */
+    static void establish13PhaseEarlyClient(TlsClientContext context, SessionParameters sessionParameters,
+        TlsSecret sessionMasterSecret, byte[] clientHelloTranscriptHash, RecordStream recordStream)
+        throws IOException
+    {
+        SecurityParameters securityParameters = context.getSecurityParametersHandshake();
+
+        ProtocolVersion negotiatedVersion = securityParameters.negotiatedVersion;
+        int cipherSuite = securityParameters.cipherSuite;
+        int keyExchangeAlgorithm = securityParameters.keyExchangeAlgorithm;
+        int prfAlgorithm = securityParameters.prfAlgorithm;
+        short prfHashAlgorithm = securityParameters.prfHashAlgorithm;
+        int prfHashLength = securityParameters.prfHashLength;
+        int verifyDataLength = securityParameters.verifyDataLength;
+
+        try
+        {
+            securityParameters.negotiatedVersion = sessionParameters.getNegotiatedVersion();
+            negotiatedCipherSuite(securityParameters, sessionParameters.getCipherSuite());
+
+            TlsCrypto crypto = context.getCrypto();
+            short hash = securityParameters.getPRFHashAlgorithm();
+
+            byte[] psk = crypto.adoptSecret(sessionMasterSecret).extract();
+            securityParameters.earlySecret = crypto.hkdfInit(hash).hkdfExtract(hash, psk);
+
+            establish13PhaseEarly(context, clientHelloTranscriptHash, recordStream);
+        }
+        finally
+        {
+            securityParameters.negotiatedVersion = negotiatedVersion;
+            securityParameters.cipherSuite = cipherSuite;
+            securityParameters.keyExchangeAlgorithm = keyExchangeAlgorithm;
+            securityParameters.prfAlgorithm = prfAlgorithm;
+            securityParameters.prfHashAlgorithm = prfHashAlgorithm;
+            securityParameters.prfHashLength = prfHashLength;
+            securityParameters.verifyDataLength = verifyDataLength;
+        }
+    }
+
     static void establish13PhaseHandshake(TlsContext context, byte[] serverHelloTranscriptHash,
         RecordStream recordStream) throws IOException
     {
@@ -1729,6 +1772,59 @@ static void establish13PhaseHandshake(TlsContext context, byte[] serverHelloTran
         securityParameters.baseKeyServer = securityParameters.getTrafficSecretServer();
     }
 
+    static void establish13ResumptionMasterSecret(TlsContext context, byte[] clientFinishedTranscriptHash)
+        throws IOException
+    {
+        SecurityParameters securityParameters = context.getSecurityParametersHandshake();
+
+        securityParameters.resumptionMasterSecret = deriveSecret(securityParameters,
+            securityParameters.getMasterSecret(), "res master", clientFinishedTranscriptHash);
+    }
+
+    /*
+     * RFC 8446 4.6.1. The PSK associated with the ticket is computed as:
+     * HKDF-Expand-Label(resumption_master_secret, "resumption", ticket_nonce, Hash.length)
+     */
+    static TlsSecret calculate13ResumptionPSK(SecurityParameters securityParameters, byte[] ticketNonce)
+        throws IOException
+    {
+        TlsSecret resumptionMasterSecret = securityParameters.getResumptionMasterSecret();
+        if (null == resumptionMasterSecret)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        return TlsCryptoUtils.hkdfExpandLabel(resumptionMasterSecret, securityParameters.getPRFHashAlgorithm(),
+            "resumption", ticketNonce, securityParameters.getPRFHashLength());
+    }
+
+    /*
+     * RFC 8446 4.2.11.2. The PskBinderEntry is computed in the same way as the Finished message (Section 4.4.4)
+     * but with the BaseKey being the binder_key derived via the key schedule from the corresponding PSK which is
+     * being offered.
+     */
+    static byte[] calculate13PSKBinder(TlsCrypto crypto, short hashAlgorithm, byte[] psk,
+        byte[] truncatedTranscriptHash) throws IOException
+    {
+        int hashLen = HashAlgorithm.getOutputSize(hashAlgorithm);
+        byte[] emptyTranscriptHash = crypto.createHash(hashAlgorithm).calculateHash();
+
+        TlsSecret earlySecret = crypto.hkdfInit(hashAlgorithm)
+            .hkdfExtract(hashAlgorithm, psk);
+        TlsSecret binderKey = TlsCryptoUtils.hkdfExpandLabel(earlySecret, hashAlgorithm, "res binder",
+            emptyTranscriptHash, hashLen);
+        earlySecret.destroy();
+        TlsSecret finishedKey = TlsCryptoUtils.hkdfExpandLabel(binderKey, hashAlgorithm, "finished",
+            TlsUtils.EMPTY_BYTES, hashLen);
+        binderKey.destroy();
+
+        byte[] hmacKey = finishedKey.extract();
+        TlsHMAC hmac = crypto.createHMAC(hashAlgorithm);
+        hmac.setKey(hmacKey, 0, hmacKey.length);
+        hmac.update(truncatedTranscriptHash, 0, truncatedTranscriptHash.length);
+        return hmac.calculateMAC();
+    }
+
     public static short getHashAlgorithmForHMACAlgorithm(int macAlgorithm)
     {
         switch (macAlgorithm)
@@ -1787,6 +1883,27 @@ public static ASN1ObjectIdentifier getOIDForHashAlgorithm(short hashAlgorithm)
         }
     }
 
+    /**
+     * @return the {@link PRFAlgorithm} of a TLS 1.3 cipher suite, or -1 if it is not a TLS 1.3 cipher suite.
+     */
+    static int getPRFAlgorithm13(int cipherSuite)
+    {
+        switch (cipherSuite)
+        {
+        case CipherSuite.TLS_AES_128_CCM_SHA256:
+        case CipherSuite.TLS_AES_128_CCM_8_SHA256:
+        case CipherSuite.TLS_AES_128_GCM_SHA256:
+        case CipherSuite.TLS_CHACHA20_POLY1305_SHA256:
+            return PRFAlgorithm.tls13_hkdf_sha256;
+
+        case CipherSuite.TLS_AES_256_GCM_SHA384:
+            return PRFAlgorithm.tls13_hkdf_sha384;
+
+        default:
+            return -1;
+        }
+    }
+
     static int getPRFAlgorithm(SecurityParameters securityParameters, int cipherSuite) throws IOException
     {
         ProtocolVersion negotiatedVersion = securityParameters.getNegotiatedVersion();
@@ -2138,23 +2255,32 @@ static DigitallySigned generate13CertificateVerify(TlsContext context, TlsCreden
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        String contextString = context.isServer()
-            ? "TLS 1.3, server CertificateVerify"
-            : "TLS 1.3, client CertificateVerify";
+        String contextString = get13CertificateVerifyContextString(context.isServer());
+        byte[] prfHash = getCurrentPRFHash(handshakeHash);
 
         byte[] signature = generate13CertificateVerify(context.getCrypto(), credentialedSigner, contextString,
-            handshakeHash, signatureAndHashAlgorithm.getHash());
+            prfHash, signatureAndHashAlgorithm.getHash());
 
         return new DigitallySigned(signatureAndHashAlgorithm, signature);
     }
 
-    private static byte[] generate13CertificateVerify(TlsCrypto crypto, TlsCredentialedSigner credentialedSigner,
-        String contextString, TlsHandshakeHash handshakeHash, short hashAlgorithm) throws IOException
+    static String get13CertificateVerifyContextString(boolean isServer)
+    {
+        return isServer
+            ? "TLS 1.3, server CertificateVerify"
+            : "TLS 1.3, client CertificateVerify";
+    }
+
+    /*
+     * NOTE: Only depends on the transcript hash value (not the handshake hash itself), so that it can be
+     * run independently of the protocol instance e.g. by a TlsSignerExecutor.
+     */
+    static byte[] generate13CertificateVerify(TlsCrypto crypto, TlsCredentialedSigner credentialedSigner,
+        String contextString, byte[] prfHash, short hashAlgorithm) throws IOException
     {
         TlsStreamSigner streamSigner = credentialedSigner.getStreamSigner();
 
         byte[] header = getCertificateVerifyHeader(contextString);
-        byte[] prfHash = getCurrentPRFHash(handshakeHash);
 
         if (null != streamSigner)
         {
@@ -0,0 +1,125 @@
+package org.bouncycastle.tls;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * RFC 8879 zlib certificate compression, using the JDK's {@link Deflater} and {@link Inflater}.
+ */
+public class ZlibCertificateCompression
+    implements TlsCertificateCompression
+{
+    public static final int DEFAULT_MAX_UNCOMPRESSED_LENGTH = 1 << 20;
+
+    protected final int level;
+    protected final int maxUncompressedLength;
+
+    public ZlibCertificateCompression()
+    {
+        this(Deflater.BEST_COMPRESSION, DEFAULT_MAX_UNCOMPRESSED_LENGTH);
+    }
+
+    /**
+     * @param level
+     *            the {@link Deflater} compression level.
+     * @param maxUncompressedLength
+     *            the largest uncompressed_length that will be accepted from a peer.
+     */
+    public ZlibCertificateCompression(int level, int maxUncompressedLength)
+    {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("'level' is not a valid Deflater level");
+        }
+        if (maxUncompressedLength < 1 || !TlsUtils.isValidUint24(maxUncompressedLength))
+        {
+            throw new IllegalArgumentException("'maxUncompressedLength' must be from 1 to (2^24 - 1)");
+        }
+
+        this.level = level;
+        this.maxUncompressedLength = maxUncompressedLength;
+    }
+
+    public int getAlgorithm()
+    {
+        return CertificateCompressionAlgorithm.zlib;
+    }
+
+    public byte[] compress(byte[] certificateMessage) throws IOException
+    {
+        Deflater deflater = new Deflater(level);
+        try
+        {
+            deflater.setInput(certificateMessage);
+            deflater.finish();
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(certificateMessage.length / 2 + 64);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished())
+            {
+                int count = deflater.deflate(chunk);
+                buf.write(chunk, 0, count);
+            }
+            return buf.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    public byte[] decompress(byte[] compressedCertificateMessage, int uncompressedLength) throws IOException
+    {
+        if (uncompressedLength < 1 || uncompressedLength > maxUncompressedLength)
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_certificate);
+        }
+
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressedCertificateMessage);
+
+            byte[] result = new byte[uncompressedLength];
+            int pos = 0;
+            while (pos < uncompressedLength)
+            {
+                int count = inflater.inflate(result, pos, uncompressedLength - pos);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                pos += count;
+            }
+
+            // NOTE: Consume the stream trailer, which must not yield any further data
+            if (pos == uncompressedLength && !inflater.finished() && inflater.inflate(new byte[1]) != 0)
+            {
+                throw new TlsFatalAlert(AlertDescription.bad_certificate);
+            }
+
+            /*
+             * RFC 8879 4. If the received CompressedCertificate message cannot be decompressed, [..] or the
+             * length of the decompressed data does not match uncompressed_length, the connection MUST be
+             * terminated with the "bad_certificate" alert.
+             */
+            if (pos != uncompressedLength || !inflater.finished() || inflater.getRemaining() != 0)
+            {
+                throw new TlsFatalAlert(AlertDescription.bad_certificate);
+            }
+
+            return result;
+        }
+        catch (DataFormatException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_certificate, e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
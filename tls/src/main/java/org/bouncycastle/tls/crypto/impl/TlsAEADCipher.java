@@ -17,6 +17,11 @@
 
 /**
  * A generic TLS 1.2 AEAD cipher.
+ * <p>
+ * The nonce, additional data and output buffers are reused from record to record, so the
+ * {@link TlsEncodeResult} returned by {@link #encodePlaintext} is only valid until the next call to it.
+ * Decoding is done in place in the ciphertext buffer.
+ * </p>
  */
 public class TlsAEADCipher
     implements TlsCipher
@@ -40,6 +45,15 @@
     protected final boolean isTLSv13;
     protected final int nonceMode;
 
+    // NOTE: The RFC 9146 connection ID (if any) expected in received records, and included in sent ones
+    protected final byte[] decryptConnectionID, encryptConnectionID;
+    protected final boolean decryptUseInnerPlaintext, encryptUseInnerPlaintext;
+
+    private final byte[] decryptNonceBuf, encryptNonceBuf;
+    private final byte[] decryptAdditionalData, encryptAdditionalData;
+    private final byte[] encryptContentType;
+    private byte[] encodeBuf = TlsUtils.EMPTY_BYTES;
+
     public TlsAEADCipher(TlsCryptoParameters cryptoParams, TlsAEADCipherImpl encryptCipher, TlsAEADCipherImpl decryptCipher,
         int keySize, int macSize, int aeadType) throws IOException
     {
@@ -54,6 +68,20 @@ public TlsAEADCipher(TlsCryptoParameters cryptoParams, TlsAEADCipherImpl encrypt
         this.isTLSv13 = TlsImplUtils.isTLSv13(negotiatedVersion);
         this.nonceMode = getNonceMode(isTLSv13, aeadType);
 
+        if (negotiatedVersion.isDTLS() && !isTLSv13)
+        {
+            this.decryptConnectionID = TlsImplUtils.getConnectionID(securityParameters.getConnectionIDLocal());
+            this.encryptConnectionID = TlsImplUtils.getConnectionID(securityParameters.getConnectionIDPeer());
+        }
+        else
+        {
+            this.decryptConnectionID = null;
+            this.encryptConnectionID = null;
+        }
+
+        this.decryptUseInnerPlaintext = isTLSv13 || null != decryptConnectionID;
+        this.encryptUseInnerPlaintext = isTLSv13 || null != encryptConnectionID;
+
         switch (nonceMode)
         {
         case NONCE_RFC5288:
@@ -78,10 +106,29 @@ public TlsAEADCipher(TlsCryptoParameters cryptoParams, TlsAEADCipherImpl encrypt
         this.decryptNonce = new byte[fixed_iv_length];
         this.encryptNonce = new byte[fixed_iv_length];
 
+        this.decryptNonceBuf = new byte[fixed_iv_length + record_iv_length];
+        this.encryptNonceBuf = new byte[fixed_iv_length + record_iv_length];
+
+        this.decryptAdditionalData = new byte[getAdditionalDataLength(decryptConnectionID)];
+        this.encryptAdditionalData = new byte[getAdditionalDataLength(encryptConnectionID)];
+
+        this.encryptContentType = encryptUseInnerPlaintext ? new byte[1] : TlsUtils.EMPTY_BYTES;
+
         if (isTLSv13)
         {
-            rekeyDecoder();
-            rekeyEncoder();
+            /*
+             * NOTE: Early data is client->server only, so there is no server traffic secret yet and the
+             * corresponding direction is left unkeyed.
+             */
+            boolean hasServerSecret = null != securityParameters.getTrafficSecretServer();
+            if (hasServerSecret || cryptoParams.isServer())
+            {
+                rekeyDecoder();
+            }
+            if (hasServerSecret || !cryptoParams.isServer())
+            {
+                rekeyEncoder();
+            }
             return;
         }
 
@@ -124,13 +171,13 @@ public TlsAEADCipher(TlsCryptoParameters cryptoParams, TlsAEADCipherImpl encrypt
 
     public int getCiphertextDecodeLimit(int plaintextLimit)
     {
-        return plaintextLimit + macSize + record_iv_length + (isTLSv13 ? 1 : 0);
+        return plaintextLimit + macSize + record_iv_length + (decryptUseInnerPlaintext ? 1 : 0);
     }
 
     public int getCiphertextEncodeLimit(int plaintextLength, int plaintextLimit)
     {
         int innerPlaintextLimit = plaintextLength;
-        if (isTLSv13)
+        if (encryptUseInnerPlaintext)
         {
             // TODO[tls13] Add support for padding
             int maxPadding = 0;
@@ -143,13 +190,14 @@ public int getCiphertextEncodeLimit(int plaintextLength, int plaintextLimit)
 
     public int getPlaintextLimit(int ciphertextLimit)
     {
-        return ciphertextLimit - macSize - record_iv_length - (isTLSv13 ? 1 : 0);
+        return ciphertextLimit - macSize - record_iv_length
+            - (decryptUseInnerPlaintext || encryptUseInnerPlaintext ? 1 : 0);
     }
 
     public TlsEncodeResult encodePlaintext(long seqNo, short contentType, ProtocolVersion recordVersion,
         int headerAllocation, byte[] plaintext, int plaintextOffset, int plaintextLength) throws IOException
     {
-        byte[] nonce = new byte[encryptNonce.length + record_iv_length];
+        byte[] nonce = encryptNonceBuf;
 
         switch (nonceMode)
         {
@@ -159,21 +207,25 @@ public TlsEncodeResult encodePlaintext(long seqNo, short contentType, ProtocolVe
             TlsUtils.writeUint64(seqNo, nonce, encryptNonce.length);
             break;
         case NONCE_RFC7905:
-            TlsUtils.writeUint64(seqNo, nonce, nonce.length - 8);
-            for (int i = 0; i < encryptNonce.length; ++i)
-            {
-                nonce[i] ^= encryptNonce[i];
-            }
+            System.arraycopy(encryptNonce, 0, nonce, 0, encryptNonce.length);
+            xorSeqNo(seqNo, nonce);
             break;
         default:
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
         // TODO[tls13] If we support adding padding to TLSInnerPlaintext, this will need review
-        int encryptionLength = encryptCipher.getOutputSize(plaintextLength + (isTLSv13 ? 1 : 0));
+        int innerPlaintextLength = plaintextLength + (encryptUseInnerPlaintext ? 1 : 0);
+        int encryptionLength = encryptCipher.getOutputSize(innerPlaintextLength);
         int ciphertextLength = record_iv_length + encryptionLength;
 
-        byte[] output = new byte[headerAllocation + ciphertextLength];
+        int outputLength = headerAllocation + ciphertextLength;
+        if (encodeBuf.length < outputLength)
+        {
+            this.encodeBuf = new byte[outputLength];
+        }
+
+        byte[] output = encodeBuf;
         int outputPos = headerAllocation;
 
         if (record_iv_length != 0)
@@ -182,15 +234,29 @@ public TlsEncodeResult encodePlaintext(long seqNo, short contentType, ProtocolVe
             outputPos += record_iv_length;
         }
 
-        short recordType = isTLSv13 ? ContentType.application_data : contentType;
+        short recordType = isTLSv13 ? ContentType.application_data
+            : null != encryptConnectionID ? ContentType.tls12_cid
+            : contentType;
 
-        byte[] additionalData = getAdditionalData(seqNo, recordType, recordVersion, ciphertextLength, plaintextLength);
+        byte[] additionalData = encryptAdditionalData;
+        if (null != encryptConnectionID)
+        {
+            writeAdditionalDataCID(additionalData, seqNo, recordVersion, encryptConnectionID, innerPlaintextLength);
+        }
+        else
+        {
+            writeAdditionalData(additionalData, seqNo, recordType, recordVersion, ciphertextLength, plaintextLength);
+        }
 
         try
         {
             encryptCipher.init(nonce, macSize, additionalData);
 
-            byte[] extraInput = isTLSv13 ? new byte[] { (byte)contentType } : TlsUtils.EMPTY_BYTES;
+            byte[] extraInput = encryptContentType;
+            if (encryptUseInnerPlaintext)
+            {
+                extraInput[0] = (byte)contentType;
+            }
 
             outputPos += encryptCipher.doFinal(plaintext, plaintextOffset, plaintextLength, extraInput, output,
                 outputPos);
@@ -200,13 +266,13 @@ public TlsEncodeResult encodePlaintext(long seqNo, short contentType, ProtocolVe
             throw new TlsFatalAlert(AlertDescription.internal_error, e);
         }
 
-        if (outputPos != output.length)
+        if (outputPos != outputLength)
         {
             // NOTE: The additional data mechanism for AEAD ciphers requires exact output size prediction.
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        return new TlsEncodeResult(output, 0, output.length, recordType);
+        return new TlsEncodeResult(output, 0, outputLength, recordType);
     }
 
     public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVersion recordVersion,
@@ -217,7 +283,16 @@ public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVe
             throw new TlsFatalAlert(AlertDescription.decode_error);
         }
 
-        byte[] nonce = new byte[decryptNonce.length + record_iv_length];
+        /*
+         * RFC 9146 4. Once a (non-empty) connection ID has been negotiated, only tls12_cid records are
+         * expected, and otherwise never.
+         */
+        if (!isTLSv13 && (null != decryptConnectionID) != (ContentType.tls12_cid == recordType))
+        {
+            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+        }
+
+        byte[] nonce = decryptNonceBuf;
 
         switch (nonceMode)
         {
@@ -226,11 +301,8 @@ public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVe
             System.arraycopy(ciphertext, ciphertextOffset, nonce, nonce.length - record_iv_length, record_iv_length);
             break;
         case NONCE_RFC7905:
-            TlsUtils.writeUint64(seqNo, nonce, nonce.length - 8);
-            for (int i = 0; i < decryptNonce.length; ++i)
-            {
-                nonce[i] ^= decryptNonce[i];
-            }
+            System.arraycopy(decryptNonce, 0, nonce, 0, decryptNonce.length);
+            xorSeqNo(seqNo, nonce);
             break;
         default:
             throw new TlsFatalAlert(AlertDescription.internal_error);
@@ -240,7 +312,15 @@ public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVe
         int encryptionLength = ciphertextLength - record_iv_length;
         int plaintextLength = decryptCipher.getOutputSize(encryptionLength);
 
-        byte[] additionalData = getAdditionalData(seqNo, recordType, recordVersion, ciphertextLength, plaintextLength);
+        byte[] additionalData = decryptAdditionalData;
+        if (null != decryptConnectionID)
+        {
+            writeAdditionalDataCID(additionalData, seqNo, recordVersion, decryptConnectionID, plaintextLength);
+        }
+        else
+        {
+            writeAdditionalData(additionalData, seqNo, recordType, recordVersion, ciphertextLength, plaintextLength);
+        }
 
         int outputPos;
         try
@@ -251,6 +331,22 @@ public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVe
         }
         catch (Exception e)
         {
+            /*
+             * NOTE: A TLS 1.3 server may skip early data records that fail deprotection (see RFC 8446
+             * 4.2.10), so don't leave any state from this record behind in the decrypt cipher.
+             */
+            if (isTLSv13)
+            {
+                try
+                {
+                    decryptCipher.init(nonce, macSize, additionalData);
+                }
+                catch (Exception reinitException)
+                {
+                    throw new TlsFatalAlert(AlertDescription.internal_error, reinitException);
+                }
+            }
+
             throw new TlsFatalAlert(AlertDescription.bad_record_mac, e);
         }
 
@@ -261,9 +357,9 @@ public TlsDecodeResult decodeCiphertext(long seqNo, short recordType, ProtocolVe
         }
 
         short contentType = recordType;
-        if (isTLSv13)
+        if (decryptUseInnerPlaintext)
         {
-            // Strip padding and read true content type from TLSInnerPlaintext
+            // Strip padding and read true content type from TLSInnerPlaintext (or DTLSInnerPlaintext)
             int pos = plaintextLength;
             for (;;)
             {
@@ -302,32 +398,62 @@ public boolean usesOpaqueRecordType()
 
     protected byte[] getAdditionalData(long seqNo, short recordType, ProtocolVersion recordVersion,
         int ciphertextLength, int plaintextLength) throws IOException
+    {
+        byte[] additional_data = new byte[isTLSv13 ? 5 : 13];
+        writeAdditionalData(additional_data, seqNo, recordType, recordVersion, ciphertextLength, plaintextLength);
+        return additional_data;
+    }
+
+    protected void writeAdditionalData(byte[] additional_data, long seqNo, short recordType,
+        ProtocolVersion recordVersion, int ciphertextLength, int plaintextLength) throws IOException
     {
         if (isTLSv13)
         {
             /*
              * TLSCiphertext.opaque_type || TLSCiphertext.legacy_record_version || TLSCiphertext.length
              */
-            byte[] additional_data = new byte[5];
             TlsUtils.writeUint8(recordType, additional_data, 0);
             TlsUtils.writeVersion(recordVersion, additional_data, 1);
             TlsUtils.writeUint16(ciphertextLength, additional_data, 3);
-            return additional_data;
         }
         else
         {
             /*
              * seq_num + TLSCompressed.type + TLSCompressed.version + TLSCompressed.length
              */
-            byte[] additional_data = new byte[13];
             TlsUtils.writeUint64(seqNo, additional_data, 0);
             TlsUtils.writeUint8(recordType, additional_data, 8);
             TlsUtils.writeVersion(recordVersion, additional_data, 9);
             TlsUtils.writeUint16(plaintextLength, additional_data, 11);
-            return additional_data;
         }
     }
 
+    /*
+     * RFC 9146 5. Record Payload Protection (AEAD ciphers)
+     */
+    protected void writeAdditionalDataCID(byte[] additional_data, long seqNo, ProtocolVersion recordVersion,
+        byte[] connectionID, int innerPlaintextLength) throws IOException
+    {
+        /*
+         * seq_num_placeholder + tls12_cid + cid_length + tls12_cid + DTLSCiphertext.version + epoch +
+         * sequence_number + cid + length_of_DTLSInnerPlaintext
+         */
+        int cidLength = connectionID.length;
+
+        for (int i = 0; i < 8; ++i)
+        {
+            additional_data[i] = (byte)0xFF;
+        }
+        TlsUtils.writeUint8(ContentType.tls12_cid, additional_data, 8);
+        TlsUtils.writeUint8(cidLength, additional_data, 9);
+        TlsUtils.writeUint8(ContentType.tls12_cid, additional_data, 10);
+        TlsUtils.writeVersion(recordVersion, additional_data, 11);
+        // NOTE: 'seqNo' is the DTLS epoch and sequence_number together
+        TlsUtils.writeUint64(seqNo, additional_data, 13);
+        System.arraycopy(connectionID, 0, additional_data, 21, cidLength);
+        TlsUtils.writeUint16(innerPlaintextLength, additional_data, 21 + cidLength);
+    }
+
     protected void rekeyCipher(TlsAEADCipherImpl cipher, byte[] nonce, boolean serverSecret) throws IOException
     {
         if (!isTLSv13)
@@ -341,7 +467,6 @@ protected void rekeyCipher(TlsAEADCipherImpl cipher, byte[] nonce, boolean serve
             ?   securityParameters.getTrafficSecretServer()
             :   securityParameters.getTrafficSecretClient();
 
-        // TODO[tls13] For early data, have to disable server->client
         if (null == secret)
         {
             throw new TlsFatalAlert(AlertDescription.internal_error);
@@ -364,6 +489,21 @@ protected void setup13Cipher(TlsAEADCipherImpl cipher, byte[] nonce, TlsSecret s
         cipher.init(iv, macSize, null);
     }
 
+    private int getAdditionalDataLength(byte[] connectionID)
+    {
+        return isTLSv13 ? 5 : null == connectionID ? 13 : 23 + connectionID.length;
+    }
+
+    // RFC 7905 3. The 64-bit record sequence number is XORed with the padded-left IV
+    private static void xorSeqNo(long seqNo, byte[] nonce)
+    {
+        int pos = nonce.length;
+        for (int i = 0; i < 8; ++i)
+        {
+            nonce[--pos] ^= (byte)(seqNo >>> (i << 3));
+        }
+    }
+
     private static int getNonceMode(boolean isTLSv13, int aeadType) throws IOException
     {
         switch (aeadType)
@@ -43,6 +43,12 @@ public TlsBlockCipher(TlsCrypto crypto, TlsCryptoParameters cryptoParams, TlsBlo
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
+        // NOTE: RFC 9146 connection IDs are currently only supported with AEAD ciphers
+        if (TlsImplUtils.hasConnectionID(securityParameters))
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
         this.cryptoParams = cryptoParams;
         this.crypto = crypto;
         this.randomData = cryptoParams.getNonceGenerator().generateNonce(256);
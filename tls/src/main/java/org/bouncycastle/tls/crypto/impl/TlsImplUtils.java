@@ -57,6 +57,20 @@ public static boolean isTLSv13(TlsCryptoParameters cryptoParams)
         return isTLSv13(cryptoParams.getServerVersion());
     }
 
+    /**
+     * Return a (non-empty) RFC 9146 connection ID, or null if none was negotiated.
+     */
+    public static byte[] getConnectionID(byte[] connectionID)
+    {
+        return null == connectionID || connectionID.length < 1 ? null : connectionID;
+    }
+
+    public static boolean hasConnectionID(SecurityParameters securityParameters)
+    {
+        return null != getConnectionID(securityParameters.getConnectionIDLocal())
+            || null != getConnectionID(securityParameters.getConnectionIDPeer());
+    }
+
     public static byte[] calculateKeyBlock(TlsCryptoParameters cryptoParams, int length)
     {
         SecurityParameters securityParameters = cryptoParams.getSecurityParametersHandshake();
@@ -29,6 +29,12 @@ public TlsNullCipher(TlsCryptoParameters cryptoParams, TlsHMAC clientMac, TlsHMA
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
+        // NOTE: RFC 9146 connection IDs are currently only supported with AEAD ciphers
+        if (TlsImplUtils.hasConnectionID(cryptoParams.getSecurityParametersHandshake()))
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
         this.cryptoParams = cryptoParams;
 
         int key_block_size = clientMac.getMacLength() + serverMac.getMacLength();
@@ -22,6 +22,10 @@ public class BcChaCha20Poly1305 implements TlsAEADCipherImpl
 
     protected final boolean isEncrypting;
 
+    // NOTE: Scratch space reused for every record
+    private final byte[] firstBlock = new byte[64];
+    private final byte[] macBlock = new byte[16];
+
     protected int additionalDataLength;
 
     public BcChaCha20Poly1305(boolean isEncrypting)
@@ -52,7 +56,7 @@ public int doFinal(byte[] input, int inputOffset, int inputLength, byte[] extraI
 
             updateMAC(output, outputOffset, ciphertextLength);
 
-            byte[] lengths = new byte[16];
+            byte[] lengths = macBlock;
             Pack.longToLittleEndian(additionalDataLength & 0xFFFFFFFFL, lengths, 0);
             Pack.longToLittleEndian(ciphertextLength & 0xFFFFFFFFL, lengths, 8);
             mac.update(lengths, 0, 16);
@@ -72,7 +76,7 @@ public int doFinal(byte[] input, int inputOffset, int inputLength, byte[] extraI
 
             updateMAC(input, inputOffset, ciphertextLength);
 
-            byte[] expectedMac = new byte[16];
+            byte[] expectedMac = macBlock;
             Pack.longToLittleEndian(additionalDataLength & 0xFFFFFFFFL, expectedMac, 0);
             Pack.longToLittleEndian(ciphertextLength & 0xFFFFFFFFL, expectedMac, 8);
             mac.update(expectedMac, 0, 16);
@@ -128,7 +132,7 @@ public void setKey(byte[] key, int keyOff, int keyLen) throws IOException
 
     protected void initMAC()
     {
-        byte[] firstBlock = new byte[64];
+        Arrays.fill(firstBlock, (byte)0);
         cipher.processBytes(firstBlock, 0, 64, firstBlock, 0);
         mac.init(new KeyParameter(firstBlock, 0, 32));
         Arrays.fill(firstBlock, (byte)0);
@@ -39,6 +39,8 @@ else if (prov.getWantClientAuth())
         ssl.setServerNames(prov.getServerNames());
         ssl.setSNIMatchers(prov.getSNIMatchers());
         ssl.setApplicationProtocols(prov.getApplicationProtocols());
+        ssl.setRecordSizeLimit(prov.getRecordSizeLimit());
+        ssl.setDynamicRecordSizing(prov.getDynamicRecordSizing());
 
         return ssl;
     }
@@ -222,6 +224,9 @@ else if (ssl.getWantClientAuth())
         {
             prov.setApplicationProtocols(applicationProtocols);
         }
+
+        prov.setRecordSizeLimit(ssl.getRecordSizeLimit());
+        prov.setDynamicRecordSizing(ssl.getDynamicRecordSizing());
     }
 
     static void setSSLParameters(ProvSSLParameters prov, SSLParameters ssl)
@@ -26,6 +26,7 @@ public static Test suite()
         suite.addTestSuite(InstanceTest.class);
         suite.addTestSuite(KeyManagerFactoryTest.class);
         suite.addTestSuite(PSSCredentialsTest.class);
+        suite.addTestSuite(SSLEngineTest.class);
 
         if (hasClass("javax.net.ssl.CertPathTrustManagerParameters"))
         {
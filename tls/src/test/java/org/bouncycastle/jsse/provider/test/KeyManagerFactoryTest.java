@@ -1,22 +1,36 @@
 package org.bouncycastle.jsse.provider.test;
 
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.KeyStore.Builder;
 import java.security.Principal;
+import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.KeyStoreBuilderParameters;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.jsse.BCX509ExtendedKeyManager;
 import org.bouncycastle.jsse.BCX509Key;
 
@@ -175,6 +189,197 @@ public void testRSAServerWithClientAuth()
 
     }
 
+    public void testKeyStoreChangeRefreshesIndex()
+        throws Exception
+    {
+        KeyStore ks = getEcKeyStore(false);
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        kmf.init(new KeyStoreBuilderParameters(
+            KeyStore.Builder.newInstance(ks, new KeyStore.PasswordProtection(PASSWORD))));
+        BCX509ExtendedKeyManager manager = (BCX509ExtendedKeyManager)kmf.getKeyManagers()[0];
+
+        assertNotNull(manager.chooseServerAlias("ECDHE_ECDSA", null, null));
+        assertNull(manager.chooseServerAlias("KE:RSA", null, null));
+
+        KeyStore rsaKS = getRsaKeyStore(true);
+        ks.setKeyEntry("rsa", rsaKS.getKey("test", PASSWORD), PASSWORD, rsaKS.getCertificateChain("test"));
+
+        String alias = manager.chooseServerAlias("KE:RSA", null, null);
+        assertNotNull(alias);
+        assertEquals(rsaKS.getCertificate("test"), manager.getCertificateChain(alias)[0]);
+    }
+
+    public void testServerKeyBySNI()
+        throws Exception
+    {
+        KeyPair rPair = TestUtils.generateRSAKeyPair();
+        X509Certificate rCert = TestUtils.generateRootCert(rPair);
+        X500Name rName = X500Name.getInstance(rCert.getSubjectX500Principal().getEncoded());
+
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(null, PASSWORD);
+
+        String[][] names = new String[][]{ { "a.example.com" }, { "*.b.example.com" }, { "c.example.com", "*.d.example.com" } };
+        X509Certificate[] eeCerts = new X509Certificate[names.length];
+        for (int i = 0; i < names.length; ++i)
+        {
+            GeneralName[] generalNames = new GeneralName[names[i].length];
+            for (int j = 0; j < names[i].length; ++j)
+            {
+                generalNames[j] = new GeneralName(GeneralName.dNSName, names[i][j]);
+            }
+            Extensions extensions = new Extensions(new Extension(Extension.subjectAlternativeName, false,
+                new DEROctetString(new GeneralNames(generalNames))));
+
+            KeyPair ePair = TestUtils.generateRSAKeyPair();
+            eeCerts[i] = TestUtils.createCert(rName, rPair.getPrivate(), "CN=Server " + i, "SHA256withRSA", extensions,
+                ePair.getPublic());
+
+            ks.setKeyEntry("server" + i, ePair.getPrivate(), PASSWORD, new Certificate[]{ eeCerts[i] });
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        kmf.init(ks, PASSWORD);
+
+        KeyStore ts = KeyStore.getInstance("JKS");
+        ts.load(null, PASSWORD);
+        ts.setCertificateEntry("root", rCert);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        tmf.init(ts);
+
+        SSLContext serverContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        serverContext.init(kmf.getKeyManagers(), null, null);
+
+        SSLContext clientContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        clientContext.init(null, tmf.getTrustManagers(), null);
+
+        assertEquals(eeCerts[0], getServerCertificate(serverContext, clientContext, "a.example.com"));
+        assertEquals(eeCerts[1], getServerCertificate(serverContext, clientContext, "x.b.example.com"));
+        assertEquals(eeCerts[2], getServerCertificate(serverContext, clientContext, "c.example.com"));
+        assertEquals(eeCerts[2], getServerCertificate(serverContext, clientContext, "y.d.example.com"));
+
+        // No match for the server name, so any certificate may be chosen
+        assertNotNull(getServerCertificate(serverContext, clientContext, "other.example.com"));
+    }
+
+    public void testServerCertificateChange()
+        throws Exception
+    {
+        KeyPair rPair = TestUtils.generateRSAKeyPair();
+        X509Certificate rCert = TestUtils.generateRootCert(rPair);
+        X500Name rName = X500Name.getInstance(rCert.getSubjectX500Principal().getEncoded());
+
+        X509Certificate[] eeCerts = new X509Certificate[2];
+        KeyPair[] ePairs = new KeyPair[2];
+        for (int i = 0; i < 2; ++i)
+        {
+            ePairs[i] = TestUtils.generateRSAKeyPair();
+            eeCerts[i] = TestUtils.createCert(rName, rPair.getPrivate(), "CN=Server " + i, "SHA256withRSA", null,
+                ePairs[i].getPublic());
+        }
+
+        BCX509ExtendedKeyManager[] keyManagers = new BCX509ExtendedKeyManager[2];
+        for (int i = 0; i < 2; ++i)
+        {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(null, PASSWORD);
+            ks.setKeyEntry("server" + i, ePairs[i].getPrivate(), PASSWORD, new Certificate[]{ eeCerts[i] });
+
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+            kmf.init(ks, PASSWORD);
+            keyManagers[i] = (BCX509ExtendedKeyManager)kmf.getKeyManagers()[0];
+        }
+
+        SwitchingKeyManager switchingKeyManager = new SwitchingKeyManager(keyManagers[0]);
+
+        KeyStore ts = KeyStore.getInstance("JKS");
+        ts.load(null, PASSWORD);
+        ts.setCertificateEntry("root", rCert);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        tmf.init(ts);
+
+        SSLContext serverContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        serverContext.init(new KeyManager[]{ switchingKeyManager }, null, null);
+
+        SSLContext clientContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        clientContext.init(null, tmf.getTrustManagers(), null);
+
+        assertEquals(eeCerts[0], getServerCertificate(serverContext, clientContext, "a.example.com"));
+        assertEquals(eeCerts[0], getServerCertificate(serverContext, clientContext, "a.example.com"));
+
+        // The server's cached Certificate message must follow the credentials it was built from
+        switchingKeyManager.current = keyManagers[1];
+        assertEquals(eeCerts[1], getServerCertificate(serverContext, clientContext, "a.example.com"));
+
+        switchingKeyManager.current = keyManagers[0];
+        assertEquals(eeCerts[0], getServerCertificate(serverContext, clientContext, "a.example.com"));
+    }
+
+    private static Certificate getServerCertificate(SSLContext serverContext, SSLContext clientContext,
+        String serverName) throws Exception
+    {
+        SSLEngine client = clientContext.createSSLEngine();
+        client.setUseClientMode(true);
+        SSLParameters parameters = client.getSSLParameters();
+        parameters.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(serverName)));
+        client.setSSLParameters(parameters);
+
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+
+        int bufferSize = 1 << 17;
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer clientToServer = ByteBuffer.allocate(bufferSize), serverToClient = ByteBuffer.allocate(bufferSize);
+        ByteBuffer appData = ByteBuffer.allocate(bufferSize);
+
+        client.beginHandshake();
+        server.beginHandshake();
+
+        for (int i = 0; i < 100 && (isHandshaking(client) || isHandshaking(server)); ++i)
+        {
+            runTasks(client);
+            runTasks(server);
+
+            client.wrap(empty, clientToServer);
+            clientToServer.flip();
+            server.unwrap(clientToServer, appData);
+            clientToServer.compact();
+
+            runTasks(server);
+
+            server.wrap(empty, serverToClient);
+            serverToClient.flip();
+            client.unwrap(serverToClient, appData);
+            serverToClient.compact();
+        }
+
+        assertFalse(isHandshaking(client));
+
+        Certificate[] peerCertificates = client.getSession().getPeerCertificates();
+        client.closeOutbound();
+        server.closeOutbound();
+        return peerCertificates[0];
+    }
+
+    private static boolean isHandshaking(SSLEngine engine)
+    {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return SSLEngineResult.HandshakeStatus.FINISHED != status
+            && SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING != status;
+    }
+
+    private static void runTasks(SSLEngine engine)
+    {
+        Runnable task;
+        while (null != (task = engine.getDelegatedTask()))
+        {
+            task.run();
+        }
+    }
+
     private KeyStore getEcKeyStore(boolean agreement)
         throws Exception
     {
@@ -285,4 +490,70 @@ private void implTestKeyManagerFactory(KeyStore ks, String keyType)
         kmf.init(new KeyStoreBuilderParameters(builder));
         implTestKeyManagerFactory(kmf, keyType);
     }
+
+    private static class SwitchingKeyManager
+        extends BCX509ExtendedKeyManager
+    {
+        volatile BCX509ExtendedKeyManager current;
+
+        SwitchingKeyManager(BCX509ExtendedKeyManager current)
+        {
+            this.current = current;
+        }
+
+        public BCX509Key chooseEngineServerKeyBC(String keyType, Principal[] issuers, SSLEngine engine)
+        {
+            return current.chooseEngineServerKeyBC(keyType, issuers, engine);
+        }
+
+        public BCX509Key chooseServerKeyBC(String keyType, Principal[] issuers, Socket socket)
+        {
+            return current.chooseServerKeyBC(keyType, issuers, socket);
+        }
+
+        public BCX509Key getKeyBC(String alias)
+        {
+            return current.getKeyBC(alias);
+        }
+
+        public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket)
+        {
+            return current.chooseClientAlias(keyTypes, issuers, socket);
+        }
+
+        public String chooseEngineClientAlias(String[] keyTypes, Principal[] issuers, SSLEngine engine)
+        {
+            return current.chooseEngineClientAlias(keyTypes, issuers, engine);
+        }
+
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket)
+        {
+            return current.chooseServerAlias(keyType, issuers, socket);
+        }
+
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine)
+        {
+            return current.chooseEngineServerAlias(keyType, issuers, engine);
+        }
+
+        public X509Certificate[] getCertificateChain(String alias)
+        {
+            return current.getCertificateChain(alias);
+        }
+
+        public String[] getClientAliases(String keyType, Principal[] issuers)
+        {
+            return current.getClientAliases(keyType, issuers);
+        }
+
+        public PrivateKey getPrivateKey(String alias)
+        {
+            return current.getPrivateKey(alias);
+        }
+
+        public String[] getServerAliases(String keyType, Principal[] issuers)
+        {
+            return current.getServerAliases(keyType, issuers);
+        }
+    }
 }
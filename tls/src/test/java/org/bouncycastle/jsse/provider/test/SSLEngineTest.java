@@ -0,0 +1,509 @@
+package org.bouncycastle.jsse.provider.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jsse.BCSSLEngine;
+import org.bouncycastle.jsse.BCSSLParameters;
+import org.bouncycastle.tls.DefaultTlsRecordSizePolicy;
+import org.bouncycastle.util.Arrays;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class SSLEngineTest
+    extends TestCase
+{
+    private static final char[] PASSWORD = "fred".toCharArray();
+
+    protected void setUp()
+    {
+        ProviderUtils.setupLowPriority(false);
+    }
+
+    public void testWrapAcrossIdleReset()
+        throws Exception
+    {
+        SSLContext[] contexts = createContexts();
+
+        SSLEngine client = createEngine(contexts[0], true);
+        SSLEngine server = createEngine(contexts[1], false);
+
+        BCSSLParameters parameters = ((BCSSLEngine)server).getParameters();
+        parameters.setDynamicRecordSizing(true);
+        ((BCSSLEngine)server).setParameters(parameters);
+
+        handshake(client, server);
+
+        byte[] data = new byte[256 * 1024];
+        new SecureRandom().nextBytes(data);
+
+        ByteBuffer src = ByteBuffer.wrap(data);
+        ByteBuffer received = ByteBuffer.allocate(data.length);
+
+        // A burst, with the records growing from the initial size
+        int previous = 0;
+        for (int i = 0; i < 4; ++i)
+        {
+            int consumed = wrapOneRecord(server, src, client, received);
+            assertTrue(consumed > previous);
+            previous = consumed;
+        }
+        assertEquals(DefaultTlsRecordSizePolicy.DEFAULT_INITIAL_RECORD_SIZE * 4, previous);
+
+        // After an idle period the next burst starts small again; each wrap still produces one record
+        Thread.sleep(DefaultTlsRecordSizePolicy.DEFAULT_IDLE_MILLIS + 100);
+
+        assertEquals(DefaultTlsRecordSizePolicy.DEFAULT_INITIAL_RECORD_SIZE,
+            wrapOneRecord(server, src, client, received));
+
+        while (src.hasRemaining())
+        {
+            wrapOneRecord(server, src, client, received);
+        }
+
+        assertTrue(Arrays.areEqual(data, received.array()));
+    }
+
+    public void testConcurrentWrapUnwrapWithRenegotiationAttempt()
+        throws Exception
+    {
+        SSLContext[] contexts = createContexts();
+
+        final SSLEngine client = createEngine(contexts[0], true);
+        final SSLEngine server = createEngine(contexts[1], false);
+
+        handshake(client, server);
+
+        Transfer transfer = new Transfer(client, server, 2 * 1024 * 1024);
+        transfer.start();
+
+        // Attempt a renegotiation on each side while both directions are busy
+        transfer.awaitProgress(256 * 1024);
+        for (SSLEngine engine : new SSLEngine[]{ client, server })
+        {
+            try
+            {
+                engine.beginHandshake();
+                fail("renegotiation unexpectedly allowed");
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // expected
+            }
+            assertEquals(SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING, engine.getHandshakeStatus());
+        }
+
+        transfer.join();
+
+        // Everything was sent and arrived intact, in both directions
+        assertTrue(Arrays.areEqual(transfer.clientToServer.data, transfer.clientToServer.received.toByteArray()));
+        assertTrue(Arrays.areEqual(transfer.serverToClient.data, transfer.serverToClient.received.toByteArray()));
+    }
+
+    public void testConcurrentWrapUnwrapWithClose()
+        throws Exception
+    {
+        SSLContext[] contexts = createContexts();
+
+        final SSLEngine client = createEngine(contexts[0], true);
+        final SSLEngine server = createEngine(contexts[1], false);
+
+        handshake(client, server);
+
+        Transfer transfer = new Transfer(client, server, 8 * 1024 * 1024);
+        transfer.start();
+
+        // Close the client's outbound side while both directions are busy
+        transfer.awaitProgress(256 * 1024);
+        client.closeOutbound();
+
+        transfer.join();
+
+        assertTrue(client.isOutboundDone());
+        assertTrue(server.isInboundDone());
+
+        // Whatever arrived before the close is intact
+        assertIsPrefix(transfer.clientToServer.data, transfer.clientToServer.received.toByteArray());
+        assertIsPrefix(transfer.serverToClient.data, transfer.serverToClient.received.toByteArray());
+    }
+
+    private static void assertIsPrefix(byte[] data, byte[] received)
+    {
+        assertTrue(received.length <= data.length);
+        assertTrue(Arrays.areEqual(Arrays.copyOf(data, received.length), received));
+    }
+
+    /**
+     * Wrap from 'src' into a 'dst' with only room for a single record, check exactly one record was
+     * produced, and unwrap it at the peer.
+     *
+     * @return the number of bytes consumed from 'src'.
+     */
+    private static int wrapOneRecord(SSLEngine sender, ByteBuffer src, SSLEngine receiver, ByteBuffer received)
+        throws Exception
+    {
+        ByteBuffer dst = ByteBuffer.allocate(sender.getSession().getPacketBufferSize());
+
+        SSLEngineResult result = sender.wrap(src, dst);
+        assertEquals(SSLEngineResult.Status.OK, result.getStatus());
+        assertTrue(result.bytesConsumed() > 0);
+
+        dst.flip();
+        assertEquals(result.bytesProduced(), dst.remaining());
+
+        // Exactly one record: the header length accounts for all of the output
+        int recordLength = ((dst.get(3) & 0xFF) << 8) | (dst.get(4) & 0xFF);
+        assertEquals(5 + recordLength, dst.remaining());
+
+        result = receiver.unwrap(dst, received);
+        assertEquals(SSLEngineResult.Status.OK, result.getStatus());
+        assertFalse(dst.hasRemaining());
+
+        return result.bytesProduced();
+    }
+
+    static SSLContext[] createContexts()
+        throws Exception
+    {
+        KeyPair rPair = TestUtils.generateRSAKeyPair();
+        X509Certificate rCert = TestUtils.generateRootCert(rPair);
+        X500Name rName = X500Name.getInstance(rCert.getSubjectX500Principal().getEncoded());
+
+        KeyPair ePair = TestUtils.generateRSAKeyPair();
+        X509Certificate eCert = TestUtils.createCert(rName, rPair.getPrivate(), "CN=Server", "SHA256withRSA", null,
+            ePair.getPublic());
+
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(null, PASSWORD);
+        ks.setKeyEntry("server", ePair.getPrivate(), PASSWORD, new Certificate[]{ eCert });
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        kmf.init(ks, PASSWORD);
+
+        KeyStore ts = KeyStore.getInstance("JKS");
+        ts.load(null, PASSWORD);
+        ts.setCertificateEntry("root", rCert);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        tmf.init(ts);
+
+        SSLContext clientContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        clientContext.init(null, tmf.getTrustManagers(), null);
+
+        SSLContext serverContext = SSLContext.getInstance("TLS", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        serverContext.init(kmf.getKeyManagers(), null, null);
+
+        return new SSLContext[]{ clientContext, serverContext };
+    }
+
+    static SSLEngine createEngine(SSLContext context, boolean clientMode)
+    {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(clientMode);
+        return engine;
+    }
+
+    static void handshake(SSLEngine client, SSLEngine server)
+        throws Exception
+    {
+        int bufferSize = 1 << 17;
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer clientToServer = ByteBuffer.allocate(bufferSize), serverToClient = ByteBuffer.allocate(bufferSize);
+        ByteBuffer appData = ByteBuffer.allocate(bufferSize);
+
+        client.beginHandshake();
+        server.beginHandshake();
+
+        for (int i = 0; i < 100 && (isHandshaking(client) || isHandshaking(server)); ++i)
+        {
+            runTasks(client);
+            runTasks(server);
+
+            client.wrap(empty, clientToServer);
+            clientToServer.flip();
+            server.unwrap(clientToServer, appData);
+            clientToServer.compact();
+
+            runTasks(server);
+
+            server.wrap(empty, serverToClient);
+            serverToClient.flip();
+            client.unwrap(serverToClient, appData);
+            serverToClient.compact();
+        }
+
+        assertFalse(isHandshaking(client));
+        assertFalse(isHandshaking(server));
+        assertEquals(0, clientToServer.position());
+        assertEquals(0, serverToClient.position());
+        assertEquals(0, appData.position());
+    }
+
+    static boolean isHandshaking(SSLEngine engine)
+    {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return SSLEngineResult.HandshakeStatus.FINISHED != status
+            && SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING != status;
+    }
+
+    static void runTasks(SSLEngine engine)
+    {
+        Runnable task;
+        while (null != (task = engine.getDelegatedTask()))
+        {
+            task.run();
+        }
+    }
+    /**
+     * Bulk transfer in both directions between two engines, using a separate thread for each engine's
+     * wrap and unwrap calls, so that each engine wraps and unwraps concurrently.
+     */
+    static class Transfer
+    {
+        private static final long TIMEOUT_MILLIS = 60 * 1000;
+
+        final Direction clientToServer, serverToClient;
+
+        private final Thread[] threads;
+        private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Transfer(SSLEngine client, SSLEngine server, int size)
+        {
+            this.clientToServer = new Direction(client, server, size);
+            this.serverToClient = new Direction(server, client, size);
+
+            this.threads = new Thread[]{ clientToServer.createWriter(), clientToServer.createReader(),
+                serverToClient.createWriter(), serverToClient.createReader() };
+        }
+
+        void start()
+        {
+            for (int i = 0; i < threads.length; ++i)
+            {
+                threads[i].start();
+            }
+        }
+
+        void awaitProgress(long received) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (clientToServer.received.size() < received || serverToClient.received.size() < received)
+            {
+                assertTrue("no progress", System.currentTimeMillis() < deadline);
+                checkFailures();
+                Thread.sleep(1);
+            }
+        }
+
+        void join() throws Exception
+        {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            for (int i = 0; i < threads.length; ++i)
+            {
+                threads[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+                if (threads[i].isAlive())
+                {
+                    fail("deadlock: " + threads[i].getName() + " did not finish");
+                }
+            }
+            checkFailures();
+        }
+
+        private void checkFailures()
+        {
+            if (!failures.isEmpty())
+            {
+                Throwable t = (Throwable)failures.get(0);
+                AssertionFailedError e = new AssertionFailedError("transfer failed: " + t);
+                e.initCause(t);
+                throw e;
+            }
+        }
+
+        class Direction
+        {
+            final SSLEngine sender, receiver;
+            final byte[] data;
+            final ByteArrayOutputStream received = new ByteArrayOutputStream()
+            {
+                // NOTE: Read by the test thread while the reader is writing
+                public synchronized int size()
+                {
+                    return super.size();
+                }
+            };
+
+            private final BlockingQueue<byte[]> records = new LinkedBlockingQueue<byte[]>();
+            private volatile boolean senderDone = false;
+
+            Direction(SSLEngine sender, SSLEngine receiver, int size)
+            {
+                this.sender = sender;
+                this.receiver = receiver;
+                this.data = new byte[size];
+                new SecureRandom().nextBytes(data);
+            }
+
+            Thread createWriter()
+            {
+                return new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            runWriter();
+                        }
+                        catch (Throwable t)
+                        {
+                            failures.add(t);
+                        }
+                        finally
+                        {
+                            senderDone = true;
+                        }
+                    }
+                }, (sender.getUseClientMode() ? "client" : "server") + " wrap");
+            }
+
+            Thread createReader()
+            {
+                return new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            runReader();
+                        }
+                        catch (Throwable t)
+                        {
+                            failures.add(t);
+                        }
+                    }
+                }, (receiver.getUseClientMode() ? "client" : "server") + " unwrap");
+            }
+
+            private void runWriter() throws Exception
+            {
+                Random random = new Random();
+                ByteBuffer dst = ByteBuffer.allocate(sender.getSession().getPacketBufferSize());
+
+                int position = 0;
+                for (;;)
+                {
+                    // Vary the amount offered, so records of many sizes are produced
+                    int count = Math.min(data.length - position, 1 + random.nextInt(20000));
+                    ByteBuffer src = ByteBuffer.wrap(data, position, count);
+
+                    SSLEngineResult result = sender.wrap(src, dst);
+                    position += result.bytesConsumed();
+
+                    dst.flip();
+                    if (dst.hasRemaining())
+                    {
+                        byte[] output = new byte[dst.remaining()];
+                        dst.get(output);
+                        records.put(output);
+                    }
+                    dst.clear();
+
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                    {
+                        if (result.bytesProduced() == 0)
+                        {
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        assertEquals(SSLEngineResult.Status.OK, result.getStatus());
+
+                        if (position == data.length)
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            private void runReader() throws Exception
+            {
+                ByteBuffer src = ByteBuffer.allocate(4 * sender.getSession().getPacketBufferSize());
+                ByteBuffer dst = ByteBuffer.allocate(receiver.getSession().getApplicationBufferSize());
+
+                for (;;)
+                {
+                    byte[] input = records.poll(10, TimeUnit.MILLISECONDS);
+                    if (null == input)
+                    {
+                        if (senderDone && records.isEmpty())
+                        {
+                            // NOTE: Nothing more will arrive; the engine may have closed itself meanwhile
+                            return;
+                        }
+                        continue;
+                    }
+
+                    if (src.remaining() < input.length)
+                    {
+                        ByteBuffer larger = ByteBuffer.allocate(src.position() + input.length);
+                        src.flip();
+                        larger.put(src);
+                        src = larger;
+                    }
+                    src.put(input);
+                    src.flip();
+
+                    try
+                    {
+                        while (src.hasRemaining())
+                        {
+                            SSLEngineResult result = receiver.unwrap(src, dst);
+
+                            dst.flip();
+                            received.write(dst.array(), 0, dst.limit());
+                            dst.clear();
+
+                            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                            {
+                                return;
+                            }
+
+                            assertFalse(SSLEngineResult.Status.BUFFER_OVERFLOW == result.getStatus());
+
+                            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW)
+                            {
+                                break;
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        src.compact();
+                    }
+                }
+            }
+        }
+    }
+}
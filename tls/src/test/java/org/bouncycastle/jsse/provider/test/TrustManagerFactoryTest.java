@@ -1,6 +1,8 @@
 package org.bouncycastle.jsse.provider.test;
 
 import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.security.KeyStore;
 import java.security.Security;
 import java.security.cert.CertStore;
 import java.security.cert.CertificateException;
@@ -21,6 +23,7 @@
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
+import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.util.encoders.Base64;
 
 import junit.framework.TestCase;
@@ -105,6 +108,67 @@ public void testCertPathTrustManagerParameters() throws Exception
         trustManager.checkClientTrusted(certs, CLIENT_AUTH_TYPE);
     }
 
+    public void testRepeatedChecks() throws Exception
+    {
+        // NOTE: Both roots have the same subject
+        KeyPair r1Pair = TestUtils.generateRSAKeyPair();
+        X509Certificate r1Cert = TestUtils.generateRootCert(r1Pair);
+        KeyPair r2Pair = TestUtils.generateRSAKeyPair();
+        X509Certificate r2Cert = TestUtils.generateRootCert(r2Pair);
+
+        KeyPair iPair = TestUtils.generateRSAKeyPair();
+        X509Certificate iCert = TestUtils.generateIntermediateCert(iPair.getPublic(),
+            new X500Name("CN=TLS Test CA"), r2Pair.getPrivate(), r2Cert);
+        KeyPair ePair = TestUtils.generateRSAKeyPair();
+        X509Certificate eCert = TestUtils.generateEndEntityCertSign(ePair.getPublic(), new X500Name("CN=TLS Test"),
+            iPair.getPrivate(), iCert);
+
+        KeyPair otherPair = TestUtils.generateRSAKeyPair();
+        X509Certificate otherCert = TestUtils.generateEndEntityCertSign(otherPair.getPublic(),
+            new X500Name("CN=TLS Test"), otherPair.getPrivate(), iCert);
+
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("r1", r1Cert);
+        trustStore.setCertificateEntry("r2", r2Cert);
+
+        TrustManagerFactory fact = TrustManagerFactory.getInstance("PKIX", ProviderUtils.PROVIDER_NAME_BCJSSE);
+        fact.init(trustStore);
+        X509TrustManager trustManager = (X509TrustManager)fact.getTrustManagers()[0];
+
+        X509Certificate[] chain = new X509Certificate[]{ eCert, iCert };
+        X509Certificate[] badChain = new X509Certificate[]{ otherCert, iCert };
+
+        for (int i = 0; i < 3; ++i)
+        {
+            trustManager.checkClientTrusted(chain, CLIENT_AUTH_TYPE);
+
+            try
+            {
+                trustManager.checkClientTrusted(badChain, CLIENT_AUTH_TYPE);
+                fail("no exception");
+            }
+            catch (CertificateException e)
+            {
+                // expected
+            }
+        }
+
+        // Results for one trust manager don't affect another
+        trustStore.deleteEntry("r2");
+        fact.init(trustStore);
+        X509TrustManager otherTrustManager = (X509TrustManager)fact.getTrustManagers()[0];
+        try
+        {
+            otherTrustManager.checkClientTrusted(chain, CLIENT_AUTH_TYPE);
+            fail("no exception");
+        }
+        catch (CertificateException e)
+        {
+            // expected
+        }
+    }
+
     public void testCertPathTrustManagerParametersFailure() throws Exception
     {
         CertificateFactory cf = CertificateFactory.getInstance("X.509", ProviderUtils.PROVIDER_NAME_BC);
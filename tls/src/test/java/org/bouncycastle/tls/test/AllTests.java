@@ -20,12 +20,17 @@ public static Test suite()
         TestSuite suite = new TestSuite("TLS tests");
 
         suite.addTestSuite(BasicTlsTest.class);
+        suite.addTestSuite(DTLSConnectionIDTest.class);
         suite.addTestSuite(DTLSProtocolTest.class);
         suite.addTest(DTLSTestSuite.suite());
         suite.addTestSuite(PRFTest.class);
         suite.addTestSuite(TlsProtocolTest.class);
         suite.addTestSuite(TlsProtocolNonBlockingTest.class);
         suite.addTestSuite(TlsPSKProtocolTest.class);
+        suite.addTestSuite(TlsRecordSizeLimitTest.class);
+        suite.addTestSuite(TlsCertificateCacheTest.class);
+        suite.addTestSuite(TlsCertificateCompressionTest.class);
+        suite.addTestSuite(TlsSignerExecutorTest.class);
         suite.addTestSuite(TlsSRPProtocolTest.class);
         suite.addTest(TlsTestSuite.suite());
         suite.addTestSuite(TlsUtilsTest.class);
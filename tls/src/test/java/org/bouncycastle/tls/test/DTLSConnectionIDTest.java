@@ -0,0 +1,380 @@
+package org.bouncycastle.tls.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ContentType;
+import org.bouncycastle.tls.DTLSClientProtocol;
+import org.bouncycastle.tls.DTLSDemultiplexer;
+import org.bouncycastle.tls.DTLSServerProtocol;
+import org.bouncycastle.tls.DTLSTransport;
+import org.bouncycastle.tls.DatagramTransport;
+import org.bouncycastle.tls.SecurityParameters;
+import org.bouncycastle.tls.TlsClientContext;
+import org.bouncycastle.tls.TlsServer;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+public class DTLSConnectionIDTest
+    extends TestCase
+{
+    private static final int MTU = 1500;
+
+    public void testConnectionID() throws Exception
+    {
+        MockDatagramAssociation network = new MockDatagramAssociation(MTU);
+
+        CIDDTLSServer server = new CIDDTLSServer(Hex.decode("0102030405"));
+        ServerThread serverThread = new ServerThread(server, network.getServer());
+        serverThread.start();
+
+        CIDDTLSClient client = new CIDDTLSClient(Hex.decode("aabbcc"), true);
+        RecordTypeTransport clientTransport = new RecordTypeTransport(network.getClient());
+
+        DTLSTransport dtlsClient = new DTLSClientProtocol().connect(client, clientTransport);
+
+        SecurityParameters securityParameters = client.getContext().getSecurityParametersConnection();
+        assertTrue(Arrays.areEqual(Hex.decode("aabbcc"), securityParameters.getConnectionIDLocal()));
+        assertTrue(Arrays.areEqual(Hex.decode("0102030405"), securityParameters.getConnectionIDPeer()));
+
+        assertEcho(dtlsClient);
+
+        assertTrue(clientTransport.sentCID);
+        assertTrue(clientTransport.receivedCID);
+
+        dtlsClient.close();
+        serverThread.shutdown();
+    }
+
+    public void testConnectionIDNotOfferedWithoutAEAD() throws Exception
+    {
+        MockDatagramAssociation network = new MockDatagramAssociation(MTU);
+
+        CIDDTLSServer server = new CIDDTLSServer(Hex.decode("0102030405"));
+        ServerThread serverThread = new ServerThread(server, network.getServer());
+        serverThread.start();
+
+        CIDDTLSClient client = new CIDDTLSClient(Hex.decode("aabbcc"), false);
+        RecordTypeTransport clientTransport = new RecordTypeTransport(network.getClient());
+
+        DTLSTransport dtlsClient = new DTLSClientProtocol().connect(client, clientTransport);
+
+        SecurityParameters securityParameters = client.getContext().getSecurityParametersConnection();
+        assertNull(securityParameters.getConnectionIDLocal());
+        assertNull(securityParameters.getConnectionIDPeer());
+
+        assertEcho(dtlsClient);
+
+        assertFalse(clientTransport.sentCID);
+        assertFalse(clientTransport.receivedCID);
+
+        dtlsClient.close();
+        serverThread.shutdown();
+    }
+
+    public void testDemultiplexerFollowsConnectionID() throws Exception
+    {
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+
+        DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(localhost, 0));
+        SocketAddress serverAddress = channel.socket().getLocalSocketAddress();
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        DTLSDemultiplexer demux = new DTLSDemultiplexer(channel, MTU, executor, new EchoHandler(),
+            new BcTlsCrypto(new SecureRandom()));
+
+        Thread receiver = new Thread(demux);
+        receiver.start();
+
+        try
+        {
+            RoamingTransport first = new RoamingTransport(serverAddress);
+            RoamingTransport second = new RoamingTransport(serverAddress);
+
+            DTLSTransport dtlsFirst = new DTLSClientProtocol().connect(new CIDDTLSClient(new byte[0], true), first);
+            DTLSTransport dtlsSecond = new DTLSClientProtocol().connect(new CIDDTLSClient(new byte[0], true), second);
+
+            assertEquals(2, demux.getConnectionCount());
+
+            assertEcho(dtlsFirst);
+            assertEcho(dtlsSecond);
+
+            // The client's address changes, but the server keeps (and replies to) the same connection
+            first.roam();
+            assertEcho(dtlsFirst);
+            assertEcho(dtlsSecond);
+
+            assertEquals(2, demux.getConnectionCount());
+
+            dtlsFirst.close();
+            dtlsSecond.close();
+        }
+        finally
+        {
+            demux.close();
+            receiver.join();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertEcho(DTLSTransport dtls) throws IOException
+    {
+        byte[] buf = new byte[dtls.getReceiveLimit()];
+        for (int i = 1; i <= 10; ++i)
+        {
+            byte[] data = new byte[i * 10];
+            Arrays.fill(data, (byte)i);
+            dtls.send(data, 0, data.length);
+
+            int length = dtls.receive(buf, 0, buf.length, 5000);
+            assertEquals(data.length, length);
+            assertTrue(Arrays.areEqual(data, Arrays.copyOf(buf, length)));
+        }
+    }
+
+    static class CIDDTLSClient
+        extends MockDTLSClient
+    {
+        private final byte[] connectionID;
+        private final boolean aead;
+
+        CIDDTLSClient(byte[] connectionID, boolean aead)
+        {
+            super(null);
+
+            this.connectionID = connectionID;
+            this.aead = aead;
+        }
+
+        TlsClientContext getContext()
+        {
+            return context;
+        }
+
+        public byte[] getNewConnectionID()
+        {
+            return connectionID;
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            if (aead)
+            {
+                return new int[]{ CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+            }
+            return new int[]{ CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
+                CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256 };
+        }
+    }
+
+    static class CIDDTLSServer
+        extends MockDTLSServer
+    {
+        private final byte[] connectionID;
+
+        CIDDTLSServer(byte[] connectionID)
+        {
+            this.connectionID = connectionID;
+        }
+
+        public byte[] getNewConnectionID()
+        {
+            return connectionID;
+        }
+    }
+
+    static class EchoHandler
+        implements DTLSDemultiplexer.Handler
+    {
+        public TlsServer createServer(SocketAddress peerAddress, byte[] connectionID)
+        {
+            return new CIDDTLSServer(connectionID);
+        }
+
+        public void notifyConnectionEstablished(DTLSDemultiplexer.Connection connection)
+        {
+        }
+
+        public void notifyDataReceived(DTLSDemultiplexer.Connection connection, byte[] buf, int off, int len)
+            throws IOException
+        {
+            connection.getDTLSTransport().send(buf, off, len);
+        }
+
+        public void notifyConnectionClosed(DTLSDemultiplexer.Connection connection, Throwable cause)
+        {
+        }
+    }
+
+    static class RecordTypeTransport
+        implements DatagramTransport
+    {
+        private final DatagramTransport transport;
+
+        volatile boolean sentCID = false, receivedCID = false;
+
+        RecordTypeTransport(DatagramTransport transport)
+        {
+            this.transport = transport;
+        }
+
+        public int getReceiveLimit() throws IOException
+        {
+            return transport.getReceiveLimit();
+        }
+
+        public int getSendLimit() throws IOException
+        {
+            return transport.getSendLimit();
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis) throws IOException
+        {
+            int length = transport.receive(buf, off, len, waitMillis);
+            if (length > 0 && ContentType.tls12_cid == TlsUtils.readUint8(buf, off))
+            {
+                receivedCID = true;
+            }
+            return length;
+        }
+
+        public void send(byte[] buf, int off, int len) throws IOException
+        {
+            if (len > 0 && ContentType.tls12_cid == TlsUtils.readUint8(buf, off))
+            {
+                sentCID = true;
+            }
+            transport.send(buf, off, len);
+        }
+
+        public void close() throws IOException
+        {
+            transport.close();
+        }
+    }
+
+    /*
+     * A client transport that can move to a new local port mid-connection, like a NAT rebinding.
+     */
+    static class RoamingTransport
+        implements DatagramTransport
+    {
+        private final SocketAddress serverAddress;
+        private volatile DatagramSocket socket;
+
+        RoamingTransport(SocketAddress serverAddress) throws IOException
+        {
+            this.serverAddress = serverAddress;
+            this.socket = createSocket();
+        }
+
+        void roam() throws IOException
+        {
+            DatagramSocket old = socket;
+            this.socket = createSocket();
+            old.close();
+        }
+
+        private DatagramSocket createSocket() throws IOException
+        {
+            DatagramSocket s = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            s.connect(serverAddress);
+            return s;
+        }
+
+        public int getReceiveLimit()
+        {
+            return MTU - 20 - 8;
+        }
+
+        public int getSendLimit()
+        {
+            return MTU - 84 - 8;
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis) throws IOException
+        {
+            DatagramSocket s = socket;
+            s.setSoTimeout(waitMillis);
+            DatagramPacket packet = new DatagramPacket(buf, off, len);
+            try
+            {
+                s.receive(packet);
+            }
+            catch (SocketTimeoutException e)
+            {
+                return -1;
+            }
+            return packet.getLength();
+        }
+
+        public void send(byte[] buf, int off, int len) throws IOException
+        {
+            socket.send(new DatagramPacket(buf, off, len));
+        }
+
+        public void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+
+    static class ServerThread
+        extends Thread
+    {
+        private final TlsServer server;
+        private final DatagramTransport serverTransport;
+        private volatile boolean isShutdown = false;
+
+        ServerThread(TlsServer server, DatagramTransport serverTransport)
+        {
+            this.server = server;
+            this.serverTransport = serverTransport;
+        }
+
+        public void run()
+        {
+            try
+            {
+                DTLSTransport dtlsServer = new DTLSServerProtocol().accept(server, serverTransport);
+                byte[] buf = new byte[dtlsServer.getReceiveLimit()];
+                while (!isShutdown)
+                {
+                    int length = dtlsServer.receive(buf, 0, buf.length, 100);
+                    if (length >= 0)
+                    {
+                        dtlsServer.send(buf, 0, length);
+                    }
+                }
+                dtlsServer.close();
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        void shutdown() throws InterruptedException
+        {
+            if (!isShutdown)
+            {
+                isShutdown = true;
+                this.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package org.bouncycastle.tls.test;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.InMemoryTlsEarlyDataReplayStore;
+import org.bouncycastle.tls.OfferedPsks;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.PskIdentity;
+import org.bouncycastle.tls.PskKeyExchangeMode;
+import org.bouncycastle.tls.SessionParameters;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsEarlyDataReplayStore;
+import org.bouncycastle.tls.TlsExtensionsUtils;
+import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsSession;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+public class Tls13ResumptionTest
+    extends TestCase
+{
+    private static final short[] PSK_DHE_KE = new short[]{ PskKeyExchangeMode.psk_dhe_ke };
+    private static final short[] PSK_KE = new short[]{ PskKeyExchangeMode.psk_ke };
+
+    private static final int[] CIPHER_SUITES = new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256,
+        CipherSuite.TLS_AES_256_GCM_SHA384, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+
+    public void testResumptionPskDheKe() throws IOException
+    {
+        implTestResumption(PSK_DHE_KE, PSK_DHE_KE);
+    }
+
+    public void testResumptionPskKe() throws IOException
+    {
+        implTestResumption(PSK_KE, PSK_KE);
+    }
+
+    public void testResumptionModeMismatch() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(client1, server1);
+
+        assertNotNull(client1.sessionToResume);
+
+        // No common PSK key exchange mode, so a full handshake is expected
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_KE);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(client2, server2);
+
+        assertTrue(server2.credentialsRequested);
+        assertNotSame(client1.sessionToResume, client2.connectionSession);
+    }
+
+    public void testResumptionUnknownTicket() throws IOException
+    {
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(new Hashtable(), PSK_DHE_KE);
+        runConnection(client1, server1);
+
+        assertNotNull(client1.sessionToResume);
+
+        // The ticket was issued by a different server (session cache), so a full handshake is expected
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(new Hashtable(), PSK_DHE_KE);
+        runConnection(client2, server2);
+
+        assertTrue(server2.credentialsRequested);
+        assertNotNull(client2.sessionToResume);
+    }
+
+    public void testResumptionAfterRejectedTickets() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(client1, server1);
+
+        assertEquals(1, serverSessions.size());
+
+        // A ticket the server knows, but which has expired
+        byte[] expiredTicket = createData(32);
+        SessionParameters validParameters = ((TlsSession)serverSessions.elements().nextElement())
+            .exportSessionParameters();
+        SessionParameters expiredParameters = new SessionParameters.Builder()
+            .setCipherSuite(validParameters.getCipherSuite())
+            .setCompressionAlgorithm(validParameters.getCompressionAlgorithm())
+            .setMasterSecret(validParameters.getMasterSecret())
+            .setNegotiatedVersion(ProtocolVersion.TLSv13)
+            .setTicket(expiredTicket, 0L, 1L, System.currentTimeMillis() - 60000L)
+            .build();
+        serverSessions.put(Hex.toHexString(expiredTicket), TlsUtils.importSession(expiredTicket, expiredParameters));
+
+        // An unknown and an expired ticket are offered ahead of the valid one
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(new ExtraTicketsClientProtocol(new byte[][]{ createData(32), expiredTicket }), client2,
+            server2);
+
+        assertFalse(server2.credentialsRequested);
+        assertSame(client1.sessionToResume, client2.connectionSession);
+        assertEquals(3, server2.sessionsPeeked);
+        assertNotNull(server2.sessionToResume);
+        assertTrue(Arrays.areEqual(client1.sessionToResume.exportSessionParameters().getTicket(),
+            server2.sessionToResume.getSessionID()));
+    }
+
+    public void testEarlyDataAccepted() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+        InMemoryTlsEarlyDataReplayStore replayStore = new InMemoryTlsEarlyDataReplayStore();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server1.replayStore = replayStore;
+        runConnection(client1, server1);
+
+        assertFalse(client1.earlyDataAccepted);
+        assertEquals(1024L, client1.sessionToResume.exportSessionParameters().getMaxEarlyDataSize());
+
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        client2.earlyData = createData(300);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server2.replayStore = replayStore;
+        runConnection(client2, server2);
+
+        assertFalse(server2.credentialsRequested);
+        assertTrue(client2.earlyDataAccepted);
+        assertTrue(server2.earlyDataAccepted);
+        assertEquals(1, replayStore.size());
+    }
+
+    public void testEarlyDataSingleUseTicket() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+        InMemoryTlsEarlyDataReplayStore replayStore = new InMemoryTlsEarlyDataReplayStore(true,
+            InMemoryTlsEarlyDataReplayStore.DEFAULT_WINDOW_MILLIS);
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server1.replayStore = replayStore;
+        runConnection(client1, server1);
+
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        client2.earlyData = createData(100);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server2.replayStore = replayStore;
+        runConnection(client2, server2);
+
+        assertTrue(client2.earlyDataAccepted);
+
+        // The same ticket again: resumption succeeds, but the early data is skipped by the server
+        ResumptionTlsClient client3 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        client3.earlyData = createData(100);
+        ResumptionTlsServer server3 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server3.replayStore = replayStore;
+        runConnection(client3, server3);
+
+        assertFalse(server3.credentialsRequested);
+        assertFalse(client3.earlyDataAccepted);
+        assertFalse(server3.earlyDataAccepted);
+    }
+
+    public void testEarlyDataReplayedClientHello() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+        InMemoryTlsEarlyDataReplayStore replayStore = new InMemoryTlsEarlyDataReplayStore();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server1.replayStore = replayStore;
+        runConnection(client1, server1);
+
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        client2.earlyData = createData(100);
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        clientProtocol.connect(client2);
+
+        byte[] firstFlight = new byte[clientProtocol.getAvailableOutputBytes()];
+        clientProtocol.readOutput(firstFlight, 0, firstFlight.length);
+
+        TlsServerProtocol serverProtocol2 = new TlsServerProtocol();
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server2.replayStore = replayStore;
+        serverProtocol2.accept(server2);
+        serverProtocol2.offerInput(firstFlight);
+
+        assertEquals(client2.earlyData.length, serverProtocol2.getAvailableInputBytes());
+
+        // An attacker replaying the same first flight to another server gets the early data skipped
+        TlsServerProtocol serverProtocol3 = new TlsServerProtocol();
+        ResumptionTlsServer server3 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        server3.replayStore = replayStore;
+        serverProtocol3.accept(server3);
+        serverProtocol3.offerInput(firstFlight);
+
+        assertEquals(0, serverProtocol3.getAvailableInputBytes());
+        assertEquals(1, replayStore.size());
+    }
+
+    public void testEarlyDataWithoutReplayStore() throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, PSK_DHE_KE);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(client1, server1);
+
+        // Without a replay store the server never offers early data in its tickets
+        assertEquals(0L, client1.sessionToResume.exportSessionParameters().getMaxEarlyDataSize());
+
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, PSK_DHE_KE);
+        client2.earlyData = createData(100);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, PSK_DHE_KE);
+        runConnection(client2, server2);
+
+        assertFalse(server2.credentialsRequested);
+        assertFalse(client2.earlyDataAccepted);
+    }
+
+    private static void implTestResumption(short[] clientModes, short[] serverModes) throws IOException
+    {
+        Hashtable serverSessions = new Hashtable();
+
+        ResumptionTlsClient client1 = new ResumptionTlsClient(null, clientModes);
+        ResumptionTlsServer server1 = new ResumptionTlsServer(serverSessions, serverModes);
+        runConnection(client1, server1);
+
+        assertTrue(server1.credentialsRequested);
+        assertNotNull(client1.sessionToResume);
+        assertEquals(1, serverSessions.size());
+
+        SessionParameters ticketParameters = client1.sessionToResume.exportSessionParameters();
+        assertEquals(ProtocolVersion.TLSv13, ticketParameters.getNegotiatedVersion());
+        assertNotNull(ticketParameters.getTicket());
+        assertNotNull(ticketParameters.getPeerCertificate());
+
+        ResumptionTlsClient client2 = new ResumptionTlsClient(client1.sessionToResume, clientModes);
+        ResumptionTlsServer server2 = new ResumptionTlsServer(serverSessions, serverModes);
+        runConnection(client2, server2);
+
+        assertFalse(server2.credentialsRequested);
+        assertSame(client1.sessionToResume, client2.connectionSession);
+        assertNotNull(client2.sessionToResume);
+        assertFalse(Arrays.areEqual(ticketParameters.getTicket(),
+            client2.sessionToResume.exportSessionParameters().getTicket()));
+
+        // A ticket issued on a resumed connection resumes too
+        ResumptionTlsClient client3 = new ResumptionTlsClient(client2.sessionToResume, clientModes);
+        ResumptionTlsServer server3 = new ResumptionTlsServer(serverSessions, serverModes);
+        runConnection(client3, server3);
+
+        assertFalse(server3.credentialsRequested);
+        assertSame(client2.sessionToResume, client3.connectionSession);
+    }
+
+    private static void runConnection(ResumptionTlsClient client, ResumptionTlsServer server) throws IOException
+    {
+        runConnection(new TlsClientProtocol(), client, server);
+    }
+
+    private static void runConnection(TlsClientProtocol clientProtocol, ResumptionTlsClient client,
+        ResumptionTlsServer server) throws IOException
+    {
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(client);
+        serverProtocol.accept(server);
+
+        pumpAll(clientProtocol, serverProtocol);
+
+        if (server.earlyDataAccepted)
+        {
+            byte[] earlyData = new byte[client.earlyData.length];
+            assertEquals(earlyData.length, serverProtocol.readInput(earlyData, 0, earlyData.length));
+            assertTrue(Arrays.areEqual(client.earlyData, earlyData));
+        }
+
+        byte[] data = createData(256);
+
+        clientProtocol.writeApplicationData(data, 0, data.length);
+        pumpAll(clientProtocol, serverProtocol);
+
+        byte[] echo = new byte[data.length];
+        assertEquals(data.length, serverProtocol.getAvailableInputBytes());
+        serverProtocol.readInput(echo, 0, echo.length);
+        assertTrue(Arrays.areEqual(data, echo));
+
+        clientProtocol.close();
+        pumpData(clientProtocol, serverProtocol);
+        serverProtocol.closeInput();
+    }
+
+    private static byte[] createData(int length)
+    {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    private static void pumpAll(TlsProtocol clientProtocol, TlsProtocol serverProtocol) throws IOException
+    {
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pumpData(clientProtocol, serverProtocol) | pumpData(serverProtocol, clientProtocol);
+        }
+    }
+
+    private static boolean pumpData(TlsProtocol from, TlsProtocol to) throws IOException
+    {
+        int byteCount = from.getAvailableOutputBytes();
+        if (byteCount == 0)
+        {
+            return false;
+        }
+
+        byte[] buffer = new byte[byteCount];
+        from.readOutput(buffer, 0, buffer.length);
+        to.offerInput(buffer);
+        return true;
+    }
+
+    static class ResumptionTlsClient
+        extends MockTlsClient
+    {
+        private final short[] pskKeyExchangeModes;
+
+        byte[] earlyData = null;
+        boolean earlyDataAccepted = false;
+        TlsSession connectionSession = null;
+        TlsSession sessionToResume = null;
+
+        ResumptionTlsClient(TlsSession session, short[] pskKeyExchangeModes)
+        {
+            super(session);
+
+            this.pskKeyExchangeModes = pskKeyExchangeModes;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return ProtocolVersion.TLSv13.downTo(ProtocolVersion.TLSv12);
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return CIPHER_SUITES;
+        }
+
+        public short[] getPSKKeyExchangeModes()
+        {
+            return pskKeyExchangeModes;
+        }
+
+        public byte[] getEarlyData()
+        {
+            return earlyData;
+        }
+
+        public void notifyHandshakeComplete() throws IOException
+        {
+            super.notifyHandshakeComplete();
+
+            this.connectionSession = context.getSession();
+            this.earlyDataAccepted = context.getSecurityParametersConnection().isEarlyDataAccepted();
+        }
+
+        public void notifySessionToResume(TlsSession session) throws IOException
+        {
+            this.sessionToResume = session;
+        }
+    }
+
+    static class ResumptionTlsServer
+        extends MockTlsServer
+    {
+        private final Hashtable sessions;
+        private final short[] pskKeyExchangeModes;
+
+        TlsEarlyDataReplayStore replayStore = null;
+        boolean credentialsRequested = false;
+        boolean earlyDataAccepted = false;
+        int sessionsPeeked = 0;
+        TlsSession sessionToResume = null;
+
+        ResumptionTlsServer(Hashtable sessions, short[] pskKeyExchangeModes)
+        {
+            this.sessions = sessions;
+            this.pskKeyExchangeModes = pskKeyExchangeModes;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return ProtocolVersion.TLSv13.downTo(ProtocolVersion.TLSv12);
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return CIPHER_SUITES;
+        }
+
+        public short[] getPSKKeyExchangeModes()
+        {
+            return pskKeyExchangeModes;
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            this.credentialsRequested = true;
+
+            if (TlsUtils.isTLSv13(context))
+            {
+                return getRSASignerCredentials();
+            }
+
+            return super.getCredentials();
+        }
+
+        public TlsSession peekSessionToResume(byte[] ticket)
+        {
+            ++sessionsPeeked;
+            return (TlsSession)sessions.get(Hex.toHexString(ticket));
+        }
+
+        public void notifySessionToResume(TlsSession session) throws IOException
+        {
+            assertNull("only the accepted session should be notified", sessionToResume);
+            this.sessionToResume = session;
+        }
+
+        public long getNewSessionTicketLifetime()
+        {
+            return 3600L;
+        }
+
+        public long getMaxEarlyDataSize()
+        {
+            return 1024L;
+        }
+
+        public TlsEarlyDataReplayStore getEarlyDataReplayStore()
+        {
+            return replayStore;
+        }
+
+        public void notifyHandshakeComplete() throws IOException
+        {
+            super.notifyHandshakeComplete();
+
+            this.earlyDataAccepted = context.getSecurityParametersConnection().isEarlyDataAccepted();
+
+            TlsSession session = context.getSession();
+            sessions.put(Hex.toHexString(session.getSessionID()), session);
+        }
+    }
+
+    /**
+     * Offers some extra tickets, with dummy binders, ahead of the one for the session being resumed.
+     */
+    static class ExtraTicketsClientProtocol
+        extends TlsClientProtocol
+    {
+        private final byte[][] extraTickets;
+
+        ExtraTicketsClientProtocol(byte[][] extraTickets)
+        {
+            this.extraTickets = extraTickets;
+        }
+
+        protected void add13PreSharedKeyToClientHello(Hashtable clientHelloExtensions, int[] offeredCipherSuites)
+            throws IOException
+        {
+            super.add13PreSharedKeyToClientHello(clientHelloExtensions, offeredCipherSuites);
+
+            OfferedPsks offeredPsks = TlsExtensionsUtils.getPreSharedKeyClientHello(clientHelloExtensions);
+            if (null == offeredPsks)
+            {
+                return;
+            }
+
+            int binderLength = ((byte[])offeredPsks.getBinders().elementAt(0)).length;
+
+            Vector identities = new Vector(), binders = new Vector();
+            for (int i = 0; i < extraTickets.length; ++i)
+            {
+                identities.addElement(new PskIdentity(extraTickets[i], 0L));
+                binders.addElement(new byte[binderLength]);
+            }
+            identities.addAll(offeredPsks.getIdentities());
+            binders.addAll(offeredPsks.getBinders());
+
+            TlsExtensionsUtils.addPreSharedKeyClientHello(clientHelloExtensions, new OfferedPsks(identities, binders));
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.bouncycastle.tls.test;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.Certificate;
+import org.bouncycastle.tls.CertificateEntry;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.SignatureAndHashAlgorithm;
+import org.bouncycastle.tls.TlsAuthentication;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentialedSigner;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsExtensionsUtils;
+import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsServerCertificate;
+import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.tls.crypto.TlsStreamSigner;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Check a server Certificate that is reused across connections picks up changes to its credentials
+ * and (TLS 1.3) CertificateEntry extensions, rather than sending a stale cached encoding.
+ */
+public class TlsCertificateCacheTest
+    extends TestCase
+{
+    private static final byte[] STAPLE_1 = new byte[]{ 1, 2, 3, 4 };
+    private static final byte[] STAPLE_2 = new byte[]{ 5, 6, 7, 8, 9 };
+
+    public void testChangedStapleTLSv13() throws IOException
+    {
+        Hashtable extensions = new Hashtable();
+        extensions.put(TlsExtensionsUtils.EXT_status_request, STAPLE_1);
+
+        CacheTlsServer server = new CacheTlsServer(ProtocolVersion.TLSv13, extensions);
+        assertTrue(Arrays.areEqual(STAPLE_1, getStaple(handshake(ProtocolVersion.TLSv13, server))));
+
+        Certificate certificate = server.certificate;
+        assertNotNull(certificate);
+
+        // Same Certificate (and cached encoding), unchanged staple
+        server = new CacheTlsServer(ProtocolVersion.TLSv13, certificate);
+        assertTrue(Arrays.areEqual(STAPLE_1, getStaple(handshake(ProtocolVersion.TLSv13, server))));
+
+        // Same Certificate, staple refreshed in place
+        extensions.put(TlsExtensionsUtils.EXT_status_request, STAPLE_2);
+        server = new CacheTlsServer(ProtocolVersion.TLSv13, certificate);
+        assertTrue(Arrays.areEqual(STAPLE_2, getStaple(handshake(ProtocolVersion.TLSv13, server))));
+
+        // Same Certificate, staple removed
+        extensions.remove(TlsExtensionsUtils.EXT_status_request);
+        server = new CacheTlsServer(ProtocolVersion.TLSv13, certificate);
+        assertNull(getStaple(handshake(ProtocolVersion.TLSv13, server)));
+    }
+
+    public void testChangedCredentialsTLSv13() throws IOException
+    {
+        implTestChangedCredentials(ProtocolVersion.TLSv13);
+    }
+
+    public void testChangedCredentialsTLSv12() throws IOException
+    {
+        implTestChangedCredentials(ProtocolVersion.TLSv12);
+    }
+
+    private void implTestChangedCredentials(ProtocolVersion version) throws IOException
+    {
+        Hashtable extensions1 = new Hashtable();
+        extensions1.put(TlsExtensionsUtils.EXT_status_request, STAPLE_1);
+
+        CacheTlsServer server1 = new CacheTlsServer(version, extensions1);
+        Certificate received1 = handshake(version, server1);
+        assertEncodingEquals(server1.certificate, received1);
+
+        Hashtable extensions2 = new Hashtable();
+        extensions2.put(TlsExtensionsUtils.EXT_status_request, STAPLE_2);
+
+        // New credentials, with a new Certificate, after the first has been encoded and cached
+        CacheTlsServer server2 = new CacheTlsServer(version, extensions2);
+        Certificate received2 = handshake(version, server2);
+        assertEncodingEquals(server2.certificate, received2);
+
+        if (TlsUtils.isTLSv13(version))
+        {
+            assertTrue(Arrays.areEqual(STAPLE_2, getStaple(received2)));
+        }
+
+        // And back again
+        CacheTlsServer server3 = new CacheTlsServer(version, server1.certificate);
+        assertEncodingEquals(server1.certificate, handshake(version, server3));
+    }
+
+    private static void assertEncodingEquals(Certificate expected, Certificate actual) throws IOException
+    {
+        assertEquals(expected.getLength(), actual.getLength());
+        for (int i = 0; i < expected.getLength(); ++i)
+        {
+            assertTrue(Arrays.areEqual(expected.getCertificateAt(i).getEncoded(), actual.getCertificateAt(i).getEncoded()));
+        }
+    }
+
+    private static byte[] getStaple(Certificate certificate)
+    {
+        Hashtable extensions = certificate.getCertificateEntryList()[0].getExtensions();
+        return null == extensions ? null : TlsUtils.getExtensionData(extensions, TlsExtensionsUtils.EXT_status_request);
+    }
+
+    private static Certificate handshake(ProtocolVersion version, CacheTlsServer server) throws IOException
+    {
+        CacheTlsClient client = new CacheTlsClient(version);
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(client);
+        serverProtocol.accept(server);
+
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pump(clientProtocol, serverProtocol) | pump(serverProtocol, clientProtocol);
+        }
+
+        assertTrue(client.handshakeComplete);
+        assertNotNull(client.serverCertificate);
+        return client.serverCertificate;
+    }
+
+    private static boolean pump(TlsProtocol from, TlsProtocol to) throws IOException
+    {
+        int byteCount = from.getAvailableOutputBytes();
+        if (byteCount == 0)
+        {
+            return false;
+        }
+
+        byte[] buffer = new byte[byteCount];
+        from.readOutput(buffer, 0, buffer.length);
+        to.offerInput(buffer);
+        return true;
+    }
+
+    static class CacheTlsClient
+        extends MockTlsClient
+    {
+        private final ProtocolVersion version;
+
+        boolean handshakeComplete = false;
+        Certificate serverCertificate = null;
+
+        CacheTlsClient(ProtocolVersion version)
+        {
+            super(null);
+
+            this.version = version;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public TlsAuthentication getAuthentication() throws IOException
+        {
+            final TlsAuthentication authentication = super.getAuthentication();
+
+            return new TlsAuthentication()
+            {
+                public void notifyServerCertificate(TlsServerCertificate serverCertificate) throws IOException
+                {
+                    authentication.notifyServerCertificate(serverCertificate);
+                    CacheTlsClient.this.serverCertificate = serverCertificate.getCertificate();
+                }
+
+                public TlsCredentials getClientCredentials(CertificateRequest certificateRequest) throws IOException
+                {
+                    return authentication.getClientCredentials(certificateRequest);
+                }
+            };
+        }
+
+        public void notifyHandshakeComplete() throws IOException
+        {
+            super.notifyHandshakeComplete();
+            handshakeComplete = true;
+        }
+    }
+
+    static class CacheTlsServer
+        extends MockTlsServer
+    {
+        private final ProtocolVersion version;
+        private final Hashtable extensions;
+
+        Certificate certificate;
+
+        /**
+         * Use a new Certificate, built on first use from the test credentials plus the given extensions
+         * for the end-entity certificate.
+         */
+        CacheTlsServer(ProtocolVersion version, Hashtable extensions)
+        {
+            this.version = version;
+            this.extensions = extensions;
+            this.certificate = null;
+        }
+
+        /**
+         * Reuse a Certificate from an earlier connection.
+         */
+        CacheTlsServer(ProtocolVersion version, Certificate certificate)
+        {
+            this.version = version;
+            this.extensions = null;
+            this.certificate = certificate;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            final TlsCredentialedSigner signer = getRSASignerCredentials();
+
+            if (null == certificate)
+            {
+                Certificate chain = signer.getCertificate();
+
+                if (TlsUtils.isTLSv13(context))
+                {
+                    CertificateEntry[] entries = new CertificateEntry[chain.getLength()];
+                    for (int i = 0; i < entries.length; ++i)
+                    {
+                        entries[i] = new CertificateEntry(chain.getCertificateAt(i), 0 == i ? extensions : null);
+                    }
+
+                    certificate = new Certificate(TlsUtils.EMPTY_BYTES, entries);
+                }
+                else
+                {
+                    certificate = new Certificate(chain.getCertificateList());
+                }
+            }
+
+            return new TlsCredentialedSigner()
+            {
+                public Certificate getCertificate()
+                {
+                    return certificate;
+                }
+
+                public byte[] generateRawSignature(byte[] hash) throws IOException
+                {
+                    return signer.generateRawSignature(hash);
+                }
+
+                public SignatureAndHashAlgorithm getSignatureAndHashAlgorithm()
+                {
+                    return signer.getSignatureAndHashAlgorithm();
+                }
+
+                public TlsStreamSigner getStreamSigner() throws IOException
+                {
+                    return signer.getStreamSigner();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.bouncycastle.tls.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.AlertDescription;
+import org.bouncycastle.tls.CachingCertificateCompression;
+import org.bouncycastle.tls.CertificateCompressionAlgorithm;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.CompressedCertificate;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsCertificateCompression;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsFatalAlert;
+import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.tls.ZlibCertificateCompression;
+import org.bouncycastle.util.Arrays;
+
+public class TlsCertificateCompressionTest
+    extends TestCase
+{
+    public void testZlibRoundTrip() throws IOException
+    {
+        TlsCertificateCompression zlib = new ZlibCertificateCompression();
+
+        byte[] message = new byte[3000];
+        for (int i = 0; i < message.length; ++i)
+        {
+            message[i] = (byte)(i % 17);
+        }
+
+        byte[] compressed = zlib.compress(message);
+        assertTrue(compressed.length < message.length);
+        assertTrue(Arrays.areEqual(message, zlib.decompress(compressed, message.length)));
+
+        checkBadCertificate(zlib, compressed, message.length - 1);
+        checkBadCertificate(zlib, compressed, message.length + 1);
+        checkBadCertificate(zlib, Arrays.copyOf(compressed, compressed.length - 4), message.length);
+        checkBadCertificate(zlib, Arrays.append(compressed, (byte)0), message.length);
+    }
+
+    public void testCompressedCertificateEncoding() throws IOException
+    {
+        CompressedCertificate compressedCertificate = new CompressedCertificate(CertificateCompressionAlgorithm.zlib,
+            1000, new byte[]{ 1, 2, 3 });
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        compressedCertificate.encode(buf);
+
+        CompressedCertificate parsed = CompressedCertificate.parse(
+            new ByteArrayInputStream(buf.toByteArray()));
+        assertEquals(CertificateCompressionAlgorithm.zlib, parsed.getAlgorithm());
+        assertEquals(1000, parsed.getUncompressedLength());
+        assertTrue(Arrays.areEqual(new byte[]{ 1, 2, 3 }, parsed.getCompressedCertificateMessage()));
+    }
+
+    public void testCertificateCompressionTLSv13() throws IOException
+    {
+        CountingCompression counting = new CountingCompression(new ZlibCertificateCompression());
+        TlsCertificateCompression serverCompression = new CachingCertificateCompression(counting);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            CompressionTlsClient client = new CompressionTlsClient(ProtocolVersion.TLSv13,
+                new TlsCertificateCompression[]{ new ZlibCertificateCompression() });
+            CompressionTlsServer server = new CompressionTlsServer(ProtocolVersion.TLSv13,
+                new TlsCertificateCompression[]{ serverCompression });
+
+            handshake(client, server);
+        }
+
+        // The chain is only compressed for the first connection
+        assertEquals(1, counting.compressCount);
+    }
+
+    public void testNoSharedAlgorithm() throws IOException
+    {
+        CountingCompression counting = new CountingCompression(new ZlibCertificateCompression());
+
+        CompressionTlsClient client = new CompressionTlsClient(ProtocolVersion.TLSv13,
+            new TlsCertificateCompression[]{ new TestCompression(CertificateCompressionAlgorithm.brotli) });
+        CompressionTlsServer server = new CompressionTlsServer(ProtocolVersion.TLSv13,
+            new TlsCertificateCompression[]{ counting });
+
+        handshake(client, server);
+
+        assertEquals(0, counting.compressCount);
+    }
+
+    public void testIgnoredForTLSv12() throws IOException
+    {
+        CountingCompression counting = new CountingCompression(new ZlibCertificateCompression());
+
+        CompressionTlsClient client = new CompressionTlsClient(ProtocolVersion.TLSv12,
+            new TlsCertificateCompression[]{ new ZlibCertificateCompression() });
+        CompressionTlsServer server = new CompressionTlsServer(ProtocolVersion.TLSv12,
+            new TlsCertificateCompression[]{ counting });
+
+        handshake(client, server);
+
+        assertEquals(0, counting.compressCount);
+    }
+
+    private static void checkBadCertificate(TlsCertificateCompression compression, byte[] compressed,
+        int uncompressedLength)
+    {
+        try
+        {
+            compression.decompress(compressed, uncompressedLength);
+            fail();
+        }
+        catch (TlsFatalAlert e)
+        {
+            assertEquals(AlertDescription.bad_certificate, e.getAlertDescription());
+        }
+        catch (IOException e)
+        {
+            fail();
+        }
+    }
+
+    private static void handshake(CompressionTlsClient client, CompressionTlsServer server) throws IOException
+    {
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(client);
+        serverProtocol.accept(server);
+
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pump(clientProtocol, serverProtocol) | pump(serverProtocol, clientProtocol);
+        }
+
+        assertTrue(client.handshakeComplete);
+        assertTrue(server.handshakeComplete);
+    }
+
+    private static boolean pump(TlsProtocol from, TlsProtocol to) throws IOException
+    {
+        int byteCount = from.getAvailableOutputBytes();
+        if (byteCount == 0)
+        {
+            return false;
+        }
+
+        byte[] buffer = new byte[byteCount];
+        from.readOutput(buffer, 0, buffer.length);
+        to.offerInput(buffer);
+        return true;
+    }
+
+    static class TestCompression
+        implements TlsCertificateCompression
+    {
+        private final int algorithm;
+
+        TestCompression(int algorithm)
+        {
+            this.algorithm = algorithm;
+        }
+
+        public int getAlgorithm()
+        {
+            return algorithm;
+        }
+
+        public byte[] compress(byte[] certificateMessage) throws IOException
+        {
+            throw new IllegalStateException();
+        }
+
+        public byte[] decompress(byte[] compressedCertificateMessage, int uncompressedLength) throws IOException
+        {
+            throw new IllegalStateException();
+        }
+    }
+
+    static class CountingCompression
+        implements TlsCertificateCompression
+    {
+        private final TlsCertificateCompression compression;
+
+        int compressCount = 0;
+
+        CountingCompression(TlsCertificateCompression compression)
+        {
+            this.compression = compression;
+        }
+
+        public int getAlgorithm()
+        {
+            return compression.getAlgorithm();
+        }
+
+        public byte[] compress(byte[] certificateMessage) throws IOException
+        {
+            ++compressCount;
+            return compression.compress(certificateMessage);
+        }
+
+        public byte[] decompress(byte[] compressedCertificateMessage, int uncompressedLength) throws IOException
+        {
+            return compression.decompress(compressedCertificateMessage, uncompressedLength);
+        }
+    }
+
+    static class CompressionTlsClient
+        extends MockTlsClient
+    {
+        private final ProtocolVersion version;
+        private final TlsCertificateCompression[] compressions;
+
+        boolean handshakeComplete = false;
+
+        CompressionTlsClient(ProtocolVersion version, TlsCertificateCompression[] compressions)
+        {
+            super(null);
+
+            this.version = version;
+            this.compressions = compressions;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public TlsCertificateCompression[] getCertificateCompression()
+        {
+            return compressions;
+        }
+
+        public void notifyHandshakeComplete() throws IOException
+        {
+            super.notifyHandshakeComplete();
+            handshakeComplete = true;
+        }
+    }
+
+    static class CompressionTlsServer
+        extends MockTlsServer
+    {
+        private final ProtocolVersion version;
+        private final TlsCertificateCompression[] compressions;
+
+        boolean handshakeComplete = false;
+
+        CompressionTlsServer(ProtocolVersion version, TlsCertificateCompression[] compressions)
+        {
+            this.version = version;
+            this.compressions = compressions;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            if (TlsUtils.isTLSv13(context))
+            {
+                return getRSASignerCredentials();
+            }
+            return super.getCredentials();
+        }
+
+        public TlsCertificateCompression[] getCertificateCompression()
+        {
+            return compressions;
+        }
+
+        public void notifyHandshakeComplete() throws IOException
+        {
+            super.notifyHandshakeComplete();
+            handshakeComplete = true;
+        }
+    }
+}
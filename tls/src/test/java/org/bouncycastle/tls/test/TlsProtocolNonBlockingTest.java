@@ -1,12 +1,21 @@
 package org.bouncycastle.tls.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.SecureRandom;
 
 import junit.framework.TestCase;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.RecordFormat;
+import org.bouncycastle.tls.RecordPreview;
 import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
 import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsRecordSizePolicy;
 import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsUtils;
 import org.bouncycastle.util.Arrays;
 
 public class TlsProtocolNonBlockingTest
@@ -23,6 +32,170 @@ public void testClientServerNonFragmented() throws IOException
         testClientServer(false);
     }
 
+    public void testClientServerDirect() throws IOException
+    {
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(new MockTlsClient(null));
+        serverProtocol.accept(new MockTlsServer());
+
+        // pump handshake
+        boolean hadDataFromServer = true;
+        boolean hadDataFromClient = true;
+        while (hadDataFromServer || hadDataFromClient)
+        {
+            hadDataFromServer = pumpData(serverProtocol, clientProtocol, false);
+            hadDataFromClient = pumpData(clientProtocol, serverProtocol, false);
+        }
+
+        // send data (one record, given the client's max_fragment_length) in both directions, bypassing the
+        // buffered input and output
+        byte[] data = new byte[500];
+        secureRandom.nextBytes(data);
+        writeAndReadDirect(clientProtocol, serverProtocol, data);
+        writeAndReadDirect(serverProtocol, clientProtocol, data);
+    }
+
+    public void testClientServerDirectWithChangingRecordSizePolicy() throws IOException
+    {
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(new MockTlsClient(null)
+        {
+            public TlsRecordSizePolicy getRecordSizePolicy()
+            {
+                return new AlternatingRecordSizePolicy();
+            }
+        });
+        serverProtocol.accept(new MockTlsServer()
+        {
+            public TlsRecordSizePolicy getRecordSizePolicy()
+            {
+                return new AlternatingRecordSizePolicy();
+            }
+        });
+
+        // pump handshake
+        boolean hadDataFromServer = true;
+        boolean hadDataFromClient = true;
+        while (hadDataFromServer || hadDataFromClient)
+        {
+            hadDataFromServer = pumpData(serverProtocol, clientProtocol, false);
+            hadDataFromClient = pumpData(clientProtocol, serverProtocol, false);
+        }
+
+        /*
+         * The policy's answer changes on every call, as e.g. a time-based policy's might after an idle
+         * period, but the records written must still match the preview made with the limit read first.
+         */
+        byte[] data = new byte[500];
+        for (int i = 0; i < 4; ++i)
+        {
+            secureRandom.nextBytes(data);
+            writeAndReadDirect(clientProtocol, serverProtocol, data);
+            writeAndReadDirect(serverProtocol, clientProtocol, data);
+        }
+    }
+
+    public void testInPlaceRecordsAtOffsets() throws IOException
+    {
+        // covers both AEAD nonce constructions (RFC 5288 explicit and RFC 7905 implicit), and TLS 1.3
+        implTestInPlaceRecords(ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256);
+        implTestInPlaceRecords(ProtocolVersion.TLSv12, CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256);
+        implTestInPlaceRecords(ProtocolVersion.TLSv13, CipherSuite.TLS_AES_128_GCM_SHA256);
+    }
+
+    private static void implTestInPlaceRecords(ProtocolVersion version, int cipherSuite) throws IOException
+    {
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(new InPlaceTlsClient(version, cipherSuite));
+        serverProtocol.accept(new InPlaceTlsServer(version, cipherSuite));
+
+        boolean hadDataFromServer = true;
+        boolean hadDataFromClient = true;
+        while (hadDataFromServer || hadDataFromClient)
+        {
+            hadDataFromServer = pumpData(serverProtocol, clientProtocol, false);
+            hadDataFromClient = pumpData(clientProtocol, serverProtocol, false);
+        }
+
+        // the client's max_fragment_length gives a small record size to cross
+        int limit = clientProtocol.getApplicationDataLimit();
+        int[] lengths = new int[]{ 1, limit - 1, limit, limit + 1, 3 * limit + 7 };
+
+        for (int i = 0; i < lengths.length; ++i)
+        {
+            writeAndReadAtOffsets(clientProtocol, serverProtocol, lengths[i], limit);
+            writeAndReadAtOffsets(serverProtocol, clientProtocol, lengths[i], limit);
+        }
+    }
+
+    private static void writeAndReadAtOffsets(TlsProtocol writer, TlsProtocol reader, int length, int limit)
+        throws IOException
+    {
+        SecureRandom secureRandom = new SecureRandom();
+
+        final int margin = 13;
+
+        byte[] data = new byte[margin + length + margin];
+        secureRandom.nextBytes(data);
+        byte[] expected = Arrays.copyOfRange(data, margin, margin + length);
+        byte[] original = Arrays.clone(data);
+
+        // First pass: each record is offered on its own, from the middle of a larger buffer, so that it is
+        // decrypted in place there
+        writer.writeApplicationData(data, margin, length);
+        assertArrayEquals(original, data);
+
+        ByteArrayOutputStream appData = new ByteArrayOutputStream();
+        int records = 0;
+        while (writer.getAvailableOutputBytes() > 0)
+        {
+            byte[] header = new byte[RecordFormat.FRAGMENT_OFFSET];
+            assertEquals(header.length, writer.readOutput(header, 0, header.length));
+            int recordSize = header.length + TlsUtils.readUint16(header, RecordFormat.LENGTH_OFFSET);
+
+            byte[] record = new byte[margin + recordSize + margin];
+            secureRandom.nextBytes(record);
+            System.arraycopy(header, 0, record, margin, header.length);
+            assertEquals(recordSize - header.length,
+                writer.readOutput(record, margin + header.length, recordSize - header.length));
+
+            byte[] before = Arrays.clone(record);
+            reader.offerInput(record, margin, recordSize, appData);
+
+            assertTrue(Arrays.areEqual(Arrays.copyOfRange(before, 0, margin), Arrays.copyOfRange(record, 0, margin)));
+            assertTrue(Arrays.areEqual(Arrays.copyOfRange(before, margin + recordSize, record.length),
+                Arrays.copyOfRange(record, margin + recordSize, record.length)));
+
+            ++records;
+        }
+
+        assertEquals((length + limit - 1) / limit, records);
+        assertArrayEquals(expected, appData.toByteArray());
+
+        // Second pass: all the records are offered at once from an offset, and read back to an offset
+        writer.writeApplicationData(data, margin, length);
+
+        int outputSize = writer.getAvailableOutputBytes();
+        byte[] output = new byte[margin + outputSize];
+        assertEquals(outputSize, writer.readOutput(output, margin, outputSize));
+        reader.offerInput(output, margin, outputSize);
+
+        assertEquals(length, reader.getAvailableInputBytes());
+        byte[] readData = new byte[margin + length];
+        assertEquals(length, reader.readInput(readData, margin, length));
+        assertArrayEquals(expected, Arrays.copyOfRange(readData, margin, readData.length));
+    }
+
     private static void testClientServer(boolean fragment) throws IOException
     {
         SecureRandom secureRandom = new SecureRandom();
@@ -69,6 +242,34 @@ private static void writeAndRead(TlsProtocol writer, TlsProtocol reader, byte[]
         assertArrayEquals(data, readData);
     }
 
+    private static void writeAndReadDirect(TlsProtocol writer, TlsProtocol reader, byte[] data)
+        throws IOException
+    {
+        ByteArrayOutputStream appData = new ByteArrayOutputStream();
+
+        int offset = 0;
+        while (offset < data.length)
+        {
+            int fragmentLimit = writer.getApplicationDataLimit();
+            RecordPreview preview = writer.previewOutputRecord(Math.min(data.length - offset, fragmentLimit));
+            int length = preview.getApplicationDataLimit();
+
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            writer.writeApplicationData(data, offset, length, records, fragmentLimit);
+            assertEquals(0, writer.getAvailableOutputBytes());
+
+            byte[] recordData = records.toByteArray();
+            assertEquals(preview.getRecordSize(), recordData.length);
+
+            assertEquals(length, reader.offerInput(recordData, 0, recordData.length, appData));
+            assertEquals(0, reader.getAvailableInputBytes());
+
+            offset += length;
+        }
+
+        assertArrayEquals(data, appData.toByteArray());
+    }
+
     private static boolean pumpData(TlsProtocol from, TlsProtocol to, boolean fragment) throws IOException
     {
         int byteCount = from.getAvailableOutputBytes();
@@ -123,4 +324,82 @@ private static void assertArrayEquals(byte[] a, byte[] b)
     {
         assertTrue(Arrays.areEqual(a, b));
     }
+
+    static class InPlaceTlsClient
+        extends MockTlsClient
+    {
+        private final ProtocolVersion version;
+        private final int cipherSuite;
+
+        InPlaceTlsClient(ProtocolVersion version, int cipherSuite)
+        {
+            super(null);
+
+            this.version = version;
+            this.cipherSuite = cipherSuite;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ cipherSuite };
+        }
+    }
+
+    static class InPlaceTlsServer
+        extends MockTlsServer
+    {
+        private final ProtocolVersion version;
+        private final int cipherSuite;
+
+        InPlaceTlsServer(ProtocolVersion version, int cipherSuite)
+        {
+            this.version = version;
+            this.cipherSuite = cipherSuite;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ cipherSuite };
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            if (TlsUtils.isTLSv13(context))
+            {
+                return getRSASignerCredentials();
+            }
+
+            return super.getCredentials();
+        }
+    }
+
+    static class AlternatingRecordSizePolicy
+        implements TlsRecordSizePolicy
+    {
+        private int calls = 0;
+
+        public int getApplicationDataRecordSize(int plaintextLimit)
+        {
+            return (++calls & 1) != 0 ? plaintextLimit : 100;
+        }
+
+        public void notifyApplicationDataWritten(int length)
+        {
+        }
+    }
 }
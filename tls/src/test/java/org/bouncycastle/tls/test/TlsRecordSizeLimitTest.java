@@ -0,0 +1,294 @@
+package org.bouncycastle.tls.test;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ContentType;
+import org.bouncycastle.tls.DefaultTlsRecordSizePolicy;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsRecordSizePolicy;
+import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.util.Arrays;
+
+public class TlsRecordSizeLimitTest
+    extends TestCase
+{
+    // NOTE: AEAD expansion of a record (excluding the TLS 1.3 content type)
+    private static final int GCM_TAG_LENGTH = 16;
+    private static final int GCM_EXPLICIT_NONCE_LENGTH = 8;
+
+    public void testRecordSizeLimitTLSv12() throws IOException
+    {
+        SizeLimitTlsClient client = new SizeLimitTlsClient(ProtocolVersion.TLSv12, 256);
+        SizeLimitTlsServer server = new SizeLimitTlsServer(ProtocolVersion.TLSv12, 1024);
+
+        Connection connection = new Connection(client, server);
+
+        // NOTE: The client's max_fragment_length (2^9) is ignored in favour of record_size_limit
+        int overhead = GCM_EXPLICIT_NONCE_LENGTH + GCM_TAG_LENGTH;
+        assertEquals(256 + overhead, connection.sendFromServer(4000));
+        assertEquals(1024 + overhead, connection.sendFromClient(4000));
+    }
+
+    public void testRecordSizeLimitTLSv13() throws IOException
+    {
+        SizeLimitTlsClient client = new SizeLimitTlsClient(ProtocolVersion.TLSv13, 256);
+        SizeLimitTlsServer server = new SizeLimitTlsServer(ProtocolVersion.TLSv13, 1024);
+
+        Connection connection = new Connection(client, server);
+
+        // NOTE: For TLS 1.3 the limit includes the inner content type
+        int overhead = GCM_TAG_LENGTH;
+        assertEquals(256 + overhead, connection.sendFromServer(4000));
+        assertEquals(1024 + overhead, connection.sendFromClient(4000));
+    }
+
+    public void testRecordSizeLimitServerOnly() throws IOException
+    {
+        SizeLimitTlsClient client = new SizeLimitTlsClient(ProtocolVersion.TLSv13, -1);
+        SizeLimitTlsServer server = new SizeLimitTlsServer(ProtocolVersion.TLSv13, 1024);
+
+        Connection connection = new Connection(client, server);
+
+        // Not offered by the client, so no limit applies
+        int overhead = 1 + GCM_TAG_LENGTH;
+        assertEquals((1 << 14) + overhead, connection.sendFromClient(20000));
+    }
+
+    public void testRecordSizePolicy() throws IOException
+    {
+        TestRecordSizePolicy policy = new TestRecordSizePolicy(1000, 5000, 1000);
+
+        assertEquals(1000, policy.getApplicationDataRecordSize(16384));
+        policy.notifyApplicationDataWritten(1000);
+        assertEquals(2000, policy.getApplicationDataRecordSize(16384));
+        assertEquals(1500, policy.getApplicationDataRecordSize(1500));
+        policy.notifyApplicationDataWritten(2000);
+        assertEquals(3000, policy.getApplicationDataRecordSize(16384));
+        policy.notifyApplicationDataWritten(3000);
+
+        // Boosted to full-size records
+        assertEquals(16384, policy.getApplicationDataRecordSize(16384));
+        policy.notifyApplicationDataWritten(16384);
+        assertEquals(16384, policy.getApplicationDataRecordSize(16384));
+
+        // An idle connection starts over with small records
+        policy.now += 1000;
+        assertEquals(1000, policy.getApplicationDataRecordSize(16384));
+        policy.notifyApplicationDataWritten(1000);
+        assertEquals(2000, policy.getApplicationDataRecordSize(16384));
+    }
+
+    public void testRecordSizePolicyRecords() throws IOException
+    {
+        SizeLimitTlsClient client = new SizeLimitTlsClient(ProtocolVersion.TLSv13, -1);
+        SizeLimitTlsServer server = new SizeLimitTlsServer(ProtocolVersion.TLSv13, -1);
+        server.recordSizePolicy = new TestRecordSizePolicy(1000, 5000, 1000);
+
+        Connection connection = new Connection(client, server);
+
+        int[] recordSizes = connection.sendFromServerRecords(40000);
+
+        int overhead = 1 + GCM_TAG_LENGTH;
+        assertEquals(1000 + overhead, recordSizes[0]);
+        assertEquals(2000 + overhead, recordSizes[1]);
+        assertEquals(3000 + overhead, recordSizes[2]);
+        assertEquals((1 << 14) + overhead, recordSizes[3]);
+    }
+
+    private static byte[] createData(int length)
+    {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    static class Connection
+    {
+        private final TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        private final TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        Connection(SizeLimitTlsClient client, SizeLimitTlsServer server) throws IOException
+        {
+            clientProtocol.connect(client);
+            serverProtocol.accept(server);
+
+            boolean hadData = true;
+            while (hadData)
+            {
+                hadData = pump(clientProtocol, serverProtocol, null) | pump(serverProtocol, clientProtocol, null);
+            }
+        }
+
+        int sendFromClient(int length) throws IOException
+        {
+            return max(send(clientProtocol, serverProtocol, length));
+        }
+
+        int sendFromServer(int length) throws IOException
+        {
+            return max(send(serverProtocol, clientProtocol, length));
+        }
+
+        int[] sendFromServerRecords(int length) throws IOException
+        {
+            return send(serverProtocol, clientProtocol, length);
+        }
+
+        private static int max(int[] recordSizes)
+        {
+            int max = 0;
+            for (int i = 0; i < recordSizes.length; ++i)
+            {
+                max = Math.max(max, recordSizes[i]);
+            }
+            return max;
+        }
+
+        private static int[] send(TlsProtocol from, TlsProtocol to, int length) throws IOException
+        {
+            byte[] data = createData(length);
+            from.writeApplicationData(data, 0, data.length);
+
+            int[][] recordSizes = new int[1][];
+            pump(from, to, recordSizes);
+
+            byte[] received = new byte[length];
+            assertEquals(length, to.getAvailableInputBytes());
+            to.readInput(received, 0, length);
+            assertTrue(Arrays.areEqual(data, received));
+
+            return recordSizes[0];
+        }
+
+        private static boolean pump(TlsProtocol from, TlsProtocol to, int[][] recordSizes) throws IOException
+        {
+            int byteCount = from.getAvailableOutputBytes();
+            if (byteCount == 0)
+            {
+                return false;
+            }
+
+            byte[] buffer = new byte[byteCount];
+            from.readOutput(buffer, 0, buffer.length);
+
+            if (null != recordSizes)
+            {
+                int[] sizes = new int[0];
+                for (int pos = 0; pos < buffer.length;)
+                {
+                    assertEquals(ContentType.application_data, TlsUtils.readUint8(buffer, pos));
+                    int fragmentLength = TlsUtils.readUint16(buffer, pos + 3);
+                    sizes = Arrays.append(sizes, fragmentLength);
+                    pos += 5 + fragmentLength;
+                }
+                recordSizes[0] = sizes;
+            }
+
+            to.offerInput(buffer);
+            return true;
+        }
+    }
+
+    static class SizeLimitTlsClient
+        extends MockTlsClient
+    {
+        private final ProtocolVersion version;
+        private final int recordSizeLimit;
+
+        SizeLimitTlsClient(ProtocolVersion version, int recordSizeLimit)
+        {
+            super(null);
+
+            this.version = version;
+            this.recordSizeLimit = recordSizeLimit;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public int getRecordSizeLimit()
+        {
+            return recordSizeLimit;
+        }
+    }
+
+    static class SizeLimitTlsServer
+        extends MockTlsServer
+    {
+        private final ProtocolVersion version;
+        private final int recordSizeLimit;
+
+        TlsRecordSizePolicy recordSizePolicy = null;
+
+        SizeLimitTlsServer(ProtocolVersion version, int recordSizeLimit)
+        {
+            this.version = version;
+            this.recordSizeLimit = recordSizeLimit;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return version.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            if (TlsUtils.isTLSv13(context))
+            {
+                return getRSASignerCredentials();
+            }
+            return super.getCredentials();
+        }
+
+        public int getRecordSizeLimit()
+        {
+            return recordSizeLimit;
+        }
+
+        public TlsRecordSizePolicy getRecordSizePolicy()
+        {
+            return recordSizePolicy;
+        }
+    }
+
+    static class TestRecordSizePolicy
+        extends DefaultTlsRecordSizePolicy
+    {
+        long now = 1L;
+
+        TestRecordSizePolicy(int initialRecordSize, long boostThreshold, int idleMillis)
+        {
+            super(initialRecordSize, boostThreshold, idleMillis);
+        }
+
+        protected long currentTimeMillis()
+        {
+            return now;
+        }
+    }
+}
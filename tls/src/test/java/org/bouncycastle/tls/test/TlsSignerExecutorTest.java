@@ -0,0 +1,235 @@
+package org.bouncycastle.tls.test;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import org.bouncycastle.tls.CertificateRequest;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsClientProtocol;
+import org.bouncycastle.tls.TlsCredentials;
+import org.bouncycastle.tls.TlsProtocol;
+import org.bouncycastle.tls.TlsServerProtocol;
+import org.bouncycastle.tls.TlsSignerExecutor;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.util.Arrays;
+
+public class TlsSignerExecutorTest
+    extends TestCase
+{
+    public void testQueuedSigning() throws IOException
+    {
+        QueueSignerExecutor executor = new QueueSignerExecutor();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(new SignerExecutorTlsClient());
+        serverProtocol.accept(new SignerExecutorTlsServer(executor));
+
+        pumpAll(clientProtocol, serverProtocol);
+
+        // The server is waiting for its CertificateVerify signature
+        assertTrue(serverProtocol.isHandshakeSuspended());
+        assertTrue(clientProtocol.isHandshaking());
+        assertEquals(1, executor.tasks.size());
+
+        try
+        {
+            serverProtocol.resumeHandshake();
+            fail("resumeHandshake() should fail before the signing task has run");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+
+        executor.runAll();
+        serverProtocol.resumeHandshake();
+        assertFalse(serverProtocol.isHandshakeSuspended());
+
+        pumpAll(clientProtocol, serverProtocol);
+
+        assertFalse(clientProtocol.isHandshaking());
+        assertFalse(serverProtocol.isHandshaking());
+
+        checkApplicationData(clientProtocol, serverProtocol);
+        checkApplicationData(serverProtocol, clientProtocol);
+    }
+
+    public void testBatchedSigning() throws IOException
+    {
+        QueueSignerExecutor executor = new QueueSignerExecutor();
+
+        int count = 4;
+        TlsClientProtocol[] clientProtocols = new TlsClientProtocol[count];
+        TlsServerProtocol[] serverProtocols = new TlsServerProtocol[count];
+
+        for (int i = 0; i < count; ++i)
+        {
+            clientProtocols[i] = new TlsClientProtocol();
+            serverProtocols[i] = new TlsServerProtocol();
+
+            clientProtocols[i].connect(new SignerExecutorTlsClient());
+            serverProtocols[i].accept(new SignerExecutorTlsServer(executor));
+
+            pumpAll(clientProtocols[i], serverProtocols[i]);
+            assertTrue(serverProtocols[i].isHandshakeSuspended());
+        }
+
+        assertEquals(count, executor.tasks.size());
+        executor.runAll();
+
+        for (int i = 0; i < count; ++i)
+        {
+            serverProtocols[i].resumeHandshake();
+            pumpAll(clientProtocols[i], serverProtocols[i]);
+
+            assertFalse(clientProtocols[i].isHandshaking());
+            checkApplicationData(clientProtocols[i], serverProtocols[i]);
+        }
+    }
+
+    public void testImmediateSigning() throws IOException
+    {
+        TlsSignerExecutor executor = new TlsSignerExecutor()
+        {
+            public void execute(Runnable signingTask)
+            {
+                signingTask.run();
+            }
+        };
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol();
+        TlsServerProtocol serverProtocol = new TlsServerProtocol();
+
+        clientProtocol.connect(new SignerExecutorTlsClient());
+        serverProtocol.accept(new SignerExecutorTlsServer(executor));
+
+        pumpAll(clientProtocol, serverProtocol);
+
+        assertFalse(serverProtocol.isHandshakeSuspended());
+        assertFalse(clientProtocol.isHandshaking());
+        assertFalse(serverProtocol.isHandshaking());
+
+        checkApplicationData(clientProtocol, serverProtocol);
+    }
+
+    private static void checkApplicationData(TlsProtocol from, TlsProtocol to) throws IOException
+    {
+        byte[] data = new byte[100];
+        new SecureRandom().nextBytes(data);
+
+        from.writeApplicationData(data, 0, data.length);
+        pump(from, to);
+
+        byte[] received = new byte[data.length];
+        assertEquals(data.length, to.getAvailableInputBytes());
+        to.readInput(received, 0, received.length);
+        assertTrue(Arrays.areEqual(data, received));
+    }
+
+    private static void pumpAll(TlsProtocol clientProtocol, TlsProtocol serverProtocol) throws IOException
+    {
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pump(clientProtocol, serverProtocol) | pump(serverProtocol, clientProtocol);
+        }
+    }
+
+    private static boolean pump(TlsProtocol from, TlsProtocol to) throws IOException
+    {
+        int byteCount = from.getAvailableOutputBytes();
+        if (byteCount == 0)
+        {
+            return false;
+        }
+
+        byte[] buffer = new byte[byteCount];
+        from.readOutput(buffer, 0, buffer.length);
+        to.offerInput(buffer);
+        return true;
+    }
+
+    static class QueueSignerExecutor
+        implements TlsSignerExecutor
+    {
+        final Vector tasks = new Vector();
+
+        public void execute(Runnable signingTask)
+        {
+            tasks.addElement(signingTask);
+        }
+
+        void runAll()
+        {
+            for (int i = 0; i < tasks.size(); ++i)
+            {
+                ((Runnable)tasks.elementAt(i)).run();
+            }
+            tasks.removeAllElements();
+        }
+    }
+
+    static class SignerExecutorTlsClient
+        extends MockTlsClient
+    {
+        SignerExecutorTlsClient()
+        {
+            super(null);
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return ProtocolVersion.TLSv13.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256 };
+        }
+    }
+
+    static class SignerExecutorTlsServer
+        extends MockTlsServer
+    {
+        private final TlsSignerExecutor signerExecutor;
+
+        SignerExecutorTlsServer(TlsSignerExecutor signerExecutor)
+        {
+            this.signerExecutor = signerExecutor;
+        }
+
+        protected ProtocolVersion[] getSupportedVersions()
+        {
+            return ProtocolVersion.TLSv13.only();
+        }
+
+        protected int[] getSupportedCipherSuites()
+        {
+            return new int[]{ CipherSuite.TLS_AES_128_GCM_SHA256 };
+        }
+
+        public CertificateRequest getCertificateRequest() throws IOException
+        {
+            return null;
+        }
+
+        public TlsCredentials getCredentials() throws IOException
+        {
+            if (TlsUtils.isTLSv13(context))
+            {
+                return getRSASignerCredentials();
+            }
+            return super.getCredentials();
+        }
+
+        public TlsSignerExecutor getSignerExecutor()
+        {
+            return signerExecutor;
+        }
+    }
+}